@@ -0,0 +1,71 @@
+package com.frp.benchmark;
+
+import com.frp.common.codec.FrpFrameEncoder;
+import com.frp.common.protocol.FrpFrame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * 基准测试共用的数据构造与清理
+ */
+public final class BenchmarkData {
+  // 类似HTTP报文的文本，夹杂随机字节，压缩率接近真实流量而不是全0的极端情况
+  private static final byte[] TEXT = ("GET /api/v1/items?page=1&size=20 HTTP/1.1\r\nHost: example.com\r\n"
+      + "User-Agent: frp-benchmark\r\nAccept: application/json\r\nConnection: keep-alive\r\n\r\n")
+      .getBytes(StandardCharsets.US_ASCII);
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * 构造指定长度的payload（固定种子，多次运行内容一致）
+   */
+  public static ByteBuf payload(ByteBufAllocator alloc, int size) {
+    SplittableRandom random = new SplittableRandom(42);
+    ByteBuf buf = alloc.buffer(size);
+    while (buf.writerIndex() < size) {
+      int chunk = Math.min(TEXT.length, size - buf.writerIndex());
+      buf.writeBytes(TEXT, 0, chunk);
+      if (buf.writerIndex() < size) {
+        buf.writeByte(random.nextInt(256));
+      }
+    }
+    return buf;
+  }
+
+  /**
+   * 用FrpFrameEncoder把帧编码为一段连续字节（用于构造解码端的输入）
+   */
+  static ByteBuf encode(FrpFrame frame) {
+    EmbeddedChannel channel = new EmbeddedChannel(new FrpFrameEncoder());
+    channel.writeOutbound(frame);
+    ByteBuf out = Unpooled.directBuffer();
+    ByteBuf part;
+    while ((part = channel.readOutbound()) != null) {
+      out.writeBytes(part);
+      part.release();
+    }
+    channel.finishAndReleaseAll();
+    return out;
+  }
+
+  /**
+   * 取出并释放EmbeddedChannel写出的全部消息，记录字节数防止被JIT消除
+   */
+  static void drainOutbound(EmbeddedChannel channel, Blackhole bh) {
+    Object msg;
+    while ((msg = channel.readOutbound()) != null) {
+      if (msg instanceof ByteBuf) {
+        bh.consume(((ByteBuf) msg).readableBytes());
+      }
+      ReferenceCountUtil.release(msg);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.frp.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口：在JMH命令行参数的基础上固定开启GC profiler（输出gc.alloc.rate / gc.alloc.rate.norm，
+ * 即每秒分配字节数和每次操作分配字节数），未指定-rf时结果另存为jmh-result.json，便于跨版本对比
+ * 用法：java -jar benchmarks/target/benchmarks.jar [JMH参数，如 FrameCodec -p payloadSize=1024]
+ */
+public class BenchmarkMain {
+  private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() || cmd.shouldListProfilers()
+        || cmd.shouldListResultFormats()) {
+      // 帮助、列表等非运行类参数交给JMH原生入口处理
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+    ChainedOptionsBuilder builder = new OptionsBuilder()
+        .parent(cmd)
+        .addProfiler(GCProfiler.class);
+    if (!cmd.getResultFormat().hasValue()) {
+      builder.resultFormat(ResultFormatType.JSON).result(DEFAULT_RESULT_FILE);
+    }
+    new Runner(builder.build()).run();
+  }
+}
@@ -0,0 +1,78 @@
+package com.frp.benchmark;
+
+import com.frp.common.codec.ControlFrameCodec;
+import com.frp.common.protocol.CompressionType;
+import com.frp.common.protocol.ControlMessage;
+import com.frp.common.protocol.RegisterRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 控制指令编解码基准：RegisterRequest的序列化/反序列化，对比二进制格式与JSON调试格式
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ControlCodecBenchmark {
+  @Param({"binary", "json"})
+  public String codec;
+
+  private final ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+  private RegisterRequest request;
+  private ByteBuf encoded;
+
+  @Setup
+  public void setup() {
+    ControlFrameCodec.setJsonEnabled("json".equals(codec));
+    request = new RegisterRequest();
+    request.setProxyId("web-8080");
+    request.setProxyType("tcp");
+    request.setLocalIp("127.0.0.1");
+    request.setLocalPort(8080);
+    request.setRemotePort(18080);
+    request.setAuthToken("abc123");
+    request.setRunId("5f0c6a1e-7d3b-4a8e-9c2f-1b6d8e4a7c90");
+    request.setWriteBufferLowWaterMark(32 * 1024);
+    request.setWriteBufferHighWaterMark(64 * 1024);
+    request.setFlushBytes(16 * 1024);
+    request.setFlushDelayMicros(1000);
+    request.setCompression(CompressionType.SNAPPY);
+    encoded = ControlFrameCodec.encode(alloc, request);
+  }
+
+  @TearDown
+  public void tearDown() {
+    encoded.release();
+    ControlFrameCodec.setJsonEnabled(false);
+  }
+
+  @Benchmark
+  public int serialize() {
+    ByteBuf buf = ControlFrameCodec.encode(alloc, request);
+    int length = buf.readableBytes();
+    buf.release();
+    return length;
+  }
+
+  @Benchmark
+  public ControlMessage deserialize() {
+    return ControlFrameCodec.decode(encoded);
+  }
+}
@@ -0,0 +1,133 @@
+package com.frp.benchmark;
+
+import com.frp.common.codec.ControlFrameCodec;
+import com.frp.common.codec.FrpFrameDecoder;
+import com.frp.common.codec.FrpFrameEncoder;
+import com.frp.common.codec.PayloadCompressor;
+import com.frp.common.metrics.MetricsRegistry;
+import com.frp.common.protocol.CompressionType;
+import com.frp.common.protocol.FrameType;
+import com.frp.common.protocol.FrpFrame;
+import com.frp.common.protocol.RegisterRequest;
+import com.frp.common.transport.EventLoopResources;
+import com.frp.common.transport.SocketOptions;
+import com.frp.common.transport.TransportType;
+import com.frp.server.handler.RemoteProxyHandler;
+import com.frp.server.handler.ServerControlHandler;
+import com.frp.server.manager.Proxy;
+import com.frp.server.manager.ProxyManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端转发全路径基准：控制连接和公网连接都是EmbeddedChannel，管道与FrpServer/ProxyManager中的一致
+ *   clientToPublic：已编码的DATA帧字节 -> FrpFrameDecoder -> ServerControlHandler -> 公网连接的写合并器
+ *   publicToClient：公网连接读到的数据 -> RemoteProxyHandler -> FrpFrameEncoder -> 控制连接
+ * 每次操作包含一次读突发结束时的flush；代理通过真实的注册请求创建（会绑定一个空闲的本地端口作为公网端口）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ForwardBenchmark {
+  private static final String AUTH_TOKEN = "benchmark";
+  private static final String PROXY_ID = "forward-benchmark";
+
+  @Param({"64", "1024", "16384"})
+  public int payloadSize;
+
+  @Param({"NONE", "SNAPPY"})
+  public CompressionType compression;
+
+  private EventLoopResources resources;
+  private EmbeddedChannel controlChannel;
+  private EmbeddedChannel publicChannel;
+  private ByteBuf payload; // 公网用户发来的原始数据
+  private ByteBuf encodedData; // 客户端发来的一个已编码DATA帧
+
+  @Setup
+  public void setup() throws IOException {
+    // 注册代理时需要绑定公网端口，使用单线程的NIO线程组
+    resources = new EventLoopResources(TransportType.NIO, "benchmark", 1, 1);
+    ProxyManager.INSTANCE.init(resources, new SocketOptions(), new MetricsRegistry("frps"));
+
+    controlChannel = new EmbeddedChannel(new FrpFrameDecoder(), new FrpFrameEncoder(),
+        new ServerControlHandler(AUTH_TOKEN));
+    controlChannel.writeInbound(BenchmarkData.encode(new FrpFrame(FrameType.CONTROL, (byte) 0, PROXY_ID,
+        ControlFrameCodec.encode(ByteBufAllocator.DEFAULT, registerRequest()))));
+    Proxy proxy = ProxyManager.INSTANCE.getProxy(PROXY_ID);
+    if (proxy == null) {
+      throw new IllegalStateException("代理注册失败");
+    }
+
+    // 公网连接建立：RemoteProxyHandler分配流ID并在控制连接上发出OPEN
+    publicChannel = new EmbeddedChannel(new RemoteProxyHandler(proxy));
+    int streamId = proxy.getStreamChannels().keySet().iterator().next();
+    controlChannel.releaseOutbound();
+
+    payload = BenchmarkData.payload(ByteBufAllocator.DEFAULT, payloadSize);
+    encodedData = BenchmarkData.encode(PayloadCompressor.dataFrame(ByteBufAllocator.DEFAULT, compression,
+        streamId, proxy.getHandle(), payload.retainedDuplicate()));
+  }
+
+  private RegisterRequest registerRequest() throws IOException {
+    RegisterRequest request = new RegisterRequest();
+    request.setProxyId(PROXY_ID);
+    request.setProxyType("tcp");
+    request.setLocalIp("127.0.0.1");
+    request.setLocalPort(8080);
+    request.setRemotePort(freePort());
+    request.setAuthToken(AUTH_TOKEN);
+    request.setRunId("benchmark-run");
+    request.setCompression(compression);
+    return request;
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    payload.release();
+    encodedData.release();
+    publicChannel.finishAndReleaseAll();
+    // 控制连接断开时ProxyManager移除代理并关闭公网端口监听
+    controlChannel.finishAndReleaseAll();
+    resources.shutdown();
+  }
+
+  @Benchmark
+  public void clientToPublic(Blackhole bh) {
+    controlChannel.writeInbound(encodedData.retainedDuplicate());
+    BenchmarkData.drainOutbound(publicChannel, bh);
+  }
+
+  @Benchmark
+  public void publicToClient(Blackhole bh) {
+    publicChannel.writeInbound(payload.retainedDuplicate());
+    BenchmarkData.drainOutbound(controlChannel, bh);
+  }
+}
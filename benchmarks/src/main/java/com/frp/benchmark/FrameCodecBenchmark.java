@@ -0,0 +1,86 @@
+package com.frp.benchmark;
+
+import com.frp.common.codec.FrpFrameDecoder;
+import com.frp.common.codec.FrpFrameEncoder;
+import com.frp.common.codec.PayloadCompressor;
+import com.frp.common.protocol.CompressionType;
+import com.frp.common.protocol.FrpFrame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧编解码基准：DATA帧经FrpFrameEncoder编码为[帧头][payload]、经FrpFrameDecoder从字节流还原为帧，
+ * 按payload大小和压缩算法分组（压缩的编码包含PayloadCompressor.dataFrame的压缩，解码包含解压）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class FrameCodecBenchmark {
+  private static final int STREAM_ID = 1;
+  private static final int HANDLE = 1;
+
+  @Param({"64", "1024", "16384", "262144"})
+  public int payloadSize;
+
+  @Param({"NONE", "SNAPPY", "DEFLATE"})
+  public CompressionType compression;
+
+  private EmbeddedChannel encoderChannel;
+  private EmbeddedChannel decoderChannel;
+  private ByteBuf payload; // 待编码的原始数据
+  private ByteBuf encoded; // 一个完整的已编码帧
+
+  @Setup
+  public void setup() {
+    encoderChannel = new EmbeddedChannel(new FrpFrameEncoder());
+    decoderChannel = new EmbeddedChannel(new FrpFrameDecoder());
+    payload = BenchmarkData.payload(ByteBufAllocator.DEFAULT, payloadSize);
+    encoded = BenchmarkData.encode(
+        PayloadCompressor.dataFrame(ByteBufAllocator.DEFAULT, compression, STREAM_ID, HANDLE, payload.retainedDuplicate()));
+  }
+
+  @TearDown
+  public void tearDown() {
+    payload.release();
+    encoded.release();
+    encoderChannel.finishAndReleaseAll();
+    decoderChannel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  public void encode(Blackhole bh) {
+    FrpFrame frame = PayloadCompressor.dataFrame(encoderChannel.alloc(), compression, STREAM_ID, HANDLE,
+        payload.retainedDuplicate());
+    encoderChannel.writeOutbound(frame);
+    BenchmarkData.drainOutbound(encoderChannel, bh);
+  }
+
+  @Benchmark
+  public void decode(Blackhole bh) {
+    decoderChannel.writeInbound(encoded.retainedDuplicate());
+    FrpFrame frame;
+    while ((frame = decoderChannel.readInbound()) != null) {
+      bh.consume(frame.getPayload().readableBytes());
+      frame.release();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.frp.benchmark.load;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * 直接内存采样：定时读取当前进程的直接内存占用并记录峰值
+ * Netty能自行计数时（无Cleaner模式）使用其计数，否则使用JDK的direct缓冲池统计（池化分配器的chunk也计入其中）
+ */
+public class DirectMemorySampler {
+  private static final long INTERVAL_MILLIS = 20;
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "direct-memory-sampler");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final BufferPoolMXBean directPool = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+      .filter(pool -> "direct".equals(pool.getName())).findFirst().orElse(null);
+  private volatile long peak;
+
+  /**
+   * 开始采样
+   * @param onNewPeak 峰值增长时回调（在采样线程上执行），可为null
+   */
+  public DirectMemorySampler start(LongConsumer onNewPeak) {
+    executor.scheduleAtFixedRate(() -> {
+      long used = currentUsage();
+      if (used > peak) {
+        peak = used;
+        if (onNewPeak != null) {
+          onNewPeak.accept(used);
+        }
+      }
+    }, 0, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  public long getPeak() {
+    return peak;
+  }
+
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  public long currentUsage() {
+    long nettyUsed = PlatformDependent.usedDirectMemory();
+    long jdkUsed = directPool != null ? directPool.getMemoryUsed() : 0;
+    return Math.max(nettyUsed, jdkUsed);
+  }
+}
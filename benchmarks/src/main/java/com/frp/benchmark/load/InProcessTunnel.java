@@ -0,0 +1,74 @@
+package com.frp.benchmark.load;
+
+import com.frp.client.boot.FrpClient;
+import com.frp.server.boot.FrpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 同一进程内的隧道：frps/frpc各自的线程组以"frps-"/"frpc-"为线程名前缀，CPU按这些线程的CPU时间统计，
+ * 不含压测端和后端；直接内存只能按整个进程统计
+ */
+@Slf4j
+class InProcessTunnel extends Tunnel {
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private final DirectMemorySampler directMemory;
+
+  InProcessTunnel(LoadTestConfig config) {
+    super(config);
+    this.directMemory = new DirectMemorySampler();
+  }
+
+  @Override
+  public void start() throws Exception {
+    directMemory.start(null);
+    Thread server = new Thread(() -> {
+      try {
+        new FrpServer(serverConfig(config)).start();
+      } catch (Exception e) {
+        log.error("frps运行失败", e);
+      }
+    }, "frps-main");
+    server.setDaemon(true);
+    server.start();
+    awaitPort(config.getControlPort(), 30_000);
+
+    FrpClient client = new FrpClient(clientConfig(config));
+    Thread clientThread = new Thread(client::start, "frpc-main");
+    clientThread.setDaemon(true);
+    clientThread.start();
+    awaitPort(config.getRemotePort(), 30_000);
+  }
+
+  @Override
+  public long cpuNanos() {
+    long total = 0;
+    for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+      if (info == null) {
+        continue;
+      }
+      String name = info.getThreadName();
+      if (name.startsWith("frps-") || name.startsWith("frpc-")) {
+        long cpu = threads.getThreadCpuTime(info.getThreadId());
+        if (cpu > 0) {
+          total += cpu;
+        }
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public long peakDirectMemory() {
+    return directMemory.getPeak();
+  }
+
+  // frpc在退出时由自己的shutdown hook关闭，frps随进程退出
+  @Override
+  public void close() {
+    directMemory.stop();
+  }
+}
@@ -0,0 +1,87 @@
+package com.frp.benchmark.load;
+
+/**
+ * 延迟直方图（纳秒）：对数-线性分桶，每个2的幂区间再等分为64格，相对误差不超过约1.6%，
+ * 固定约3.7K个桶覆盖到2^62纳秒，记录为一次数组自增，用于计算p50/p99/p999
+ * 记录与合并都加锁：每个压测IO线程使用自己的实例，锁无竞争
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int HALF = 1 << (SUB_BUCKET_BITS - 1); // 每个2的幂区间内的格数
+  private static final int BUCKETS = HALF * (64 - SUB_BUCKET_BITS + 2);
+
+  private final long[] counts = new long[BUCKETS];
+  private long totalCount;
+  private long sum;
+  private long max;
+
+  public synchronized void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts[index(value)]++;
+    totalCount++;
+    sum += value;
+    if (value > max) {
+      max = value;
+    }
+  }
+
+  public synchronized void merge(LatencyHistogram other) {
+    synchronized (other) {
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] += other.counts[i];
+      }
+      totalCount += other.totalCount;
+      sum += other.sum;
+      max = Math.max(max, other.max);
+    }
+  }
+
+  public synchronized long getCount() {
+    return totalCount;
+  }
+
+  public synchronized long getMax() {
+    return max;
+  }
+
+  public synchronized double getMean() {
+    return totalCount == 0 ? 0 : (double) sum / totalCount;
+  }
+
+  /**
+   * 百分位值（纳秒），取所在桶的上界，不超过记录到的最大值
+   * @param percentile 0~100，如99.9
+   */
+  public synchronized long percentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      cumulative += counts[i];
+      if (cumulative >= target) {
+        return Math.min(upperBound(i), max);
+      }
+    }
+    return max;
+  }
+
+  // 小于2*HALF的值每个值一格；更大的值按最高位所在区间分组，区间内取最高的SUB_BUCKET_BITS位
+  private static int index(long value) {
+    if (value < 2 * HALF) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    return HALF * shift + (int) (value >>> shift);
+  }
+
+  private static long upperBound(int index) {
+    if (index < 2 * HALF) {
+      return index;
+    }
+    int shift = index / HALF - 1;
+    long subBucket = index - (long) HALF * shift;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,254 @@
+package com.frp.benchmark.load;
+
+import com.frp.benchmark.BenchmarkData;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测端：向公网端口建立N个并发连接，每个连接串行地发请求、等完整响应，记录往返延迟
+ * rate=0时为闭环（收到响应立即发下一个）；rate>0时每个连接按固定间隔发请求，
+ * 延迟从"计划发送时间"算起，上一个请求超时未回造成的排队时间也计入延迟（避免协同遗漏）
+ */
+public class LoadDriver {
+  private final LoadTestConfig config;
+  private final EventLoopGroup group;
+  private final Class<? extends SocketChannel> channelClass;
+  private final ByteBuf payload; // 所有请求共用的请求数据（只读）
+  private final long intervalNanos; // 每个连接两次请求的计划间隔，0为闭环
+  private final List<Channel> channels = new ArrayList<>();
+  // 每个IO线程一个直方图，结束时合并
+  private final Queue<LatencyHistogram> histograms = new ConcurrentLinkedQueue<>();
+  private final FastThreadLocal<LatencyHistogram> localHistogram = new FastThreadLocal<LatencyHistogram>() {
+    @Override
+    protected LatencyHistogram initialValue() {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histograms.add(histogram);
+      return histogram;
+    }
+  };
+  private final LongAdder completedRequests = new LongAdder();
+  private final LongAdder transferredBytes = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private volatile boolean measuring;
+  private volatile boolean stopping;
+
+  public LoadDriver(LoadTestConfig config, EventLoopGroup group, Class<? extends SocketChannel> channelClass) {
+    this.config = config;
+    this.group = group;
+    this.channelClass = channelClass;
+    this.payload = Unpooled.unreleasableBuffer(
+        BenchmarkData.payload(ByteBufAllocator.DEFAULT, config.getRequestSize()).asReadOnly());
+    this.intervalNanos = config.getRate() > 0
+        ? TimeUnit.SECONDS.toNanos(1) * config.getConnections() / config.getRate() : 0;
+  }
+
+  /**
+   * 建立全部连接（同步等待），连接建立后立即开始发请求
+   * @return 建立成功的连接数
+   */
+  public int connect() throws InterruptedException {
+    Bootstrap bootstrap = new Bootstrap()
+        .group(group)
+        .channel(channelClass)
+        .option(ChannelOption.TCP_NODELAY, true)
+        .handler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel ch) {
+            if (config.isHttp()) {
+              ch.pipeline()
+                  .addLast(new HttpClientCodec())
+                  .addLast(new HttpObjectAggregator(Math.max(64 * 1024, config.getRequestSize())))
+                  .addLast(new HttpRequestLoop());
+            } else {
+              ch.pipeline().addLast(new EchoRequestLoop());
+            }
+          }
+        });
+    List<ChannelFuture> futures = new ArrayList<>(config.getConnections());
+    for (int i = 0; i < config.getConnections(); i++) {
+      futures.add(bootstrap.connect("127.0.0.1", config.getRemotePort()));
+    }
+    for (ChannelFuture future : futures) {
+      future.await();
+      if (future.isSuccess()) {
+        channels.add(future.channel());
+      } else {
+        errors.increment();
+      }
+    }
+    return channels.size();
+  }
+
+  // 开始/结束计入结果（预热期间的请求不计）
+  public void setMeasuring(boolean measuring) {
+    this.measuring = measuring;
+  }
+
+  // 关闭全部连接并等待关闭完成
+  public void stop() {
+    stopping = true;
+    measuring = false;
+    channels.forEach(Channel::close);
+    channels.forEach(channel -> channel.closeFuture().awaitUninterruptibly());
+  }
+
+  public LatencyHistogram mergedLatency() {
+    LatencyHistogram merged = new LatencyHistogram();
+    histograms.forEach(merged::merge);
+    return merged;
+  }
+
+  public long getCompletedRequests() {
+    return completedRequests.sum();
+  }
+
+  public long getTransferredBytes() {
+    return transferredBytes.sum();
+  }
+
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  /**
+   * 单个连接上的请求循环：发请求 -> 收齐响应 -> 记录延迟 -> 按节奏发下一个
+   */
+  private abstract class RequestLoop extends ChannelInboundHandlerAdapter {
+    private long startNanos; // 当前请求的计划发送时间
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+      if (intervalNanos == 0) {
+        send(ctx, System.nanoTime());
+      } else {
+        // 随机错开各连接的第一个请求，避免所有连接同时发送
+        long delay = ThreadLocalRandom.current().nextLong(intervalNanos);
+        long start = System.nanoTime() + delay;
+        ctx.executor().schedule(() -> send(ctx, start), delay, TimeUnit.NANOSECONDS);
+      }
+      ctx.fireChannelActive();
+    }
+
+    private void send(ChannelHandlerContext ctx, long plannedNanos) {
+      if (!ctx.channel().isActive()) {
+        return;
+      }
+      startNanos = plannedNanos;
+      ctx.writeAndFlush(newRequest(), ctx.voidPromise());
+    }
+
+    protected abstract Object newRequest();
+
+    // 收齐一个完整响应
+    protected void complete(ChannelHandlerContext ctx) {
+      long now = System.nanoTime();
+      if (measuring) {
+        localHistogram.get().record(now - startNanos);
+        completedRequests.increment();
+        transferredBytes.add(2L * config.getRequestSize());
+      }
+      if (intervalNanos == 0) {
+        send(ctx, now);
+        return;
+      }
+      long next = startNanos + intervalNanos;
+      if (next <= now) {
+        send(ctx, next); // 已落后于计划，立即发送，排队时间计入下一个请求的延迟
+      } else {
+        ctx.executor().schedule(() -> send(ctx, next), next - now, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      if (!stopping) {
+        errors.increment(); // 隧道中途断开
+      }
+      ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      ctx.close();
+    }
+  }
+
+  // echo：收到与请求等长的字节即为一个完整响应
+  private class EchoRequestLoop extends RequestLoop {
+    private int received;
+
+    @Override
+    protected Object newRequest() {
+      return payload.duplicate();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      ByteBuf buf = (ByteBuf) msg;
+      received += buf.readableBytes();
+      buf.release();
+      while (received >= config.getRequestSize()) {
+        received -= config.getRequestSize();
+        complete(ctx);
+      }
+    }
+  }
+
+  // http：每个请求POST请求体，等待完整的响应
+  private class HttpRequestLoop extends RequestLoop {
+    @Override
+    protected Object newRequest() {
+      FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/echo",
+          payload.duplicate());
+      request.headers()
+          .set(HttpHeaderNames.HOST, "127.0.0.1:" + config.getRemotePort())
+          .setInt(HttpHeaderNames.CONTENT_LENGTH, config.getRequestSize())
+          .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+      return request;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      try {
+        if (msg instanceof FullHttpResponse && ((FullHttpResponse) msg).status().equals(HttpResponseStatus.OK)) {
+          complete(ctx);
+        } else {
+          errors.increment();
+          ctx.close();
+        }
+      } finally {
+        ReferenceCountUtil.release(msg);
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.frp.benchmark.load;
+
+import com.frp.common.transport.TransportType;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 隧道端到端压测：本机启动压测后端、frps、frpc（同进程或独立进程），经真实的公网端口监听和frpc内网连接转发，
+ * 输出吞吐、往返延迟分位数、每GB流量消耗的CPU和直接内存峰值
+ * 用法：java -cp benchmarks/target/benchmarks.jar com.frp.benchmark.load.LoadGenerator [key=value...]
+ *   例：connections=1000 requestSize=4096 rate=20000 duration=60 mode=process backend=http
+ */
+public class LoadGenerator {
+  private static final double GB = 1024.0 * 1024 * 1024;
+
+  public static void main(String[] args) throws Exception {
+    LoadTestConfig config = LoadTestConfig.parse(args);
+    TransportType transport = TransportType.resolve(config.getTransport());
+    int driverThreads = config.getDriverThreads() > 0
+        ? config.getDriverThreads() : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    EventLoopGroup backendGroup = transport.newEventLoopGroup(driverThreads, new DefaultThreadFactory("load-backend"));
+    EventLoopGroup driverGroup = transport.newEventLoopGroup(driverThreads, new DefaultThreadFactory("load-driver"));
+    LoadBackend backend = new LoadBackend();
+    Tunnel tunnel = Tunnel.create(config);
+    int exitCode = 0;
+    try {
+      backend.start(backendGroup, transport.serverChannelClass(), config);
+      tunnel.start();
+      LoadDriver driver = new LoadDriver(config, driverGroup, transport.socketChannelClass());
+      int connected = driver.connect();
+      System.out.printf("已建立%d/%d个连接，预热%d秒...%n", connected, config.getConnections(), config.getWarmupSeconds());
+      TimeUnit.SECONDS.sleep(config.getWarmupSeconds());
+
+      long tunnelCpuStart = tunnel.cpuNanos();
+      long processCpuStart = processCpuNanos();
+      long startNanos = System.nanoTime();
+      driver.setMeasuring(true);
+      TimeUnit.SECONDS.sleep(config.getDurationSeconds());
+      driver.setMeasuring(false);
+      long elapsedNanos = System.nanoTime() - startNanos;
+      long tunnelCpu = tunnel.cpuNanos() - tunnelCpuStart;
+      long processCpu = processCpuNanos() - processCpuStart;
+
+      report(config, connected, driver, elapsedNanos, tunnelCpu, processCpu, tunnel.peakDirectMemory());
+      if (driver.getErrors() > 0 || driver.getCompletedRequests() == 0) {
+        exitCode = 1;
+      }
+      driver.stop();
+    } finally {
+      tunnel.close();
+      backend.stop();
+      driverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+      backendGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+    // 同进程模式下frps没有停止接口，直接退出
+    System.exit(exitCode);
+  }
+
+  private static void report(LoadTestConfig config, int connected, LoadDriver driver, long elapsedNanos,
+                             long tunnelCpuNanos, long processCpuNanos, long peakDirectMemory) {
+    double seconds = elapsedNanos / 1e9;
+    long requests = driver.getCompletedRequests();
+    long bytes = driver.getTransferredBytes();
+    LatencyHistogram latency = driver.mergedLatency();
+    double tunnelCores = tunnelCpuNanos / 1e9 / seconds;
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("\n======== frp隧道压测结果 ========\n");
+    sb.append(String.format("模式=%s 后端=%s 传输=%s 压缩=%s 工作连接池=%d TLS=%s%n", config.getMode(), config.getBackend(),
+        config.getTransport(), config.getCompression(), config.getWorkConnPoolSize(),
+        config.isTls() ? "开（记录" + config.getTlsRecordSize() + "B）" : "关"));
+    sb.append(String.format("连接数=%d（成功%d） 请求大小=%dB 目标速率=%s 测量时长=%.1fs%n", config.getConnections(),
+        connected, config.getRequestSize(), config.getRate() > 0 ? config.getRate() + "/s" : "闭环", seconds));
+    sb.append(String.format("完成请求=%d 错误=%d%n", requests, driver.getErrors()));
+    sb.append(String.format("吞吐：%.0f 请求/s，%.2f MB/s（双向合计）%n", requests / seconds, bytes / seconds / 1024 / 1024));
+    sb.append(String.format("往返延迟：p50=%s p99=%s p999=%s max=%s mean=%s%n",
+        millis(latency.percentile(50)), millis(latency.percentile(99)), millis(latency.percentile(99.9)),
+        millis(latency.getMax()), millis((long) latency.getMean())));
+    sb.append(String.format("隧道CPU（frps+frpc）：%.2f核，每GB %.2f CPU秒，每核%.0f个连接%n", tunnelCores,
+        bytes > 0 ? tunnelCpuNanos / 1e9 / (bytes / GB) : 0, tunnelCores > 0 ? connected / tunnelCores : 0));
+    if (!config.isSeparateProcess()) {
+      sb.append(String.format("进程CPU（含压测端与后端）：%.2f核%n", processCpuNanos / 1e9 / seconds));
+    }
+    sb.append(String.format("直接内存峰值%s：%s%n", config.isSeparateProcess() ? "（frps+frpc）" : "（整个进程）",
+        peakDirectMemory >= 0 ? String.format("%.1f MB", peakDirectMemory / 1024.0 / 1024) : "未知"));
+    System.out.println(sb);
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.3fms", nanos / 1e6);
+  }
+
+  private static long processCpuNanos() {
+    java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,124 @@
+package com.frp.benchmark.load;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 压测参数：命令行以 key=value 形式传入（如 connections=1000 requestSize=4096），未指定的项使用默认值
+ */
+@Data
+public class LoadTestConfig {
+  private String mode = "inprocess"; // inprocess：frps/frpc与压测端同一进程；process：frps/frpc各自独立进程
+  private String backend = "echo"; // 内网服务：echo（原样回显）/http（HTTP/1.1 keep-alive，响应体回显请求体）
+  private int connections = 100; // 并发公网连接数
+  private int requestSize = 1024; // 每个请求的字节数（http为请求体大小），响应大小相同
+  private int rate = 0; // 所有连接合计的目标请求速率（次/秒），0表示闭环压测：收到响应立即发下一个
+  private int warmupSeconds = 5; // 预热时长，期间的数据不计入结果
+  private int durationSeconds = 30; // 测量时长
+  private int driverThreads = 0; // 压测端IO线程数，0表示CPU核数的一半
+  // 隧道参数
+  private String transport = "auto";
+  private String compression = "none";
+  private int workConnPoolSize = 0;
+  private int serverWorkerThreads = 0;
+  private int clientWorkerThreads = 0;
+  // 隧道TLS：与明文对比吞吐和CPU，证书/私钥为PEM文件，未指定CA时把服务端证书本身作为信任的CA（自签名证书）
+  private boolean tls = false;
+  private String tlsCertFile;
+  private String tlsKeyFile;
+  private String tlsCaFile;
+  // frpc校验的服务端证书名（SNI及主机名校验），未指定时按127.0.0.1校验，证书须含IP:127.0.0.1的SAN
+  private String tlsServerName;
+  private int tlsRecordSize = 16 * 1024;
+  private String authToken = "load-test";
+  // 本机端口
+  private int controlPort = 17000;
+  private int remotePort = 18080;
+  private int backendPort = 19090;
+
+  public static LoadTestConfig parse(String[] args) {
+    Properties props = new Properties();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq <= 0) {
+        throw new IllegalArgumentException("参数格式应为key=value：" + arg);
+      }
+      props.setProperty(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+    }
+    return new LoadTestConfig().load(props);
+  }
+
+  public LoadTestConfig load(Properties props) {
+    mode = props.getProperty("mode", mode);
+    backend = props.getProperty("backend", backend);
+    connections = getInt(props, "connections", connections);
+    requestSize = getInt(props, "requestSize", requestSize);
+    rate = getInt(props, "rate", rate);
+    warmupSeconds = getInt(props, "warmup", warmupSeconds);
+    durationSeconds = getInt(props, "duration", durationSeconds);
+    driverThreads = getInt(props, "driverThreads", driverThreads);
+    transport = props.getProperty("transport", transport);
+    compression = props.getProperty("compression", compression);
+    workConnPoolSize = getInt(props, "workConnPoolSize", workConnPoolSize);
+    serverWorkerThreads = getInt(props, "serverWorkerThreads", serverWorkerThreads);
+    clientWorkerThreads = getInt(props, "clientWorkerThreads", clientWorkerThreads);
+    tls = Boolean.parseBoolean(props.getProperty("tls", String.valueOf(tls)));
+    tlsCertFile = props.getProperty("tlsCertFile", tlsCertFile);
+    tlsKeyFile = props.getProperty("tlsKeyFile", tlsKeyFile);
+    tlsCaFile = props.getProperty("tlsCaFile", tlsCaFile);
+    tlsServerName = props.getProperty("tlsServerName", tlsServerName);
+    tlsRecordSize = getInt(props, "tlsRecordSize", tlsRecordSize);
+    authToken = props.getProperty("authToken", authToken);
+    controlPort = getInt(props, "controlPort", controlPort);
+    remotePort = getInt(props, "remotePort", remotePort);
+    backendPort = getInt(props, "backendPort", backendPort);
+    if (connections <= 0 || requestSize <= 0 || durationSeconds <= 0) {
+      throw new IllegalArgumentException("connections、requestSize、duration必须大于0");
+    }
+    if (tls && (tlsCertFile == null || tlsKeyFile == null)) {
+      throw new IllegalArgumentException("tls=true时必须指定tlsCertFile和tlsKeyFile");
+    }
+    return this;
+  }
+
+  /**
+   * 转为命令行参数（启动独立的frps/frpc进程时原样传递）
+   */
+  public String[] toArgs() {
+    List<String> args = new ArrayList<>(List.of(
+        "transport=" + transport, "compression=" + compression, "workConnPoolSize=" + workConnPoolSize,
+        "serverWorkerThreads=" + serverWorkerThreads, "clientWorkerThreads=" + clientWorkerThreads,
+        "authToken=" + authToken, "controlPort=" + controlPort, "remotePort=" + remotePort,
+        "backendPort=" + backendPort));
+    if (tls) {
+      args.addAll(List.of("tls=true", "tlsCertFile=" + tlsCertFile, "tlsKeyFile=" + tlsKeyFile,
+          "tlsRecordSize=" + tlsRecordSize));
+      if (tlsCaFile != null) {
+        args.add("tlsCaFile=" + tlsCaFile);
+      }
+      if (tlsServerName != null) {
+        args.add("tlsServerName=" + tlsServerName);
+      }
+    }
+    return args.toArray(new String[0]);
+  }
+
+  public boolean isHttp() {
+    return "http".equalsIgnoreCase(backend);
+  }
+
+  public boolean isSeparateProcess() {
+    return "process".equalsIgnoreCase(mode);
+  }
+
+  private static int getInt(Properties props, String key, int defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return Integer.parseInt(value.trim());
+  }
+}
@@ -0,0 +1,100 @@
+package com.frp.benchmark.load;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 独立进程的隧道：frps和frpc分别运行在子JVM中（TunnelProcess），与压测端互不抢占堆和GC
+ * CPU取子进程的累计CPU时间；直接内存峰值由子进程采样后通过标准输出上报
+ */
+@Slf4j
+class ProcessTunnel extends Tunnel {
+  private final List<Process> processes = new ArrayList<>();
+  private final AtomicLong serverPeak = new AtomicLong(-1);
+  private final AtomicLong clientPeak = new AtomicLong(-1);
+
+  ProcessTunnel(LoadTestConfig config) {
+    super(config);
+  }
+
+  @Override
+  public void start() throws Exception {
+    launch(TunnelProcess.ROLE_SERVER, serverPeak);
+    awaitPort(config.getControlPort(), 30_000);
+    launch(TunnelProcess.ROLE_CLIENT, clientPeak);
+    awaitPort(config.getRemotePort(), 30_000);
+  }
+
+  // 以当前JVM的java命令和classpath启动子进程
+  private void launch(String role, AtomicLong peak) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(ProcessHandle.current().info().command().orElse("java"));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(TunnelProcess.class.getName());
+    command.add(role);
+    command.addAll(List.of(config.toArgs()));
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    processes.add(process);
+    Thread reader = new Thread(() -> readOutput(role, process, peak), "tunnel-" + role + "-output");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  // 解析子进程上报的直接内存峰值，其余输出（日志）原样转发
+  private static void readOutput(String role, Process process, AtomicLong peak) {
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(TunnelProcess.PEAK_DIRECT_MEMORY)) {
+          peak.accumulateAndGet(Long.parseLong(line.substring(TunnelProcess.PEAK_DIRECT_MEMORY.length())), Math::max);
+        } else {
+          System.err.println("[" + role + "] " + line);
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      log.debug("读取{}子进程输出结束：{}", role, e.getMessage());
+    }
+  }
+
+  @Override
+  public long cpuNanos() {
+    long total = 0;
+    for (Process process : processes) {
+      total += process.info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+    }
+    return total;
+  }
+
+  @Override
+  public long peakDirectMemory() {
+    if (serverPeak.get() < 0 || clientPeak.get() < 0) {
+      return -1;
+    }
+    return serverPeak.get() + clientPeak.get();
+  }
+
+  @Override
+  public void close() {
+    for (Process process : processes) {
+      process.destroy();
+    }
+    for (Process process : processes) {
+      try {
+        process.waitFor();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        process.destroyForcibly();
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.frp.benchmark.load;
+
+import com.frp.client.config.ClientConfig;
+import com.frp.client.config.ProxyConfig;
+import com.frp.common.transport.TlsOptions;
+import com.frp.server.config.ServerConfig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * 被测隧道：真实的FrpServer + FrpClient，一个代理把公网端口映射到压测后端
+ * 同一进程内启动（InProcessTunnel）或作为两个独立进程启动（ProcessTunnel）
+ */
+public abstract class Tunnel {
+  static final String PROXY_ID = "load-test";
+
+  protected final LoadTestConfig config;
+
+  protected Tunnel(LoadTestConfig config) {
+    this.config = config;
+  }
+
+  public static Tunnel create(LoadTestConfig config) {
+    return config.isSeparateProcess() ? new ProcessTunnel(config) : new InProcessTunnel(config);
+  }
+
+  /**
+   * 启动frps和frpc，直到公网端口可以连接（代理注册完成）才返回
+   */
+  public abstract void start() throws Exception;
+
+  /**
+   * 隧道（frps+frpc）累计消耗的CPU时间（纳秒）
+   */
+  public abstract long cpuNanos();
+
+  /**
+   * 隧道的直接内存峰值（字节），无法获取时返回-1
+   */
+  public abstract long peakDirectMemory();
+
+  public abstract void close();
+
+  static ServerConfig serverConfig(LoadTestConfig config) {
+    ServerConfig serverConfig = new ServerConfig();
+    serverConfig.setControlPort(config.getControlPort());
+    serverConfig.setAuthToken(config.getAuthToken());
+    serverConfig.setTransport(config.getTransport());
+    serverConfig.setWorkerThreads(config.getServerWorkerThreads());
+    if (config.isTls()) {
+      TlsOptions tls = serverConfig.getTls();
+      tls.setEnabled(true);
+      tls.setCertFile(config.getTlsCertFile());
+      tls.setKeyFile(config.getTlsKeyFile());
+      tls.setMaxRecordSize(config.getTlsRecordSize());
+    }
+    return serverConfig;
+  }
+
+  static ClientConfig clientConfig(LoadTestConfig config) {
+    ClientConfig clientConfig = new ClientConfig();
+    clientConfig.setServerHost("127.0.0.1");
+    clientConfig.setServerPort(config.getControlPort());
+    clientConfig.setAuthToken(config.getAuthToken());
+    clientConfig.setTransport(config.getTransport());
+    clientConfig.setWorkerThreads(config.getClientWorkerThreads());
+    clientConfig.setWorkConnPoolSize(config.getWorkConnPoolSize());
+    if (config.isTls()) {
+      TlsOptions tls = clientConfig.getTls();
+      tls.setEnabled(true);
+      tls.setTrustedCaFile(config.getTlsCaFile() != null ? config.getTlsCaFile() : config.getTlsCertFile());
+      tls.setServerName(config.getTlsServerName());
+      tls.setMaxRecordSize(config.getTlsRecordSize());
+    }
+    ProxyConfig proxy = new ProxyConfig();
+    proxy.setProxyId(PROXY_ID);
+    proxy.setLocalIp("127.0.0.1");
+    proxy.setLocalPort(config.getBackendPort());
+    proxy.setRemotePort(config.getRemotePort());
+    proxy.setCompression(config.getCompression());
+    clientConfig.getProxies().add(proxy);
+    return clientConfig;
+  }
+
+  /**
+   * 等待本机端口可以连接
+   */
+  protected static void awaitPort(int port, long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (true) {
+      try (Socket socket = new Socket()) {
+        socket.connect(new InetSocketAddress("127.0.0.1", port), 500);
+        return;
+      } catch (IOException e) {
+        if (System.currentTimeMillis() > deadline) {
+          throw new IllegalStateException("等待端口" + port + "超时", e);
+        }
+        Thread.sleep(100);
+      }
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.frp.benchmark.load;
+
+import com.frp.client.boot.FrpClient;
+import com.frp.server.boot.FrpServer;
+
+import java.util.Arrays;
+
+/**
+ * 独立进程模式下frps/frpc子进程的入口：TunnelProcess server|client key=value...
+ * 运行期间采样本进程的直接内存，峰值增长时输出一行"peakDirectMemory=字节数"供父进程解析
+ */
+public class TunnelProcess {
+  static final String ROLE_SERVER = "server";
+  static final String ROLE_CLIENT = "client";
+  static final String PEAK_DIRECT_MEMORY = "peakDirectMemory=";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0) {
+      System.err.println("用法：TunnelProcess server|client [key=value...]");
+      System.exit(1);
+    }
+    LoadTestConfig config = LoadTestConfig.parse(Arrays.copyOfRange(args, 1, args.length));
+    new DirectMemorySampler().start(peak -> System.out.println(PEAK_DIRECT_MEMORY + peak));
+    if (ROLE_SERVER.equals(args[0])) {
+      new FrpServer(Tunnel.serverConfig(config)).start();
+    } else {
+      new FrpClient(Tunnel.clientConfig(config)).start();
+    }
+  }
+}
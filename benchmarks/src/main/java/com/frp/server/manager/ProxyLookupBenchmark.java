@@ -0,0 +1,128 @@
+package com.frp.server.manager;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 代理查找与心跳路径基准：服务端上共有proxyCount个代理，按每个客户端proxiesPerClient个分布在多个会话中，
+ * 每次操作随机挑选一个代理，测量按句柄/按ID查找、按控制连接取会话、心跳记录活动和遍历客户端代理的开销
+ * 放在com.frp.server.manager包下，直接通过会话登记代理，不绑定公网端口（公网端口最多65535个，无法真实注册10万代理）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ProxyLookupBenchmark {
+  // 随机访问序列长度（2的幂），预先生成，避免在测量中调用随机数
+  private static final int ACCESS_PATTERN_SIZE = 1 << 14;
+
+  @Param({"1000", "10000", "100000"})
+  public int proxyCount;
+
+  @Param({"100", "1000"})
+  public int proxiesPerClient;
+
+  private Channel[] controlChannels;
+  // 第i次访问的目标：所在控制连接、代理句柄、代理ID
+  private Channel[] targetChannel;
+  private ClientSession[] targetSession;
+  private int[] targetHandle;
+  private String[] targetProxyId;
+  private int cursor;
+
+  @Setup
+  public void setup() {
+    int clientCount = (proxyCount + proxiesPerClient - 1) / proxiesPerClient;
+    controlChannels = new Channel[clientCount];
+    Proxy[] proxies = new Proxy[proxyCount];
+    for (int c = 0; c < clientCount; c++) {
+      Channel channel = new EmbeddedChannel();
+      controlChannels[c] = channel;
+      ClientSession session = ProxyManager.INSTANCE.openSession(channel, "client-" + c);
+      for (int i = c * proxiesPerClient; i < Math.min(proxyCount, (c + 1) * proxiesPerClient); i++) {
+        Proxy proxy = new Proxy();
+        proxy.setProxyId("proxy-" + i);
+        proxy.setRunId(session.getRunId());
+        proxy.setClientChannel(channel);
+        proxy.setStatus(ProxyStatus.ACTIVE);
+        session.addProxy(proxy);
+        proxies[i] = proxy;
+      }
+    }
+    SplittableRandom random = new SplittableRandom(42);
+    targetChannel = new Channel[ACCESS_PATTERN_SIZE];
+    targetSession = new ClientSession[ACCESS_PATTERN_SIZE];
+    targetHandle = new int[ACCESS_PATTERN_SIZE];
+    targetProxyId = new String[ACCESS_PATTERN_SIZE];
+    for (int i = 0; i < ACCESS_PATTERN_SIZE; i++) {
+      Proxy proxy = proxies[random.nextInt(proxyCount)];
+      targetChannel[i] = proxy.getClientChannel();
+      targetSession[i] = ClientSession.of(proxy.getClientChannel());
+      targetHandle[i] = proxy.getHandle();
+      targetProxyId[i] = proxy.getProxyId();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    for (Channel channel : controlChannels) {
+      channel.close();
+    }
+  }
+
+  private int next() {
+    return cursor++ & (ACCESS_PATTERN_SIZE - 1);
+  }
+
+  // 流相关帧的路由：控制处理器持有会话，按帧头中的句柄查找代理
+  @Benchmark
+  public Proxy lookupByHandle() {
+    int i = next();
+    return targetSession[i].getProxy(targetHandle[i]);
+  }
+
+  // 控制指令（如注销代理）的路由：在会话内按代理ID查找
+  @Benchmark
+  public Proxy lookupById() {
+    int i = next();
+    return targetSession[i].getProxy(targetProxyId[i]);
+  }
+
+  // 注册时按控制连接取已有会话
+  @Benchmark
+  public ClientSession openExistingSession() {
+    int i = next();
+    return ProxyManager.INSTANCE.openSession(targetChannel[i], null);
+  }
+
+  // 收到心跳：在时间轮上记录活动
+  @Benchmark
+  public void heartbeat() {
+    targetSession[next()].updateLastActiveTime();
+  }
+
+  // 控制连接可写性变化：遍历该客户端全部代理中分配在该连接上的公网连接
+  @Benchmark
+  public void forEachStreamOfTunnel(Blackhole bh) {
+    int i = next();
+    ProxyManager.INSTANCE.forEachStreamOfTunnel(targetSession[i], targetChannel[i], bh::consume);
+  }
+}
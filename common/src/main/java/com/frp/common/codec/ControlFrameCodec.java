@@ -1,27 +1,398 @@
 package com.frp.common.codec;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.frp.common.protocol.CloseProxy;
+import com.frp.common.protocol.CompressionType;
+import com.frp.common.protocol.ControlMessage;
+import com.frp.common.protocol.ControlType;
+import com.frp.common.protocol.Heartbeat;
+import com.frp.common.protocol.NewStripeConn;
+import com.frp.common.protocol.NewWorkConn;
+import com.frp.common.protocol.RegisterBatchRequest;
+import com.frp.common.protocol.RegisterBatchResponse;
+import com.frp.common.protocol.RegisterRequest;
+import com.frp.common.protocol.RegisterResponse;
+import com.frp.common.protocol.ResumeSession;
+import com.frp.common.protocol.ResumeSessionResponse;
+import com.frp.common.protocol.SessionAck;
+import com.frp.common.protocol.StartWorkConn;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DecoderException;
 import lombok.SneakyThrows;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * 控制帧编解码器：将控制指令对象喝JSON字节数组互转
+ * 控制帧编解码器：控制指令对象与CONTROL帧payload互转
+ * 默认使用二进制格式：[版本1][操作码1][按类型固定顺序的字段]
+ *   int为4字节大端，long为8字节大端，boolean为1字节，String为2字节长度（0xFFFF表示null）+UTF-8字节
+ * JSON格式保留用于调试（setJsonEnabled开启后发送JSON）；解码时根据首字节'{'自动识别，两种格式可混用
  */
 public class ControlFrameCodec {
+  // 二进制格式版本号，字段布局变化时递增；解码端拒绝高于自身的版本，按版本兼容解析旧客户端
+  // 2：代理注册字段增加flushBytes、flushDelayMicros
+  // 3：代理注册字段及注册结果增加compression（1字节）
+  // 4：注册结果增加handle（服务端分配的代理句柄）
+  // 5：代理注册字段增加customDomains、locations
+  // 6：代理注册字段增加bandwidthLimit、bandwidthBurst（8字节）
+  public static final byte VERSION = 0x06;
+  private static final int NULL_STRING = 0xFFFF;
   private static final ObjectMapper objectMapper = new ObjectMapper();
+  // 心跳没有字段，二进制编码固定，所有连接共享同一缓冲区
+  private static final ByteBuf HEARTBEAT_BINARY = Unpooled.unreleasableBuffer(
+      Unpooled.wrappedBuffer(new byte[]{VERSION, ControlType.HEARTBEAT.getValue()}));
 
-  // 控制指令对象序列化为JSON字节数组
-  public static byte[] serialize(Object obj) throws JsonProcessingException{
-    return objectMapper.writeValueAsBytes(obj);
+  private static volatile boolean jsonEnabled = false;
+
+  // 是否以JSON格式发送控制指令（调试用）
+  public static void setJsonEnabled(boolean enabled) {
+    jsonEnabled = enabled;
+  }
+
+  /**
+   * 控制指令编码为CONTROL帧payload
+   */
+  @SneakyThrows(IOException.class)
+  public static ByteBuf encode(ByteBufAllocator alloc, ControlMessage msg) {
+    if (jsonEnabled) {
+      return Unpooled.wrappedBuffer(objectMapper.writeValueAsBytes(msg));
+    }
+    if (msg instanceof Heartbeat) {
+      return HEARTBEAT_BINARY.duplicate();
+    }
+    ByteBuf buf = alloc.buffer(64);
+    buf.writeByte(VERSION);
+    buf.writeByte(msg.getType().getValue());
+    switch (msg.getType()) {
+      case REGISTER:
+        RegisterRequest register = (RegisterRequest) msg;
+        writeProxy(buf, register);
+        writeString(buf, register.getAuthToken());
+        writeString(buf, register.getRunId());
+        break;
+      case REGISTER_RESP:
+        writeResult(buf, (RegisterResponse) msg);
+        break;
+      case REGISTER_BATCH:
+        RegisterBatchRequest batch = (RegisterBatchRequest) msg;
+        writeString(buf, batch.getAuthToken());
+        writeString(buf, batch.getRunId());
+        buf.writeInt(batch.getProxies().size());
+        for (RegisterRequest proxy : batch.getProxies()) {
+          writeProxy(buf, proxy);
+        }
+        break;
+      case REGISTER_BATCH_RESP:
+        RegisterBatchResponse batchResponse = (RegisterBatchResponse) msg;
+        buf.writeInt(batchResponse.getResults().size());
+        for (RegisterResponse result : batchResponse.getResults()) {
+          writeResult(buf, result);
+        }
+        break;
+      case CLOSE_PROXY:
+        writeString(buf, ((CloseProxy) msg).getProxyId());
+        break;
+      case NEW_WORK_CONN:
+        NewWorkConn newWorkConn = (NewWorkConn) msg;
+        writeString(buf, newWorkConn.getRunId());
+        writeString(buf, newWorkConn.getAuthToken());
+        break;
+      case NEW_STRIPE_CONN:
+        NewStripeConn newStripeConn = (NewStripeConn) msg;
+        writeString(buf, newStripeConn.getRunId());
+        writeString(buf, newStripeConn.getAuthToken());
+        break;
+      case START_WORK_CONN:
+        StartWorkConn startWorkConn = (StartWorkConn) msg;
+        writeString(buf, startWorkConn.getProxyId());
+        buf.writeInt(startWorkConn.getStreamId());
+        break;
+      case RESUME_SESSION:
+        ResumeSession resume = (ResumeSession) msg;
+        writeString(buf, resume.getRunId());
+        writeString(buf, resume.getAuthToken());
+        buf.writeLong(resume.getReceived());
+        break;
+      case RESUME_SESSION_RESP:
+        ResumeSessionResponse resumeResponse = (ResumeSessionResponse) msg;
+        buf.writeBoolean(resumeResponse.isSuccess());
+        writeString(buf, resumeResponse.getMessage());
+        buf.writeLong(resumeResponse.getReceived());
+        break;
+      case SESSION_ACK:
+        buf.writeLong(((SessionAck) msg).getReceived());
+        break;
+      default:
+        break;
+    }
+    return buf;
   }
 
-  // JSON字节数组反序列化为控制指令对象
+  /**
+   * 直接从帧的ByteBuf解码控制指令（只解析一次）；读取duplicate，不改变原缓冲区的读索引
+   */
+  public static ControlMessage decode(ByteBuf payload) {
+    ByteBuf data = payload.duplicate();
+    if (!data.isReadable()) {
+      throw new DecoderException("控制帧payload为空");
+    }
+    if (data.getByte(data.readerIndex()) == '{') {
+      return decodeJson(data);
+    }
+    byte version = data.readByte();
+    if (version > VERSION || version <= 0) {
+      throw new DecoderException("不支持的控制协议版本：" + version);
+    }
+    byte opcode = data.readByte();
+    ControlType type = ControlType.fromValue(opcode);
+    if (type == null) {
+      throw new DecoderException("未知控制指令操作码：" + opcode);
+    }
+    switch (type) {
+      case REGISTER:
+        RegisterRequest register = readProxy(data, version);
+        register.setAuthToken(readString(data));
+        register.setRunId(readString(data));
+        return register;
+      case REGISTER_RESP:
+        return readResult(data, version);
+      case REGISTER_BATCH:
+        RegisterBatchRequest batch = new RegisterBatchRequest();
+        batch.setAuthToken(readString(data));
+        batch.setRunId(readString(data));
+        int proxyCount = readCount(data);
+        for (int i = 0; i < proxyCount; i++) {
+          batch.getProxies().add(readProxy(data, version));
+        }
+        return batch;
+      case REGISTER_BATCH_RESP:
+        RegisterBatchResponse batchResponse = new RegisterBatchResponse();
+        int resultCount = readCount(data);
+        for (int i = 0; i < resultCount; i++) {
+          batchResponse.getResults().add(readResult(data, version));
+        }
+        return batchResponse;
+      case HEARTBEAT:
+        return new Heartbeat();
+      case CLOSE_PROXY:
+        CloseProxy closeProxy = new CloseProxy();
+        closeProxy.setProxyId(readString(data));
+        return closeProxy;
+      case NEW_WORK_CONN:
+        NewWorkConn newWorkConn = new NewWorkConn();
+        newWorkConn.setRunId(readString(data));
+        newWorkConn.setAuthToken(readString(data));
+        return newWorkConn;
+      case NEW_STRIPE_CONN:
+        NewStripeConn newStripeConn = new NewStripeConn();
+        newStripeConn.setRunId(readString(data));
+        newStripeConn.setAuthToken(readString(data));
+        return newStripeConn;
+      case START_WORK_CONN:
+        StartWorkConn startWorkConn = new StartWorkConn();
+        startWorkConn.setProxyId(readString(data));
+        startWorkConn.setStreamId(data.readInt());
+        return startWorkConn;
+      case RESUME_SESSION:
+        ResumeSession resume = new ResumeSession();
+        resume.setRunId(readString(data));
+        resume.setAuthToken(readString(data));
+        resume.setReceived(data.readLong());
+        return resume;
+      case RESUME_SESSION_RESP:
+        ResumeSessionResponse resumeResponse = new ResumeSessionResponse();
+        resumeResponse.setSuccess(data.readBoolean());
+        resumeResponse.setMessage(readString(data));
+        resumeResponse.setReceived(data.readLong());
+        return resumeResponse;
+      case SESSION_ACK:
+        SessionAck ack = new SessionAck();
+        ack.setReceived(data.readLong());
+        return ack;
+      default:
+        throw new DecoderException("未知控制指令：" + type);
+    }
+  }
+
+  // JSON格式：先读type字段确定类型，再从同一棵树转换为实体，不重复解析
   @SneakyThrows(IOException.class)
-  public static <T> T deserialize(byte[] data, Class<T> clazz){
-    return objectMapper.readValue(data, clazz);
+  private static ControlMessage decodeJson(ByteBuf data) {
+    InputStream in = new ByteBufInputStream(data);
+    JsonNode tree = objectMapper.readTree(in);
+    JsonNode typeNode = tree.get("type");
+    if (typeNode == null) {
+      throw new DecoderException("JSON控制指令缺少type字段");
+    }
+    ControlType type = ControlType.valueOf(typeNode.asText());
+    return objectMapper.treeToValue(tree, messageClass(type));
+  }
+
+  private static Class<? extends ControlMessage> messageClass(ControlType type) {
+    switch (type) {
+      case REGISTER:
+        return RegisterRequest.class;
+      case REGISTER_RESP:
+        return RegisterResponse.class;
+      case REGISTER_BATCH:
+        return RegisterBatchRequest.class;
+      case REGISTER_BATCH_RESP:
+        return RegisterBatchResponse.class;
+      case HEARTBEAT:
+        return Heartbeat.class;
+      case CLOSE_PROXY:
+        return CloseProxy.class;
+      case NEW_WORK_CONN:
+        return NewWorkConn.class;
+      case NEW_STRIPE_CONN:
+        return NewStripeConn.class;
+      case START_WORK_CONN:
+        return StartWorkConn.class;
+      case RESUME_SESSION:
+        return ResumeSession.class;
+      case RESUME_SESSION_RESP:
+        return ResumeSessionResponse.class;
+      case SESSION_ACK:
+        return SessionAck.class;
+      default:
+        throw new DecoderException("未知控制指令：" + type);
+    }
+  }
+
+  // 单个代理的注册字段（单个注册与批量注册共用）
+  private static void writeProxy(ByteBuf buf, RegisterRequest proxy) {
+    writeString(buf, proxy.getProxyId());
+    writeString(buf, proxy.getProxyType());
+    writeString(buf, proxy.getLocalIp());
+    buf.writeInt(proxy.getLocalPort());
+    buf.writeInt(proxy.getRemotePort());
+    buf.writeInt(proxy.getWriteBufferLowWaterMark());
+    buf.writeInt(proxy.getWriteBufferHighWaterMark());
+    buf.writeInt(proxy.getFlushBytes());
+    buf.writeInt(proxy.getFlushDelayMicros());
+    buf.writeByte(compressionValue(proxy.getCompression()));
+    writeStrings(buf, proxy.getCustomDomains());
+    writeStrings(buf, proxy.getLocations());
+    buf.writeLong(proxy.getBandwidthLimit());
+    buf.writeLong(proxy.getBandwidthBurst());
+  }
+
+  private static RegisterRequest readProxy(ByteBuf buf, byte version) {
+    RegisterRequest proxy = new RegisterRequest();
+    proxy.setProxyId(readString(buf));
+    proxy.setProxyType(readString(buf));
+    proxy.setLocalIp(readString(buf));
+    proxy.setLocalPort(buf.readInt());
+    proxy.setRemotePort(buf.readInt());
+    proxy.setWriteBufferLowWaterMark(buf.readInt());
+    proxy.setWriteBufferHighWaterMark(buf.readInt());
+    if (version >= 2) {
+      proxy.setFlushBytes(buf.readInt());
+      proxy.setFlushDelayMicros(buf.readInt());
+    }
+    if (version >= 3) {
+      proxy.setCompression(readCompression(buf));
+    }
+    if (version >= 5) {
+      proxy.setCustomDomains(readStrings(buf));
+      proxy.setLocations(readStrings(buf));
+    }
+    if (version >= 6) {
+      proxy.setBandwidthLimit(buf.readLong());
+      proxy.setBandwidthBurst(buf.readLong());
+    }
+    return proxy;
+  }
+
+  private static void writeResult(ByteBuf buf, RegisterResponse result) {
+    writeString(buf, result.getProxyId());
+    buf.writeBoolean(result.isSuccess());
+    writeString(buf, result.getMessage());
+    buf.writeByte(compressionValue(result.getCompression()));
+    buf.writeInt(result.getHandle());
+  }
+
+  private static RegisterResponse readResult(ByteBuf buf, byte version) {
+    RegisterResponse result = new RegisterResponse();
+    result.setProxyId(readString(buf));
+    result.setSuccess(buf.readBoolean());
+    result.setMessage(readString(buf));
+    if (version >= 3) {
+      result.setCompression(readCompression(buf));
+    }
+    if (version >= 4) {
+      result.setHandle(buf.readInt());
+    }
+    return result;
+  }
+
+  private static byte compressionValue(CompressionType compression) {
+    return compression != null ? compression.getValue() : CompressionType.NONE.getValue();
+  }
+
+  // 不认识的压缩算法按NONE处理（协商降级）
+  private static CompressionType readCompression(ByteBuf buf) {
+    CompressionType compression = CompressionType.fromValue(buf.readByte());
+    return compression != null ? compression : CompressionType.NONE;
+  }
+
+  // 列表长度：不可能超过剩余字节数，防止伪造长度导致大量分配
+  private static int readCount(ByteBuf buf) {
+    int count = buf.readInt();
+    if (count < 0 || count > buf.readableBytes()) {
+      throw new DecoderException("非法的列表长度：" + count);
+    }
+    return count;
+  }
+
+  private static void writeString(ByteBuf buf, String value) {
+    if (value == null) {
+      buf.writeShort(NULL_STRING);
+      return;
+    }
+    int lengthIndex = buf.writerIndex();
+    buf.writeShort(0);
+    int length = ByteBufUtil.writeUtf8(buf, value);
+    if (length >= NULL_STRING) {
+      throw new IllegalArgumentException("控制指令字符串过长：" + length + "字节");
+    }
+    buf.setShort(lengthIndex, length);
+  }
+
+  // 字符串列表：[数量4][String...]，null按空列表发送
+  private static void writeStrings(ByteBuf buf, List<String> values) {
+    if (values == null) {
+      buf.writeInt(0);
+      return;
+    }
+    buf.writeInt(values.size());
+    for (String value : values) {
+      writeString(buf, value);
+    }
+  }
+
+  private static List<String> readStrings(ByteBuf buf) {
+    int count = readCount(buf);
+    List<String> values = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      values.add(readString(buf));
+    }
+    return values;
+  }
+
+  private static String readString(ByteBuf buf) {
+    int length = buf.readUnsignedShort();
+    if (length == NULL_STRING) {
+      return null;
+    }
+    return buf.readCharSequence(length, StandardCharsets.UTF_8).toString();
   }
 }
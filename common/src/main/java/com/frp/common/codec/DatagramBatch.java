@@ -0,0 +1,62 @@
+package com.frp.common.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.util.function.Consumer;
+
+/**
+ * UDP代理的数据报打包：一个DATA帧的payload携带同一会话的多个数据报，格式为[长度2][数据报]...
+ * 发送方在一次读突发内把收到的数据报追加到同一个批次，读结束时作为一个帧发出，
+ * 避免每个小数据报各占一个帧、一次flush；接收方按长度拆回原始数据报逐个发出
+ */
+public final class DatagramBatch {
+  // 单个数据报的长度上限（IPv4 UDP最大负载）
+  public static final int MAX_DATAGRAM_LENGTH = 65507;
+  // 批次达到该长度即发出，不再等读突发结束
+  public static final int MAX_BATCH_LENGTH = 64 * 1024;
+  private static final int LENGTH_FIELD = 2;
+  private static final int INITIAL_BATCH_CAPACITY = 2048;
+
+  private DatagramBatch() {
+  }
+
+  // 新批次：按需扩容，最多MAX_BATCH_LENGTH（调用方在放不下时先发出当前批次）
+  public static ByteBuf newBatch(ByteBufAllocator alloc) {
+    return alloc.directBuffer(INITIAL_BATCH_CAPACITY, MAX_BATCH_LENGTH);
+  }
+
+  // 批次中还能否再放入一个该长度的数据报（不超过批次上限）
+  public static boolean fits(ByteBuf batch, int datagramLength) {
+    return batch.readableBytes() + LENGTH_FIELD + datagramLength <= MAX_BATCH_LENGTH;
+  }
+
+  /**
+   * 把数据报追加到批次末尾，不改变datagram的读索引
+   */
+  public static void append(ByteBuf batch, ByteBuf datagram) {
+    int length = datagram.readableBytes();
+    if (length > MAX_DATAGRAM_LENGTH) {
+      throw new IllegalArgumentException("数据报过长：" + length);
+    }
+    batch.writeShort(length);
+    batch.writeBytes(datagram, datagram.readerIndex(), length);
+  }
+
+  /**
+   * 拆分批次：按顺序把每个数据报（retain后的切片，所有权交给consumer）交给consumer，消费完整个批次
+   */
+  public static void split(ByteBuf batch, Consumer<ByteBuf> consumer) {
+    while (batch.isReadable()) {
+      if (batch.readableBytes() < LENGTH_FIELD) {
+        throw new CorruptedFrameException("数据报批次长度不完整");
+      }
+      int length = batch.readUnsignedShort();
+      if (length > batch.readableBytes()) {
+        throw new CorruptedFrameException("数据报长度越界：" + length);
+      }
+      consumer.accept(batch.readRetainedSlice(length));
+    }
+  }
+}
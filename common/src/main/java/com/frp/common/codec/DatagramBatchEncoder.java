@@ -0,0 +1,22 @@
+package com.frp.common.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * 已connect的UDP连接上的出站拆包：写入的ByteBuf是一个数据报批次，拆成多个数据报依次发出（flush时一起写出）
+ * 空缓冲区原样透传（用于"写完已排队数据后关闭"）
+ */
+public class DatagramBatchEncoder extends MessageToMessageEncoder<ByteBuf> {
+  @Override
+  protected void encode(ChannelHandlerContext ctx, ByteBuf batch, List<Object> out) {
+    if (!batch.isReadable()) {
+      out.add(batch.retain());
+      return;
+    }
+    DatagramBatch.split(batch, out::add);
+  }
+}
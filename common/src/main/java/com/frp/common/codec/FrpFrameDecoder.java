@@ -1,36 +1,47 @@
 package com.frp.common.codec;
 
+import com.frp.common.protocol.CompressionType;
 import com.frp.common.protocol.FrameType;
 import com.frp.common.protocol.FrpFrame;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
 
-import java.awt.*;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  * @author Zhidong Zhang
- */ // 解决TCP粘包/拆包问题，解析网络字节流为FrpFrame
-public class FrpFrameDecoder extends LengthFieldBasedFrameDecoder {
+ */ // 解决TCP粘包/拆包问题，解析网络字节流为FrpFrame（帧格式见FrpFrameEncoder）
+public class FrpFrameDecoder extends ByteToMessageDecoder {
   private static final int MAX_FRAME_LENGTH = 1024 * 1024;
-  private static final int LENGTH_FIELD_OFFSET = 0;
-  private static final int LENGTH_FIELD_LENGTH = 4;
-  private static final int LENGTH_ADJUSTMENT = 0;
-  private static final int INITIAL_BYTES_TO_STRIP = 4; // 解析时跳过长度字段
-
-  public FrpFrameDecoder() {
-    super(MAX_FRAME_LENGTH, LENGTH_FIELD_OFFSET, LENGTH_FIELD_LENGTH,
-        LENGTH_ADJUSTMENT, INITIAL_BYTES_TO_STRIP);
-  }
 
   @Override
-  protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
-    ByteBuf frame = (ByteBuf) super.decode(ctx, in); //通过LengthField解析完整帧
-    if (frame == null) {
-      return null;
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+    // 通过varint长度字段切分完整帧，数据不足时等待更多字节
+    int start = in.readerIndex();
+    int length = VarInt.readLength(in);
+    if (length < 0) {
+      return;
+    }
+    if (length > MAX_FRAME_LENGTH) {
+      throw new TooLongFrameException("帧长度超过上限：" + length);
+    }
+    if (in.readableBytes() < length) {
+      in.readerIndex(start);
+      return;
     }
+    // 帧切分时直接取累积缓冲区的retained slice，不拷贝
+    ByteBuf frame = in.readRetainedSlice(length);
+    FrpFrame decoded = decodeFrame(ctx, frame);
+    if (decoded != null) {
+      out.add(decoded);
+    }
+  }
 
+  private FrpFrame decodeFrame(ChannelHandlerContext ctx, ByteBuf frame) {
     try{
       // 1.读取1字节的帧类型
       byte typeValue = frame.readByte();
@@ -43,19 +54,46 @@ public class FrpFrameDecoder extends LengthFieldBasedFrameDecoder {
       // 2.读取保留字节
       byte reserverd = frame.readByte();
 
-      // 3.读取proxyId
-      int proxyIdLength = frame.readUnsignedByte();
-      byte[] proxyIdBytes = new byte[proxyIdLength];
-      frame.readBytes(proxyIdBytes);
-      String proxyId = new String(proxyIdBytes, StandardCharsets.UTF_8);
+      // 3.读取流ID
+      int streamId = VarInt.read(frame);
 
-      // 4.读取payload
-      byte[] payload = new byte[frame.readableBytes()];
-      frame.readBytes(payload);
+      // 4.读取代理句柄（流相关的帧）或proxyId（控制帧），句柄标志不向上层暴露
+      int handle = 0;
+      String proxyId = null;
+      if ((reserverd & FrpFrame.FLAG_HANDLE) != 0) {
+        handle = VarInt.read(frame);
+        reserverd &= ~FrpFrame.FLAG_HANDLE;
+      } else {
+        int proxyIdLength = frame.readUnsignedByte();
+        proxyId = frame.readCharSequence(proxyIdLength, StandardCharsets.UTF_8).toString();
+      }
+
+      // 5.payload为剩余部分的retained slice，不拷贝，由帧的最终使用者释放
+      ByteBuf payload = frame.readRetainedSlice(frame.readableBytes());
 
-      return new FrpFrame(type, reserverd, proxyId, payload);
+      // 6.压缩的DATA帧在此解压，并清除保留字节中的压缩标志，上层拿到的总是原始数据
+      CompressionType compression = CompressionType.fromFlags(reserverd);
+      if (type == FrameType.DATA && compression != CompressionType.NONE) {
+        try {
+          if (compression == null) {
+            throw new CorruptedFrameException("未知的压缩标志：" + reserverd);
+          }
+          ByteBuf raw = PayloadCompressor.decompress(ctx.alloc(), compression, payload);
+          reserverd &= ~CompressionType.FLAGS_MASK;
+          return newFrame(type, reserverd, streamId, handle, proxyId, raw);
+        } finally {
+          payload.release();
+        }
+      }
+      return newFrame(type, reserverd, streamId, handle, proxyId, payload);
     } finally {
       frame.release();
     }
   }
+
+  private static FrpFrame newFrame(FrameType type, byte reserved, int streamId, int handle, String proxyId,
+                                   ByteBuf payload) {
+    return handle != 0 ? new FrpFrame(type, reserved, streamId, handle, payload)
+        : new FrpFrame(type, reserved, streamId, proxyId, payload);
+  }
 }
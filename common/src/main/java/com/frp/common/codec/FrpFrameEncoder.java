@@ -2,37 +2,58 @@ package com.frp.common.codec;
 
 import com.frp.common.protocol.FrpFrame;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 
-import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 // 帧编码器：将FrpFrame对象序列化为字节流，即按协议格式打包
-public class FrpFrameEncoder extends MessageToByteEncoder<FrpFrame> {
+// 仅为帧头分配小缓冲区，payload以retain方式原样输出，由传输层做gathering write，不做拷贝
+// 帧格式：[长度varint][类型1][保留1][流IDvarint][代理句柄varint | proxyId长度1+proxyId][payload]
+//   保留字节带FLAG_HANDLE时为代理句柄，否则为proxyId；小DATA帧的帧头通常只有5~7字节
+public class FrpFrameEncoder extends MessageToMessageEncoder<FrpFrame> {
+  // 长度字段之后的固定头部：类型1 + 保留1
+  private static final int FIXED_HEADER_LENGTH = 2;
 
   @Override
-  protected void encode(ChannelHandlerContext ctx, FrpFrame msg, ByteBuf out) throws Exception {
-    // 计算总长度
-    byte[] proxyIdBytes = msg.getProxyId().getBytes(StandardCharsets.UTF_8);
-    int payloadLength = msg.getPayload()!=null?msg.getPayload().length:0;
-    int totalLength = 3 + proxyIdBytes.length + payloadLength;
-
+  protected void encode(ChannelHandlerContext ctx, FrpFrame msg, List<Object> out) throws Exception {
+    //1.计算总长度
+    int handle = msg.getHandle();
+    String proxyId = msg.getProxyId() != null ? msg.getProxyId() : "";
+    int proxyIdLength = handle != 0 ? 0 : ByteBufUtil.utf8Bytes(proxyId);
+    int idFieldLength = handle != 0 ? VarInt.size(handle) : 1 + proxyIdLength;
+    ByteBuf payload = msg.getPayload();
+    int payloadLength = payload.readableBytes();
+    int headerLength = FIXED_HEADER_LENGTH + VarInt.size(msg.getStreamId()) + idFieldLength;
+    int totalLength = headerLength + payloadLength;
+
+    ByteBuf header = ctx.alloc().ioBuffer(VarInt.size(totalLength) + headerLength);
     //2.写入长度字段
-    out.writeInt(totalLength);
+    VarInt.write(header, totalLength);
 
     //3.写入帧类型
-    out.writeBytes(proxyIdBytes);
+    header.writeByte(msg.getType().getValue());
+
+    //4.写入保留字段（携带句柄时置FLAG_HANDLE）
+    byte reserved = (byte) (msg.getReserved() & ~FrpFrame.FLAG_HANDLE);
+    header.writeByte(handle != 0 ? reserved | FrpFrame.FLAG_HANDLE : reserved);
 
-    //4.写入保留字段
-    out.writeByte(msg.getReserved());
+    //5.写入流ID
+    VarInt.write(header, msg.getStreamId());
 
-    //5.写入proxyId
-    out.writeByte(proxyIdBytes.length);
-    out.writeBytes(proxyIdBytes);
+    //6.写入代理句柄或proxyId
+    if (handle != 0) {
+      VarInt.write(header, handle);
+    } else {
+      header.writeByte(proxyIdLength);
+      ByteBufUtil.writeUtf8(header, proxyId);
+    }
+    out.add(header);
 
-    //6.写入payload
-    if(msg.getPayload()!=null && payloadLength > 0) {
-      out.writeBytes(msg.getPayload());
+    //7.写入payload（父类encode完成后会release帧本身，这里需retain一次交给下游）
+    if(payloadLength > 0) {
+      out.add(payload.retain());
     }
   }
 }
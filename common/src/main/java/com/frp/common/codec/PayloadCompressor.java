@@ -0,0 +1,180 @@
+package com.frp.common.codec;
+
+import com.frp.common.protocol.CompressionType;
+import com.frp.common.protocol.FrameType;
+import com.frp.common.protocol.FrpFrame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.compression.Snappy;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * DATA帧payload压缩：压缩后的payload为[原始长度4][压缩数据]，算法记录在帧保留字节的低2位
+ * Snappy的压缩数据按32KB分块（Netty的Snappy实现单块不能超过32KB），每块为[块长度2][Snappy块]
+ * 压缩在发送方读到数据的IO线程上进行，解压在帧解码时进行，对上层透明
+ * 太小或压缩收益不足1/8的数据块视为不可压缩，按原样发送
+ */
+public class PayloadCompressor {
+  // 小于该长度的数据块不尝试压缩
+  public static final int MIN_COMPRESS_LENGTH = 256;
+  // 解压后长度上限，防止伪造的原始长度导致大量分配
+  private static final int MAX_ORIGINAL_LENGTH = 1024 * 1024;
+  private static final int SNAPPY_CHUNK_LENGTH = Short.MAX_VALUE;
+
+  // zlib对象持有本地内存，按线程复用
+  private static final FastThreadLocal<Deflater> DEFLATER = new FastThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+  };
+  private static final FastThreadLocal<Inflater> INFLATER = new FastThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater(true);
+    }
+  };
+
+  /**
+   * 构造DATA帧：按协商的算法尝试压缩，压缩成功则payload替换为压缩数据（原缓冲区被释放）并设置标志
+   * @param data 读到的数据，所有权转交给返回的帧
+   */
+  public static FrpFrame dataFrame(ByteBufAllocator alloc, CompressionType compression,
+                                   int streamId, int handle, ByteBuf data) {
+    ByteBuf compressed = compress(alloc, compression, data);
+    if (compressed == null) {
+      return new FrpFrame(FrameType.DATA, (byte) 0, streamId, handle, data);
+    }
+    data.release();
+    return new FrpFrame(FrameType.DATA, compression.getValue(), streamId, handle, compressed);
+  }
+
+  /**
+   * 压缩数据块，不改变data的读索引
+   * @return 压缩后的缓冲区；未启用压缩或数据不可压缩时返回null
+   */
+  public static ByteBuf compress(ByteBufAllocator alloc, CompressionType compression, ByteBuf data) {
+    int length = data.readableBytes();
+    if (compression == null || compression == CompressionType.NONE || length < MIN_COMPRESS_LENGTH) {
+      return null;
+    }
+    // 至少节省1/8才值得对端解压
+    int limit = length - (length >>> 3);
+    ByteBuf out = alloc.buffer(limit);
+    boolean success = false;
+    try {
+      out.writeInt(length);
+      if (compression == CompressionType.SNAPPY) {
+        success = snappyEncode(data, out, limit);
+      } else {
+        success = deflate(data, out, limit);
+      }
+      return success ? out : null;
+    } finally {
+      if (!success) {
+        out.release();
+      }
+    }
+  }
+
+  private static boolean snappyEncode(ByteBuf data, ByteBuf out, int limit) {
+    Snappy snappy = new Snappy();
+    int offset = data.readerIndex();
+    int end = data.writerIndex();
+    while (offset < end) {
+      int chunk = Math.min(end - offset, SNAPPY_CHUNK_LENGTH);
+      int lengthIndex = out.writerIndex();
+      out.writeShort(0);
+      snappy.encode(data.slice(offset, chunk), out, chunk);
+      out.setShort(lengthIndex, out.writerIndex() - lengthIndex - 2);
+      snappy.reset();
+      offset += chunk;
+      if (out.readableBytes() >= limit) {
+        return false; // 不可压缩，提前放弃
+      }
+    }
+    return true;
+  }
+
+  private static boolean deflate(ByteBuf data, ByteBuf out, int limit) {
+    Deflater deflater = DEFLATER.get();
+    deflater.reset();
+    deflater.setInput(data.nioBuffer());
+    deflater.finish();
+    int writable = limit - out.writerIndex();
+    out.ensureWritable(writable);
+    ByteBuffer dst = out.nioBuffer(out.writerIndex(), writable);
+    int written = deflater.deflate(dst);
+    if (!deflater.finished()) {
+      return false; // 输出超过上限：不可压缩
+    }
+    out.writerIndex(out.writerIndex() + written);
+    return true;
+  }
+
+  /**
+   * 解压帧payload
+   * @return 解压后的缓冲区（调用方负责释放），payload本身不释放
+   */
+  public static ByteBuf decompress(ByteBufAllocator alloc, CompressionType compression, ByteBuf payload) {
+    int length = payload.getInt(payload.readerIndex());
+    if (length < 0 || length > MAX_ORIGINAL_LENGTH) {
+      throw new CorruptedFrameException("非法的原始数据长度：" + length);
+    }
+    ByteBuf compressed = payload.slice(payload.readerIndex() + 4, payload.readableBytes() - 4);
+    // 最大容量即原始长度，数据被篡改时写越界立即失败
+    ByteBuf out = alloc.buffer(length, length);
+    boolean success = false;
+    try {
+      if (compression == CompressionType.SNAPPY) {
+        snappyDecode(compressed, out);
+      } else if (compression == CompressionType.DEFLATE) {
+        inflate(compressed, out, length);
+      } else {
+        throw new CorruptedFrameException("未知的压缩算法");
+      }
+      if (out.readableBytes() != length) {
+        throw new CorruptedFrameException("解压后长度不符：" + out.readableBytes() + "/" + length);
+      }
+      success = true;
+      return out;
+    } catch (IndexOutOfBoundsException e) {
+      throw new CorruptedFrameException("压缩数据损坏", e);
+    } finally {
+      if (!success) {
+        out.release();
+      }
+    }
+  }
+
+  private static void snappyDecode(ByteBuf compressed, ByteBuf out) {
+    Snappy snappy = new Snappy();
+    while (compressed.isReadable()) {
+      int chunk = compressed.readUnsignedShort();
+      snappy.decode(compressed.readSlice(chunk), out);
+      snappy.reset();
+    }
+  }
+
+  private static void inflate(ByteBuf compressed, ByteBuf out, int length) {
+    Inflater inflater = INFLATER.get();
+    inflater.reset();
+    inflater.setInput(compressed.nioBuffer());
+    ByteBuffer dst = out.nioBuffer(out.writerIndex(), length);
+    try {
+      int written = inflater.inflate(dst);
+      if (!inflater.finished()) {
+        throw new CorruptedFrameException("压缩数据不完整");
+      }
+      out.writerIndex(out.writerIndex() + written);
+    } catch (DataFormatException e) {
+      throw new CorruptedFrameException("压缩数据损坏", e);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.frp.common.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * 无符号变长整数（同protobuf varint32）：每字节低7位为数据，最高位表示后面还有字节
+ * 小于128的值只占1字节，int最多占5字节
+ */
+final class VarInt {
+  static final int MAX_LENGTH = 5;
+
+  private VarInt() {
+  }
+
+  static int size(int value) {
+    if ((value & (~0 << 7)) == 0) {
+      return 1;
+    }
+    if ((value & (~0 << 14)) == 0) {
+      return 2;
+    }
+    if ((value & (~0 << 21)) == 0) {
+      return 3;
+    }
+    if ((value & (~0 << 28)) == 0) {
+      return 4;
+    }
+    return 5;
+  }
+
+  static void write(ByteBuf buf, int value) {
+    while ((value & ~0x7F) != 0) {
+      buf.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buf.writeByte(value);
+  }
+
+  /**
+   * 读取一个varint
+   * @return 读到的值；可读字节不足时返回-1且不移动读索引（长度字段专用，值不会为负）
+   */
+  static int readLength(ByteBuf buf) {
+    int start = buf.readerIndex();
+    int value = 0;
+    for (int i = 0; i < MAX_LENGTH; i++) {
+      if (!buf.isReadable()) {
+        buf.readerIndex(start);
+        return -1;
+      }
+      byte b = buf.readByte();
+      value |= (b & 0x7F) << (7 * i);
+      if (b >= 0) {
+        if (value < 0) {
+          throw new CorruptedFrameException("非法的帧长度：" + (value & 0xFFFFFFFFL));
+        }
+        return value;
+      }
+    }
+    throw new CorruptedFrameException("帧长度varint超过" + MAX_LENGTH + "字节");
+  }
+
+  // 从完整的帧中读取varint（字节不足说明帧已损坏）
+  static int read(ByteBuf buf) {
+    int value = 0;
+    for (int i = 0; i < MAX_LENGTH; i++) {
+      byte b = buf.readByte();
+      value |= (b & 0x7F) << (7 * i);
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new CorruptedFrameException("varint超过" + MAX_LENGTH + "字节");
+  }
+}
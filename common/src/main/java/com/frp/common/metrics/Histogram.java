@@ -0,0 +1,57 @@
+package com.frp.common.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定桶直方图：每个桶一个LongAdder，记录时无锁，多个IO线程并发写入互不竞争
+ * 桶边界为"小于等于"上界（与Prometheus的le一致），超过最大上界的值计入+Inf桶
+ */
+public class Histogram {
+  // 帧大小（字节）：64B ~ 1MB，按2的幂分桶
+  public static final long[] SIZE_BOUNDS = {
+      64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768, 65536, 131072, 262144, 524288, 1048576};
+  // 耗时（纳秒）：10µs ~ 1s
+  public static final long[] LATENCY_BOUNDS_NANOS = {
+      10_000, 50_000, 100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000,
+      10_000_000, 50_000_000, 100_000_000, 500_000_000, 1_000_000_000};
+
+  private final long[] bounds;
+  private final LongAdder[] buckets; // 非累积计数，最后一个为+Inf
+  private final LongAdder sum = new LongAdder();
+
+  public Histogram(long[] bounds) {
+    this.bounds = bounds;
+    this.buckets = new LongAdder[bounds.length + 1];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long value) {
+    int i = 0;
+    while (i < bounds.length && value > bounds[i]) {
+      i++;
+    }
+    buckets[i].increment();
+    sum.add(value);
+  }
+
+  long[] getBounds() {
+    return bounds;
+  }
+
+  // 各桶的累积计数快照（第i个为小于等于bounds[i]的次数，最后一个为总次数）
+  long[] cumulativeCounts() {
+    long[] counts = new long[buckets.length];
+    long total = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      total += buckets[i].sum();
+      counts[i] = total;
+    }
+    return counts;
+  }
+
+  long getSum() {
+    return sum.sum();
+  }
+}
@@ -0,0 +1,104 @@
+package com.frp.common.metrics;
+
+import com.frp.common.transport.EventLoopResources;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 内嵌的指标HTTP端点：GET /metrics 返回Prometheus文本格式，复用进程共享的线程组
+ */
+@Slf4j
+public class MetricsHttpServer {
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final MetricsRegistry registry;
+  private Channel serverChannel;
+
+  public MetricsHttpServer(MetricsRegistry registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * 绑定指标端口（同步等待绑定完成）
+   */
+  public void start(EventLoopResources resources, String host, int port) throws InterruptedException {
+    ServerBootstrap bootstrap = new ServerBootstrap();
+    // 客户端没有accept线程组，此时accept也由IO线程承担
+    bootstrap.group(resources.getBossGroup() != null ? resources.getBossGroup() : resources.getWorkerGroup(),
+            resources.getWorkerGroup())
+        .channel(resources.getTransport().serverChannelClass())
+        .childHandler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel ch) {
+            ch.pipeline()
+                .addLast(new HttpServerCodec())
+                .addLast(new HttpObjectAggregator(8192))
+                .addLast(new MetricsHandler());
+          }
+        });
+    serverChannel = bootstrap.bind(host, port).sync().channel();
+    log.info("指标端点已启动：http://{}:{}/metrics", host, port);
+  }
+
+  public void stop() {
+    if (serverChannel != null) {
+      serverChannel.close();
+    }
+  }
+
+  private class MetricsHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+      FullHttpResponse response;
+      String path = new QueryStringDecoder(request.uri()).path();
+      if (request.method() != HttpMethod.GET) {
+        response = textResponse(ctx, HttpResponseStatus.METHOD_NOT_ALLOWED, "method not allowed\n");
+      } else if ("/metrics".equals(path)) {
+        response = textResponse(ctx, HttpResponseStatus.OK, registry.scrape());
+      } else {
+        response = textResponse(ctx, HttpResponseStatus.NOT_FOUND, "not found\n");
+      }
+      boolean keepAlive = HttpUtil.isKeepAlive(request);
+      if (keepAlive) {
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        ctx.writeAndFlush(response);
+      } else {
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+      }
+    }
+
+    private FullHttpResponse textResponse(ChannelHandlerContext ctx, HttpResponseStatus status, String body) {
+      ByteBuf content = ByteBufUtil.writeUtf8(ctx.alloc(), body);
+      FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+      response.headers().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+      response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+      return response;
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      log.warn("指标请求处理异常：{}", cause.getMessage());
+      ctx.close();
+    }
+  }
+}
@@ -0,0 +1,339 @@
+package com.frp.common.metrics;
+
+import com.frp.common.util.TokenBucket;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 指标注册表：按"客户端/代理"维护ProxyMetrics，抓取时输出Prometheus文本格式（0.0.4）
+ * 记录指标只访问各自的ProxyMetrics，注册表本身只在代理创建/移除和抓取时访问
+ */
+public class MetricsRegistry {
+  private final String side; // frps/frpc，作为所有指标的side标签
+  private final Map<String, ProxyMetrics> proxies = new ConcurrentHashMap<>();
+  private final Histogram registerLatency = new Histogram(Histogram.LATENCY_BOUNDS_NANOS); // 代理注册耗时
+  private final LongAdder controlConnections = new LongAdder(); // 当前控制连接数
+  private final LongAdder sessionResumes = new LongAdder(); // 控制连接断开后成功恢复会话的次数
+  private final Histogram tlsHandshakeLatency = new Histogram(Histogram.LATENCY_BOUNDS_NANOS); // 隧道TLS握手耗时
+  private final LongAdder tlsHandshakeFailures = new LongAdder(); // 隧道TLS握手失败次数
+  private final LongAdder memoryShedConnections = new LongAdder(); // 因超过内存预算/配额被断开的公网连接数
+  // 内存预算的最近一次采样（服务端），未采样过（客户端、未启用）时不输出缓冲量指标
+  private volatile boolean memorySampled;
+  private volatile long memoryBudget; // 0表示不限制
+  private volatile long publicBufferedBytes; // 公网连接写缓冲合计
+  private volatile long tunnelBufferedBytes; // 隧道连接写缓冲合计
+  private volatile long replayBufferedBytes; // 会话恢复重放缓冲合计
+  private volatile long memoryPausedConnections; // 因内存超限暂停读取的公网连接数
+  // 限速令牌桶 -> 标签（按引用登记，TokenBucket未重写equals）
+  private final Map<TokenBucket, String> bandwidths = new ConcurrentHashMap<>();
+
+  public MetricsRegistry(String side) {
+    this.side = side;
+  }
+
+  /**
+   * 获取或创建代理指标（客户端重连后沿用同一组计数）
+   */
+  public ProxyMetrics proxy(String client, String proxyId) {
+    return proxies.computeIfAbsent(key(client, proxyId), k -> new ProxyMetrics(client, proxyId));
+  }
+
+  /**
+   * 创建新的代理指标，替换同名的旧指标（服务端每次注册成功都重新计数）
+   */
+  public ProxyMetrics register(String client, String proxyId) {
+    ProxyMetrics metrics = new ProxyMetrics(client, proxyId);
+    proxies.put(key(client, proxyId), metrics);
+    return metrics;
+  }
+
+  // 代理移除时注销（按引用，不会误删同名的新指标）
+  public void remove(ProxyMetrics metrics) {
+    if (metrics != null) {
+      proxies.remove(key(metrics.getClient(), metrics.getProxyId()), metrics);
+    }
+  }
+
+  /**
+   * 登记限速令牌桶：client和proxyId都为null时为全局桶，只有proxyId为null时为客户端桶
+   */
+  public void registerBandwidth(TokenBucket bucket, String client, String proxyId) {
+    StringBuilder labels = new StringBuilder("side=\"").append(side).append('"');
+    labels.append(",scope=\"").append(proxyId != null ? "proxy" : client != null ? "client" : "global").append('"');
+    if (client != null || proxyId != null) {
+      labels.append(",client=\"").append(escape(client)).append('"');
+    }
+    if (proxyId != null) {
+      labels.append(",proxy=\"").append(escape(proxyId)).append('"');
+    }
+    bandwidths.put(bucket, labels.toString());
+  }
+
+  public void removeBandwidth(TokenBucket bucket) {
+    if (bucket != null) {
+      bandwidths.remove(bucket);
+    }
+  }
+
+  public Histogram getRegisterLatency() {
+    return registerLatency;
+  }
+
+  public LongAdder getControlConnections() {
+    return controlConnections;
+  }
+
+  public LongAdder getSessionResumes() {
+    return sessionResumes;
+  }
+
+  public Histogram getTlsHandshakeLatency() {
+    return tlsHandshakeLatency;
+  }
+
+  public LongAdder getTlsHandshakeFailures() {
+    return tlsHandshakeFailures;
+  }
+
+  public LongAdder getMemoryShedConnections() {
+    return memoryShedConnections;
+  }
+
+  /**
+   * 记录内存预算的一次采样（采样线程调用）
+   */
+  public void recordMemoryUsage(long budget, long publicBytes, long tunnelBytes, long replayBytes,
+                                long pausedConnections) {
+    this.memoryBudget = budget;
+    this.publicBufferedBytes = publicBytes;
+    this.tunnelBufferedBytes = tunnelBytes;
+    this.replayBufferedBytes = replayBytes;
+    this.memoryPausedConnections = pausedConnections;
+    this.memorySampled = true;
+  }
+
+  private static String key(String client, String proxyId) {
+    return (client != null ? client : "") + '/' + proxyId;
+  }
+
+  /**
+   * 输出Prometheus文本格式的全部指标
+   */
+  public String scrape() {
+    List<ProxyMetrics> snapshot = new ArrayList<>(proxies.values());
+    snapshot.sort((a, b) -> key(a.getClient(), a.getProxyId()).compareTo(key(b.getClient(), b.getProxyId())));
+    StringBuilder sb = new StringBuilder(4096);
+
+    header(sb, "frp_proxy_bytes_total", "counter", "Bytes forwarded per proxy and direction");
+    directionCounter(sb, "frp_proxy_bytes_total", snapshot, m -> m.getInboundBytes().sum(), m -> m.getOutboundBytes().sum());
+    header(sb, "frp_proxy_frames_total", "counter", "Data frames/reads forwarded per proxy and direction");
+    directionCounter(sb, "frp_proxy_frames_total", snapshot, m -> m.getInboundFrames().sum(), m -> m.getOutboundFrames().sum());
+    header(sb, "frp_proxy_active_connections", "gauge", "Currently open user-side connections per proxy");
+    for (ProxyMetrics m : snapshot) {
+      sample(sb, "frp_proxy_active_connections", proxyLabels(m), m.getActiveConnections().sum());
+    }
+    if (memorySampled) {
+      header(sb, "frp_proxy_buffered_bytes", "gauge", "Bytes waiting in user-side connection write buffers per proxy");
+      for (ProxyMetrics m : snapshot) {
+        sample(sb, "frp_proxy_buffered_bytes", proxyLabels(m), m.getBufferedBytes());
+      }
+    }
+    header(sb, "frp_proxy_connections_total", "counter", "User-side connections accepted per proxy");
+    for (ProxyMetrics m : snapshot) {
+      sample(sb, "frp_proxy_connections_total", proxyLabels(m), m.getTotalConnections().sum());
+    }
+    header(sb, "frp_proxy_frame_size_bytes", "histogram", "Size of forwarded data frames");
+    for (ProxyMetrics m : snapshot) {
+      histogram(sb, "frp_proxy_frame_size_bytes", proxyLabels(m) + ",direction=\"inbound\"", m.getInboundFrameSize(), 1);
+      histogram(sb, "frp_proxy_frame_size_bytes", proxyLabels(m) + ",direction=\"outbound\"", m.getOutboundFrameSize(), 1);
+    }
+    header(sb, "frp_proxy_forward_latency_seconds", "histogram", "Time forwarded data waits before it is flushed to the socket");
+    for (ProxyMetrics m : snapshot) {
+      histogram(sb, "frp_proxy_forward_latency_seconds", proxyLabels(m) + ",direction=\"inbound\"", m.getInboundForwardLatency(), 1e-9);
+      histogram(sb, "frp_proxy_forward_latency_seconds", proxyLabels(m) + ",direction=\"outbound\"", m.getOutboundForwardLatency(), 1e-9);
+    }
+
+    // 客户端维度：按client汇总各代理
+    Map<String, long[]> clients = new TreeMap<>();
+    for (ProxyMetrics m : snapshot) {
+      long[] total = clients.computeIfAbsent(m.getClient(), c -> new long[6]);
+      total[0] += m.getInboundBytes().sum();
+      total[1] += m.getOutboundBytes().sum();
+      total[2] += m.getInboundFrames().sum();
+      total[3] += m.getOutboundFrames().sum();
+      total[4] += m.getActiveConnections().sum();
+      total[5] += m.getBufferedBytes();
+    }
+    header(sb, "frp_client_bytes_total", "counter", "Bytes forwarded per client and direction");
+    for (Map.Entry<String, long[]> e : clients.entrySet()) {
+      sample(sb, "frp_client_bytes_total", clientLabels(e.getKey()) + ",direction=\"inbound\"", e.getValue()[0]);
+      sample(sb, "frp_client_bytes_total", clientLabels(e.getKey()) + ",direction=\"outbound\"", e.getValue()[1]);
+    }
+    header(sb, "frp_client_frames_total", "counter", "Data frames forwarded per client and direction");
+    for (Map.Entry<String, long[]> e : clients.entrySet()) {
+      sample(sb, "frp_client_frames_total", clientLabels(e.getKey()) + ",direction=\"inbound\"", e.getValue()[2]);
+      sample(sb, "frp_client_frames_total", clientLabels(e.getKey()) + ",direction=\"outbound\"", e.getValue()[3]);
+    }
+    header(sb, "frp_client_active_connections", "gauge", "Currently open user-side connections per client");
+    for (Map.Entry<String, long[]> e : clients.entrySet()) {
+      sample(sb, "frp_client_active_connections", clientLabels(e.getKey()), e.getValue()[4]);
+    }
+    if (memorySampled) {
+      header(sb, "frp_client_buffered_bytes", "gauge", "Bytes waiting in user-side connection write buffers per client");
+      for (Map.Entry<String, long[]> e : clients.entrySet()) {
+        sample(sb, "frp_client_buffered_bytes", clientLabels(e.getKey()), e.getValue()[5]);
+      }
+    }
+
+    // 限速：各级令牌桶的配置、剩余令牌（透支时为负）、放行字节数和暂停次数
+    List<Map.Entry<TokenBucket, String>> buckets = new ArrayList<>(bandwidths.entrySet());
+    buckets.sort(Map.Entry.comparingByValue());
+    if (!buckets.isEmpty()) {
+      header(sb, "frp_bandwidth_limit_bytes", "gauge", "Configured bandwidth limit in bytes per second");
+      buckets.forEach(e -> sample(sb, "frp_bandwidth_limit_bytes", e.getValue(), e.getKey().getRate()));
+      header(sb, "frp_bandwidth_burst_bytes", "gauge", "Configured bandwidth burst in bytes");
+      buckets.forEach(e -> sample(sb, "frp_bandwidth_burst_bytes", e.getValue(), e.getKey().getBurst()));
+      header(sb, "frp_bandwidth_available_bytes", "gauge", "Tokens currently available, negative while over the limit");
+      buckets.forEach(e -> sample(sb, "frp_bandwidth_available_bytes", e.getValue(), e.getKey().available()));
+      header(sb, "frp_bandwidth_consumed_bytes_total", "counter", "Bytes passed through the bandwidth limiter");
+      buckets.forEach(e -> sample(sb, "frp_bandwidth_consumed_bytes_total", e.getValue(), e.getKey().getConsumedBytes()));
+      header(sb, "frp_bandwidth_throttled_total", "counter", "Times a connection was paused by the bandwidth limiter");
+      buckets.forEach(e -> sample(sb, "frp_bandwidth_throttled_total", e.getValue(), e.getKey().getThrottles()));
+    }
+
+    header(sb, "frp_control_connections", "gauge", "Currently open control connections");
+    sample(sb, "frp_control_connections", "side=\"" + side + "\"", controlConnections.sum());
+    header(sb, "frp_session_resumes_total", "counter", "Sessions resumed on a new control connection");
+    sample(sb, "frp_session_resumes_total", "side=\"" + side + "\"", sessionResumes.sum());
+    header(sb, "frp_register_latency_seconds", "histogram", "Proxy registration latency");
+    histogram(sb, "frp_register_latency_seconds", "side=\"" + side + "\"", registerLatency, 1e-9);
+    header(sb, "frp_tls_handshake_latency_seconds", "histogram", "Tunnel TLS handshake latency");
+    histogram(sb, "frp_tls_handshake_latency_seconds", "side=\"" + side + "\"", tlsHandshakeLatency, 1e-9);
+    header(sb, "frp_tls_handshake_failures_total", "counter", "Failed tunnel TLS handshakes");
+    sample(sb, "frp_tls_handshake_failures_total", "side=\"" + side + "\"", tlsHandshakeFailures.sum());
+    memory(sb);
+    allocator(sb);
+    return sb.toString();
+  }
+
+  // 内存预算：预算、各类写缓冲合计、暂停和断开的连接
+  private void memory(StringBuilder sb) {
+    if (!memorySampled) {
+      return;
+    }
+    String labels = "side=\"" + side + "\"";
+    header(sb, "frp_memory_budget_bytes", "gauge", "Configured budget for buffered data, 0 = unlimited");
+    sample(sb, "frp_memory_budget_bytes", labels, memoryBudget);
+    header(sb, "frp_memory_buffered_bytes", "gauge", "Bytes waiting in connection write buffers and replay buffers");
+    sample(sb, "frp_memory_buffered_bytes", labels + ",scope=\"public\"", publicBufferedBytes);
+    sample(sb, "frp_memory_buffered_bytes", labels + ",scope=\"tunnel\"", tunnelBufferedBytes);
+    sample(sb, "frp_memory_buffered_bytes", labels + ",scope=\"replay\"", replayBufferedBytes);
+    header(sb, "frp_memory_paused_connections", "gauge", "User-side connections paused by the memory budget");
+    sample(sb, "frp_memory_paused_connections", labels, memoryPausedConnections);
+    header(sb, "frp_memory_shed_connections_total", "counter", "User-side connections closed by the memory budget");
+    sample(sb, "frp_memory_shed_connections_total", labels, memoryShedConnections.sum());
+  }
+
+  // 默认分配器：已占用的堆外/堆内存，池化分配器另输出各arena中在用的字节数和分配数；以及JVM堆外内存的上限和Netty统计的用量
+  private void allocator(StringBuilder sb) {
+    String labels = "side=\"" + side + "\"";
+    ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+    if (alloc instanceof ByteBufAllocatorMetricProvider) {
+      ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) alloc).metric();
+      header(sb, "frp_allocator_used_bytes", "gauge", "Memory reserved by the buffer allocator");
+      sample(sb, "frp_allocator_used_bytes", labels + ",type=\"direct\"", metric.usedDirectMemory());
+      sample(sb, "frp_allocator_used_bytes", labels + ",type=\"heap\"", metric.usedHeapMemory());
+    }
+    if (alloc instanceof PooledByteBufAllocator) {
+      PooledByteBufAllocator pooled = (PooledByteBufAllocator) alloc;
+      header(sb, "frp_allocator_pinned_bytes", "gauge", "Pooled memory held by live buffers");
+      sample(sb, "frp_allocator_pinned_bytes", labels + ",type=\"direct\"", pooled.pinnedDirectMemory());
+      sample(sb, "frp_allocator_pinned_bytes", labels + ",type=\"heap\"", pooled.pinnedHeapMemory());
+      List<PoolArenaMetric> direct = pooled.metric().directArenas();
+      List<PoolArenaMetric> heap = pooled.metric().heapArenas();
+      header(sb, "frp_allocator_arena_active_bytes", "gauge", "Bytes in active allocations per pool arena");
+      arenas(sb, "frp_allocator_arena_active_bytes", labels + ",type=\"direct\"", direct, PoolArenaMetric::numActiveBytes);
+      arenas(sb, "frp_allocator_arena_active_bytes", labels + ",type=\"heap\"", heap, PoolArenaMetric::numActiveBytes);
+      header(sb, "frp_allocator_arena_active_allocations", "gauge", "Active allocations per pool arena");
+      arenas(sb, "frp_allocator_arena_active_allocations", labels + ",type=\"direct\"", direct,
+          PoolArenaMetric::numActiveAllocations);
+      arenas(sb, "frp_allocator_arena_active_allocations", labels + ",type=\"heap\"", heap,
+          PoolArenaMetric::numActiveAllocations);
+    }
+    header(sb, "frp_direct_memory_max_bytes", "gauge", "Maximum direct memory available to the JVM");
+    sample(sb, "frp_direct_memory_max_bytes", labels, PlatformDependent.maxDirectMemory());
+    long used = PlatformDependent.usedDirectMemory();
+    if (used >= 0) {
+      header(sb, "frp_direct_memory_used_bytes", "gauge", "Direct memory counted by Netty against the maximum");
+      sample(sb, "frp_direct_memory_used_bytes", labels, used);
+    }
+  }
+
+  private static void arenas(StringBuilder sb, String name, String labels, List<PoolArenaMetric> arenas,
+                             Function<PoolArenaMetric, Long> value) {
+    for (int i = 0; i < arenas.size(); i++) {
+      sample(sb, name, labels + ",arena=\"" + i + "\"", value.apply(arenas.get(i)));
+    }
+  }
+
+  private void directionCounter(StringBuilder sb, String name, List<ProxyMetrics> snapshot,
+                                Function<ProxyMetrics, Long> inbound, Function<ProxyMetrics, Long> outbound) {
+    for (ProxyMetrics m : snapshot) {
+      sample(sb, name, proxyLabels(m) + ",direction=\"inbound\"", inbound.apply(m));
+      sample(sb, name, proxyLabels(m) + ",direction=\"outbound\"", outbound.apply(m));
+    }
+  }
+
+  private String proxyLabels(ProxyMetrics m) {
+    return clientLabels(m.getClient()) + ",proxy=\"" + escape(m.getProxyId()) + "\"";
+  }
+
+  private String clientLabels(String client) {
+    return "side=\"" + side + "\",client=\"" + escape(client) + "\"";
+  }
+
+  private static void header(StringBuilder sb, String name, String type, String help) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder sb, String name, String labels, long value) {
+    sb.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  // 直方图：累积桶 + sum + count，scale把记录值换算为输出单位（如纳秒→秒）
+  private static void histogram(StringBuilder sb, String name, String labels, Histogram histogram, double scale) {
+    long[] bounds = histogram.getBounds();
+    long[] counts = histogram.cumulativeCounts();
+    for (int i = 0; i < bounds.length; i++) {
+      sb.append(name).append("_bucket{").append(labels).append(",le=\"")
+          .append(scale == 1 ? Long.toString(bounds[i]) : Double.toString(bounds[i] * scale))
+          .append("\"} ").append(counts[i]).append('\n');
+    }
+    sb.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ")
+        .append(counts[counts.length - 1]).append('\n');
+    sb.append(name).append("_sum{").append(labels).append("} ")
+        .append(scale == 1 ? Long.toString(histogram.getSum()) : Double.toString(histogram.getSum() * scale)).append('\n');
+    sb.append(name).append("_count{").append(labels).append("} ").append(counts[counts.length - 1]).append('\n');
+  }
+
+  // 标签值转义：反斜杠、双引号、换行
+  private static String escape(String value) {
+    if (value == null) {
+      return "";
+    }
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
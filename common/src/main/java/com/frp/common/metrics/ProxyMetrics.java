@@ -0,0 +1,58 @@
+package com.frp.common.metrics;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个代理的流量指标，热路径只做LongAdder累加，不加锁、不格式化
+ * 方向：inbound为公网用户 -> 内网服务，outbound为内网服务 -> 公网用户；每端只统计自己转发的数据
+ * 工作连接透传（splice）的数据不经过用户态，只统计连接数
+ */
+@Getter
+public class ProxyMetrics {
+  private final String client; // 客户端标识（runId）
+  private final String proxyId;
+  private final LongAdder inboundBytes = new LongAdder();
+  private final LongAdder outboundBytes = new LongAdder();
+  private final LongAdder inboundFrames = new LongAdder();
+  private final LongAdder outboundFrames = new LongAdder();
+  private final LongAdder activeConnections = new LongAdder(); // 当前活跃的公网连接（服务端）/内网连接（客户端）
+  private final LongAdder totalConnections = new LongAdder();
+  private volatile long bufferedBytes; // 公网连接写缓冲中的字节数（服务端内存预算定期采样）
+  private final Histogram inboundFrameSize = new Histogram(Histogram.SIZE_BOUNDS);
+  private final Histogram outboundFrameSize = new Histogram(Histogram.SIZE_BOUNDS);
+  // 转发耗时：数据写入目标连接到实际flush出去的时间（写合并的滞留时间）
+  private final Histogram inboundForwardLatency = new Histogram(Histogram.LATENCY_BOUNDS_NANOS);
+  private final Histogram outboundForwardLatency = new Histogram(Histogram.LATENCY_BOUNDS_NANOS);
+
+  public ProxyMetrics(String client, String proxyId) {
+    this.client = client != null ? client : "";
+    this.proxyId = proxyId;
+  }
+
+  public void recordInbound(int bytes) {
+    inboundBytes.add(bytes);
+    inboundFrames.increment();
+    inboundFrameSize.record(bytes);
+  }
+
+  public void recordOutbound(int bytes) {
+    outboundBytes.add(bytes);
+    outboundFrames.increment();
+    outboundFrameSize.record(bytes);
+  }
+
+  public void setBufferedBytes(long bufferedBytes) {
+    this.bufferedBytes = bufferedBytes;
+  }
+
+  public void connectionOpened() {
+    activeConnections.increment();
+    totalConnections.increment();
+  }
+
+  public void connectionClosed() {
+    activeConnections.decrement();
+  }
+}
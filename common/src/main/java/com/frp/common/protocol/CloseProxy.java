@@ -0,0 +1,10 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+// 注销代理：客户端主动下线某个代理
+@Data
+public class CloseProxy implements ControlMessage {
+  private ControlType type = ControlType.CLOSE_PROXY;
+  private String proxyId;
+}
@@ -0,0 +1,53 @@
+package com.frp.common.protocol;
+
+import lombok.Getter;
+
+/**
+ * DATA帧payload压缩算法，value存放在帧保留字节（flags）的低2位
+ * 由客户端按代理配置、注册时与服务端协商，双方只对协商成功的代理压缩；解压只看帧上的标志
+ */
+@Getter
+public enum CompressionType {
+  // 不压缩
+  NONE((byte) 0x00),
+  // Snappy：速度优先（Netty内置实现，无额外依赖）
+  SNAPPY((byte) 0x01),
+  // Deflate：压缩率优先（JDK zlib）
+  DEFLATE((byte) 0x02);
+
+  // 保留字节中表示压缩算法的位
+  public static final byte FLAGS_MASK = 0x03;
+
+  private final byte value;
+
+  CompressionType(byte value) {
+    this.value = value;
+  }
+
+  public static CompressionType fromValue(byte value){
+    for(CompressionType type : CompressionType.values()){
+      if (type.value==value) {
+        return type;
+      }
+    }
+    return null;
+  }
+
+  // 从帧保留字节中取出压缩算法
+  public static CompressionType fromFlags(byte flags) {
+    return fromValue((byte) (flags & FLAGS_MASK));
+  }
+
+  // 配置名转换（不区分大小写），未配置为NONE，不认识的名称返回null
+  public static CompressionType fromName(String name) {
+    if (name == null || name.trim().isEmpty()) {
+      return NONE;
+    }
+    for (CompressionType type : CompressionType.values()) {
+      if (type.name().equalsIgnoreCase(name.trim())) {
+        return type;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,6 @@
+package com.frp.common.protocol;
+
+// 控制指令：CONTROL帧的payload，按type分派处理
+public interface ControlMessage {
+  ControlType getType();
+}
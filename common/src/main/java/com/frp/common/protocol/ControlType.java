@@ -1,12 +1,47 @@
 package com.frp.common.protocol;
 
+import lombok.Getter;
+
+// 控制指令类型，value为二进制控制协议中的操作码
+@Getter
 public enum ControlType {
   // c -> s，注册代理
-  REGISTER,
+  REGISTER((byte) 0x01),
   // s -> c，注册响应
-  REGISTER_RESP,
+  REGISTER_RESP((byte) 0x02),
   // c -> s，心跳包
-  HEARTBEAT,
+  HEARTBEAT((byte) 0x03),
   // c -> s，注销代理
-  CLOSE_PROXY
+  CLOSE_PROXY((byte) 0x04),
+  // c -> s，在新建的工作连接上发送，将该连接登记到服务端的工作连接池
+  NEW_WORK_CONN((byte) 0x05),
+  // s -> c，在工作连接上发送，通知客户端该连接已分配给某个公网连接，此后连接上为原始字节流
+  START_WORK_CONN((byte) 0x06),
+  // c -> s，批量注册：一个帧携带客户端的全部代理
+  REGISTER_BATCH((byte) 0x07),
+  // s -> c，批量注册响应：逐个代理的注册结果
+  REGISTER_BATCH_RESP((byte) 0x08),
+  // c -> s，在新建的条带连接上发送，把该连接并入已注册客户端的会话，与主控制连接分担流
+  NEW_STRIPE_CONN((byte) 0x09),
+  // c -> s，控制连接断开后在新连接上发送，请求接回仍在保留期内的会话
+  RESUME_SESSION((byte) 0x0A),
+  // s -> c，会话恢复结果
+  RESUME_SESSION_RESP((byte) 0x0B),
+  // 双向，确认已收到的流帧数，对端据此释放重放缓冲
+  SESSION_ACK((byte) 0x0C);
+
+  private final byte value;
+
+  ControlType(byte value) {
+    this.value = value;
+  }
+
+  public static ControlType fromValue(byte value){
+    for(ControlType type : ControlType.values()){
+      if (type.value==value) {
+        return type;
+      }
+    }
+    return null;
+  }
 }
@@ -11,7 +11,15 @@ import lombok.Getter;
 public enum FrameType {
   //控制帧：注册/心跳/注销
   CONTROL((byte) 0x01),
-  DATA((byte) 0x02);
+  // 流数据帧：某个公网连接（流）上的业务数据
+  DATA((byte) 0x02),
+  // 流生命周期帧：s -> c 新公网连接建立；双向 正常关闭（对端发完数据后关闭）；双向 异常重置（立即关闭）
+  OPEN((byte) 0x03),
+  FIN((byte) 0x04),
+  RST((byte) 0x05),
+  // 流量控制帧（双向）：本端该流的写缓冲超过高水位/回落到低水位，通知对端暂停/恢复读取该流的数据源
+  PAUSE((byte) 0x06),
+  RESUME((byte) 0x07);
 
   private final byte value;
 
@@ -1,22 +1,99 @@
 package com.frp.common.protocol;
 
-import lombok.AllArgsConstructor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
 import lombok.Data;
-import lombok.Getter;
 import lombok.NoArgsConstructor;
 
 /**
  * @author Zhidong Zhang
  */
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
-public class FrpFrame {
+public class FrpFrame implements ReferenceCounted {
   /*
    * 协议帧实体
+   * payload直接持有ByteBuf（解码时为原始缓冲区的retained slice），
+   * 帧的引用计数即payload的引用计数，谁最后使用谁负责release
+   * 流相关的帧（DATA/OPEN/FIN/RST/PAUSE/RESUME）用注册时服务端分配的数字句柄标识代理，不再携带proxyId字符串
    * */
+  // 保留字节中表示帧头携带句柄（而不是proxyId）的位，由编解码器维护，上层看到的reserved不含该位
+  public static final byte FLAG_HANDLE = 0x04;
+
   private FrameType type;
   private byte reserved;
+  // 流ID：标识同一代理下的某一个公网连接，由服务端分配，控制帧为0
+  private int streamId;
+  // 代理句柄：服务端注册代理时分配（非0），0表示帧头携带proxyId
+  private int handle;
   private String proxyId;
-  private byte[] payload;
+  private ByteBuf payload;
+
+  public FrpFrame(FrameType type, byte reserved, int streamId, String proxyId, ByteBuf payload) {
+    this.type = type;
+    this.reserved = reserved;
+    this.streamId = streamId;
+    this.proxyId = proxyId;
+    this.payload = payload != null ? payload : Unpooled.EMPTY_BUFFER;
+  }
+
+  // 流相关的帧：以代理句柄标识代理
+  public FrpFrame(FrameType type, byte reserved, int streamId, int handle, ByteBuf payload) {
+    this(type, reserved, streamId, (String) null, payload);
+    this.handle = handle;
+  }
+
+  public FrpFrame(FrameType type, byte reserved, String proxyId, ByteBuf payload) {
+    this(type, reserved, 0, proxyId, payload);
+  }
+
+  // 控制帧等小载荷场景：包装字节数组（不拷贝）
+  public FrpFrame(FrameType type, byte reserved, String proxyId, byte[] payload) {
+    this(type, reserved, 0, proxyId, payload != null ? Unpooled.wrappedBuffer(payload) : Unpooled.EMPTY_BUFFER);
+  }
+
+  // 流生命周期帧（OPEN/FIN/RST），无payload
+  public static FrpFrame streamFrame(FrameType type, int streamId, int handle) {
+    return new FrpFrame(type, (byte) 0, streamId, handle, Unpooled.EMPTY_BUFFER);
+  }
+
+  @Override
+  public int refCnt() {
+    return payload.refCnt();
+  }
+
+  @Override
+  public FrpFrame retain() {
+    payload.retain();
+    return this;
+  }
+
+  @Override
+  public FrpFrame retain(int increment) {
+    payload.retain(increment);
+    return this;
+  }
+
+  @Override
+  public FrpFrame touch() {
+    payload.touch();
+    return this;
+  }
+
+  @Override
+  public FrpFrame touch(Object hint) {
+    payload.touch(hint);
+    return this;
+  }
+
+  @Override
+  public boolean release() {
+    return payload.release();
+  }
+
+  @Override
+  public boolean release(int decrement) {
+    return payload.release(decrement);
+  }
 }
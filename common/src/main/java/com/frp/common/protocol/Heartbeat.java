@@ -0,0 +1,9 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+// 心跳：客户端定时发送，无其他字段
+@Data
+public class Heartbeat implements ControlMessage {
+  private ControlType type = ControlType.HEARTBEAT;
+}
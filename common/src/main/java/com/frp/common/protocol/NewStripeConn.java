@@ -0,0 +1,13 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+// 条带连接登记：客户端在主控制连接注册完代理后建立的额外控制连接，服务端把它并入同一个客户端会话，新流轮流分配到各连接上
+@Data
+public class NewStripeConn implements ControlMessage {
+  private ControlType type = ControlType.NEW_STRIPE_CONN;
+  // 客户端运行ID，与主控制连接注册请求中的runId一致
+  private String runId;
+  // 认证Token，需与服务端一致
+  private String authToken;
+}
@@ -0,0 +1,13 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+// 工作连接登记：客户端预先建立的TCP连接，登记后由服务端分配给新的公网连接
+@Data
+public class NewWorkConn implements ControlMessage {
+  private ControlType type = ControlType.NEW_WORK_CONN;
+  // 客户端运行ID，与注册请求中的runId一致，服务端据此把工作连接归属到对应客户端
+  private String runId;
+  // 认证Token，需与服务端一致
+  private String authToken;
+}
@@ -0,0 +1,16 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 批量注册请求：客户端连接（或重连）后一次性注册全部代理，服务端一次性返回全部结果
+@Data
+public class RegisterBatchRequest implements ControlMessage {
+  private ControlType type = ControlType.REGISTER_BATCH;
+  // 认证Token与运行ID对整批生效，代理条目中的同名字段忽略
+  private String authToken;
+  private String runId;
+  private List<RegisterRequest> proxies = new ArrayList<>();
+}
@@ -0,0 +1,13 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 批量注册响应：与请求中的代理一一对应的注册结果
+@Data
+public class RegisterBatchResponse implements ControlMessage {
+  private ControlType type = ControlType.REGISTER_BATCH_RESP;
+  private List<RegisterResponse> results = new ArrayList<>();
+}
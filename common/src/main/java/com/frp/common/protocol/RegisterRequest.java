@@ -2,9 +2,12 @@ package com.frp.common.protocol;
 
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.List;
+
 // 注册请求实体类：客户端向服务端申请创建代理
 @Data
-public class RegisterRequest {
+public class RegisterRequest implements ControlMessage {
   private ControlType type = ControlType.REGISTER;
   // 代理唯一ID
   private String proxyId;
@@ -15,4 +18,20 @@ public class RegisterRequest {
   private int remotePort;
   // 认证Token，需与服务端一致
   private String authToken;
+  // 客户端运行ID（每次启动随机生成），用于关联该客户端的工作连接
+  private String runId;
+  // 公网连接写缓冲水位线（字节），0表示使用服务端默认值
+  private int writeBufferLowWaterMark;
+  private int writeBufferHighWaterMark;
+  // 写合并阈值：未flush字节数、最长滞留时间（微秒），0表示使用默认值
+  private int flushBytes;
+  private int flushDelayMicros;
+  // 期望的DATA帧压缩算法，服务端不支持时按NONE注册
+  private CompressionType compression = CompressionType.NONE;
+  // http代理：路由的域名（可用*.example.com匹配子域名）和路径前缀，未配置路径前缀时匹配全部路径
+  private List<String> customDomains = new ArrayList<>();
+  private List<String> locations = new ArrayList<>();
+  // 期望的限速（字节/秒）和突发量（字节），0表示不限速/使用默认突发量；服务端按自身上限取较小值
+  private long bandwidthLimit;
+  private long bandwidthBurst;
 }
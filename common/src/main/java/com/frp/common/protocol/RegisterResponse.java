@@ -6,12 +6,16 @@ import lombok.Data;
  * @author Zhidong Zhang
  */ // 注册响应：服务端返回注册结果给客户端
 @Data
-public class RegisterResponse {
+public class RegisterResponse implements ControlMessage {
     private ControlType type = ControlType.REGISTER_RESP;
     // 对应注册请求的代理ID
     private String proxyId;
     private boolean success;
     // 成功失败原因
     private String message;
+    // 协商结果：双方对该代理的DATA帧使用的压缩算法
+    private CompressionType compression = CompressionType.NONE;
+    // 服务端分配的代理句柄（成功时非0），此后该代理的流相关帧只携带句柄
+    private int handle;
 
 }
@@ -0,0 +1,15 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+// 会话恢复请求：客户端控制连接断开后在新连接上发送，服务端仍保留该runId的会话时把新连接接回会话，双方重放对端未收到的流帧
+@Data
+public class ResumeSession implements ControlMessage {
+  private ControlType type = ControlType.RESUME_SESSION;
+  // 客户端运行ID，与断开前注册请求中的runId一致
+  private String runId;
+  // 认证Token，需与服务端一致
+  private String authToken;
+  // 客户端在该会话中已收到的流帧数，服务端从下一帧开始重放
+  private long received;
+}
@@ -0,0 +1,14 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+// 会话恢复响应：失败时客户端按新连接重新注册全部代理
+@Data
+public class ResumeSessionResponse implements ControlMessage {
+  private ControlType type = ControlType.RESUME_SESSION_RESP;
+  private boolean success;
+  // 失败原因
+  private String message;
+  // 服务端在该会话中已收到的流帧数，客户端从下一帧开始重放
+  private long received;
+}
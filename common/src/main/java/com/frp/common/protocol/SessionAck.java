@@ -0,0 +1,10 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+// 会话确认（双向）：本端已收到的流帧数，对端据此释放重放缓冲中已确认的帧；注册后先发一次0，表示本端支持会话恢复
+@Data
+public class SessionAck implements ControlMessage {
+  private ControlType type = ControlType.SESSION_ACK;
+  private long received;
+}
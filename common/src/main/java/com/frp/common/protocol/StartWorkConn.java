@@ -0,0 +1,12 @@
+package com.frp.common.protocol;
+
+import lombok.Data;
+
+// 工作连接启用：服务端把工作连接分配给某个公网连接，客户端收到后连接内网服务并开始透传
+@Data
+public class StartWorkConn implements ControlMessage {
+  private ControlType type = ControlType.START_WORK_CONN;
+  private String proxyId;
+  // 公网连接的流ID，仅用于日志关联
+  private int streamId;
+}
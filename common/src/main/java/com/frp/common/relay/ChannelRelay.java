@@ -0,0 +1,97 @@
+package com.frp.common.relay;
+
+import com.frp.common.util.TokenBucket;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.epoll.AbstractEpollStreamChannel;
+import io.netty.channel.epoll.EpollChannelConfig;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.handler.ssl.SslHandler;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 连接桥接工具：把两个已建立的连接双向打通为原始字节管道
+ * epoll传输下使用内核splice在两个socket之间直接搬运数据（数据不进入用户态），其它情况退化为RelayHandler转发
+ * 隧道启用TLS时工作连接上是加密后的记录，需经SslHandler解密/加密，不能splice
+ */
+@Slf4j
+public class ChannelRelay {
+
+  /**
+   * 桥接两个连接，调用前两个连接的业务处理器应已从pipeline中移除
+   */
+  public static void bridge(Channel a, Channel b) {
+    bridge(a, b, null);
+  }
+
+  /**
+   * 桥接两个连接并限速（两个方向共用一个令牌桶）；限速时不使用splice，数据经RelayHandler计量
+   * @param bandwidth 限速令牌桶，为null时不限速
+   */
+  public static void bridge(Channel a, Channel b, TokenBucket bandwidth) {
+    if (!a.isActive() || !b.isActive()) {
+      // 配对期间任一端已断开
+      closeBoth(a, b);
+      return;
+    }
+    if (bandwidth == null && canSplice(a, b)) {
+      if (a.eventLoop() == b.eventLoop()) {
+        splice((AbstractEpollStreamChannel) a, (AbstractEpollStreamChannel) b);
+      } else {
+        // splice要求两端注册在同一个EventLoop上：把b迁移到a的EventLoop
+        b.deregister().addListener(df -> {
+          if (!df.isSuccess()) {
+            closeBoth(a, b);
+            return;
+          }
+          a.eventLoop().register(b).addListener(rf -> {
+            if (rf.isSuccess()) {
+              splice((AbstractEpollStreamChannel) a, (AbstractEpollStreamChannel) b);
+            } else {
+              closeBoth(a, b);
+            }
+          });
+        });
+      }
+      return;
+    }
+    a.pipeline().addLast(new RelayHandler(b, bandwidth));
+    b.pipeline().addLast(new RelayHandler(a, bandwidth));
+    a.config().setAutoRead(true);
+    b.config().setAutoRead(true);
+  }
+
+  private static boolean canSplice(Channel a, Channel b) {
+    return isLevelTriggeredEpoll(a) && isLevelTriggeredEpoll(b)
+        && a.pipeline().get(SslHandler.class) == null && b.pipeline().get(SslHandler.class) == null;
+  }
+
+  private static boolean isLevelTriggeredEpoll(Channel ch) {
+    return ch instanceof AbstractEpollStreamChannel
+        && ((EpollChannelConfig) ch.config()).getEpollMode() == EpollMode.LEVEL_TRIGGERED;
+  }
+
+  private static void splice(AbstractEpollStreamChannel a, AbstractEpollStreamChannel b) {
+    // 任一方向结束（对端关闭或出错）即关闭两端
+    a.spliceTo(b, Integer.MAX_VALUE).addListener(f -> closeBoth(a, b));
+    b.spliceTo(a, Integer.MAX_VALUE).addListener(f -> closeBoth(a, b));
+    a.config().setAutoRead(true);
+    b.config().setAutoRead(true);
+    log.debug("连接{}与{}已建立splice透传", a.id().asShortText(), b.id().asShortText());
+  }
+
+  private static void closeBoth(Channel a, Channel b) {
+    a.close();
+    b.close();
+  }
+
+  /**
+   * 在已排队数据写出后关闭连接
+   */
+  public static void closeOnFlush(Channel ch) {
+    if (ch.isActive()) {
+      ch.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    }
+  }
+}
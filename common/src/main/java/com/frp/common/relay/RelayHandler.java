@@ -0,0 +1,78 @@
+package com.frp.common.relay;
+
+import com.frp.common.util.FlowControl;
+import com.frp.common.util.TokenBucket;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 透传处理器：把当前连接读到的原始字节原样写到对端连接，不做任何帧封装
+ * 用于工作连接与公网连接/内网连接之间的桥接（无法使用splice时）
+ */
+@Slf4j
+public class RelayHandler extends ChannelInboundHandlerAdapter {
+  private final Channel peer; // 对端连接
+  private final TokenBucket bandwidth; // 限速令牌桶，不限速时为null
+
+  public RelayHandler(Channel peer) {
+    this(peer, null);
+  }
+
+  public RelayHandler(Channel peer, TokenBucket bandwidth) {
+    this.peer = peer;
+    this.bandwidth = bandwidth;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (peer.isActive()) {
+      if (bandwidth != null && msg instanceof ByteBuf) {
+        FlowControl.throttle(ctx.channel(), bandwidth, bandwidth.consume(((ByteBuf) msg).readableBytes()),
+            () -> resume(ctx));
+        if (FlowControl.isThrottled(ctx.channel())) {
+          // 超出限速：数据先进入对端的写缓冲（计入水位线），令牌补足后再flush
+          peer.write(msg);
+          return;
+        }
+      }
+      peer.writeAndFlush(msg);
+    } else {
+      ReferenceCountUtil.release(msg);
+      ctx.close();
+    }
+  }
+
+  // 当前连接写缓冲超过高水位时暂停读取对端，回落到低水位后恢复，保证透传内存有界
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+    FlowControl.setPeerPaused(peer, !ctx.channel().isWritable());
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  // 限速结束：写出推迟的数据；若当前连接已断开，写完后关闭对端
+  private void resume(ChannelHandlerContext ctx) {
+    if (ctx.channel().isActive()) {
+      peer.flush();
+    } else {
+      ChannelRelay.closeOnFlush(peer);
+    }
+  }
+
+  // 一端断开后，等对端已排队的数据写完再关闭对端（限速中由resume在令牌补足后关闭）
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    if (!FlowControl.isThrottled(ctx.channel())) {
+      ChannelRelay.closeOnFlush(peer);
+    }
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    log.warn("透传连接{}异常：{}", ctx.channel().id().asShortText(), cause.getMessage());
+    ctx.close();
+  }
+}
@@ -0,0 +1,47 @@
+package com.frp.common.transport;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程级EventLoop资源：每个进程只创建一组线程，控制连接、公网连接、内网连接、工作连接共用
+ * bossGroup负责所有监听端口的accept，workerGroup负责所有连接的IO；线程数来自配置，进程退出时统一关闭
+ */
+@Slf4j
+@Getter
+public class EventLoopResources {
+  private final TransportType transport;
+  private final EventLoopGroup bossGroup; // accept线程组，客户端不需要时为null
+  private final EventLoopGroup workerGroup; // IO线程组
+
+  /**
+   * @param bossThreads accept线程数，<=0表示不创建（客户端）
+   * @param workerThreads IO线程数，<=0表示使用CPU核数
+   */
+  public EventLoopResources(TransportType transport, String namePrefix, int bossThreads, int workerThreads) {
+    this.transport = transport;
+    int ioThreads = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+    this.bossGroup = bossThreads > 0
+        ? transport.newEventLoopGroup(bossThreads, new DefaultThreadFactory(namePrefix + "-boss")) : null;
+    this.workerGroup = transport.newEventLoopGroup(ioThreads, new DefaultThreadFactory(namePrefix + "-io"));
+    log.info("EventLoop资源已创建：传输={}，accept线程{}个，IO线程{}个", transport, Math.max(bossThreads, 0), ioThreads);
+  }
+
+  /**
+   * 优雅关闭所有线程组并等待结束
+   */
+  public void shutdown() {
+    Future<?> bossFuture = bossGroup != null ? bossGroup.shutdownGracefully() : null;
+    Future<?> workerFuture = workerGroup.shutdownGracefully();
+    if (bossFuture != null) {
+      bossFuture.awaitUninterruptibly(15, TimeUnit.SECONDS);
+    }
+    workerFuture.awaitUninterruptibly(15, TimeUnit.SECONDS);
+    log.info("EventLoop资源已关闭");
+  }
+}
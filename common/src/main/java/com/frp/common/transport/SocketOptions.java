@@ -0,0 +1,116 @@
+package com.frp.common.transport;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
+import lombok.Data;
+
+import java.util.Properties;
+
+/**
+ * TCP socket参数：控制连接、公网连接、内网连接共用，由ServerConfig/ClientConfig加载
+ * 缓冲区大小为0表示使用系统默认值；TCP_QUICKACK/TCP_FASTOPEN仅epoll传输下生效
+ */
+@Data
+public class SocketOptions {
+  private boolean tcpNoDelay = true; // 禁用Nagle算法，降低小包延迟
+  private int soSndBuf; // SO_SNDBUF（字节）
+  private int soRcvBuf; // SO_RCVBUF（字节）
+  private boolean tcpQuickAck; // TCP_QUICKACK，立即回复ACK
+  private int tcpFastOpen; // 服务端为TCP_FASTOPEN队列长度，客户端>0表示连接时启用TFO，0为关闭
+  private int backlog = 128; // 监听socket的accept队列长度
+  private boolean levelTriggered; // epoll使用水平触发模式（工作连接splice透传要求），默认边沿触发
+
+  /**
+   * 从配置文件读取socket参数，键为 前缀+字段名（如server.tcpNoDelay），未配置的项保持当前值
+   */
+  public SocketOptions load(Properties props, String prefix) {
+    tcpNoDelay = getBoolean(props, prefix + "tcpNoDelay", tcpNoDelay);
+    soSndBuf = getInt(props, prefix + "soSndBuf", soSndBuf);
+    soRcvBuf = getInt(props, prefix + "soRcvBuf", soRcvBuf);
+    tcpQuickAck = getBoolean(props, prefix + "tcpQuickAck", tcpQuickAck);
+    tcpFastOpen = getInt(props, prefix + "tcpFastOpen", tcpFastOpen);
+    backlog = getInt(props, prefix + "backlog", backlog);
+    levelTriggered = getBoolean(props, prefix + "epollLevelTriggered", levelTriggered);
+    return this;
+  }
+
+  private static int getInt(Properties props, String key, int defaultValue) {
+    String value = props.getProperty(key);
+    return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  private static boolean getBoolean(Properties props, String key, boolean defaultValue) {
+    String value = props.getProperty(key);
+    return value == null || value.trim().isEmpty() ? defaultValue : Boolean.parseBoolean(value.trim());
+  }
+
+  /**
+   * 应用到服务端监听（listener自身参数 + accept出的子连接参数）
+   */
+  public ServerBootstrap applyTo(ServerBootstrap bootstrap, TransportType transport) {
+    bootstrap.option(ChannelOption.SO_BACKLOG, backlog)
+        .childOption(ChannelOption.SO_KEEPALIVE, true)
+        .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+    if (soSndBuf > 0) {
+      bootstrap.childOption(ChannelOption.SO_SNDBUF, soSndBuf);
+    }
+    if (soRcvBuf > 0) {
+      // 子连接的接收缓冲区需在listen前设置到监听socket上才能影响窗口扩大因子
+      bootstrap.option(ChannelOption.SO_RCVBUF, soRcvBuf);
+    }
+    if (transport == TransportType.EPOLL) {
+      if (tcpFastOpen > 0) {
+        bootstrap.option(ChannelOption.TCP_FASTOPEN, tcpFastOpen);
+      }
+      if (tcpQuickAck) {
+        bootstrap.childOption(EpollChannelOption.TCP_QUICKACK, true);
+      }
+      if (levelTriggered) {
+        bootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED);
+      }
+    }
+    return bootstrap;
+  }
+
+  /**
+   * 应用到主动发起的连接（控制连接、工作连接、内网连接）
+   */
+  public Bootstrap applyTo(Bootstrap bootstrap, TransportType transport) {
+    bootstrap.option(ChannelOption.SO_KEEPALIVE, true)
+        .option(ChannelOption.TCP_NODELAY, tcpNoDelay);
+    if (soSndBuf > 0) {
+      bootstrap.option(ChannelOption.SO_SNDBUF, soSndBuf);
+    }
+    if (soRcvBuf > 0) {
+      bootstrap.option(ChannelOption.SO_RCVBUF, soRcvBuf);
+    }
+    if (transport == TransportType.EPOLL) {
+      if (tcpFastOpen > 0) {
+        bootstrap.option(ChannelOption.TCP_FASTOPEN_CONNECT, true);
+      }
+      if (tcpQuickAck) {
+        bootstrap.option(EpollChannelOption.TCP_QUICKACK, true);
+      }
+      if (levelTriggered) {
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED);
+      }
+    }
+    return bootstrap;
+  }
+
+  /**
+   * 应用到UDP数据报连接（公网UDP监听、内网UDP连接）：只有收发缓冲区适用，TCP参数不设置
+   */
+  public Bootstrap applyToDatagram(Bootstrap bootstrap) {
+    if (soSndBuf > 0) {
+      bootstrap.option(ChannelOption.SO_SNDBUF, soSndBuf);
+    }
+    if (soRcvBuf > 0) {
+      bootstrap.option(ChannelOption.SO_RCVBUF, soRcvBuf);
+    }
+    return bootstrap;
+  }
+}
@@ -0,0 +1,186 @@
+package com.frp.common.transport;
+
+import com.frp.common.metrics.MetricsRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 隧道TLS参数：加密frps控制端口上的全部连接（控制连接、条带连接、工作连接），公网端口不受影响，由ServerConfig/ClientConfig加载
+ * 证书和私钥为PEM文件（私钥为PKCS#8）；默认只允许TLS 1.3
+ * 会话复用：TLS 1.3的会话票据由服务端加密后交给客户端保存（服务端不保存会话状态），客户端进程内共用一个SslContext，
+ * 按服务端地址缓存会话，断线重连时凭票据简化握手（不做证书校验和完整的密钥交换），大量客户端同时重连时服务端CPU不会突增
+ * 记录大小：SslHandler把待写的帧合并后按不超过maxRecordSize的明文加密为一个记录，每条记录一次加密、一个记录头；
+ * OpenSSL实现（classpath中有netty-tcnative时auto自动选用）直接在堆外缓冲区上加解密，JDK实现需在堆外和堆内之间各拷贝一次
+ */
+@Slf4j
+@Data
+public class TlsOptions {
+  private static final int MAX_RECORD_SIZE = 16 * 1024; // TLS记录的明文上限
+
+  private boolean enabled; // 是否启用TLS，两端须一致
+  private String certFile; // 本端证书链（PEM），服务端必填；客户端配置后可用于双向认证
+  private String keyFile; // 本端私钥（PEM，PKCS#8）
+  // 校验对端证书的CA（PEM）：服务端配置后要求客户端出示由其签发的证书（双向认证）；客户端未配置时使用JDK默认信任库
+  private String trustedCaFile;
+  private String serverName; // 客户端：SNI及证书主机名校验，为空时按连接的服务端地址校验
+  // 客户端：校验服务端证书中的主机名（serverName，未配置时为服务端地址），关闭后任何受信任CA签发的证书都会被接受，只应在测试环境关闭
+  private boolean verifyHostname = true;
+  private String protocols = "TLSv1.3"; // 允许的协议版本，逗号分隔
+  private String provider = "auto"; // auto（有netty-tcnative时用openssl，否则jdk）/jdk/openssl
+  private long sessionCacheSize; // 会话缓存条数，0为实现的默认值
+  private long sessionTimeout; // 会话（票据）有效期（秒），0为实现的默认值
+  private int maxRecordSize = MAX_RECORD_SIZE; // 每个TLS记录的最大明文字节数，较小的值可降低慢速链路上的首字节延迟
+  private int handshakeTimeout = 10; // 握手超时（秒）
+
+  /**
+   * 从配置文件读取TLS参数，键为 前缀+tls.字段名（如server.tls.enabled），未配置的项保持当前值
+   */
+  public TlsOptions load(Properties props, String prefix) {
+    enabled = getBoolean(props, prefix + "tls.enabled", enabled);
+    certFile = getString(props, prefix + "tls.certFile", certFile);
+    keyFile = getString(props, prefix + "tls.keyFile", keyFile);
+    trustedCaFile = getString(props, prefix + "tls.trustedCaFile", trustedCaFile);
+    serverName = getString(props, prefix + "tls.serverName", serverName);
+    verifyHostname = getBoolean(props, prefix + "tls.verifyHostname", verifyHostname);
+    protocols = getString(props, prefix + "tls.protocols", protocols);
+    provider = getString(props, prefix + "tls.provider", provider);
+    sessionCacheSize = getLong(props, prefix + "tls.sessionCacheSize", sessionCacheSize);
+    sessionTimeout = getLong(props, prefix + "tls.sessionTimeout", sessionTimeout);
+    maxRecordSize = getInt(props, prefix + "tls.maxRecordSize", maxRecordSize);
+    handshakeTimeout = getInt(props, prefix + "tls.handshakeTimeout", handshakeTimeout);
+    return this;
+  }
+
+  private static String getString(Properties props, String key, String defaultValue) {
+    String value = props.getProperty(key);
+    return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+  }
+
+  private static int getInt(Properties props, String key, int defaultValue) {
+    String value = props.getProperty(key);
+    return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  private static long getLong(Properties props, String key, long defaultValue) {
+    String value = props.getProperty(key);
+    return value == null || value.trim().isEmpty() ? defaultValue : Long.parseLong(value.trim());
+  }
+
+  private static boolean getBoolean(Properties props, String key, boolean defaultValue) {
+    String value = props.getProperty(key);
+    return value == null || value.trim().isEmpty() ? defaultValue : Boolean.parseBoolean(value.trim());
+  }
+
+  /**
+   * 服务端SslContext（启动时创建一次，所有连接共用）
+   */
+  public SslContext newServerContext() throws SSLException {
+    if (certFile == null || keyFile == null) {
+      throw new SSLException("启用TLS时服务端必须配置证书和私钥");
+    }
+    SslContextBuilder builder = SslContextBuilder.forServer(new File(certFile), new File(keyFile));
+    if (trustedCaFile != null) {
+      builder.trustManager(new File(trustedCaFile)).clientAuth(ClientAuth.REQUIRE);
+    }
+    return configure(builder).build();
+  }
+
+  /**
+   * 客户端SslContext：进程内共用一个，会话缓存（票据）随之在重连之间保留
+   */
+  public SslContext newClientContext() throws SSLException {
+    if (!verifyHostname) {
+      log.warn("隧道TLS未校验服务端证书的主机名，任何受信任CA签发的证书都会被接受");
+    }
+    SslContextBuilder builder = SslContextBuilder.forClient();
+    if (trustedCaFile != null) {
+      builder.trustManager(new File(trustedCaFile));
+    }
+    if (certFile != null && keyFile != null) {
+      builder.keyManager(new File(certFile), new File(keyFile));
+    }
+    return configure(builder).build();
+  }
+
+  private SslContextBuilder configure(SslContextBuilder builder) {
+    List<String> enabledProtocols = new ArrayList<>();
+    for (String protocol : protocols.split(",")) {
+      if (!protocol.trim().isEmpty()) {
+        enabledProtocols.add(protocol.trim());
+      }
+    }
+    builder.sslProvider(resolveProvider()).protocols(enabledProtocols);
+    if (sessionCacheSize > 0) {
+      builder.sessionCacheSize(sessionCacheSize);
+    }
+    if (sessionTimeout > 0) {
+      builder.sessionTimeout(sessionTimeout);
+    }
+    return builder;
+  }
+
+  private SslProvider resolveProvider() {
+    if ("jdk".equalsIgnoreCase(provider)) {
+      return SslProvider.JDK;
+    }
+    if ("openssl".equalsIgnoreCase(provider)) {
+      if (!OpenSsl.isAvailable()) {
+        throw new IllegalStateException("OpenSSL不可用（classpath中缺少netty-tcnative）", OpenSsl.unavailabilityCause());
+      }
+      return SslProvider.OPENSSL;
+    }
+    return OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+  }
+
+  /**
+   * 为一个连接创建SslHandler，须位于pipeline最前面（在flush合并、帧编解码之前）
+   * @param peerHost 客户端为服务端地址（会话缓存按地址+端口查找，未配置serverName时用于SNI和主机名校验），服务端为null
+   */
+  public SslHandler newHandler(SslContext context, ByteBufAllocator alloc, String peerHost, int peerPort) {
+    SslHandler handler;
+    if (peerHost == null) {
+      handler = context.newHandler(alloc);
+    } else {
+      handler = context.newHandler(alloc, serverName != null ? serverName : peerHost, peerPort);
+      if (verifyHostname) {
+        // 按SNI主机名（serverName或服务端地址）校验证书，IP地址按证书的IP类型SAN匹配
+        SSLEngine engine = handler.engine();
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+      }
+    }
+    handler.setWrapDataSize(Math.max(1, Math.min(maxRecordSize, MAX_RECORD_SIZE)));
+    handler.setHandshakeTimeoutMillis(handshakeTimeout * 1000L);
+    return handler;
+  }
+
+  /**
+   * 统计握手耗时（复用会话的握手明显更快）和失败次数
+   */
+  public static void recordHandshake(SslHandler handler, MetricsRegistry metrics) {
+    long startNanos = System.nanoTime();
+    handler.handshakeFuture().addListener(f -> {
+      if (f.isSuccess()) {
+        metrics.getTlsHandshakeLatency().record(System.nanoTime() - startNanos);
+      } else {
+        metrics.getTlsHandshakeFailures().increment();
+      }
+    });
+  }
+}
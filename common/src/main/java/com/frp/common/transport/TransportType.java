@@ -0,0 +1,62 @@
+package com.frp.common.transport;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 传输层实现：Linux上优先使用Netty原生epoll（系统调用更少、支持边沿触发和splice），其它平台退回NIO
+ * 同一进程内EventLoopGroup与Channel类型必须来自同一种传输
+ */
+@Slf4j
+public enum TransportType {
+  NIO,
+  EPOLL;
+
+  /**
+   * 按配置选择传输：auto（默认）在epoll可用时用epoll；显式epoll但不可用时告警并退回NIO
+   */
+  public static TransportType resolve(String preferred) {
+    String value = preferred == null ? "auto" : preferred.trim().toLowerCase();
+    if ("nio".equals(value)) {
+      return NIO;
+    }
+    if (Epoll.isAvailable()) {
+      return EPOLL;
+    }
+    if ("epoll".equals(value)) {
+      log.warn("epoll传输不可用，退回NIO：{}", Epoll.unavailabilityCause().toString());
+    }
+    return NIO;
+  }
+
+  public EventLoopGroup newEventLoopGroup(int nThreads, ThreadFactory threadFactory) {
+    return this == EPOLL
+        ? new EpollEventLoopGroup(nThreads, threadFactory) : new NioEventLoopGroup(nThreads, threadFactory);
+  }
+
+  public Class<? extends ServerChannel> serverChannelClass() {
+    return this == EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+  }
+
+  public Class<? extends SocketChannel> socketChannelClass() {
+    return this == EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+  }
+
+  public Class<? extends DatagramChannel> datagramChannelClass() {
+    return this == EPOLL ? EpollDatagramChannel.class : NioDatagramChannel.class;
+  }
+}
@@ -9,4 +9,10 @@ public class Constants {
   public static final int HEARTBEAT_TIMEOUT = 70; //心跳超时
   public static final int MAX_PROXY_ID_LENGTH = 64;
   public static final int BUFFER_SIZE = 1024 * 8; //缓冲区大小(8KB)
+  public static final String PROXY_TYPE_TCP = "tcp"; //代理类型：TCP端口转发
+  public static final String PROXY_TYPE_UDP = "udp"; //代理类型：UDP数据报转发
+  public static final String PROXY_TYPE_HTTP = "http"; //代理类型：HTTP虚拟主机，共用服务端的vhost端口，按域名和路径前缀路由
+  public static final int WORK_CONN_RETRY_MIN_DELAY = 100; //空闲工作连接被关闭或建立失败后补建的初始延迟(毫秒)，连续失败时翻倍
+  public static final int WORK_CONN_RETRY_MAX_DELAY = 30_000; //补建工作连接的最大延迟(毫秒)
+  public static final int UDP_SESSION_IDLE_TIMEOUT = 60; //UDP会话空闲超时(秒)，超时后服务端回收会话并通知客户端关闭内网UDP连接
 }
@@ -0,0 +1,128 @@
+package com.frp.common.util;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 超时检测时间轮：每个EventLoop一个，按秒走一格，替代"每收到数据就取消并重新调度一个定时任务"的做法
+ * 热路径上只写一次"最后活动"的时间格（Deadline.touch，普通字段写入，无定时任务、无系统调用）；
+ * 条目按截止时间挂在轮上，到期时才检查最后活动时间，未过期则按新的截止时间重新挂上，
+ * 因此每个条目大约每个超时周期才被检查一次，与收到的帧数无关
+ * 条目的注册、touch、取消都必须在所属EventLoop上调用，整个时间轮无锁
+ */
+@Slf4j
+public final class DeadlineWheel {
+  private static final long TICK_SECONDS = 1;
+  // 轮的格数（2的幂），超时时间超过一圈的条目会在后续圈数中再次检查
+  private static final int WHEEL_SIZE = 128;
+  private static final FastThreadLocal<DeadlineWheel> WHEELS = new FastThreadLocal<>();
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final List<Deadline>[] buckets = new List[WHEEL_SIZE];
+  private long tick; // 当前时间格（秒），只在EventLoop上读写
+
+  private DeadlineWheel(EventLoop eventLoop) {
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      buckets[i] = new ArrayList<>();
+    }
+    eventLoop.scheduleAtFixedRate(this::advance, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * 在当前EventLoop的时间轮上登记一个超时检测，超过timeoutSeconds没有touch则在EventLoop上执行onExpire
+   * @param eventLoop 调用方所在的EventLoop（通常是连接自己的EventLoop）
+   */
+  public static Deadline register(EventLoop eventLoop, int timeoutSeconds, Runnable onExpire) {
+    if (!eventLoop.inEventLoop()) {
+      throw new IllegalStateException("DeadlineWheel只能在所属EventLoop上使用");
+    }
+    DeadlineWheel wheel = WHEELS.get();
+    if (wheel == null) {
+      wheel = new DeadlineWheel(eventLoop);
+      WHEELS.set(wheel);
+    }
+    Deadline deadline = new Deadline(wheel, Math.max(1, timeoutSeconds), onExpire);
+    wheel.schedule(deadline, deadline.expireTick());
+    return deadline;
+  }
+
+  private void schedule(Deadline deadline, long deadlineTick) {
+    deadline.deadlineTick = deadlineTick;
+    buckets[(int) (deadlineTick & (WHEEL_SIZE - 1))].add(deadline);
+  }
+
+  // 走一格：只处理当前格上的条目
+  private void advance() {
+    tick++;
+    List<Deadline> bucket = buckets[(int) (tick & (WHEEL_SIZE - 1))];
+    if (bucket.isEmpty()) {
+      return;
+    }
+    List<Deadline> due = new ArrayList<>(bucket);
+    bucket.clear();
+    for (Deadline deadline : due) {
+      if (deadline.cancelled) {
+        continue;
+      }
+      if (deadline.deadlineTick > tick) {
+        bucket.add(deadline); // 还没到这一圈
+        continue;
+      }
+      long expireTick = deadline.expireTick();
+      if (expireTick > tick) {
+        schedule(deadline, expireTick); // 期间有活动，顺延
+      } else {
+        deadline.cancelled = true;
+        try {
+          deadline.onExpire.run();
+        } catch (Throwable t) {
+          // 单个回调失败不影响其他条目
+          log.error("超时回调执行失败", t);
+        }
+      }
+    }
+  }
+
+  /**
+   * 一个超时检测条目
+   */
+  public static final class Deadline {
+    private final DeadlineWheel wheel;
+    private final long timeoutTicks;
+    private final Runnable onExpire;
+    private long lastSeenTick;
+    private long deadlineTick;
+    private boolean cancelled;
+
+    private Deadline(DeadlineWheel wheel, long timeoutTicks, Runnable onExpire) {
+      this.wheel = wheel;
+      this.timeoutTicks = timeoutTicks;
+      this.onExpire = onExpire;
+      this.lastSeenTick = wheel.tick;
+    }
+
+    // 最后活动所在的格可能已过去将近1秒，多等一格，保证实际空闲时间不少于超时时间（最多多1秒）
+    private long expireTick() {
+      return lastSeenTick + timeoutTicks + 1;
+    }
+
+    // 记录一次活动（热路径，只写一个字段）
+    public void touch() {
+      lastSeenTick = wheel.tick;
+    }
+
+    // 取消检测（连接关闭、转为工作连接等），条目在下次到期时被丢弃
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.frp.common.util;
+
+import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于可写性的流量控制：数据源连接的autoRead由四类暂停原因共同决定，任一成立即暂停读取
+ * 1. 对端暂停：对端该流的写缓冲超过高水位，发来PAUSE帧
+ * 2. 隧道拥塞：本端控制连接（隧道）的写缓冲超过高水位
+ * 3. 限速：读取速率超过令牌桶（TokenBucket）的限制，令牌补足后自动恢复
+ * 4. 内存压力：服务端缓冲的数据超过内存预算或配额，缓冲回落后恢复
+ * 这样各段写缓冲都被水位线约束，内存有界，慢的一端会反压到最初的数据源
+ */
+public class FlowControl {
+  private static final AttributeKey<Boolean> PEER_PAUSED = AttributeKey.valueOf("frp.peerPaused");
+  private static final AttributeKey<Boolean> TUNNEL_CONGESTED = AttributeKey.valueOf("frp.tunnelCongested");
+  private static final AttributeKey<Boolean> THROTTLED = AttributeKey.valueOf("frp.throttled");
+  private static final AttributeKey<Boolean> MEMORY_PRESSURE = AttributeKey.valueOf("frp.memoryPressure");
+
+  public static void setPeerPaused(Channel ch, boolean paused) {
+    update(ch, PEER_PAUSED, paused);
+  }
+
+  public static void setTunnelCongested(Channel ch, boolean congested) {
+    update(ch, TUNNEL_CONGESTED, congested);
+  }
+
+  public static void setMemoryPressure(Channel ch, boolean pressured) {
+    update(ch, MEMORY_PRESSURE, pressured);
+  }
+
+  /**
+   * 限速：bucket.consume返回需要等待时暂停读取，到期后令牌已补足则恢复，否则继续等待（在连接的EventLoop上调用）
+   * @param waitNanos bucket.consume的返回值
+   */
+  public static void throttle(Channel ch, TokenBucket bucket, long waitNanos) {
+    throttle(ch, bucket, waitNanos, null);
+  }
+
+  /**
+   * 同上，恢复读取时执行onResume（用于写出暂停期间推迟flush的数据）；已处于限速中时沿用首次登记的onResume
+   */
+  public static void throttle(Channel ch, TokenBucket bucket, long waitNanos, Runnable onResume) {
+    if (waitNanos <= 0 || isThrottled(ch)) {
+      return;
+    }
+    bucket.recordThrottle();
+    update(ch, THROTTLED, true);
+    ch.eventLoop().schedule(() -> unthrottle(ch, bucket, onResume), waitNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * 连接是否因限速暂停读取（在连接的EventLoop上调用）
+   */
+  public static boolean isThrottled(Channel ch) {
+    return Boolean.TRUE.equals(ch.attr(THROTTLED).get());
+  }
+
+  // 连接关闭后仍等到令牌补足：对端收到EOF时Netty会忽略autoRead读完内核中剩余的数据，这部分数据同样要按限速推迟写出
+  private static void unthrottle(Channel ch, TokenBucket bucket, Runnable onResume) {
+    long waitNanos = bucket.waitNanos();
+    if (waitNanos > 0) {
+      // 等待期间同一桶上的其他数据源又消费了令牌（共享的客户端/全局桶）
+      ch.eventLoop().schedule(() -> unthrottle(ch, bucket, onResume), waitNanos, TimeUnit.NANOSECONDS);
+      return;
+    }
+    update(ch, THROTTLED, false);
+    if (onResume != null) {
+      onResume.run();
+    }
+  }
+
+  // 状态只在连接自己的EventLoop上修改，避免并发翻转autoRead
+  private static void update(Channel ch, AttributeKey<Boolean> key, boolean value) {
+    if (!ch.eventLoop().inEventLoop()) {
+      ch.eventLoop().execute(() -> update(ch, key, value));
+      return;
+    }
+    ch.attr(key).set(value);
+    boolean paused = Boolean.TRUE.equals(ch.attr(PEER_PAUSED).get())
+        || Boolean.TRUE.equals(ch.attr(TUNNEL_CONGESTED).get())
+        || Boolean.TRUE.equals(ch.attr(THROTTLED).get())
+        || Boolean.TRUE.equals(ch.attr(MEMORY_PRESSURE).get());
+    ch.config().setAutoRead(!paused);
+  }
+
+  /**
+   * 根据配置生成写缓冲水位线，未配置（高水位<=0）时返回null，使用Netty默认值(32KB/64KB)
+   */
+  public static WriteBufferWaterMark waterMark(int low, int high) {
+    if (high <= 0) {
+      return null;
+    }
+    return new WriteBufferWaterMark(Math.max(0, Math.min(low, high)), high);
+  }
+}
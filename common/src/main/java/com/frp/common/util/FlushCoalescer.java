@@ -0,0 +1,79 @@
+package com.frp.common.util;
+
+import com.frp.common.metrics.Histogram;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 写合并：转发数据时只write不flush，同一次读突发内的多次写在读结束（channelReadComplete）时统一flush一次，
+ * 未flush字节数达到flushBytes、或距第一次未flush的写入超过flushDelayMicros时提前flush
+ * 只允许由单个线程（写入方所在的EventLoop）调用
+ */
+public class FlushCoalescer {
+  public static final int DEFAULT_FLUSH_BYTES = 16 * 1024;
+  public static final int DEFAULT_FLUSH_DELAY_MICROS = 1000;
+  // 目标连接上挂载的写合并器（该连接的唯一写入方使用）
+  private static final AttributeKey<FlushCoalescer> KEY = AttributeKey.valueOf("frp.flushCoalescer");
+
+  private final Channel channel;
+  private final int flushBytes;
+  private final long flushDelayNanos;
+  private int pendingBytes;
+  private long firstPendingNanos;
+  private boolean pending;
+  private Histogram latency; // 可选：记录每次flush时数据的滞留时间
+
+  /**
+   * @param flushBytes 未flush字节数阈值，<=0使用默认值，1表示每次写都flush（关闭合并）
+   * @param flushDelayMicros 未flush数据的最长滞留时间（微秒），<=0使用默认值
+   */
+  public FlushCoalescer(Channel channel, int flushBytes, int flushDelayMicros) {
+    this.channel = channel;
+    this.flushBytes = flushBytes > 0 ? flushBytes : DEFAULT_FLUSH_BYTES;
+    this.flushDelayNanos = (flushDelayMicros > 0 ? flushDelayMicros : DEFAULT_FLUSH_DELAY_MICROS) * 1000L;
+  }
+
+  // 为连接挂载写合并器，之后由写入方通过get取出使用
+  public static FlushCoalescer attach(Channel channel, int flushBytes, int flushDelayMicros) {
+    FlushCoalescer coalescer = new FlushCoalescer(channel, flushBytes, flushDelayMicros);
+    channel.attr(KEY).set(coalescer);
+    return coalescer;
+  }
+
+  public static FlushCoalescer get(Channel channel) {
+    return channel.attr(KEY).get();
+  }
+
+  // 每次flush时把最早一次未flush写入的滞留时间记入直方图（转发耗时指标）
+  public FlushCoalescer recordLatency(Histogram latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  /**
+   * 写入但不立即flush，超过阈值时flush；调用方需在读结束时调用flush
+   */
+  public void write(Object msg, int bytes) {
+    if (!pending) {
+      pending = true;
+      firstPendingNanos = System.nanoTime();
+    }
+    channel.write(msg, channel.voidPromise());
+    pendingBytes += bytes;
+    if (pendingBytes >= flushBytes || System.nanoTime() - firstPendingNanos >= flushDelayNanos) {
+      flush();
+    }
+  }
+
+  // flush所有待写数据（没有待写数据时不产生系统调用）
+  public void flush() {
+    if (pending) {
+      pending = false;
+      pendingBytes = 0;
+      channel.flush();
+      if (latency != null) {
+        latency.record(System.nanoTime() - firstPendingNanos);
+      }
+    }
+  }
+}
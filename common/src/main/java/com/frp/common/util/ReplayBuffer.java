@@ -0,0 +1,272 @@
+package com.frp.common.util;
+
+import com.frp.common.protocol.FrameType;
+import com.frp.common.protocol.FrpFrame;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayDeque;
+
+/**
+ * 会话恢复的重放缓冲：记录本端在控制连接上发出、对端尚未确认收到的流帧（OPEN/DATA/FIN/RST/PAUSE/RESUME），
+ * 控制连接断开后在新连接上从对端已收到的位置起重发，公网连接和内网连接都不用断开；控制帧不记录
+ * 流帧按发出顺序编号，对端按收到的流帧数确认（SESSION_ACK），确认后释放；记录时只保留payload的引用，不拷贝（堆外）
+ * 未确认的字节超过上限时放弃记录，会话不再可恢复（断线后按原方式重新注册），内存有界
+ * 断开到恢复之间产生的流帧（如FIN）先暂存在缓冲中，恢复后随重放一起按序发出
+ * 只在所属EventLoop上访问（恢复后的新连接也在该EventLoop上），流处理器通过静态方法跨线程提交
+ */
+public class ReplayBuffer {
+  private static final AttributeKey<ReplayBuffer> KEY = AttributeKey.valueOf("frp.replayBuffer");
+  // 每帧按至少这么多字节计（帧头），无payload的OPEN/FIN等同样占用额度、触发确认
+  private static final int FRAME_OVERHEAD = 16;
+  // 收到流帧后最迟这么久回复一次确认（纳秒）
+  static final long ACK_DELAY_NANOS = 1_000_000_000L;
+
+  private final EventLoop eventLoop;
+  private final int limit; // 未确认字节上限
+  private final int ackBytes; // 收到这么多字节的流帧后立即确认
+  private final ArrayDeque<FrpFrame> unacked = new ArrayDeque<>(); // 已记录未确认的帧，队首编号为sent-size+1
+  private long sent; // 已记录的流帧数（最后一帧的编号）
+  private volatile long unackedBytes; // 只在所属EventLoop上修改，内存预算在其他线程上读取
+  private boolean overflowed; // 超过上限，已放弃记录
+  private boolean peerResumable; // 对端支持会话恢复（收到过确认）
+  private long received; // 已收到的流帧数
+  private long acknowledged; // 最近一次确认给对端的received
+  private int receivedBytesSinceAck;
+  private long lastAckNanos;
+  private volatile Channel channel; // 当前控制连接，断开后到恢复前为null
+  private volatile boolean discarded; // 会话已放弃恢复（超过保留期或重新注册）
+
+  private ReplayBuffer(Channel channel, int limit) {
+    this.eventLoop = channel.eventLoop();
+    this.limit = limit;
+    this.ackBytes = Math.max(limit / 4, FRAME_OVERHEAD);
+    this.channel = channel;
+    this.lastAckNanos = System.nanoTime();
+  }
+
+  /**
+   * 为控制连接创建重放缓冲（连接的pipeline中须有ReplayHandler）
+   * @param limit 未确认字节上限
+   */
+  public static ReplayBuffer attach(Channel channel, int limit) {
+    ReplayBuffer buffer = new ReplayBuffer(channel, limit);
+    channel.attr(KEY).set(buffer);
+    return buffer;
+  }
+
+  /**
+   * 控制连接（含断开前的旧连接）的重放缓冲，未启用时返回null
+   */
+  public static ReplayBuffer of(Channel channel) {
+    return channel.attr(KEY).get();
+  }
+
+  public static boolean isStreamFrame(FrameType type) {
+    return type != FrameType.CONTROL;
+  }
+
+  /**
+   * 流处理器持有的控制连接已断开时查询：会话已恢复返回新连接，否则返回null
+   */
+  public static Channel resumedChannel(Channel tunnel) {
+    ReplayBuffer buffer = of(tunnel);
+    Channel current = buffer != null ? buffer.channel : null;
+    return current != null && current != tunnel && current.isActive() ? current : null;
+  }
+
+  /**
+   * 控制连接断开、会话正在等待恢复（流帧可以暂存）
+   * 连接刚断开、所属EventLoop尚未处理断开时也算：其他线程上的流先于suspend()看到连接失效，不应据此断开流
+   */
+  public static boolean isSuspended(Channel tunnel) {
+    ReplayBuffer buffer = of(tunnel);
+    if (buffer == null || buffer.discarded) {
+      return false;
+    }
+    Channel current = buffer.channel;
+    return current == null || current == tunnel && !tunnel.isActive();
+  }
+
+  /**
+   * 流处理器发送单个流帧（FIN/PAUSE/RESUME等）：连接可用时直接写出；连接已断开时交给重放缓冲，
+   * 等待恢复期间暂存、已恢复则写到新连接；未启用会话恢复或已放弃恢复时丢弃
+   */
+  public static void writeStream(Channel tunnel, FrpFrame frame) {
+    if (tunnel.isActive()) {
+      tunnel.writeAndFlush(frame);
+      return;
+    }
+    ReplayBuffer buffer = of(tunnel);
+    if (buffer == null) {
+      frame.release();
+    } else if (buffer.eventLoop.inEventLoop()) {
+      buffer.hold(frame);
+    } else {
+      buffer.eventLoop.execute(() -> buffer.hold(frame));
+    }
+  }
+
+  // 写往已断开连接的流帧：已恢复时写到新连接，等待恢复时暂存（占用编号，恢复后重放）
+  void hold(FrpFrame frame) {
+    Channel current = channel;
+    if (current != null && current.isActive()) {
+      current.writeAndFlush(frame);
+    } else if (isResumable()) {
+      append(frame);
+    } else {
+      frame.release();
+    }
+  }
+
+  /**
+   * 记录一个即将写出的流帧（ReplayHandler调用，帧本身继续写出，缓冲保留payload的另一份引用）
+   */
+  void record(FrpFrame frame) {
+    if (overflowed || discarded) {
+      sent++;
+      return;
+    }
+    append(new FrpFrame(frame.getType(), frame.getReserved(), frame.getStreamId(), frame.getHandle(),
+        frame.getPayload().retainedDuplicate()));
+  }
+
+  private void append(FrpFrame frame) {
+    sent++;
+    if (overflowed || discarded) {
+      frame.release();
+      return;
+    }
+    unacked.addLast(frame);
+    unackedBytes += frame.getPayload().readableBytes() + FRAME_OVERHEAD;
+    if (unackedBytes > limit) {
+      // 对端确认跟不上：放弃可恢复性，不再占用内存
+      overflowed = true;
+      releaseAll();
+    }
+  }
+
+  /**
+   * 对端确认已收到的流帧数：释放已确认的帧
+   */
+  public void acknowledge(long peerReceived) {
+    peerResumable = true;
+    long first = sent - unacked.size() + 1;
+    while (!unacked.isEmpty() && first <= peerReceived) {
+      FrpFrame frame = unacked.pollFirst();
+      unackedBytes -= frame.getPayload().readableBytes() + FRAME_OVERHEAD;
+      frame.release();
+      first++;
+    }
+  }
+
+  /**
+   * 收到一个流帧（ReplayHandler调用）
+   * @return 是否应立即回复确认
+   */
+  boolean onReceived(int bytes) {
+    received++;
+    receivedBytesSinceAck += bytes + FRAME_OVERHEAD;
+    return receivedBytesSinceAck >= ackBytes;
+  }
+
+  // 读突发结束时：有未确认的接收且距上次确认已超过延迟上限
+  boolean ackDue() {
+    return received != acknowledged && System.nanoTime() - lastAckNanos >= ACK_DELAY_NANOS;
+  }
+
+  // 有尚未确认给对端的接收
+  boolean hasUnacknowledged() {
+    return received != acknowledged;
+  }
+
+  // 生成一次确认：返回当前的received
+  long ack() {
+    acknowledged = received;
+    receivedBytesSinceAck = 0;
+    lastAckNanos = System.nanoTime();
+    return received;
+  }
+
+  /**
+   * 已记录未确认（含等待恢复期间暂存）的字节数，可在任意线程读取
+   */
+  public long getUnackedBytes() {
+    return unackedBytes;
+  }
+
+  public long getReceived() {
+    return received;
+  }
+
+  /**
+   * 会话是否仍可恢复：未超过上限、对端支持且未放弃
+   */
+  public boolean isResumable() {
+    return !overflowed && !discarded && peerResumable;
+  }
+
+  /**
+   * 控制连接断开：此后写往旧连接的流帧暂存，等待恢复
+   */
+  public void suspend() {
+    channel = null;
+  }
+
+  /**
+   * 对端缺少的帧是否都还在缓冲中
+   * @param peerReceived 对端已收到的流帧数
+   */
+  public boolean canResume(long peerReceived) {
+    return isResumable() && peerReceived <= sent && peerReceived >= sent - unacked.size();
+  }
+
+  /**
+   * 在新连接上恢复（在所属EventLoop上调用，新连接已注册到该EventLoop）：释放对端已收到的帧，重发其余的帧
+   * @param peerReceived 对端已收到的流帧数
+   * @return 对端缺少的帧已不在缓冲中时返回false（无法恢复）
+   */
+  public boolean resume(Channel newChannel, long peerReceived) {
+    if (!canResume(peerReceived)) {
+      return false;
+    }
+    acknowledge(peerReceived);
+    newChannel.attr(KEY).set(this);
+    // 从ReplayHandler之后写出，重发的帧不再重复记录
+    ChannelHandlerContext ctx = newChannel.pipeline().context(ReplayHandler.class);
+    for (FrpFrame frame : unacked) {
+      ctx.write(new FrpFrame(frame.getType(), frame.getReserved(), frame.getStreamId(), frame.getHandle(),
+          frame.getPayload().retainedDuplicate()), ctx.voidPromise());
+    }
+    ctx.flush();
+    channel = newChannel;
+    return true;
+  }
+
+  /**
+   * 放弃恢复，释放缓冲的全部帧（可在任意线程调用）
+   */
+  public void discard() {
+    discarded = true;
+    channel = null;
+    if (eventLoop.inEventLoop()) {
+      releaseAll();
+    } else {
+      eventLoop.execute(this::releaseAll);
+    }
+  }
+
+  private void releaseAll() {
+    FrpFrame frame;
+    while ((frame = unacked.pollFirst()) != null) {
+      frame.release();
+    }
+    unackedBytes = 0;
+  }
+
+  public EventLoop eventLoop() {
+    return eventLoop;
+  }
+}
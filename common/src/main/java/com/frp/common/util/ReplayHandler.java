@@ -0,0 +1,93 @@
+package com.frp.common.util;
+
+import com.frp.common.codec.ControlFrameCodec;
+import com.frp.common.protocol.FrameType;
+import com.frp.common.protocol.FrpFrame;
+import com.frp.common.protocol.SessionAck;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话恢复：位于帧编解码器与控制处理器之间，连接上有重放缓冲（ReplayBuffer）时
+ * 记录写出的流帧、统计收到的流帧，并在读突发结束时按需回复SESSION_ACK；
+ * 之后没有新的读突发时由定时器补发确认，对端的重放缓冲（计入其内存预算）不会因流量停止而一直得不到释放
+ * 写往已断开连接的流帧交给重放缓冲（暂存或转写到恢复后的新连接），不随旧连接丢失
+ */
+public class ReplayHandler extends ChannelDuplexHandler {
+  private ReplayBuffer buffer; // 注册或恢复后才挂到连接上
+  private boolean ackPending;
+  private ScheduledFuture<?> ackTimer; // 延迟确认定时器
+
+  private ReplayBuffer buffer(ChannelHandlerContext ctx) {
+    if (buffer == null) {
+      buffer = ReplayBuffer.of(ctx.channel());
+    }
+    return buffer;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (msg instanceof FrpFrame) {
+      FrpFrame frame = (FrpFrame) msg;
+      ReplayBuffer buffer = buffer(ctx);
+      if (buffer != null && ReplayBuffer.isStreamFrame(frame.getType())
+          && buffer.onReceived(frame.getPayload().readableBytes())) {
+        ackPending = true;
+      }
+    }
+    ctx.fireChannelRead(msg);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    ctx.fireChannelReadComplete();
+    ReplayBuffer buffer = buffer(ctx);
+    if (buffer == null || !ctx.channel().isActive()) {
+      return;
+    }
+    if (ackPending || buffer.ackDue()) {
+      writeAck(ctx, buffer);
+    } else if (buffer.hasUnacknowledged() && ackTimer == null) {
+      ackTimer = ctx.executor().schedule(() -> {
+        ackTimer = null;
+        if (buffer.hasUnacknowledged() && ctx.channel().isActive()) {
+          writeAck(ctx, buffer);
+        }
+      }, ReplayBuffer.ACK_DELAY_NANOS, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    if (ackTimer != null) {
+      ackTimer.cancel(false);
+      ackTimer = null;
+    }
+    ctx.fireChannelInactive();
+  }
+
+  private void writeAck(ChannelHandlerContext ctx, ReplayBuffer buffer) {
+    ackPending = false;
+    SessionAck ack = new SessionAck();
+    ack.setReceived(buffer.ack());
+    ctx.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "", ControlFrameCodec.encode(ctx.alloc(), ack)));
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    ReplayBuffer buffer = buffer(ctx);
+    if (buffer != null && msg instanceof FrpFrame && ReplayBuffer.isStreamFrame(((FrpFrame) msg).getType())) {
+      if (!ctx.channel().isActive()) {
+        buffer.hold((FrpFrame) msg);
+        promise.trySuccess();
+        return;
+      }
+      buffer.record((FrpFrame) msg);
+    }
+    ctx.write(msg, promise);
+  }
+}
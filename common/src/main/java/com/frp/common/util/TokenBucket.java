@@ -0,0 +1,116 @@
+package com.frp.common.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 令牌桶限速：速率（字节/秒）+ 突发量（字节），可挂上级桶形成层级（代理 -> 客户端 -> 全局），消费时逐级扣减
+ * 按GCRA实现：只维护一个"理论到达时间"（按限速发完已放行数据的时刻），消费是一次CAS，不加锁、无需定时补充令牌，
+ * 可被多个EventLoop并发使用
+ * 已经读到的数据总是放行（允许透支），消费返回数据源应暂停读取的时长，由调用方暂停读取实现限速，不丢数据
+ */
+public class TokenBucket {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final long rate; // 速率（字节/秒）
+  private final long burst; // 突发量（字节），空闲后可不受限地连续放行这么多数据
+  private final long burstNanos; // 突发量按速率折合的时长
+  private final TokenBucket parent; // 上级桶，没有时为null
+  private final AtomicLong theoreticalArrival; // 理论到达时间（System.nanoTime()时间轴）
+  private final LongAdder consumedBytes = new LongAdder(); // 累计放行字节数
+  private final LongAdder throttles = new LongAdder(); // 数据源因本桶超限被暂停的次数
+
+  /**
+   * @param rate 速率（字节/秒），必须大于0
+   * @param burst 突发量（字节），<=0时取1秒的量（等于rate）
+   * @param parent 上级桶，可为null
+   */
+  public TokenBucket(long rate, long burst, TokenBucket parent) {
+    if (rate <= 0) {
+      throw new IllegalArgumentException("限速必须大于0：" + rate);
+    }
+    this.rate = rate;
+    this.burst = burst > 0 ? burst : rate;
+    this.burstNanos = (long) (this.burst * (double) NANOS_PER_SECOND / rate);
+    this.parent = parent;
+    this.theoreticalArrival = new AtomicLong(System.nanoTime());
+  }
+
+  /**
+   * 放行已读到的数据（本桶及各级上级桶都扣减）
+   * @return 数据源应暂停读取的纳秒数，0表示未超限
+   */
+  public long consume(int bytes) {
+    long now = System.nanoTime();
+    long cost = bytes * NANOS_PER_SECOND / rate;
+    long current;
+    long next;
+    do {
+      current = theoreticalArrival.get();
+      next = Math.max(current, now) + cost;
+    } while (!theoreticalArrival.compareAndSet(current, next));
+    consumedBytes.add(bytes);
+    long wait = next - now - burstNanos;
+    if (parent != null) {
+      wait = Math.max(wait, parent.consume(bytes));
+    }
+    return Math.max(wait, 0);
+  }
+
+  /**
+   * 不消费，查询还需等待多久才回到限速以内（取各级的最大值）
+   */
+  public long waitNanos() {
+    long wait = ownWaitNanos(System.nanoTime());
+    if (parent != null) {
+      wait = Math.max(wait, parent.waitNanos());
+    }
+    return Math.max(wait, 0);
+  }
+
+  /**
+   * 数据源被暂停时调用：计入当前超限的各级桶
+   */
+  public void recordThrottle() {
+    long now = System.nanoTime();
+    for (TokenBucket bucket = this; bucket != null; bucket = bucket.parent) {
+      if (bucket.ownWaitNanos(now) > 0) {
+        bucket.throttles.increment();
+      }
+    }
+  }
+
+  private long ownWaitNanos(long now) {
+    return theoreticalArrival.get() - now - burstNanos;
+  }
+
+  /**
+   * 当前可用的令牌（字节），透支时为负数
+   */
+  public long available() {
+    long now = System.nanoTime();
+    long backlog = Math.max(theoreticalArrival.get(), now) - now;
+    return (long) (burst - backlog * (double) rate / NANOS_PER_SECOND);
+  }
+
+  public long getRate() {
+    return rate;
+  }
+
+  public long getBurst() {
+    return burst;
+  }
+
+  public TokenBucket getParent() {
+    return parent;
+  }
+
+  public long getConsumedBytes() {
+    return consumedBytes.sum();
+  }
+
+  public long getThrottles() {
+    return throttles.sum();
+  }
+}
@@ -2,75 +2,68 @@ package com.frp.client.boot;
 
 import com.frp.client.config.ClientConfig;
 import com.frp.client.config.ConfigLoader;
+import com.frp.client.config.ConfigWatcher;
 import com.frp.client.handler.ClientControlHandler;
-import com.frp.common.codec.FrpFrameDecoder;
-import com.frp.common.codec.FrpFrameEncoder;
-import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelInitializer;
-import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.timeout.IdleStateHandler;
+import com.frp.common.codec.ControlFrameCodec;
+import com.frp.common.metrics.MetricsHttpServer;
+import com.frp.common.metrics.MetricsRegistry;
+import com.frp.common.transport.EventLoopResources;
+import com.frp.common.transport.TransportType;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.TimeUnit;
-
 @Slf4j
 public class FrpClient {
   private final ClientConfig clientConfig; // 客户端配置（服务端地址、代理规则等）
-  private EventLoopGroup workerGroup;      // Netty IO线程组
+  private EventLoopResources resources;    // 进程内唯一的Netty IO线程组
   private ClientControlHandler controlHandler; // 控制连接处理器（核心业务逻辑）
+  private MetricsHttpServer metricsServer; // 指标端点（可选）
+  private ConfigWatcher configWatcher; // 配置文件监视（代理规则热更新，可选）
   public FrpClient(ClientConfig clientConfig) {
     this.clientConfig = clientConfig;
   }
   /**
-   * 启动客户端：初始化Netty并连接服务端控制端口
+   * 启动客户端：初始化线程组并连接服务端控制端口（断线后由控制处理器自动重连）
    */
   public void start() {
-    workerGroup = new NioEventLoopGroup(); // 创建IO线程组（客户端通常只需要workerGroup）
-    controlHandler = new ClientControlHandler(clientConfig); // 创建控制连接处理器
-    try {
-      Bootstrap bootstrap = new Bootstrap(); // Netty客户端启动器
-      bootstrap.group(workerGroup)
-          .channel(NioSocketChannel.class) // 使用NIO Socket通道
-          .option(ChannelOption.SO_KEEPALIVE, true) // 开启TCP保活机制
-          .option(ChannelOption.TCP_NODELAY, true) // 禁用Nagle算法（减少延迟）
-          .handler(new ChannelInitializer<SocketChannel>() {
-            @Override
-            protected void initChannel(SocketChannel ch) {
-              // 配置客户端ChannelPipeline（责任链）
-              ch.pipeline()
-                  // 1. 超时检测：5秒未读取到服务端数据（心跳超时），触发IdleStateEvent
-                  .addLast(new IdleStateHandler(5, 0, 0, TimeUnit.SECONDS))
-                  // 2. 协议帧解码（解决TCP粘包/拆包）
-                  .addLast(new FrpFrameDecoder())
-                  // 3. 协议帧编码
-                  .addLast(new FrpFrameEncoder())
-                  // 4. 控制连接业务处理器（核心逻辑：注册代理、心跳、数据转发）
-                  .addLast(controlHandler);
-            }
-          });
-      // 连接服务端控制端口（如1.2.3.4:7000）
-      ChannelFuture future = bootstrap.connect(
-          clientConfig.getServerHost(),
-          clientConfig.getServerPort()
-      ).sync();
-      log.info("客户端启动成功，已连接服务端：{}:{}",
-          clientConfig.getServerHost(), clientConfig.getServerPort());
-      // 阻塞等待控制连接关闭（客户端主逻辑在此期间通过Netty事件驱动运行）
-      future.channel().closeFuture().sync();
-    } catch (InterruptedException e) {
-      log.error("客户端启动失败或被中断", e);
-      Thread.currentThread().interrupt(); // 恢复中断状态
-    } finally {
-      // 优雅关闭线程组，释放资源
-      if (workerGroup != null) {
-        workerGroup.shutdownGracefully();
+    TransportType transport = TransportType.resolve(clientConfig.getTransport()); // Linux上优先epoll
+    ControlFrameCodec.setJsonEnabled("json".equalsIgnoreCase(clientConfig.getControlCodec()));
+    // 控制连接、工作连接、内网连接共用同一组IO线程（客户端不需要accept线程）
+    resources = new EventLoopResources(transport, "frpc", 0, clientConfig.getWorkerThreads());
+    MetricsRegistry metrics = new MetricsRegistry("frpc");
+    controlHandler = new ClientControlHandler(clientConfig, resources, metrics); // 创建控制连接处理器
+    if (clientConfig.getMetricsPort() > 0) {
+      metricsServer = new MetricsHttpServer(metrics);
+      try {
+        metricsServer.start(resources, clientConfig.getMetricsBindAddress(), clientConfig.getMetricsPort());
+      } catch (Exception e) {
+        log.error("指标端点启动失败，继续运行", e);
       }
-      log.info("客户端已关闭");
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "frpc-shutdown"));
+    controlHandler.start();
+    if (clientConfig.getConfigFile() != null && clientConfig.getConfigReloadInterval() > 0) {
+      configWatcher = new ConfigWatcher(clientConfig.getConfigFile(), controlHandler::reloadProxies);
+      configWatcher.start(resources.getWorkerGroup().next(), clientConfig.getConfigReloadInterval());
+    }
+    // 阻塞直到线程组关闭（客户端主逻辑在此期间通过Netty事件驱动运行）
+    resources.getWorkerGroup().terminationFuture().syncUninterruptibly();
+    log.info("客户端已关闭");
+  }
+  /**
+   * 停止客户端：不再重连，关闭控制连接并优雅关闭线程组
+   */
+  public void shutdown() {
+    if (configWatcher != null) {
+      configWatcher.stop();
+    }
+    if (controlHandler != null) {
+      controlHandler.stop();
+    }
+    if (metricsServer != null) {
+      metricsServer.stop();
+    }
+    if (resources != null) {
+      resources.shutdown();
     }
   }
   /**
@@ -78,7 +71,7 @@ public class FrpClient {
    */
   public static void main(String[] args) {
     try {
-      // 1. 加载客户端配置（从classpath下的frpc.properties）
+      // 1. 加载客户端配置（-Dfrpc.config指定的文件，未指定时为classpath下的frpc.properties）
       ClientConfig config = ConfigLoader.load();
       // 2. 启动客户端
       new FrpClient(config).start();
@@ -1,7 +1,10 @@
 package com.frp.client.config;
 
+import com.frp.common.transport.SocketOptions;
+import com.frp.common.transport.TlsOptions;
 import lombok.Data;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,5 +13,22 @@ public class ClientConfig {
   private String serverHost; //服务端公网IP或域名
   private int serverPort;
   private String authToken;
+  private int workConnPoolSize = 0; //预建工作连接数，0表示不使用工作连接，所有流量走控制连接多路复用
+  private int controlConnections = 1; //承载多路复用流的控制连接数，>1时注册后再建立条带连接，新流轮流分配到各连接
+  private int replayBufferSize = 4 * 1024 * 1024; //会话恢复：未确认流帧的重放缓冲上限（字节），0表示不启用，断线后重新注册
+  private int sessionResumeTimeout = 30; //断线后尝试恢复会话的最长时间（秒），超过后放弃恢复、重新注册
+  private int controlWriteBufferLowWaterMark; //控制连接写缓冲低水位（字节），0为默认值
+  private int controlWriteBufferHighWaterMark; //控制连接写缓冲高水位（字节），超过后暂停读取所有内网连接
+  private String transport = "auto"; //传输实现：auto/epoll/nio
+  private String controlCodec = "binary"; //控制指令编码：binary/json（json仅用于调试）
+  private int workerThreads = 0; //IO线程数，控制连接、工作连接、内网连接共用，0表示CPU核数
+  private int metricsPort = 0; //Prometheus指标端口（GET /metrics），0表示不启用
+  private String metricsBindAddress = "127.0.0.1"; //指标端口绑定地址
+  private int localPoolIdleTimeout = 10; //内网连接池中的连接空闲超过该秒数后关闭重建，应小于内网服务的空闲超时
+  private int localDnsTtl = 30; //内网服务域名解析结果的缓存时间（秒），0表示每次连接都重新解析
+  private int configReloadInterval = 5; //代理规则热更新：检查配置文件是否修改的间隔（秒），0表示不监视
+  private Path configFile; //配置文件路径（来自文件系统时），热更新时重新读取；打包在jar内时为null
+  private SocketOptions socketOptions = new SocketOptions(); //控制连接、工作连接、内网连接的socket参数
+  private TlsOptions tls = new TlsOptions(); //与服务端之间全部连接（控制连接、条带连接、工作连接）的TLS参数
   private List<ProxyConfig> proxies = new ArrayList<>();//代理规则表
 }
@@ -4,6 +4,14 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -12,14 +20,58 @@ import java.util.Properties;
 @Slf4j
 public class ConfigLoader {
   private static final String CONFIG_FILE = "frpc.properties";
+  private static final String CONFIG_PATH_PROPERTY = "frpc.config"; // 启动参数-Dfrpc.config=配置文件路径
+
+  /**
+   * 加载客户端配置：优先读取-Dfrpc.config指定的文件，否则读取classpath下的frpc.properties
+   * 配置来自文件系统时记下文件路径，供代理规则热更新监视（打包在jar内的配置不支持热更新）
+   */
   public static ClientConfig load() {
+    String path = System.getProperty(CONFIG_PATH_PROPERTY);
+    if (path != null && !path.trim().isEmpty()) {
+      return load(Paths.get(path.trim()));
+    }
+    URL url = ConfigLoader.class.getClassLoader().getResource(CONFIG_FILE);
+    if (url == null) {
+      log.error("配置文件{}不存在，无法启动客户端", CONFIG_FILE);
+      throw new RuntimeException("配置文件缺失");
+    }
+    if ("file".equals(url.getProtocol())) {
+      try {
+        return load(Paths.get(url.toURI()));
+      } catch (URISyntaxException e) {
+        log.warn("配置文件路径无法解析：{}，不支持热更新", url);
+      }
+    }
+    try (InputStream in = url.openStream()) {
+      return parse(in);
+    } catch (IOException e) {
+      log.error("加载配置文件失败", e);
+      throw new RuntimeException("配置加载失败", e);
+    }
+  }
+
+  /**
+   * 从指定文件加载客户端配置（启动时及热更新时调用）
+   */
+  public static ClientConfig load(Path file) {
+    try (InputStream in = Files.newInputStream(file)) {
+      ClientConfig config = parse(in);
+      config.setConfigFile(file);
+      return config;
+    } catch (NoSuchFileException e) {
+      log.error("配置文件{}不存在，无法启动客户端", file);
+      throw new RuntimeException("配置文件缺失");
+    } catch (IOException e) {
+      log.error("加载配置文件失败", e);
+      throw new RuntimeException("配置加载失败", e);
+    }
+  }
+
+  private static ClientConfig parse(InputStream in) throws IOException {
     ClientConfig config = new ClientConfig();
     Properties props = new Properties();
-    try (InputStream in = ConfigLoader.class.getClassLoader().getResourceAsStream(CONFIG_FILE)) {
-      if (in == null) {
-        log.error("配置文件{}不存在，无法启动客户端", CONFIG_FILE);
-        throw new RuntimeException("配置文件缺失");
-      }
+    try {
       props.load(in);
       // 1. 加载服务端连接信息
       config.setServerHost(props.getProperty("client.serverHost"));
@@ -28,6 +80,31 @@ public class ConfigLoader {
         config.setServerPort(Integer.parseInt(serverPortStr));
       }
       config.setAuthToken(props.getProperty("client.authToken"));
+      config.setWorkConnPoolSize(getInt(props, "client.workConnPoolSize", config.getWorkConnPoolSize()));
+      config.setControlConnections(getInt(props, "client.controlConnections", config.getControlConnections()));
+      config.setReplayBufferSize(getInt(props, "client.replayBufferSize", config.getReplayBufferSize()));
+      config.setSessionResumeTimeout(getInt(props, "client.sessionResumeTimeout", config.getSessionResumeTimeout()));
+      config.setControlWriteBufferLowWaterMark(getInt(props, "client.controlWriteBufferLowWaterMark", 0));
+      config.setControlWriteBufferHighWaterMark(getInt(props, "client.controlWriteBufferHighWaterMark", 0));
+      String transport = props.getProperty("client.transport");
+      if (transport != null && !transport.trim().isEmpty()) {
+        config.setTransport(transport.trim());
+      }
+      config.getSocketOptions().load(props, "client.");
+      config.getTls().load(props, "client.");
+      String controlCodec = props.getProperty("client.controlCodec");
+      if (controlCodec != null && !controlCodec.trim().isEmpty()) {
+        config.setControlCodec(controlCodec.trim());
+      }
+      config.setWorkerThreads(getInt(props, "client.workerThreads", config.getWorkerThreads()));
+      config.setMetricsPort(getInt(props, "client.metricsPort", config.getMetricsPort()));
+      config.setLocalPoolIdleTimeout(getInt(props, "client.localPoolIdleTimeout", config.getLocalPoolIdleTimeout()));
+      config.setLocalDnsTtl(getInt(props, "client.localDnsTtl", config.getLocalDnsTtl()));
+      config.setConfigReloadInterval(getInt(props, "client.configReloadInterval", config.getConfigReloadInterval()));
+      String metricsBindAddress = props.getProperty("client.metricsBindAddress");
+      if (metricsBindAddress != null && !metricsBindAddress.trim().isEmpty()) {
+        config.setMetricsBindAddress(metricsBindAddress.trim());
+      }
       // 校验必填项
       if (config.getServerHost() == null || config.getAuthToken() == null) {
         log.error("服务端地址或Token未配置");
@@ -40,23 +117,68 @@ public class ConfigLoader {
         if (proxyId == null) break; // 没有更多代理规则
         ProxyConfig proxy = new ProxyConfig();
         proxy.setProxyId(proxyId);
+        String proxyType = props.getProperty("proxy." + proxyIndex + ".proxyType");
+        if (proxyType != null && !proxyType.trim().isEmpty()) {
+          proxy.setProxyType(proxyType.trim().toLowerCase());
+        }
         proxy.setLocalIp(props.getProperty("proxy." + proxyIndex + ".localIp"));
         proxy.setLocalPort(Integer.parseInt(
             props.getProperty("proxy." + proxyIndex + ".localPort")));
-        proxy.setRemotePort(Integer.parseInt(
-            props.getProperty("proxy." + proxyIndex + ".remotePort")));
+        proxy.setRemotePort(getInt(props, "proxy." + proxyIndex + ".remotePort", 0));
+        proxy.setCustomDomains(getList(props, "proxy." + proxyIndex + ".customDomains"));
+        proxy.setLocations(getList(props, "proxy." + proxyIndex + ".locations"));
+        proxy.setWriteBufferLowWaterMark(getInt(props, "proxy." + proxyIndex + ".writeBufferLowWaterMark", 0));
+        proxy.setWriteBufferHighWaterMark(getInt(props, "proxy." + proxyIndex + ".writeBufferHighWaterMark", 0));
+        proxy.setFlushBytes(getInt(props, "proxy." + proxyIndex + ".flushBytes", 0));
+        proxy.setFlushDelayMicros(getInt(props, "proxy." + proxyIndex + ".flushDelayMicros", 0));
+        proxy.setBandwidthLimit(getLong(props, "proxy." + proxyIndex + ".bandwidthLimit", 0));
+        proxy.setBandwidthBurst(getLong(props, "proxy." + proxyIndex + ".bandwidthBurst", 0));
+        String compression = props.getProperty("proxy." + proxyIndex + ".compression");
+        if (compression != null && !compression.trim().isEmpty()) {
+          proxy.setCompression(compression.trim());
+        }
+        proxy.setLocalPoolSize(getInt(props, "proxy." + proxyIndex + ".localPoolSize", 0));
         config.getProxies().add(proxy);
         proxyIndex++;
       }
       log.info("客户端配置加载完成：服务端={}:{}，代理规则{}条",
           config.getServerHost(), config.getServerPort(), config.getProxies().size());
-    } catch (IOException e) {
-      log.error("加载配置文件失败", e);
-      throw new RuntimeException("配置加载失败", e);
     } catch (NumberFormatException e) {
       log.error("端口配置格式错误", e);
       throw new RuntimeException("配置格式错误", e);
     }
     return config;
   }
+
+  // 读取逗号分隔的列表配置项，未配置时返回空列表
+  private static List<String> getList(Properties props, String key) {
+    List<String> values = new ArrayList<>();
+    String value = props.getProperty(key);
+    if (value != null) {
+      for (String item : value.split(",")) {
+        if (!item.trim().isEmpty()) {
+          values.add(item.trim());
+        }
+      }
+    }
+    return values;
+  }
+
+  // 读取整数配置项，未配置时返回默认值
+  private static int getInt(Properties props, String key, int defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return Integer.parseInt(value.trim());
+  }
+
+  // 读取长整数配置项，未配置时返回默认值
+  private static long getLong(Properties props, String key, long defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return Long.parseLong(value.trim());
+  }
 }
@@ -0,0 +1,79 @@
+package com.frp.client.config;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 配置文件监视：按client.configReloadInterval定期比较文件的修改时间和大小，变化后重新加载，
+ * 把新的代理规则交给回调（由控制连接处理器比对差异、增量注册/注销）
+ * 只有代理规则支持热更新，服务端地址、线程数等其他配置项修改后需重启客户端
+ * 新配置解析失败时保留正在运行的配置，文件再次修改后重试
+ */
+@Slf4j
+public class ConfigWatcher {
+  private final Path file; // 监视的配置文件
+  private final Consumer<List<ProxyConfig>> onReload; // 代理规则重新加载后的回调
+  private long lastModified; // 上次加载时文件的修改时间（毫秒）
+  private long lastSize; // 上次加载时文件的大小
+  private ScheduledFuture<?> task;
+
+  public ConfigWatcher(Path file, Consumer<List<ProxyConfig>> onReload) {
+    this.file = file;
+    this.onReload = onReload;
+  }
+
+  /**
+   * 开始监视：以启动时的文件状态为基准，之后每intervalSeconds秒检查一次（在executor上执行）
+   */
+  public void start(EventExecutor executor, int intervalSeconds) {
+    snapshot();
+    task = executor.scheduleWithFixedDelay(this::check, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    log.info("监视配置文件{}，每{}秒检查一次代理规则变更", file, intervalSeconds);
+  }
+
+  public void stop() {
+    if (task != null) {
+      task.cancel(false);
+    }
+  }
+
+  // 记录文件当前的修改时间和大小，返回是否与上次不同（文件不可读时视为未变化）
+  private boolean snapshot() {
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+      long modified = attrs.lastModifiedTime().toMillis();
+      long size = attrs.size();
+      boolean changed = modified != lastModified || size != lastSize;
+      lastModified = modified;
+      lastSize = size;
+      return changed;
+    } catch (IOException e) {
+      log.debug("读取配置文件{}状态失败：{}", file, e.getMessage());
+      return false;
+    }
+  }
+
+  private void check() {
+    if (!snapshot()) {
+      return;
+    }
+    ClientConfig config;
+    try {
+      config = ConfigLoader.load(file);
+    } catch (RuntimeException e) {
+      log.error("配置文件{}已修改但加载失败：{}，继续使用当前的代理规则", file, e.getMessage());
+      return;
+    }
+    log.info("配置文件{}已修改，重新加载代理规则：{}条", file, config.getProxies().size());
+    onReload.accept(config.getProxies());
+  }
+}
@@ -1,13 +1,31 @@
 package com.frp.client.config;
 
+import com.frp.common.util.Constants;
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.List;
+
 // 单个代理规则配置：描述内网服务如何通过公网暴露
 @Data
 public class ProxyConfig {
   private String proxyId; //代理ID 需与服务端唯一
-  private String proxyType = "tcp"; //代理类型，目前仅支持tcp
+  private String proxyType = Constants.PROXY_TYPE_TCP; //代理类型：tcp/udp/http
   private String localIp; //内网服务IP
   private int localPort; //内网服务端口
-  private int remotePort; //公网暴露端口
+  private int remotePort; //公网暴露端口（http代理不需要，共用服务端的vhost端口）
+  private List<String> customDomains = new ArrayList<>(); //http代理：路由的域名，可用*.example.com匹配子域名
+  private List<String> locations = new ArrayList<>(); //http代理：路由的路径前缀，不配置时匹配全部路径
+  private int writeBufferLowWaterMark; //内网连接及服务端公网连接的写缓冲低水位（字节），0为默认值
+  private int writeBufferHighWaterMark; //写缓冲高水位（字节），超过后通知对端暂停该流
+  private int flushBytes; //写合并：未flush字节数达到该值立即flush，0为默认值(16KB)，1表示不合并
+  private int flushDelayMicros; //写合并：数据最长滞留时间（微秒），0为默认值(1000)
+  private long bandwidthLimit; //限速（字节/秒，公网<->内网两个方向合计），0为不限速，服务端另有上限时取较小值
+  private long bandwidthBurst; //限速的突发量（字节），0为1秒的量
+  private String compression = "none"; //DATA帧压缩：none/snappy（速度优先）/deflate（压缩率优先），注册时与服务端协商
+  private int localPoolSize; //预先连接内网服务的空闲连接数（tcp/http代理），新的公网连接直接取用，0表示收到新流时再连接
+
+  public boolean isUdp() {
+    return Constants.PROXY_TYPE_UDP.equalsIgnoreCase(proxyType);
+  }
 }
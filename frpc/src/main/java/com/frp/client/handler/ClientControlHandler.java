@@ -1,39 +1,137 @@
 package com.frp.client.handler;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.frp.client.config.ClientConfig;
 import com.frp.client.config.ProxyConfig;
 import com.frp.common.codec.ControlFrameCodec;
+import com.frp.common.codec.DatagramBatch;
+import com.frp.common.codec.DatagramBatchEncoder;
 import com.frp.common.codec.FrpFrameDecoder;
 import com.frp.common.codec.FrpFrameEncoder;
+import com.frp.common.metrics.MetricsRegistry;
+import com.frp.common.metrics.ProxyMetrics;
 import com.frp.common.protocol.*;
+import com.frp.common.transport.EventLoopResources;
+import com.frp.common.transport.TlsOptions;
+import com.frp.common.transport.TransportType;
 import com.frp.common.util.Constants;
+import com.frp.common.util.DeadlineWheel;
+import com.frp.common.util.FlowControl;
+import com.frp.common.util.FlushCoalescer;
+import com.frp.common.util.ReplayBuffer;
+import com.frp.common.util.ReplayHandler;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.timeout.IdleState;
-import io.netty.handler.timeout.IdleStateEvent;
-import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
 import io.netty.util.concurrent.ScheduledFuture;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.net.ssl.SSLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * 客户端控制连接处理器
+ * client.controlConnections>1时，主控制连接注册完代理后再建立若干条带连接，每条由一个共享同一runId的处理器实例负责：
+ * 条带连接只承载服务端分配给它的流，不注册代理、不建工作连接，按句柄路由时读取主控制连接的代理表
+ * 启用会话恢复（client.replayBufferSize>0且服务端支持）时，主控制连接断开后保留内网连接和路由表，
+ * 在原EventLoop上重连并发送RESUME_SESSION，服务端确认后双方从对方已收到的位置重放未确认的流帧；恢复失败或超时才重新注册
+ * 配置文件热更新时与正在运行的代理规则比对，在现有控制连接上只注销删除/修改的代理、注册新增/修改的代理，其余代理的流不受影响
+ * 新流优先取用内网连接池中预建的连接（LocalConnPool），连接建立前到达的数据在流上排队（PendingWrites）
+ */
 @Slf4j
+@ChannelHandler.Sharable // 每次重连都会加入新的控制连接pipeline，同一时刻只属于一个连接
 public class ClientControlHandler extends SimpleChannelInboundHandler<FrpFrame>{
   private final ClientConfig clientConfig; // 客户端全局配置
-  private Channel serverChannel; // 与服务端的控制连接Channel
-  private final Map<String, Channel> proxyChannelMap = new ConcurrentHashMap<>(); // proxyId→内网服务连接
+  private volatile Channel serverChannel; // 与服务端的控制连接Channel（主控制连接关闭条带连接时跨线程读取）
+  // 流路由表只在控制连接的EventLoop上访问（内网连接复用该EventLoop），用int为键不装箱；每个控制连接一套，断线时整表替换
+  private IntObjectMap<ChannelFuture> streamChannels = new IntObjectHashMap<>(); // 流ID→内网服务连接（连接中或已连接）
+  // 代理句柄→注册成功的代理：条带连接在其他EventLoop上读取，写时复制，注册响应到达时整表替换
+  private volatile IntObjectMap<RegisteredProxy> registeredProxies = new IntObjectHashMap<>();
   private ScheduledFuture<?> heartbeatTask; // 心跳定时任务
-  private EventLoopGroup reconnectGroup = new NioEventLoopGroup(1); // 断线重连线程组
-  public ClientControlHandler(ClientConfig clientConfig) {
+  private DeadlineWheel.Deadline liveness; // 服务端存活检测：收到任何帧都算活动（服务端会回复心跳）
+  private final Set<FlushCoalescer> pendingFlush = new HashSet<>(); // 本轮读突发中写入过数据、待flush的内网连接
+  private static final Heartbeat HEARTBEAT = new Heartbeat(); // 心跳无字段，复用同一实例
+  private final String runId; // 客户端运行ID，关联控制连接、条带连接与工作连接
+  private final ClientControlHandler primary; // 条带连接所属的主控制连接处理器，主控制连接为null
+  private final int stripeIndex; // 条带连接序号（从1开始），主控制连接为0
+  private final List<ClientControlHandler> stripes = new ArrayList<>(); // 主控制连接的条带连接处理器
+  private final AtomicBoolean connecting = new AtomicBoolean(); // 正在发起连接，避免重连与重建条带重复连接
+  private final EventLoopResources resources; // 进程共享线程组，重连不再新建线程
+  private final TransportType transport; // 传输实现，所有主动连接与线程组保持一致
+  private volatile boolean stopped; // 客户端已停止，不再重连
+  private final MetricsRegistry metrics; // 客户端指标注册表
+  private final SslContext sslContext; // 隧道TLS，未启用时为null；主控制连接、条带连接共用，会话票据在重连之间保留
+  private long registerSentNanos; // 批量注册请求的发送时间，用于统计注册耗时
+  private boolean workConnsOpened; // 本会话已预建工作连接池（服务端只接受已注册会话的工作连接）
+  private int workConnFailures; // 连续被关闭或建立失败的空闲工作连接数，决定补建的退避延迟
+  private ReplayBuffer replay; // 主控制连接的重放缓冲，未启用会话恢复时为null
+  private volatile boolean suspended; // 控制连接已断开，正在尝试恢复会话（内网连接和路由表保留）
+  private long suspendedNanos; // 开始尝试恢复会话的时间
+  private List<ProxyConfig> pendingProxies; // 等待恢复会话期间热更新的代理规则，恢复后再比对生效
+  private final LocalAddressResolverGroup localResolver; // 内网服务地址解析（不占用EventLoop、按TTL缓存），主控制连接、条带连接共用
+  private final IntObjectMap<LocalConnPool> localPools = new IntObjectHashMap<>(); // 代理句柄→内网连接池，只在控制连接的EventLoop上访问
+  public ClientControlHandler(ClientConfig clientConfig, EventLoopResources resources, MetricsRegistry metrics) {
     this.clientConfig = clientConfig;
+    this.resources = resources;
+    this.metrics = metrics;
+    this.transport = resources.getTransport();
+    this.runId = UUID.randomUUID().toString();
+    this.primary = null;
+    this.stripeIndex = 0;
+    this.sslContext = newSslContext(clientConfig);
+    this.localResolver = new LocalAddressResolverGroup(clientConfig.getLocalDnsTtl());
+    for (int i = 1; i < clientConfig.getControlConnections(); i++) {
+      stripes.add(new ClientControlHandler(this, i));
+    }
+  }
+
+  // 条带连接处理器：沿用主控制连接的配置、线程组、指标和runId
+  private ClientControlHandler(ClientControlHandler primary, int stripeIndex) {
+    this.clientConfig = primary.clientConfig;
+    this.resources = primary.resources;
+    this.metrics = primary.metrics;
+    this.transport = primary.transport;
+    this.runId = primary.runId;
+    this.primary = primary;
+    this.stripeIndex = stripeIndex;
+    this.sslContext = primary.sslContext;
+    this.localResolver = primary.localResolver;
+  }
+  private static SslContext newSslContext(ClientConfig clientConfig) {
+    if (!clientConfig.getTls().isEnabled()) {
+      return null;
+    }
+    try {
+      return clientConfig.getTls().newClientContext();
+    } catch (SSLException e) {
+      throw new IllegalStateException("TLS配置无效：" + e.getMessage(), e);
+    }
+  }
+  /**
+   * 启用TLS时在pipeline最前加上SslHandler（控制连接、条带连接、工作连接），按服务端地址复用会话
+   */
+  private void addTls(Channel ch) {
+    if (sslContext != null) {
+      SslHandler sslHandler = clientConfig.getTls().newHandler(
+          sslContext, ch.alloc(), clientConfig.getServerHost(), clientConfig.getServerPort());
+      TlsOptions.recordHandshake(sslHandler, metrics);
+      ch.pipeline().addLast(sslHandler);
+    }
   }
   /**
    * 启动客户端：连接服务端控制端口
@@ -41,67 +139,351 @@ public class ClientControlHandler extends SimpleChannelInboundHandler<FrpFrame>{
   public void start() {
     doConnect(); // 首次连接
   }
+  /**
+   * 停止客户端：关闭控制连接且不再重连
+   */
+  public void stop() {
+    stopped = true;
+    stripes.forEach(ClientControlHandler::stop);
+    if (serverChannel != null) {
+      serverChannel.close().syncUninterruptibly();
+    }
+    if (primary == null) {
+      localResolver.close();
+    }
+  }
   /**
    * 连接服务端（含断线重连逻辑）
    */
   private void doConnect() {
+    if (stopped || (serverChannel != null && serverChannel.isActive()) || !connecting.compareAndSet(false, true)) {
+      return;
+    }
     Bootstrap bootstrap = new Bootstrap();
-    bootstrap.group(new NioEventLoopGroup())
-        .channel(NioSocketChannel.class)
-        .option(ChannelOption.SO_KEEPALIVE, true)
+    clientConfig.getSocketOptions().applyTo(bootstrap, transport);
+    // 恢复会话时新连接沿用原控制连接的EventLoop：内网连接、路由表和重放缓冲都只在该线程上访问
+    Channel previous = serverChannel;
+    bootstrap.group(suspended && previous != null ? previous.eventLoop() : resources.getWorkerGroup())
+        .channel(transport.socketChannelClass())
+        .option(ChannelOption.WRITE_BUFFER_WATER_MARK, controlWaterMark(clientConfig))
         .handler(new ChannelInitializer<SocketChannel>() {
           @Override
           protected void initChannel(SocketChannel ch) {
-            ch.pipeline()
-                // 超时检测：5秒未读（服务端断连）触发事件
-                .addLast(new IdleStateHandler(5, 0, 0, TimeUnit.SECONDS))
+            addTls(ch);
+            ChannelPipeline pipeline = ch.pipeline()
+                // 合并flush：各内网连接发来的帧在控制连接上合并为少量系统调用
+                .addLast(new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true))
                 // 协议帧编解码器（公共模块）
                 .addLast(new FrpFrameDecoder())
-                .addLast(new FrpFrameEncoder())
-                // 业务处理器（当前类）
-                .addLast(ClientControlHandler.this);
+                .addLast(new FrpFrameEncoder());
+            if (primary == null && clientConfig.getReplayBufferSize() > 0) {
+              // 会话恢复：记录发出的流帧、确认收到的流帧（挂上重放缓冲后生效）
+              pipeline.addLast(new ReplayHandler());
+            }
+            // 业务处理器（当前类）
+            pipeline.addLast(ClientControlHandler.this);
           }
         });
     // 发起连接
     ChannelFuture future = bootstrap.connect(clientConfig.getServerHost(), clientConfig.getServerPort());
     future.addListener((ChannelFutureListener) f -> {
-      if (f.isSuccess()) {
+      connecting.set(false);
+      if (f.isSuccess() && primary != null) {
         serverChannel = f.channel();
-        log.info("成功连接服务端：{}:{}", clientConfig.getServerHost(), clientConfig.getServerPort());
-        // 连接成功后，注册所有代理规则
-        registerAllProxies();
-        // 启动心跳定时任务
+        log.info("条带连接{}成功连接服务端", stripeIndex);
+        // 条带连接：登记到主控制连接的会话，只需维持心跳
+        joinSession();
         startHeartbeat();
+        warmLocalPools();
+      } else if (f.isSuccess() && suspended) {
+        serverChannel = f.channel();
+        log.info("已重新连接服务端，请求恢复会话");
+        requestResume();
+      } else if (f.isSuccess()) {
+        serverChannel = f.channel();
+        log.info("成功连接服务端：{}:{}", clientConfig.getServerHost(), clientConfig.getServerPort());
+        startSession();
       } else {
-        log.error("连接服务端失败，{}秒后重试...", 5);
-        // 5秒后重试连接
-        reconnectGroup.schedule(this::doConnect, 5, TimeUnit.SECONDS);
+        if (suspended && resumeExpired()) {
+          log.warn("{}秒内未能恢复会话，放弃恢复，重连后重新注册", clientConfig.getSessionResumeTimeout());
+          resetSession();
+        }
+        log.error("连接服务端失败，{}秒后重试...", reconnectDelay());
+        scheduleReconnect();
       }
     });
   }
   /**
-   * 向服务端注册所有代理规则
+   * 新会话：挂上重放缓冲，注册所有代理，启动心跳，预建工作连接池
+   */
+  private void startSession() {
+    if (clientConfig.getReplayBufferSize() > 0) {
+      replay = ReplayBuffer.attach(serverChannel, clientConfig.getReplayBufferSize());
+    }
+    // 连接成功后，注册所有代理规则
+    registerAllProxies();
+    // 注册后先发一次确认，服务端据此得知客户端支持会话恢复
+    sendSessionAck();
+    // 启动心跳定时任务
+    startHeartbeat();
+    // 工作连接池在注册响应到达后预建
+    workConnsOpened = false;
+    workConnFailures = 0;
+  }
+  private void sendSessionAck() {
+    if (replay != null) {
+      SessionAck ack = new SessionAck();
+      ack.setReceived(replay.getReceived());
+      serverChannel.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "",
+          ControlFrameCodec.encode(serverChannel.alloc(), ack)));
+    }
+  }
+  /**
+   * 在新连接上请求恢复会话，携带本端已收到的流帧数，服务端从该位置起重放
+   */
+  private void requestResume() {
+    ResumeSession resume = new ResumeSession();
+    resume.setRunId(runId);
+    resume.setAuthToken(clientConfig.getAuthToken());
+    resume.setReceived(replay.getReceived());
+    serverChannel.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "",
+        ControlFrameCodec.encode(serverChannel.alloc(), resume)));
+  }
+  /**
+   * 会话恢复结果：成功则重放服务端缺少的流帧、恢复读取内网连接；失败则放弃保留的状态，在当前连接上重新注册
+   */
+  private void handleResumeResponse(ResumeSessionResponse response) {
+    if (!response.isSuccess()) {
+      log.warn("会话恢复失败：{}，重新注册全部代理", response.getMessage());
+      resetSession();
+      startSession();
+      return;
+    }
+    if (!replay.resume(serverChannel, response.getReceived())) {
+      // 服务端缺少的帧已不在本端缓冲中：断开后重新注册（服务端保留的会话随之回收）
+      log.warn("会话恢复失败：重放缓冲中已没有服务端缺少的数据，断开后重新注册");
+      replay.discard();
+      serverChannel.close();
+      return;
+    }
+    suspended = false;
+    boolean congested = !serverChannel.isWritable();
+    streamChannels.values().forEach(f -> {
+      if (f.isSuccess()) {
+        FlowControl.setTunnelCongested(f.channel(), congested);
+      }
+    });
+    metrics.getSessionResumes().increment();
+    log.info("会话已恢复，{}个流保持连接", streamChannels.size());
+    startHeartbeat();
+    openStripes();
+    if (pendingProxies != null) {
+      List<ProxyConfig> proxies = pendingProxies;
+      pendingProxies = null;
+      applyProxies(serverChannel, proxies);
+    }
+  }
+  // 尝试恢复会话的时间已超过client.sessionResumeTimeout
+  private boolean resumeExpired() {
+    return System.nanoTime() - suspendedNanos >= TimeUnit.SECONDS.toNanos(clientConfig.getSessionResumeTimeout());
+  }
+  /**
+   * 向服务端注册所有代理规则：一个REGISTER_BATCH帧携带全部代理，服务端一次性返回全部结果
    */
   private void registerAllProxies() {
-    List<ProxyConfig> proxies = clientConfig.getProxies();
+    registerProxies(clientConfig.getProxies());
+  }
+  // 一个REGISTER_BATCH帧注册给定的代理（热更新时只含新增/修改的代理），响应到达后并入代理表
+  private void registerProxies(List<ProxyConfig> proxies) {
+    if (proxies.isEmpty()) {
+      return;
+    }
+    RegisterBatchRequest batch = new RegisterBatchRequest();
+    batch.setAuthToken(clientConfig.getAuthToken());
+    batch.setRunId(runId);
+    for (ProxyConfig proxy : proxies) {
+      RegisterRequest request = new RegisterRequest();
+      request.setProxyId(proxy.getProxyId());
+      request.setProxyType(proxy.getProxyType());
+      request.setLocalIp(proxy.getLocalIp());
+      request.setLocalPort(proxy.getLocalPort());
+      request.setRemotePort(proxy.getRemotePort());
+      request.setCustomDomains(proxy.getCustomDomains());
+      request.setLocations(proxy.getLocations());
+      request.setWriteBufferLowWaterMark(proxy.getWriteBufferLowWaterMark());
+      request.setWriteBufferHighWaterMark(proxy.getWriteBufferHighWaterMark());
+      request.setFlushBytes(proxy.getFlushBytes());
+      request.setFlushDelayMicros(proxy.getFlushDelayMicros());
+      request.setBandwidthLimit(proxy.getBandwidthLimit());
+      request.setBandwidthBurst(proxy.getBandwidthBurst());
+      CompressionType compression = CompressionType.fromName(proxy.getCompression());
+      if (compression == null) {
+        log.warn("代理{}的压缩算法{}不支持，不启用压缩", proxy.getProxyId(), proxy.getCompression());
+        compression = CompressionType.NONE;
+      }
+      request.setCompression(compression);
+      batch.getProxies().add(request);
+    }
+    // 封装为控制帧发送
+    ByteBuf payload = ControlFrameCodec.encode(serverChannel.alloc(), batch);
+    registerSentNanos = System.nanoTime();
+    serverChannel.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "", payload));
+    log.info("已发送批量注册请求：{}个代理", proxies.size());
+  }
+  /**
+   * 配置文件热更新（可在任意线程调用）：转到控制连接的EventLoop上比对并生效
+   */
+  public void reloadProxies(List<ProxyConfig> proxies) {
+    Channel channel = serverChannel;
+    if (channel == null) {
+      clientConfig.setProxies(proxies); // 尚未连接，首次注册时使用新规则
+      return;
+    }
+    channel.eventLoop().execute(() -> {
+      if (serverChannel != channel) {
+        reloadProxies(proxies); // 期间已换了控制连接
+      } else {
+        applyProxies(channel, proxies);
+      }
+    });
+  }
+  /**
+   * 按代理ID比对新旧代理规则：删除的代理发CLOSE_PROXY，新增的代理批量注册，配置有变化的代理先注销再注册；
+   * 未变化的代理及其流不受影响。服务端关闭被注销代理的公网连接时发FIN，本端随之关闭对应的内网连接
+   * 未连接时只替换规则（下次注册全部代理时生效），等待恢复会话时暂存到恢复后再比对
+   */
+  private void applyProxies(Channel channel, List<ProxyConfig> proxies) {
+    if (suspended) {
+      pendingProxies = proxies;
+      log.info("正在恢复会话，代理规则变更在恢复后生效");
+      return;
+    }
+    if (!channel.isActive()) {
+      clientConfig.setProxies(proxies);
+      return;
+    }
+    Map<String, ProxyConfig> running = new HashMap<>();
+    clientConfig.getProxies().forEach(p -> running.put(p.getProxyId(), p));
+    Set<String> removed = new HashSet<>(running.keySet());
+    List<ProxyConfig> added = new ArrayList<>();
     for (ProxyConfig proxy : proxies) {
-      try {
-        RegisterRequest request = new RegisterRequest();
-        request.setProxyId(proxy.getProxyId());
-        request.setProxyType(proxy.getProxyType());
-        request.setLocalIp(proxy.getLocalIp());
-        request.setLocalPort(proxy.getLocalPort());
-        request.setRemotePort(proxy.getRemotePort());
-        request.setAuthToken(clientConfig.getAuthToken());
-        // 封装为控制帧发送
-        byte[] payload = ControlFrameCodec.serialize(request);
-        FrpFrame frame = new FrpFrame(FrameType.CONTROL, (byte) 0, proxy.getProxyId(), payload);
-        serverChannel.writeAndFlush(frame);
-        log.info("已发送代理注册请求：{}", proxy.getProxyId());
-      } catch (Exception e) {
-        log.error("代理{}注册请求序列化失败", proxy.getProxyId(), e);
+      ProxyConfig previous = running.get(proxy.getProxyId());
+      if (previous != null && previous.equals(proxy)) {
+        removed.remove(proxy.getProxyId());
+      } else {
+        added.add(proxy); // 新增，或配置有变化（旧的在removed中先注销）
       }
     }
+    clientConfig.setProxies(proxies);
+    if (removed.isEmpty() && added.isEmpty()) {
+      log.info("代理规则没有变化");
+      return;
+    }
+    // 先注销：从代理表移除，之后到达的旧句柄OPEN帧回复RST
+    IntObjectMap<RegisteredProxy> table = copyProxies();
+    for (RegisteredProxy proxy : registeredProxies.values()) {
+      if (removed.contains(proxy.getProxyId())) {
+        table.remove(proxy.getHandle());
+        if (findProxyConfig(proxy.getProxyId()) == null) {
+          metrics.remove(proxy.getMetrics()); // 代理已删除，不再导出其指标
+        }
+      }
+    }
+    registeredProxies = table;
+    warmLocalPools(); // 关闭已注销代理的内网连接池
+    for (String proxyId : removed) {
+      CloseProxy closeProxy = new CloseProxy();
+      closeProxy.setProxyId(proxyId);
+      channel.write(new FrpFrame(FrameType.CONTROL, (byte) 0, "", ControlFrameCodec.encode(channel.alloc(), closeProxy)));
+    }
+    channel.flush();
+    // 再注册：服务端按顺序处理，同一端口等旧代理的监听关闭后再绑定
+    registerProxies(added);
+    log.info("代理规则已更新：注销{}个，注册{}个", removed.size(), added.size());
+  }
+  /**
+   * 条带连接登记：服务端校验后并入同一runId的会话
+   */
+  private void joinSession() {
+    NewStripeConn newStripeConn = new NewStripeConn();
+    newStripeConn.setRunId(runId);
+    newStripeConn.setAuthToken(clientConfig.getAuthToken());
+    serverChannel.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "",
+        ControlFrameCodec.encode(serverChannel.alloc(), newStripeConn)));
+  }
+  /**
+   * 主控制连接注册完成后建立条带连接（已连接的条带不重复建立）
+   */
+  private void openStripes() {
+    stripes.forEach(ClientControlHandler::doConnect);
+  }
+  // 按句柄路由时使用的代理表：条带连接读取主控制连接的
+  private IntObjectMap<RegisteredProxy> proxies() {
+    return primary != null ? primary.registeredProxies : registeredProxies;
+  }
+  /**
+   * 注册完成后预先建立工作连接池（服务端此时已有该会话），每个会话只预建一次
+   */
+  private void openWorkConns() {
+    if (workConnsOpened) {
+      return;
+    }
+    workConnsOpened = true;
+    for (int i = 0; i < clientConfig.getWorkConnPoolSize(); i++) {
+      openWorkConn();
+    }
+  }
+
+  /**
+   * 空闲工作连接被关闭或建立失败后补建一个：按连续失败次数指数退避，服务端拒绝登记时不会立即反复重连
+   */
+  void retryWorkConn() {
+    Channel channel = serverChannel;
+    if (channel == null || !channel.isActive()) {
+      return;
+    }
+    long delay = Math.min((long) Constants.WORK_CONN_RETRY_MIN_DELAY << Math.min(workConnFailures, 16),
+        Constants.WORK_CONN_RETRY_MAX_DELAY);
+    workConnFailures++;
+    log.debug("{}毫秒后补建工作连接（连续失败{}次）", delay, workConnFailures);
+    channel.eventLoop().schedule(this::openWorkConn, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 工作连接被服务端分配给公网连接，说明登记已被接受，清零退避
+   */
+  void workConnStarted() {
+    workConnFailures = 0;
+  }
+
+  /**
+   * 新建一个到服务端控制端口的工作连接，登记到服务端的工作连接池
+   */
+  void openWorkConn() {
+    if (clientConfig.getWorkConnPoolSize() <= 0 || serverChannel == null || !serverChannel.isActive()) {
+      return;
+    }
+    Bootstrap bootstrap = new Bootstrap();
+    clientConfig.getSocketOptions().applyTo(bootstrap, transport);
+    bootstrap.group(serverChannel.eventLoop())
+        .channel(transport.socketChannelClass())
+        .handler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel ch) {
+            addTls(ch);
+            ch.pipeline()
+                .addLast(new FrpFrameDecoder())
+                .addLast(new FrpFrameEncoder())
+                .addLast(new WorkConnHandler(ClientControlHandler.this, clientConfig, runId));
+          }
+        });
+    bootstrap.connect(clientConfig.getServerHost(), clientConfig.getServerPort())
+        .addListener((ChannelFutureListener) f -> {
+          if (!f.isSuccess()) {
+            log.warn("工作连接建立失败：{}", f.cause().getMessage());
+            retryWorkConn();
+          }
+        });
   }
   /**
    * 启动心跳定时任务（每30秒发送一次心跳）
@@ -112,30 +494,54 @@ public class ClientControlHandler extends SimpleChannelInboundHandler<FrpFrame>{
     }
     heartbeatTask = serverChannel.eventLoop().scheduleAtFixedRate(() -> {
       if (serverChannel.isActive()) {
-        // 发送心跳帧（控制帧，payload为空）
-        FrpFrame heartbeatFrame = null;
-        try {
-          heartbeatFrame = new FrpFrame(
-              FrameType.CONTROL, (byte) 0, "",
-              ControlFrameCodec.serialize(new HeartbeatRequest())
-          );
-        } catch (JsonProcessingException e) {
-          throw new RuntimeException(e);
-        }
+        // 发送心跳帧（二进制编码固定为2字节，共享缓冲区不重复编码）
+        FrpFrame heartbeatFrame = new FrpFrame(FrameType.CONTROL, (byte) 0, "",
+            ControlFrameCodec.encode(serverChannel.alloc(), HEARTBEAT));
         serverChannel.writeAndFlush(heartbeatFrame);
         log.debug("发送心跳包");
       }
     }, 0, Constants.HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
   }
+
+  /**
+   * 控制连接建立：登记到所在EventLoop的时间轮，超过心跳超时时间没有收到任何帧则断开重连
+   */
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) {
+    liveness = DeadlineWheel.register(ctx.channel().eventLoop(), Constants.HEARTBEAT_TIMEOUT, () -> {
+      log.warn("服务端{}秒无响应，主动断开连接并重连", Constants.HEARTBEAT_TIMEOUT);
+      ctx.close(); // 关闭当前连接，触发channelInactive重连
+    });
+    metrics.getControlConnections().increment();
+    ctx.fireChannelActive();
+  }
+
   /**
    * 处理从服务端接收的帧（注册响应/公网请求数据）
    */
   @Override
   protected void channelRead0(ChannelHandlerContext ctx, FrpFrame frame) {
-    if (frame.getType() == FrameType.CONTROL) {
-      handleControlFrame(frame); // 处理控制帧（注册响应等）
-    } else if (frame.getType() == FrameType.DATA) {
-      handleDataFrame(frame); // 处理数据帧（公网用户请求）
+    liveness.touch(); // 只记录活动时间，不重建定时任务
+    switch (frame.getType()) {
+      case CONTROL:
+        handleControlFrame(frame); // 处理控制帧（注册响应等）
+        break;
+      case OPEN:
+        handleStreamOpen(frame); // 新公网连接：建立对应的内网连接
+        break;
+      case DATA:
+        handleDataFrame(frame); // 处理数据帧（公网用户请求）
+        break;
+      case FIN:
+      case RST:
+        handleStreamClose(frame); // 公网连接关闭
+        break;
+      case PAUSE:
+      case RESUME:
+        handleStreamFlowControl(frame); // 公网连接写缓冲积压/恢复
+        break;
+      default:
+        log.warn("收到非法帧类型：{}", frame.getType());
     }
   }
   /**
@@ -143,72 +549,326 @@ public class ClientControlHandler extends SimpleChannelInboundHandler<FrpFrame>{
    */
   private void handleControlFrame(FrpFrame frame) {
     try {
-      // 解析为注册响应
-      RegisterResponse response = ControlFrameCodec.deserialize(frame.getPayload(), RegisterResponse.class);
-      if (response.getType() == ControlType.REGISTER_RESP) {
-        if (response.isSuccess()) {
-          log.info("代理{}注册成功", response.getProxyId());
-        } else {
-          log.error("代理{}注册失败：{}", response.getProxyId(), response.getMessage());
+      ControlMessage msg = ControlFrameCodec.decode(frame.getPayload());
+      if (msg.getType() == ControlType.REGISTER_RESP) {
+        IntObjectMap<RegisteredProxy> table = copyProxies();
+        logRegisterResult((RegisterResponse) msg, table);
+        registeredProxies = table;
+        warmLocalPools();
+      } else if (msg.getType() == ControlType.SESSION_ACK) {
+        if (replay != null) {
+          replay.acknowledge(((SessionAck) msg).getReceived());
         }
+      } else if (msg.getType() == ControlType.RESUME_SESSION_RESP) {
+        handleResumeResponse((ResumeSessionResponse) msg);
+      } else if (msg.getType() == ControlType.REGISTER_BATCH_RESP) {
+        metrics.getRegisterLatency().record(System.nanoTime() - registerSentNanos);
+        List<RegisterResponse> results = ((RegisterBatchResponse) msg).getResults();
+        IntObjectMap<RegisteredProxy> table = copyProxies();
+        results.forEach(result -> logRegisterResult(result, table));
+        registeredProxies = table;
+        long failed = results.stream().filter(r -> !r.isSuccess()).count();
+        log.info("批量注册完成：成功{}个，失败{}个", results.size() - failed, failed);
+        warmLocalPools();
+        openStripes();
+        openWorkConns();
       }
     } catch (Exception e) {
       log.error("解析控制帧失败", e);
     }
   }
+  private IntObjectMap<RegisteredProxy> copyProxies() {
+    IntObjectMap<RegisteredProxy> table = new IntObjectHashMap<>();
+    table.putAll(registeredProxies);
+    return table;
+  }
+  private void logRegisterResult(RegisterResponse response, IntObjectMap<RegisteredProxy> table) {
+    if (response.isSuccess()) {
+      ProxyConfig proxyConfig = findProxyConfig(response.getProxyId());
+      if (proxyConfig == null || response.getHandle() == 0) {
+        log.error("代理{}注册响应无效：配置不存在或未分配句柄", response.getProxyId());
+        return;
+      }
+      // 记录句柄和协商结果，此后该代理的流按句柄路由、按此算法压缩DATA帧
+      CompressionType compression = response.getCompression() != null ? response.getCompression() : CompressionType.NONE;
+      table.put(response.getHandle(),
+          new RegisteredProxy(proxyConfig, response.getHandle(), compression, proxyMetrics(response.getProxyId())));
+      log.info("代理{}注册成功，句柄：{}，压缩：{}", response.getProxyId(), response.getHandle(), compression);
+    } else {
+      log.error("代理{}注册失败：{}", response.getProxyId(), response.getMessage());
+    }
+  }
   /**
-   * 处理数据帧（公网用户请求→转发到内网服务）
+   * 处理流建立（服务端接受了新的公网连接）：为该流连接内网服务
    */
-  private void handleDataFrame(FrpFrame frame) {
-    String proxyId = frame.getProxyId();
-    byte[] data = frame.getPayload();
-    if (data == null || data.length == 0) return;
-    // 1. 查找该代理对应的内网服务连接（复用连接）
-    Channel localChannel = proxyChannelMap.get(proxyId);
-    if (localChannel != null && localChannel.isActive()) {
-      // 复用已有连接，直接转发数据
-      localChannel.writeAndFlush(Unpooled.wrappedBuffer(data));
+  private void handleStreamOpen(FrpFrame frame) {
+    int handle = frame.getHandle();
+    int streamId = frame.getStreamId();
+    RegisteredProxy proxy = proxies().get(handle);
+    if (proxy == null) {
+      log.error("未找到句柄{}对应的代理", handle);
+      serverChannel.writeAndFlush(FrpFrame.streamFrame(FrameType.RST, streamId, handle));
       return;
     }
-    // 2. 若连接不存在，创建新连接到内网服务
-    ProxyConfig proxyConfig = findProxyConfig(proxyId);
-    if (proxyConfig == null) {
-      log.error("未找到代理{}的配置", proxyId);
-      return;
+    String proxyId = proxy.getProxyId();
+    ProxyConfig proxyConfig = proxy.getConfig();
+    // 连接内网服务（如127.0.0.1:8080），udp代理为connect到内网服务的UDP连接
+    // 连接建立前先登记，后续到达的数据帧在连接上排队，建立后按序写出
+    ChannelFuture connectFuture = proxyConfig.isUdp()
+        ? newLocalUdpBootstrap(proxy, streamId).connect(proxyConfig.getLocalIp(), proxyConfig.getLocalPort())
+        : connectLocal(proxy, streamId);
+    IntObjectMap<ChannelFuture> streams = streamChannels; // 监听器只清理本控制连接的路由表
+    Channel tunnel = serverChannel; // 流所在的控制连接，会话恢复后RST经重放缓冲转到新连接
+    streams.put(streamId, connectFuture);
+    connectFuture.addListener((ChannelFutureListener) f -> {
+      if (f.isSuccess()) {
+        log.info("成功连接内网服务：{}:{}（代理ID：{}，流ID：{}）",
+            proxyConfig.getLocalIp(), proxyConfig.getLocalPort(), proxyId, streamId);
+        if (suspended || !serverChannel.isWritable()) {
+          // 控制连接已拥塞或正在恢复会话，新连接先暂停读取
+          FlowControl.setTunnelCongested(f.channel(), true);
+        }
+        proxy.getMetrics().connectionOpened();
+        // 内网连接关闭时，从缓存移除
+        f.channel().closeFuture().addListener(cf -> {
+          proxy.getMetrics().connectionClosed();
+          removeStream(streams, streamId, connectFuture);
+          log.info("内网服务连接已关闭：{}（流ID：{}）", proxyId, streamId);
+        });
+      } else {
+        removeStream(streams, streamId, connectFuture);
+        ReplayBuffer.writeStream(tunnel, FrpFrame.streamFrame(FrameType.RST, streamId, handle));
+        log.error("连接内网服务失败：{}:{}（代理ID：{}，流ID：{}）",
+            proxyConfig.getLocalIp(), proxyConfig.getLocalPort(), proxyId, streamId, f.cause());
+      }
+    });
+  }
+  // 内网TCP连接：优先从连接池取已连接的空闲连接，池为空或未配置时再发起连接
+  private ChannelFuture connectLocal(RegisteredProxy proxy, int streamId) {
+    LocalConnPool pool = localPool(proxy);
+    Channel pooled = pool != null ? pool.acquire(() -> new LocalProxyHandler(serverChannel, proxy, streamId)) : null;
+    if (pooled != null) {
+      return pooled.newSucceededFuture();
     }
-    // 连接内网服务（如127.0.0.1:8080）
+    ProxyConfig proxyConfig = proxy.getConfig();
+    return newLocalBootstrap(proxy, streamId).connect(proxyConfig.getLocalIp(), proxyConfig.getLocalPort());
+  }
+  // 内网TCP连接的公共参数（连接池复制后换上自己的处理器）
+  private Bootstrap localBootstrapTemplate(ProxyConfig proxyConfig) {
+    WriteBufferWaterMark waterMark = FlowControl.waterMark(
+        proxyConfig.getWriteBufferLowWaterMark(), proxyConfig.getWriteBufferHighWaterMark());
     Bootstrap localBootstrap = new Bootstrap();
+    clientConfig.getSocketOptions().applyTo(localBootstrap, transport);
     localBootstrap.group(serverChannel.eventLoop()) // 复用服务端连接的EventLoop
-        .channel(NioSocketChannel.class)
+        .channel(transport.socketChannelClass())
+        .resolver(localResolver)
+        .option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark != null ? waterMark : WriteBufferWaterMark.DEFAULT);
+    return localBootstrap;
+  }
+  // 内网TCP连接
+  private Bootstrap newLocalBootstrap(RegisteredProxy proxy, int streamId) {
+    ProxyConfig proxyConfig = proxy.getConfig();
+    return localBootstrapTemplate(proxyConfig)
         .handler(new ChannelInitializer<SocketChannel>() {
           @Override
           protected void initChannel(SocketChannel ch) {
-            ch.pipeline().addLast(new LocalProxyHandler(serverChannel, proxyId));
+            // 控制连接上的数据写回内网连接时按读突发合并flush
+            FlushCoalescer.attach(ch, proxyConfig.getFlushBytes(), proxyConfig.getFlushDelayMicros())
+                .recordLatency(proxy.getMetrics().getInboundForwardLatency());
+            ch.pipeline().addLast(new LocalProxyHandler(serverChannel, proxy, streamId));
           }
         });
-    localBootstrap.connect(proxyConfig.getLocalIp(), proxyConfig.getLocalPort())
-        .addListener((ChannelFutureListener) f -> {
-          if (f.isSuccess()) {
-            localChannel = f.channel();
-            proxyChannelMap.put(proxyId, localChannel); // 缓存连接
-            localChannel.writeAndFlush(Unpooled.wrappedBuffer(data)); // 转发数据
-            log.info("成功连接内网服务：{}:{}（代理ID：{}）",
-                proxyConfig.getLocalIp(), proxyConfig.getLocalPort(), proxyId);
-            // 内网连接关闭时，从缓存移除
-            localChannel.closeFuture().addListener(cf -> {
-              proxyChannelMap.remove(proxyId);
-              log.info("内网服务连接已关闭：{}", proxyId);
-            });
-          } else {
-            log.error("连接内网服务失败：{}:{}（代理ID：{}）",
-                proxyConfig.getLocalIp(), proxyConfig.getLocalPort(), proxyId, f.cause());
+  }
+  /**
+   * 代理的内网连接池（未配置localPoolSize或为udp代理时返回null）：代理重新注册后旧句柄的池关闭，按新注册的代理重建
+   */
+  private LocalConnPool localPool(RegisteredProxy proxy) {
+    ProxyConfig proxyConfig = proxy.getConfig();
+    if (proxyConfig.getLocalPoolSize() <= 0 || proxyConfig.isUdp()) {
+      return null;
+    }
+    int handle = proxy.getHandle();
+    LocalConnPool pool = localPools.get(handle);
+    if (pool != null && pool.getProxy() == proxy) {
+      return pool;
+    }
+    if (pool != null) {
+      pool.close();
+    }
+    pool = new LocalConnPool(proxy, localBootstrapTemplate(proxyConfig), clientConfig.getLocalPoolIdleTimeout(),
+        () -> proxies().get(handle) == proxy);
+    localPools.put(handle, pool);
+    pool.fill();
+    return pool;
+  }
+  /**
+   * 按当前代理表预建内网连接池，关闭已注销或重新注册的代理的池（在控制连接的EventLoop上调用）
+   */
+  private void warmLocalPools() {
+    IntObjectMap<RegisteredProxy> table = proxies();
+    List<Integer> stale = new ArrayList<>();
+    for (IntObjectMap.PrimitiveEntry<LocalConnPool> entry : localPools.entries()) {
+      if (table.get(entry.key()) != entry.value().getProxy()) {
+        entry.value().close();
+        stale.add(entry.key());
+      }
+    }
+    stale.forEach(localPools::remove);
+    table.values().forEach(this::localPool);
+    if (primary == null) {
+      // 已连接的条带连接也按新的代理表预建
+      stripes.forEach(stripe -> {
+        Channel channel = stripe.serverChannel;
+        if (channel != null && channel.isActive()) {
+          channel.eventLoop().execute(stripe::warmLocalPools);
+        }
+      });
+    }
+  }
+
+  // 内网UDP连接：服务端发来的数据报批次经DatagramBatchEncoder拆包写出
+  private Bootstrap newLocalUdpBootstrap(RegisteredProxy proxy, int streamId) {
+    ProxyConfig proxyConfig = proxy.getConfig();
+    Bootstrap localBootstrap = new Bootstrap();
+    clientConfig.getSocketOptions().applyToDatagram(localBootstrap);
+    localBootstrap.group(serverChannel.eventLoop()) // 复用服务端连接的EventLoop
+        .channel(transport.datagramChannelClass())
+        .resolver(localResolver)
+        // 默认每次只读2048字节，较大的数据报会被截断
+        .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(DatagramBatch.MAX_DATAGRAM_LENGTH))
+        .handler(new ChannelInitializer<DatagramChannel>() {
+          @Override
+          protected void initChannel(DatagramChannel ch) {
+            FlushCoalescer.attach(ch, proxyConfig.getFlushBytes(), proxyConfig.getFlushDelayMicros())
+                .recordLatency(proxy.getMetrics().getInboundForwardLatency());
+            ch.pipeline()
+                .addLast(new DatagramBatchEncoder())
+                .addLast(new LocalUdpHandler(serverChannel, proxy, streamId));
           }
         });
+    return localBootstrap;
+  }
+  /**
+   * 处理数据帧（公网用户请求→转发到内网服务）
+   */
+  private void handleDataFrame(FrpFrame frame) {
+    ByteBuf data = frame.getPayload();
+    if (!data.isReadable()) return;
+    // 1. 查找该流对应的内网服务连接
+    ChannelFuture connectFuture = streamChannels.get(frame.getStreamId());
+    if (connectFuture == null) {
+      log.warn("代理句柄{}流{}不存在，丢弃数据", frame.getHandle(), frame.getStreamId());
+      serverChannel.writeAndFlush(FrpFrame.streamFrame(FrameType.RST, frame.getStreamId(), frame.getHandle()));
+      return;
+    }
+    RegisteredProxy proxy = proxies().get(frame.getHandle());
+    if (proxy != null) {
+      proxy.getMetrics().recordInbound(data.readableBytes());
+    }
+    // 2. 帧返回后会被释放，这里retain一次payload，交给内网连接写出
+    data.retain();
+    if (connectFuture.isDone()) {
+      if (connectFuture.isSuccess() && connectFuture.channel().isActive()) {
+        // 读突发结束时统一flush
+        FlushCoalescer writer = FlushCoalescer.get(connectFuture.channel());
+        writer.write(data, data.readableBytes());
+        pendingFlush.add(writer);
+      } else {
+        data.release();
+      }
+    } else {
+      // 连接仍在建立中：在连接上排队，建立后按序一次写出（不为每帧另发起连接或单独flush）
+      PendingWrites.enqueue(connectFuture, serverChannel, frame.getStreamId(), frame.getHandle(), data);
+    }
+  }
+  // 只移除仍指向该连接的路由（流ID可能已被新的流复用）
+  private static void removeStream(IntObjectMap<ChannelFuture> streams, int streamId, ChannelFuture connectFuture) {
+    if (streams.get(streamId) == connectFuture) {
+      streams.remove(streamId);
+    }
+  }
+  /**
+   * 一次读突发结束：每个写入过数据的内网连接只flush一次
+   */
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    pendingFlush.forEach(FlushCoalescer::flush);
+    pendingFlush.clear();
+    ctx.fireChannelReadComplete();
+  }
+  /**
+   * 处理流关闭：FIN在已排队的数据写出后关闭内网连接，RST立即关闭
+   */
+  private void handleStreamClose(FrpFrame frame) {
+    ChannelFuture connectFuture = streamChannels.remove(frame.getStreamId());
+    if (connectFuture == null) {
+      return;
+    }
+    boolean graceful = frame.getType() == FrameType.FIN;
+    connectFuture.addListener((ChannelFutureListener) f -> {
+      if (!f.isSuccess()) {
+        return;
+      }
+      if (graceful) {
+        f.channel().writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+      } else {
+        f.channel().close();
+      }
+    });
+    log.debug("代理句柄{}流{}已被服务端关闭：{}", frame.getHandle(), frame.getStreamId(), frame.getType());
+  }
+  /**
+   * 处理流量控制：服务端公网连接写不过来时暂停读取对应的内网连接
+   */
+  private void handleStreamFlowControl(FrpFrame frame) {
+    ChannelFuture connectFuture = streamChannels.get(frame.getStreamId());
+    if (connectFuture == null) {
+      return;
+    }
+    boolean paused = frame.getType() == FrameType.PAUSE;
+    connectFuture.addListener((ChannelFutureListener) f -> {
+      if (f.isSuccess()) {
+        FlowControl.setPeerPaused(f.channel(), paused);
+      }
+    });
+  }
+  /**
+   * 控制连接写缓冲越过水位线：暂停/恢复读取所有内网连接，避免数据在控制连接上无限堆积
+   */
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+    boolean congested = !ctx.channel().isWritable();
+    streamChannels.values().forEach(f -> {
+      if (f.isSuccess()) {
+        FlowControl.setTunnelCongested(f.channel(), congested);
+      }
+    });
+    ctx.fireChannelWritabilityChanged();
+  }
+  /**
+   * 控制连接写缓冲水位线，未配置时使用Netty默认值
+   */
+  public static WriteBufferWaterMark controlWaterMark(ClientConfig clientConfig) {
+    WriteBufferWaterMark waterMark = FlowControl.waterMark(
+        clientConfig.getControlWriteBufferLowWaterMark(), clientConfig.getControlWriteBufferHighWaterMark());
+    return waterMark != null ? waterMark : WriteBufferWaterMark.DEFAULT;
+  }
+  // 传输实现（工作连接、内网连接与控制连接保持一致）
+  TransportType getTransport() {
+    return transport;
+  }
+  // 内网服务地址解析（工作连接桥接的内网连接同样使用）
+  LocalAddressResolverGroup getLocalResolver() {
+    return localResolver;
+  }
+  // 代理的流量指标（按代理ID，重连后沿用）
+  ProxyMetrics proxyMetrics(String proxyId) {
+    return metrics.proxy(runId, proxyId);
   }
   /**
    * 根据proxyId查找代理配置
    */
-  private ProxyConfig findProxyConfig(String proxyId) {
+  ProxyConfig findProxyConfig(String proxyId) {
     return clientConfig.getProxies().stream()
         .filter(p -> p.getProxyId().equals(proxyId))
         .findFirst()
@@ -219,38 +879,86 @@ public class ClientControlHandler extends SimpleChannelInboundHandler<FrpFrame>{
    */
   @Override
   public void channelInactive(ChannelHandlerContext ctx) {
-    log.warn("与服务端的连接已断开，正在重连...");
-    // 取消心跳任务
+    // 取消心跳任务和存活检测
     if (heartbeatTask != null) {
       heartbeatTask.cancel(true);
     }
-    // 清除内网连接缓存
-    proxyChannelMap.clear();
+    if (liveness != null) {
+      liveness.cancel();
+    }
+    metrics.getControlConnections().decrement();
+    if (primary == null && !stopped && replay != null && replay.isResumable()) {
+      if (!suspended) {
+        // 保留内网连接、路由表和条带连接，暂停读取内网连接直到会话恢复
+        suspended = true;
+        suspendedNanos = System.nanoTime();
+        replay.suspend();
+        streamChannels.values().forEach(f -> {
+          if (f.isSuccess()) {
+            FlowControl.setTunnelCongested(f.channel(), true);
+          }
+        });
+      }
+      if (!resumeExpired()) {
+        log.warn("与服务端的连接已断开，{}秒后重连并恢复会话...", reconnectDelay());
+        scheduleReconnect();
+        return;
+      }
+      log.warn("{}秒内未能恢复会话，放弃恢复，重连后重新注册", clientConfig.getSessionResumeTimeout());
+    } else if (primary != null) {
+      log.warn("条带连接{}已断开", stripeIndex);
+    } else {
+      log.warn(stopped ? "与服务端的连接已关闭" : "与服务端的连接已断开，正在重连...");
+    }
+    resetSession();
     // 触发重连
-    reconnectGroup.schedule(this::doConnect, 5, TimeUnit.SECONDS);
+    scheduleReconnect();
   }
   /**
-   * 处理超时事件（服务端无响应）
+   * 放弃当前会话：关闭所有内网连接并清除缓存，重连后重新注册、重新分配句柄
+   * 主控制连接同时放弃重放缓冲并关闭条带连接（服务端也会关闭），重新注册后再建立
    */
-  @Override
-  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
-    if (evt instanceof IdleStateEvent) {
-      IdleStateEvent event = (IdleStateEvent) evt;
-      if (event.state() == IdleState.READER_IDLE) {
-        log.warn("服务端长时间无响应，主动断开连接并重连");
-        ctx.close(); // 关闭当前连接，触发channelInactive重连
+  private void resetSession() {
+    suspended = false;
+    if (pendingProxies != null) {
+      clientConfig.setProxies(pendingProxies); // 重新注册时使用热更新后的规则
+      pendingProxies = null;
+    }
+    if (replay != null) {
+      replay.discard();
+      replay = null;
+    }
+    streamChannels.values().forEach(f -> f.channel().close());
+    streamChannels = new IntObjectHashMap<>();
+    localPools.values().forEach(LocalConnPool::close);
+    localPools.clear();
+    registeredProxies = new IntObjectHashMap<>();
+    stripes.forEach(stripe -> {
+      Channel channel = stripe.serverChannel;
+      if (channel != null) {
+        channel.close();
       }
+    });
+  }
+  // 恢复会话期间1秒重试一次，否则5秒
+  private int reconnectDelay() {
+    return suspended ? 1 : 5;
+  }
+  /**
+   * 稍后在共享线程组上重连（客户端已停止或线程组正在关闭时放弃）
+   */
+  private void scheduleReconnect() {
+    if (stopped || resources.getWorkerGroup().isShuttingDown()) {
+      return;
+    }
+    if (primary != null && (primary.serverChannel == null || !primary.serverChannel.isActive())) {
+      return; // 条带连接只在主控制连接存活时重连
     }
+    resources.getWorkerGroup().schedule(this::doConnect, reconnectDelay(), TimeUnit.SECONDS);
   }
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
     log.error("客户端控制连接异常", cause);
     ctx.close(); // 关闭连接，触发重连
   }
-  /**
-   * 心跳请求实体（内部类）
-   */
-  private static class HeartbeatRequest {
-    private ControlType type = ControlType.HEARTBEAT; // 固定为HEARTBEAT
-  }
 }
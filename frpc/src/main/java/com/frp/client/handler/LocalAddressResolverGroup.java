@@ -0,0 +1,123 @@
+package com.frp.client.handler;
+
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.InetSocketAddressResolver;
+import io.netty.resolver.SimpleNameResolver;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Promise;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内网服务地址解析（内网连接、连接池预建连接、工作连接桥接的内网连接共用）
+ * Netty默认的解析器在发起连接的EventLoop上同步调用InetAddress，域名解析慢时会卡住该线程上的全部连接；
+ * 这里把解析交给单独的线程，结果按client.localDnsTtl秒缓存，缓存有效期内直接返回，同一域名同时只解析一次
+ * IP地址不解析；解析失败不缓存，下次连接时重试
+ */
+@Slf4j
+final class LocalAddressResolverGroup extends AddressResolverGroup<InetSocketAddress> {
+  private final long ttlNanos; // 缓存有效期，0表示每次连接都重新解析（仍不占用EventLoop）
+  private final Map<String, CachedLookup> cache = new ConcurrentHashMap<>();
+  private final ExecutorService lookupExecutor =
+      Executors.newSingleThreadExecutor(new DefaultThreadFactory("frpc-resolver", true));
+
+  LocalAddressResolverGroup(int ttlSeconds) {
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, ttlSeconds));
+  }
+
+  @Override
+  protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+    return new InetSocketAddressResolver(executor, new CachingNameResolver(executor));
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    lookupExecutor.shutdownNow();
+  }
+
+  // 查找缓存，未命中或已过期时在解析线程上重新解析（同一域名并发的请求共用一次解析）
+  private CompletableFuture<InetAddress[]> lookup(String host) {
+    long now = System.nanoTime();
+    CachedLookup cached = cache.get(host);
+    if (cached != null && (!cached.future.isDone() || now - cached.expiresNanos < 0)) {
+      return cached.future;
+    }
+    CachedLookup fresh = new CachedLookup(now + ttlNanos);
+    if (cached == null ? cache.putIfAbsent(host, fresh) != null : !cache.replace(host, cached, fresh)) {
+      return lookup(host); // 其他线程已发起解析
+    }
+    lookupExecutor.execute(() -> {
+      try {
+        InetAddress[] addresses = InetAddress.getAllByName(host);
+        fresh.future.complete(addresses);
+        log.debug("解析内网服务地址{}：{}", host, Arrays.toString(addresses));
+      } catch (UnknownHostException | RuntimeException e) {
+        cache.remove(host, fresh);
+        fresh.future.completeExceptionally(e);
+      }
+    });
+    return fresh.future;
+  }
+
+  private final class CachingNameResolver extends SimpleNameResolver<InetAddress> {
+    private CachingNameResolver(EventExecutor executor) {
+      super(executor);
+    }
+
+    @Override
+    protected void doResolve(String inetHost, Promise<InetAddress> promise) {
+      byte[] ip = NetUtil.createByteArrayFromIpAddressString(inetHost);
+      if (ip != null) {
+        try {
+          promise.setSuccess(InetAddress.getByAddress(ip));
+        } catch (UnknownHostException e) {
+          promise.setFailure(e);
+        }
+        return;
+      }
+      lookup(inetHost).whenComplete((addresses, cause) -> {
+        if (cause != null) {
+          promise.tryFailure(cause);
+        } else {
+          promise.trySuccess(addresses[0]);
+        }
+      });
+    }
+
+    @Override
+    protected void doResolveAll(String inetHost, Promise<List<InetAddress>> promise) {
+      doResolve(inetHost, executor().<InetAddress>newPromise().addListener(f -> {
+        if (f.isSuccess()) {
+          promise.trySuccess(List.of((InetAddress) f.getNow()));
+        } else {
+          promise.tryFailure(f.cause());
+        }
+      }));
+    }
+  }
+
+  // 一次解析：解析中或已完成，expiresNanos后过期
+  private static final class CachedLookup {
+    private final CompletableFuture<InetAddress[]> future = new CompletableFuture<>();
+    private final long expiresNanos;
+
+    private CachedLookup(long expiresNanos) {
+      this.expiresNanos = expiresNanos;
+    }
+  }
+}
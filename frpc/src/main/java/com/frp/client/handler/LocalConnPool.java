@@ -0,0 +1,204 @@
+package com.frp.client.handler;
+
+import com.frp.client.config.ProxyConfig;
+import com.frp.common.util.DeadlineWheel;
+import com.frp.common.util.FlushCoalescer;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 内网连接池：按proxy.N.localPoolSize预先连接内网服务，新的公网连接直接取用已建好的连接，
+ * 首字节不再等待一次内网TCP握手；取走一个就补建一个
+ * 每个控制连接（含条带连接）每个代理一个池，连接建在控制连接的EventLoop上，池只在该线程上访问
+ * 空闲超过client.localPoolIdleTimeout秒的连接关闭后重建，避免被内网服务按空闲超时关闭后才被取用；
+ * 空闲期间内网服务先发来的数据（如MySQL、SSH的握手报文）暂存，取用时交给流处理器
+ * 内网服务关闭空闲连接或连接失败时延迟RETRY_DELAY秒再补建，内网服务不可用时不会反复重连
+ */
+@Slf4j
+final class LocalConnPool {
+  private static final int RETRY_DELAY = 5; // 补建失败或空闲连接被内网服务关闭后，再次补建的延迟（秒）
+  private static final int MAX_IDLE_BUFFER = 64 * 1024; // 空闲期间暂存内网服务数据的上限，超过后关闭该连接
+
+  private final RegisteredProxy proxy;
+  private final EventLoop eventLoop;
+  private final Bootstrap bootstrap; // 预建连接用，pipeline中只有空闲处理器
+  private final int size;
+  private final int idleTimeout;
+  private final BooleanSupplier valid; // 代理仍在该控制连接上有效（未注销、未重新注册），否则不再补建
+  private final ArrayDeque<Channel> idle = new ArrayDeque<>();
+  private int connecting; // 正在建立的预建连接数
+  private ScheduledFuture<?> retryTask; // 延迟补建的任务
+  private boolean closed;
+
+  /**
+   * @param template 内网连接的Bootstrap（线程组、channel类型、socket参数、地址解析），复制后换上空闲处理器
+   */
+  LocalConnPool(RegisteredProxy proxy, Bootstrap template, int idleTimeout, BooleanSupplier valid) {
+    ProxyConfig proxyConfig = proxy.getConfig();
+    this.proxy = proxy;
+    this.eventLoop = template.config().group().next();
+    this.size = proxyConfig.getLocalPoolSize();
+    this.idleTimeout = idleTimeout;
+    this.valid = valid;
+    this.bootstrap = template.clone().handler(new ChannelInitializer<Channel>() {
+      @Override
+      protected void initChannel(Channel ch) {
+        FlushCoalescer.attach(ch, proxyConfig.getFlushBytes(), proxyConfig.getFlushDelayMicros())
+            .recordLatency(proxy.getMetrics().getInboundForwardLatency());
+        ch.pipeline().addLast(new IdleHandler());
+      }
+    });
+  }
+
+  RegisteredProxy getProxy() {
+    return proxy;
+  }
+
+  /**
+   * 取一个已连接的空闲连接并换上流处理器，空闲期间暂存的数据随即交给流处理器；没有可用连接时返回null
+   */
+  Channel acquire(Supplier<ChannelHandler> streamHandler) {
+    Channel ch;
+    while ((ch = idle.pollFirst()) != null) {
+      IdleHandler idleHandler = ch.pipeline().get(IdleHandler.class);
+      if (!ch.isActive() || idleHandler == null) {
+        continue;
+      }
+      idleHandler.deadline.cancel();
+      List<ByteBuf> buffered = idleHandler.buffered;
+      ch.pipeline().replace(idleHandler, null, streamHandler.get());
+      if (!buffered.isEmpty()) {
+        buffered.forEach(ch.pipeline()::fireChannelRead);
+        ch.pipeline().fireChannelReadComplete();
+      }
+      fill();
+      return ch;
+    }
+    fill();
+    return null;
+  }
+
+  /**
+   * 补足空闲连接（在所属EventLoop上调用）
+   */
+  void fill() {
+    if (closed || !valid.getAsBoolean()) {
+      return;
+    }
+    ProxyConfig proxyConfig = proxy.getConfig();
+    while (idle.size() + connecting < size) {
+      connecting++;
+      bootstrap.connect(proxyConfig.getLocalIp(), proxyConfig.getLocalPort()).addListener(f -> onConnected((ChannelFuture) f));
+    }
+  }
+
+  private void onConnected(ChannelFuture future) {
+    connecting--;
+    if (!future.isSuccess()) {
+      log.debug("代理{}预建内网连接失败：{}，{}秒后重试", proxy.getProxyId(), future.cause().getMessage(), RETRY_DELAY);
+      scheduleFill();
+      return;
+    }
+    if (closed) {
+      future.channel().close();
+      return;
+    }
+    idle.addLast(future.channel());
+  }
+
+  private void scheduleFill() {
+    if (closed || retryTask != null) {
+      return;
+    }
+    retryTask = eventLoop.schedule(() -> {
+      retryTask = null;
+      fill();
+    }, RETRY_DELAY, TimeUnit.SECONDS);
+  }
+
+  /**
+   * 关闭连接池及其中的空闲连接（代理注销、重新注册或控制连接会话结束时）
+   */
+  void close() {
+    closed = true;
+    if (retryTask != null) {
+      retryTask.cancel(false);
+      retryTask = null;
+    }
+    Channel ch;
+    while ((ch = idle.pollFirst()) != null) {
+      ch.close();
+    }
+  }
+
+  // 空闲连接：检测空闲超时和内网服务关闭，暂存内网服务先发来的数据
+  private final class IdleHandler extends ChannelInboundHandlerAdapter {
+    private final List<ByteBuf> buffered = new ArrayList<>(1);
+    private int bufferedBytes;
+    private DeadlineWheel.Deadline deadline;
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+      Channel ch = ctx.channel();
+      deadline = DeadlineWheel.register(ch.eventLoop(), idleTimeout, () -> {
+        // 空闲太久：关闭后重建，取用时不会拿到已被内网服务关闭的连接
+        if (idle.remove(ch)) {
+          ch.close();
+          fill();
+        }
+      });
+      ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      if (!(msg instanceof ByteBuf)) {
+        ReferenceCountUtil.release(msg);
+        return;
+      }
+      ByteBuf data = (ByteBuf) msg;
+      buffered.add(data);
+      bufferedBytes += data.readableBytes();
+      if (bufferedBytes > MAX_IDLE_BUFFER) {
+        log.warn("代理{}的空闲内网连接收到过多数据，关闭该连接", proxy.getProxyId());
+        ctx.close();
+      }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      if (deadline != null) {
+        deadline.cancel();
+      }
+      buffered.forEach(ByteBuf::release);
+      buffered.clear();
+      if (idle.remove(ctx.channel())) {
+        log.debug("代理{}的空闲内网连接被内网服务关闭", proxy.getProxyId());
+        scheduleFill();
+      }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      log.debug("代理{}的空闲内网连接异常：{}", proxy.getProxyId(), cause.getMessage());
+      ctx.close();
+    }
+  }
+}
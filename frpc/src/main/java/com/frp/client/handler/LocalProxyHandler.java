@@ -1,25 +1,65 @@
 package com.frp.client.handler;
 
+import com.frp.client.config.ProxyConfig;
+import com.frp.common.codec.PayloadCompressor;
+import com.frp.common.metrics.ProxyMetrics;
+import com.frp.common.protocol.CompressionType;
 import com.frp.common.protocol.FrameType;
 import com.frp.common.protocol.FrpFrame;
+import com.frp.common.util.FlowControl;
+import com.frp.common.util.FlushCoalescer;
+import com.frp.common.util.ReplayBuffer;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * 内网连接处理器：内网服务的响应封装为DATA帧经控制连接回传
+ * 控制连接断开、会话等待恢复时，回传的帧交给重放缓冲暂存并暂停读取；会话恢复后改用新的控制连接
+ */
 @Slf4j
 public class LocalProxyHandler extends ChannelInboundHandlerAdapter {
-  private final Channel serverControlChannel; // 客户端与服务端的控制连接Channel（用于回传响应）
+  private Channel serverControlChannel;       // 客户端与服务端的控制连接Channel（用于回传响应），会话恢复后换为新连接
   private final String proxyId;               // 当前代理ID（如"web-8080"）
+  private final int handle;                   // 服务端分配的代理句柄，帧上只携带句柄
+  private final int streamId;                 // 对应的公网连接流ID
+  private FlushCoalescer tunnelWriter;        // 向控制连接写DATA帧的写合并器，读结束时统一flush
+  private final CompressionType compression;  // 注册时协商的DATA帧压缩算法
+  private final ProxyMetrics metrics;         // 代理流量指标
+  private final int flushBytes;               // 写合并阈值，换绑控制连接时重建写合并器
+  private final int flushDelayMicros;         // 写合并最长滞留时间
   /**
-   * 构造函数：绑定控制连接和代理ID
+   * 构造函数：绑定控制连接、代理和流ID
    * @param serverControlChannel 客户端与服务端的控制连接（必须是活跃的）
-   * @param proxyId 当前代理的唯一标识
+   * @param proxy 注册成功的代理（配置、句柄和协商的压缩算法）
+   * @param streamId 服务端分配的流ID，一个流对应一个公网连接
    */
-  public LocalProxyHandler(Channel serverControlChannel, String proxyId) {
+  public LocalProxyHandler(Channel serverControlChannel, RegisteredProxy proxy, int streamId) {
+    ProxyConfig proxyConfig = proxy.getConfig();
     this.serverControlChannel = serverControlChannel;
-    this.proxyId = proxyId;
+    this.proxyId = proxy.getProxyId();
+    this.handle = proxy.getHandle();
+    this.streamId = streamId;
+    this.metrics = proxy.getMetrics();
+    this.flushBytes = proxyConfig.getFlushBytes();
+    this.flushDelayMicros = proxyConfig.getFlushDelayMicros();
+    this.tunnelWriter = new FlushCoalescer(serverControlChannel, flushBytes, flushDelayMicros)
+        .recordLatency(metrics.getOutboundForwardLatency());
+    this.compression = proxy.getCompression();
+  }
+  // 控制连接已断开但会话已在新连接上恢复：改用新连接
+  private boolean rebindTunnel() {
+    Channel resumed = ReplayBuffer.resumedChannel(serverControlChannel);
+    if (resumed == null) {
+      return false;
+    }
+    tunnelWriter.flush();
+    serverControlChannel = resumed;
+    tunnelWriter = new FlushCoalescer(resumed, flushBytes, flushDelayMicros)
+        .recordLatency(metrics.getOutboundForwardLatency());
+    return true;
   }
   /**
    * 读取内网服务的响应数据（如内网Web服务返回的HTML/JSON），转发给服务端
@@ -31,27 +71,36 @@ public class LocalProxyHandler extends ChannelInboundHandlerAdapter {
       return;
     }
     ByteBuf buf = (ByteBuf) msg;
-    try {
-      // 1. 读取内网服务响应的字节数据
-      byte[] responseData = new byte[buf.readableBytes()];
-      buf.readBytes(responseData);
-      // 2. 封装为DATA类型帧（协议格式：类型=DATA，proxyId=当前代理ID，payload=响应数据）
-      FrpFrame dataFrame = new FrpFrame(
-          FrameType.DATA,    // 帧类型：数据帧
-          (byte) 0,          // 保留字段
-          proxyId,           // 代理ID（服务端据此转发给公网用户）
-          responseData       // 内网服务响应数据
-      );
-      // 3. 通过控制连接发送给服务端（服务端再转发给公网用户）
-      if (serverControlChannel.isActive()) {
-        serverControlChannel.writeAndFlush(dataFrame);
-        log.debug("代理[{}]：内网服务响应已转发，数据长度：{}字节", proxyId, responseData.length);
-      } else {
+    int length = buf.readableBytes();
+    boolean suspended = false;
+    if (!serverControlChannel.isActive() && !rebindTunnel()) {
+      suspended = ReplayBuffer.isSuspended(serverControlChannel);
+      if (!suspended) {
+        buf.release(); // 释放ByteBuf，避免内存泄漏
         log.error("代理[{}]：控制连接已断开，无法转发内网响应", proxyId);
+        return;
       }
-    } finally {
-      buf.release(); // 释放ByteBuf，避免内存泄漏
     }
+    // 1. 封装为DATA类型帧：内网服务响应的ByteBuf直接作为payload（不拷贝，按协商的算法压缩），所有权随帧转交给编码器
+    //    服务端据流ID找到对应的公网连接
+    FrpFrame dataFrame = PayloadCompressor.dataFrame(ctx.alloc(), compression, streamId, handle, buf);
+    if (suspended) {
+      // 会话等待恢复：已读到的数据暂存到重放缓冲，暂停读取直到会话恢复
+      ReplayBuffer.writeStream(serverControlChannel, dataFrame);
+      FlowControl.setTunnelCongested(ctx.channel(), true);
+    } else {
+      // 2. 通过控制连接发送给服务端（服务端再转发给公网用户），读突发结束时统一flush
+      tunnelWriter.write(dataFrame, dataFrame.getPayload().readableBytes());
+    }
+    metrics.recordOutbound(length);
+  }
+  /**
+   * 一次读突发结束：把本轮写入控制连接的数据帧一次性flush
+   */
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    tunnelWriter.flush();
+    ctx.fireChannelReadComplete();
   }
   /**
    * 内网服务连接建立成功时触发（如成功连接本地8080端口）
@@ -61,13 +110,23 @@ public class LocalProxyHandler extends ChannelInboundHandlerAdapter {
     log.info("代理[{}]：成功连接内网服务，本地连接ID：{}",
         proxyId, ctx.channel().id().asShortText());
   }
+  /**
+   * 内网连接写缓冲越过水位线：通知服务端暂停/恢复读取对应的公网连接
+   */
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+    FrameType type = ctx.channel().isWritable() ? FrameType.RESUME : FrameType.PAUSE;
+    ReplayBuffer.writeStream(serverControlChannel, FrpFrame.streamFrame(type, streamId, handle));
+    ctx.fireChannelWritabilityChanged();
+  }
   /**
    * 内网服务连接断开时触发（如内网服务停止）
    */
   @Override
   public void channelInactive(ChannelHandlerContext ctx) {
-    log.warn("代理[{}]：内网服务连接已断开", proxyId);
-    // （可选）可发送断开通知给服务端，告知公网用户连接关闭
+    log.warn("代理[{}]流[{}]：内网服务连接已断开", proxyId, streamId);
+    // 通知服务端关闭对应的公网连接（若是服务端先关闭的流，服务端会忽略此FIN）
+    ReplayBuffer.writeStream(serverControlChannel, FrpFrame.streamFrame(FrameType.FIN, streamId, handle));
   }
   /**
    * 内网服务连接异常时触发（如内网服务未启动）
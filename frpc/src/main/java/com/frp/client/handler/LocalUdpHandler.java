@@ -0,0 +1,136 @@
+package com.frp.client.handler;
+
+import com.frp.client.config.ProxyConfig;
+import com.frp.common.codec.DatagramBatch;
+import com.frp.common.codec.PayloadCompressor;
+import com.frp.common.metrics.ProxyMetrics;
+import com.frp.common.protocol.CompressionType;
+import com.frp.common.protocol.FrameType;
+import com.frp.common.protocol.FrpFrame;
+import com.frp.common.util.FlushCoalescer;
+import com.frp.common.util.ReplayBuffer;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 内网UDP连接处理器：一个UDP会话（流）对应一个connect到内网服务的UDP连接
+ * 服务端发来的数据报批次由DatagramBatchEncoder拆包后写出；内网服务的响应数据报在一次读突发内打包进一个DATA帧回传
+ * 会话等待恢复期间丢弃响应数据报（UDP允许丢包），会话恢复后改用新的控制连接
+ */
+@Slf4j
+public class LocalUdpHandler extends ChannelInboundHandlerAdapter {
+  private Channel serverControlChannel;       // 客户端与服务端的控制连接Channel（用于回传响应），会话恢复后换为新连接
+  private final String proxyId;               // 当前代理ID
+  private final int handle;                   // 服务端分配的代理句柄
+  private final int streamId;                 // 对应的UDP会话流ID
+  private FlushCoalescer tunnelWriter;        // 向控制连接写DATA帧的写合并器，读结束时统一flush
+  private final CompressionType compression;  // 注册时协商的DATA帧压缩算法
+  private final ProxyMetrics metrics;         // 代理流量指标
+  private final int flushBytes;               // 写合并阈值，换绑控制连接时重建写合并器
+  private final int flushDelayMicros;         // 写合并最长滞留时间
+  private ByteBuf batch;                      // 本轮读突发中尚未发出的响应数据报批次
+
+  public LocalUdpHandler(Channel serverControlChannel, RegisteredProxy proxy, int streamId) {
+    ProxyConfig proxyConfig = proxy.getConfig();
+    this.serverControlChannel = serverControlChannel;
+    this.proxyId = proxy.getProxyId();
+    this.handle = proxy.getHandle();
+    this.streamId = streamId;
+    this.metrics = proxy.getMetrics();
+    this.flushBytes = proxyConfig.getFlushBytes();
+    this.flushDelayMicros = proxyConfig.getFlushDelayMicros();
+    this.tunnelWriter = new FlushCoalescer(serverControlChannel, flushBytes, flushDelayMicros)
+        .recordLatency(metrics.getOutboundForwardLatency());
+    this.compression = proxy.getCompression();
+  }
+
+  // 控制连接已断开但会话已在新连接上恢复：改用新连接
+  private boolean rebindTunnel() {
+    Channel resumed = ReplayBuffer.resumedChannel(serverControlChannel);
+    if (resumed == null) {
+      return false;
+    }
+    tunnelWriter.flush();
+    serverControlChannel = resumed;
+    tunnelWriter = new FlushCoalescer(resumed, flushBytes, flushDelayMicros)
+        .recordLatency(metrics.getOutboundForwardLatency());
+    return true;
+  }
+
+  /**
+   * 读取内网服务的响应数据报，追加到批次中
+   */
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (!(msg instanceof DatagramPacket)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+    DatagramPacket packet = (DatagramPacket) msg;
+    try {
+      if (!serverControlChannel.isActive() && !rebindTunnel()) {
+        if (ReplayBuffer.isSuspended(serverControlChannel)) {
+          log.debug("代理[{}]：会话等待恢复，丢弃内网响应数据报", proxyId);
+        } else {
+          log.error("代理[{}]：控制连接已断开，无法转发内网响应", proxyId);
+        }
+        return;
+      }
+      ByteBuf content = packet.content();
+      int length = content.readableBytes();
+      if (batch != null && !DatagramBatch.fits(batch, length)) {
+        sendBatch(); // 批次已满，先发出
+      }
+      if (batch == null) {
+        batch = DatagramBatch.newBatch(ctx.alloc());
+      }
+      DatagramBatch.append(batch, content);
+      metrics.recordOutbound(length);
+    } finally {
+      packet.release();
+    }
+  }
+
+  /**
+   * 一次读突发结束：把批次作为一个DATA帧发出并flush
+   */
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    if (batch != null) {
+      sendBatch();
+    }
+    tunnelWriter.flush();
+    ctx.fireChannelReadComplete();
+  }
+
+  // 批次封装为DATA帧（按协商的算法压缩），所有权随帧转交给编码器
+  private void sendBatch() {
+    ByteBuf data = batch;
+    batch = null;
+    FrpFrame dataFrame = PayloadCompressor.dataFrame(serverControlChannel.alloc(), compression, streamId, handle, data);
+    tunnelWriter.write(dataFrame, dataFrame.getPayload().readableBytes());
+  }
+
+  /**
+   * 内网UDP连接关闭（服务端回收了会话或控制连接断开）
+   */
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    if (batch != null) {
+      batch.release();
+      batch = null;
+    }
+    // 通知服务端回收会话（若是服务端先回收的，服务端会忽略此FIN）
+    ReplayBuffer.writeStream(serverControlChannel, FrpFrame.streamFrame(FrameType.FIN, streamId, handle));
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    // 内网服务暂未监听时会收到ICMP端口不可达，只影响单个数据报，会话保留到空闲超时
+    log.warn("代理[{}]流[{}]：内网UDP连接异常：{}", proxyId, streamId, cause.getMessage());
+  }
+}
@@ -0,0 +1,75 @@
+package com.frp.client.handler;
+
+import com.frp.common.protocol.FrameType;
+import com.frp.common.protocol.FrpFrame;
+import com.frp.common.util.ReplayBuffer;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayDeque;
+
+/**
+ * 内网连接建立前到达的数据：按到达顺序排队，连接建立后一次写出、只flush一次；连接失败时释放
+ * 挂在建立中的内网连接上，只在控制连接的EventLoop上访问；排队字节超过内网连接写缓冲高水位时向服务端发PAUSE，
+ * 写出后内网连接仍可写则发RESUME（仍不可写时由内网连接的可写性变化发出）
+ */
+final class PendingWrites implements ChannelFutureListener {
+  private static final AttributeKey<PendingWrites> KEY = AttributeKey.valueOf("frp.pendingWrites");
+
+  private final Channel tunnel; // 流所在的控制连接，会话恢复后PAUSE/RESUME经重放缓冲转到新连接
+  private final int streamId;
+  private final int handle;
+  private final ArrayDeque<ByteBuf> queue = new ArrayDeque<>();
+  private long queuedBytes;
+  private boolean paused; // 已因排队过多向服务端发PAUSE
+
+  private PendingWrites(Channel tunnel, int streamId, int handle) {
+    this.tunnel = tunnel;
+    this.streamId = streamId;
+    this.handle = handle;
+  }
+
+  /**
+   * 把数据排到建立中的内网连接上（所有权转交给队列），首次排队时在连接结果上登记写出
+   * 连接结果的监听器按登记顺序执行：流建立时的监听器在前，之后的FIN/RST在队列写出之后处理
+   */
+  static void enqueue(ChannelFuture connectFuture, Channel tunnel, int streamId, int handle, ByteBuf data) {
+    Channel local = connectFuture.channel();
+    PendingWrites pending = local.attr(KEY).get();
+    if (pending == null) {
+      pending = new PendingWrites(tunnel, streamId, handle);
+      local.attr(KEY).set(pending);
+      connectFuture.addListener(pending);
+    }
+    pending.queue.addLast(data);
+    pending.queuedBytes += data.readableBytes();
+    if (!pending.paused && pending.queuedBytes > local.config().getWriteBufferHighWaterMark()) {
+      pending.paused = true;
+      ReplayBuffer.writeStream(tunnel, FrpFrame.streamFrame(FrameType.PAUSE, streamId, handle));
+    }
+  }
+
+  @Override
+  public void operationComplete(ChannelFuture future) {
+    Channel local = future.channel();
+    local.attr(KEY).set(null);
+    if (!future.isSuccess() || !local.isActive()) {
+      ByteBuf data;
+      while ((data = queue.pollFirst()) != null) {
+        data.release();
+      }
+      return;
+    }
+    ByteBuf data;
+    while ((data = queue.pollFirst()) != null) {
+      local.write(data, local.voidPromise());
+    }
+    local.flush();
+    if (paused && local.isWritable()) {
+      ReplayBuffer.writeStream(tunnel, FrpFrame.streamFrame(FrameType.RESUME, streamId, handle));
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package com.frp.client.handler;
+
+import com.frp.client.config.ProxyConfig;
+import com.frp.common.metrics.ProxyMetrics;
+import com.frp.common.protocol.CompressionType;
+import lombok.Getter;
+
+/**
+ * 注册成功的代理：代理配置 + 服务端分配的句柄 + 协商的压缩算法
+ * 只在当前控制连接上有效，重连后重新注册
+ */
+@Getter
+public class RegisteredProxy {
+  private final ProxyConfig config;
+  private final int handle; // 服务端分配的代理句柄，流相关帧只携带句柄
+  private final CompressionType compression; // 注册时协商的DATA帧压缩算法
+  private final ProxyMetrics metrics; // 流量指标（重连后沿用同一组计数）
+
+  public RegisteredProxy(ProxyConfig config, int handle, CompressionType compression, ProxyMetrics metrics) {
+    this.config = config;
+    this.handle = handle;
+    this.compression = compression;
+    this.metrics = metrics;
+  }
+
+  public String getProxyId() {
+    return config.getProxyId();
+  }
+}
@@ -0,0 +1,153 @@
+package com.frp.client.handler;
+
+import com.frp.client.config.ClientConfig;
+import com.frp.client.config.ProxyConfig;
+import com.frp.common.codec.ControlFrameCodec;
+import com.frp.common.codec.FrpFrameDecoder;
+import com.frp.common.codec.FrpFrameEncoder;
+import com.frp.common.metrics.ProxyMetrics;
+import com.frp.common.protocol.ControlMessage;
+import com.frp.common.protocol.ControlType;
+import com.frp.common.protocol.FrameType;
+import com.frp.common.protocol.FrpFrame;
+import com.frp.common.protocol.NewWorkConn;
+import com.frp.common.protocol.StartWorkConn;
+import com.frp.common.relay.ChannelRelay;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 工作连接处理器：客户端预先建立到服务端控制端口的TCP连接
+ * 空闲时等待服务端下发StartWorkConn；收到后连接内网服务，去掉帧编解码，与内网连接桥接为原始字节管道
+ */
+@Slf4j
+public class WorkConnHandler extends ChannelInboundHandlerAdapter {
+  private final ClientControlHandler controlHandler; // 控制连接处理器，用于补充工作连接
+  private final ClientConfig clientConfig;
+  private final String runId;
+  private boolean started; // 是否已被分配给公网连接
+  private final List<ByteBuf> pendingData = new ArrayList<>(); // 内网连接建立前收到的原始数据
+
+  public WorkConnHandler(ClientControlHandler controlHandler, ClientConfig clientConfig, String runId) {
+    this.controlHandler = controlHandler;
+    this.clientConfig = clientConfig;
+    this.runId = runId;
+  }
+
+  /**
+   * 连接建立后向服务端登记为工作连接
+   */
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) throws Exception {
+    NewWorkConn newWorkConn = new NewWorkConn();
+    newWorkConn.setRunId(runId);
+    newWorkConn.setAuthToken(clientConfig.getAuthToken());
+    ctx.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "", ControlFrameCodec.encode(ctx.alloc(), newWorkConn)));
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (msg instanceof FrpFrame && !started) {
+      try {
+        handleStartWorkConn(ctx, (FrpFrame) msg);
+      } finally {
+        ReferenceCountUtil.release(msg);
+      }
+    } else if (msg instanceof ByteBuf && started) {
+      // 去掉解码器时残留的原始数据，或内网连接建立前到达的数据
+      pendingData.add((ByteBuf) msg);
+    } else {
+      ReferenceCountUtil.release(msg);
+    }
+  }
+
+  private void handleStartWorkConn(ChannelHandlerContext ctx, FrpFrame frame) {
+    ControlMessage msg = ControlFrameCodec.decode(frame.getPayload());
+    if (msg.getType() != ControlType.START_WORK_CONN) {
+      log.warn("工作连接收到非预期的控制指令：{}，关闭连接", msg.getType());
+      ctx.close();
+      return;
+    }
+    StartWorkConn startWorkConn = (StartWorkConn) msg;
+    String proxyId = startWorkConn.getProxyId();
+    started = true;
+    controlHandler.workConnStarted();
+    // 补充一个工作连接，保持池大小
+    controlHandler.openWorkConn();
+
+    ProxyConfig proxyConfig = controlHandler.findProxyConfig(proxyId);
+    if (proxyConfig == null) {
+      log.error("未找到代理{}的配置，关闭工作连接", proxyId);
+      ctx.close();
+      return;
+    }
+    // 此后连接上是原始字节流：暂停读取并立即去掉帧编解码
+    Channel workConn = ctx.channel();
+    workConn.config().setAutoRead(false);
+    ctx.pipeline().remove(FrpFrameDecoder.class);
+    ctx.pipeline().remove(FrpFrameEncoder.class);
+
+    Bootstrap localBootstrap = new Bootstrap();
+    clientConfig.getSocketOptions().applyTo(localBootstrap, controlHandler.getTransport());
+    localBootstrap.group(workConn.eventLoop())
+        .channel(controlHandler.getTransport().socketChannelClass())
+        .resolver(controlHandler.getLocalResolver())
+        .option(ChannelOption.AUTO_READ, false) // 桥接完成后再开始读取
+        .handler(new ChannelInboundHandlerAdapter());
+    localBootstrap.connect(proxyConfig.getLocalIp(), proxyConfig.getLocalPort())
+        .addListener((ChannelFutureListener) f -> {
+          if (!f.isSuccess()) {
+            log.error("连接内网服务失败：{}:{}（代理ID：{}，流ID：{}）",
+                proxyConfig.getLocalIp(), proxyConfig.getLocalPort(), proxyId, startWorkConn.getStreamId(), f.cause());
+            releasePending();
+            workConn.close();
+            return;
+          }
+          Channel localChannel = f.channel();
+          for (ByteBuf data : pendingData) {
+            localChannel.write(data);
+          }
+          pendingData.clear();
+          localChannel.flush();
+          ctx.pipeline().remove(this);
+          ChannelRelay.bridge(workConn, localChannel);
+          ProxyMetrics metrics = controlHandler.proxyMetrics(proxyId);
+          metrics.connectionOpened();
+          localChannel.closeFuture().addListener(cf -> metrics.connectionClosed());
+          log.info("工作连接{}已启用：代理{}，流ID：{}，内网服务{}:{}", workConn.id().asShortText(),
+              proxyId, startWorkConn.getStreamId(), proxyConfig.getLocalIp(), proxyConfig.getLocalPort());
+        });
+  }
+
+  /**
+   * 空闲工作连接被关闭时补充一个（控制连接仍存活时），连续被关闭时退避
+   */
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    releasePending();
+    if (!started) {
+      controlHandler.retryWorkConn();
+    }
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    log.error("工作连接{}异常", ctx.channel().id().asShortText(), cause);
+    ctx.close();
+  }
+
+  private void releasePending() {
+    pendingData.forEach(ReferenceCountUtil::release);
+    pendingData.clear();
+  }
+}
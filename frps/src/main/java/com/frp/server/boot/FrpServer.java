@@ -1,23 +1,37 @@
 package com.frp.server.boot;
 
+import com.frp.common.codec.ControlFrameCodec;
 import com.frp.common.codec.FrpFrameDecoder;
 import com.frp.common.codec.FrpFrameEncoder;
+import com.frp.common.metrics.MetricsHttpServer;
+import com.frp.common.metrics.MetricsRegistry;
+import com.frp.common.transport.EventLoopResources;
+import com.frp.common.transport.TlsOptions;
+import com.frp.common.transport.TransportType;
+import com.frp.common.util.FlowControl;
+import com.frp.common.util.ReplayHandler;
+import com.frp.server.config.ConfigLoader;
 import com.frp.server.config.ServerConfig;
+import com.frp.server.handler.HttpVhostHandler;
 import com.frp.server.handler.ServerControlHandler;
+import com.frp.server.manager.MemoryGovernor;
 import com.frp.server.manager.ProxyManager;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
-import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLException;
 
 /**
  * 服务端启动入口，初始化Netty服务端，绑定控制端口，处理客户端连接
@@ -26,53 +40,120 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class FrpServer {
   private final ServerConfig config;
-  private EventLoopGroup bossGroup;
-  private EventLoopGroup workerGroup;
+  private EventLoopResources resources; // 进程内唯一的线程组，控制端口与公网端口共用
 
   public FrpServer(ServerConfig config) {
     this.config = config;
   }
 
   public void start() throws InterruptedException {
+    // 选择传输实现（Linux上优先epoll），控制端口与公网端口使用同一种传输
+    TransportType transport = TransportType.resolve(config.getTransport());
+    ControlFrameCodec.setJsonEnabled("json".equalsIgnoreCase(config.getControlCodec()));
+    resources = new EventLoopResources(transport, "frps", config.getBossThreads(), config.getWorkerThreads());
+    MetricsRegistry metrics = new MetricsRegistry("frps");
+    ProxyManager.INSTANCE.init(resources, config.getSocketOptions(), metrics);
+    ProxyManager.INSTANCE.initBandwidth(config);
+    ProxyManager.INSTANCE.initSessionResume(config);
+    ProxyManager.INSTANCE.setUdpMaxSessions(config.getUdpMaxSessions());
+    // 内存预算检查放在accept线程上，不占用转发数据的IO线程
+    EventLoopGroup governorGroup = resources.getBossGroup() != null ? resources.getBossGroup() : resources.getWorkerGroup();
+    MemoryGovernor.INSTANCE.init(config, governorGroup.next(), metrics);
+    MetricsHttpServer metricsServer = new MetricsHttpServer(metrics);
     try{
+      SslContext sslContext = newSslContext();
+      // 指标端点（可选）
+      if (config.getMetricsPort() > 0) {
+        metricsServer.start(resources, config.getMetricsBindAddress(), config.getMetricsPort());
+      }
+      // HTTP虚拟主机端口（可选）：所有http代理共用一个监听
+      if (config.getVhostHttpPort() > 0) {
+        startVhostHttp(transport);
+      }
       ServerBootstrap bootstrap = new ServerBootstrap();
-      bootstrap.group(bossGroup, workerGroup)
-          .channel(NioServerSocketChannel.class) // 使用NIO通道
-          .option(ChannelOption.SO_BACKLOG, 128) // 连接队列大小
-          .childOption(ChannelOption.SO_KEEPALIVE, true) // 保持连接
+      // 连接队列大小、TCP_NODELAY、收发缓冲区等socket参数来自配置
+      config.getSocketOptions().applyTo(bootstrap, transport);
+      bootstrap.group(resources.getBossGroup(), resources.getWorkerGroup())
+          .channel(transport.serverChannelClass())
+          .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, controlWaterMark()) // 控制连接写缓冲水位线
           .handler(new LoggingHandler(LogLevel.INFO)) // 服务端日志（可选）
           .childHandler(new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) {
-              ch.pipeline()
-                  // 心跳超时检测：60秒未读（客户端断连）触发事件
-                  .addLast(new IdleStateHandler(0, 0, 60, TimeUnit.SECONDS))
+              if (sslContext != null) {
+                // TLS位于最前：上层合并后的flush按记录大小加密，帧编解码只看到明文
+                SslHandler sslHandler = config.getTls().newHandler(sslContext, ch.alloc(), null, 0);
+                TlsOptions.recordHandshake(sslHandler, metrics);
+                ch.pipeline().addLast(sslHandler);
+              }
+              ChannelPipeline pipeline = ch.pipeline()
+                  // 合并flush：各公网连接线程发来的帧在控制连接上合并为少量系统调用
+                  .addLast(new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true))
                   // 协议帧解码（解决TCP粘包/拆包）
                   .addLast(new FrpFrameDecoder())
                   // 协议帧编码
-                  .addLast(new FrpFrameEncoder())
-                  // 控制连接业务处理器（核心）
-                  .addLast(new ServerControlHandler(config.getAuthToken()));
+                  .addLast(new FrpFrameEncoder());
+              if (ProxyManager.INSTANCE.isSessionResumeEnabled()) {
+                // 会话恢复：记录发出的流帧、确认收到的流帧（注册后挂上重放缓冲才生效）
+                pipeline.addLast(new ReplayHandler());
+              }
+              // 控制连接业务处理器（核心）
+              pipeline.addLast(new ServerControlHandler(config.getAuthToken()));
             }
           });
       // 绑定控制端口（如7000），同步等待绑定完成
       ChannelFuture future = bootstrap.bind(config.getControlPort()).sync();
-      log.info("服务端启动成功，控制端口：{}", config.getControlPort());
+      log.info("服务端启动成功，控制端口：{}{}", config.getControlPort(), sslContext != null ? "（TLS）" : "");
       // 等待服务端关闭（阻塞）
       future.channel().closeFuture().sync();
     } finally {
-      // 优雅关闭线程组
-      bossGroup.shutdownGracefully();
-      workerGroup.shutdownGracefully();
-      // 关闭所有代理
+      // 关闭指标端点和所有代理，再优雅关闭线程组
+      metricsServer.stop();
+      MemoryGovernor.INSTANCE.shutdown();
       ProxyManager.INSTANCE.shutdown();
+      resources.shutdown();
       log.info("服务端已关闭");
     }
   }
 
+  // 绑定vhost端口，绑定成功后才接受http代理注册
+  private void startVhostHttp(TransportType transport) throws InterruptedException {
+    ServerBootstrap bootstrap = new ServerBootstrap();
+    config.getSocketOptions().applyTo(bootstrap, transport);
+    bootstrap.group(resources.getBossGroup(), resources.getWorkerGroup())
+        .channel(transport.serverChannelClass())
+        .childHandler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel ch) {
+            ch.pipeline().addLast(new HttpVhostHandler(ProxyManager.INSTANCE.getVhostRouter()));
+          }
+        });
+    bootstrap.bind(config.getVhostHttpPort()).sync();
+    ProxyManager.INSTANCE.setVhostHttpPort(config.getVhostHttpPort());
+    log.info("HTTP虚拟主机端口：{}", config.getVhostHttpPort());
+  }
+
+  // 启用TLS时创建服务端SslContext（所有控制端口连接共用），未启用返回null
+  private SslContext newSslContext() {
+    if (!config.getTls().isEnabled()) {
+      return null;
+    }
+    try {
+      return config.getTls().newServerContext();
+    } catch (SSLException e) {
+      throw new IllegalStateException("TLS配置无效：" + e.getMessage(), e);
+    }
+  }
+
+  private WriteBufferWaterMark controlWaterMark() {
+    WriteBufferWaterMark waterMark = FlowControl.waterMark(
+        config.getControlWriteBufferLowWaterMark(), config.getControlWriteBufferHighWaterMark());
+    return waterMark != null ? waterMark : WriteBufferWaterMark.DEFAULT;
+  }
+
   public static void main(String[] args) throws InterruptedException {
     // 加载配置
-    ServerConfig config = new ServerConfig();
+    ServerConfig config = ConfigLoader.load();
     //启动服务端
     new FrpServer(config).start();
   }
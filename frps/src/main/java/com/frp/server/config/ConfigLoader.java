@@ -16,7 +16,7 @@ public class ConfigLoader {
     Properties props = new Properties();
 
     try (InputStream in = ConfigLoader.class.getClassLoader().getResourceAsStream(CONFIG_FILE)){
-      if(in != null){
+      if(in == null){
         log.warn("配置文件{}不存在，使用默认配置", CONFIG_FILE);
         return config;
       }
@@ -29,13 +29,78 @@ public class ConfigLoader {
 
       // 读取认证Token
       config.setAuthToken(props.getProperty("server.authToken"));
-      log.error("服务端配置全部加载完成：{}", config);
+
+      // 读取控制连接写缓冲水位线
+      config.setControlWriteBufferLowWaterMark(getInt(props, "server.controlWriteBufferLowWaterMark",
+          config.getControlWriteBufferLowWaterMark()));
+      config.setControlWriteBufferHighWaterMark(getInt(props, "server.controlWriteBufferHighWaterMark",
+          config.getControlWriteBufferHighWaterMark()));
+      // 读取传输实现与socket参数
+      String transport = props.getProperty("server.transport");
+      if (transport != null && !transport.trim().isEmpty()) {
+        config.setTransport(transport.trim());
+      }
+      config.getSocketOptions().load(props, "server.");
+      // 读取隧道TLS参数
+      config.getTls().load(props, "server.");
+      String controlCodec = props.getProperty("server.controlCodec");
+      if (controlCodec != null && !controlCodec.trim().isEmpty()) {
+        config.setControlCodec(controlCodec.trim());
+      }
+      // 读取线程数
+      config.setBossThreads(getInt(props, "server.bossThreads", config.getBossThreads()));
+      config.setWorkerThreads(getInt(props, "server.workerThreads", config.getWorkerThreads()));
+      // 读取HTTP虚拟主机端口
+      config.setVhostHttpPort(getInt(props, "server.vhostHttpPort", config.getVhostHttpPort()));
+      // 读取udp代理会话数上限
+      config.setUdpMaxSessions(getInt(props, "server.udpMaxSessions", config.getUdpMaxSessions()));
+      // 读取限速
+      config.setBandwidthLimit(getLong(props, "server.bandwidthLimit", config.getBandwidthLimit()));
+      config.setBandwidthBurst(getLong(props, "server.bandwidthBurst", config.getBandwidthBurst()));
+      config.setClientBandwidthLimit(getLong(props, "server.clientBandwidthLimit", config.getClientBandwidthLimit()));
+      config.setClientBandwidthBurst(getLong(props, "server.clientBandwidthBurst", config.getClientBandwidthBurst()));
+      config.setProxyBandwidthLimit(getLong(props, "server.proxyBandwidthLimit", config.getProxyBandwidthLimit()));
+      config.setProxyBandwidthBurst(getLong(props, "server.proxyBandwidthBurst", config.getProxyBandwidthBurst()));
+      config.setSessionResumeTimeout(getInt(props, "server.sessionResumeTimeout", config.getSessionResumeTimeout()));
+      config.setReplayBufferSize(getInt(props, "server.replayBufferSize", config.getReplayBufferSize()));
+      // 读取内存预算
+      config.setMemoryBudget(getLong(props, "server.memoryBudget", config.getMemoryBudget()));
+      config.setClientMemoryQuota(getLong(props, "server.clientMemoryQuota", config.getClientMemoryQuota()));
+      config.setProxyMemoryQuota(getLong(props, "server.proxyMemoryQuota", config.getProxyMemoryQuota()));
+      config.setConnectionMemoryQuota(getLong(props, "server.connectionMemoryQuota", config.getConnectionMemoryQuota()));
+      config.setMemoryCheckInterval(getInt(props, "server.memoryCheckInterval", config.getMemoryCheckInterval()));
+      config.setMemoryShedDelay(getInt(props, "server.memoryShedDelay", config.getMemoryShedDelay()));
+      // 读取指标端点
+      config.setMetricsPort(getInt(props, "server.metricsPort", config.getMetricsPort()));
+      String metricsBindAddress = props.getProperty("server.metricsBindAddress");
+      if (metricsBindAddress != null && !metricsBindAddress.trim().isEmpty()) {
+        config.setMetricsBindAddress(metricsBindAddress.trim());
+      }
+      log.info("服务端配置全部加载完成：{}", config);
 
     }catch (IOException e){
       log.error("加载配置文件失败", e);
     } catch (NumberFormatException e){
-      log.error("控制端口格式错误", e);
+      log.error("数值配置格式错误", e);
     }
     return config;
   }
+
+  // 读取整数配置项，未配置时返回默认值
+  private static int getInt(Properties props, String key, int defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return Integer.parseInt(value.trim());
+  }
+
+  // 读取长整数配置项，未配置时返回默认值
+  private static long getLong(Properties props, String key, long defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return Long.parseLong(value.trim());
+  }
 }
@@ -1,5 +1,7 @@
 package com.frp.server.config;
 
+import com.frp.common.transport.SocketOptions;
+import com.frp.common.transport.TlsOptions;
 import lombok.Data;
 
 /**
@@ -9,4 +11,41 @@ import lombok.Data;
 public class ServerConfig {
   private int controlPort = 7000; //控制端口默认
   private String authToken; // 与客户端匹配的Token
+  // 控制连接写缓冲水位线（字节），0表示使用Netty默认值
+  private int controlWriteBufferLowWaterMark;
+  private int controlWriteBufferHighWaterMark;
+  private String transport = "auto"; // 传输实现：auto/epoll/nio
+  private String controlCodec = "binary"; // 控制指令编码：binary/json（json仅用于调试，收到两种格式都能解析）
+  private int bossThreads = 1; // accept线程数，所有监听端口共用
+  private int workerThreads = 0; // IO线程数，控制连接与公网连接共用，0表示CPU核数
+  private int metricsPort = 0; // Prometheus指标端口（GET /metrics），0表示不启用
+  private int vhostHttpPort = 0; // HTTP虚拟主机端口，所有http代理共用并按域名路由，0表示不启用
+  private int udpMaxSessions = 1024; // 每个udp代理同时存在的会话（公网发送方）上限，达到后丢弃新发送方的数据报，0表示不限制
+  // 限速（字节/秒，公网<->内网两个方向合计），0表示不限速；突发量（字节），0表示1秒的量
+  private long bandwidthLimit; // 全局：所有代理合计
+  private long bandwidthBurst;
+  private long clientBandwidthLimit; // 每个客户端（控制连接）的全部代理合计
+  private long clientBandwidthBurst;
+  private long proxyBandwidthLimit; // 每个代理的上限，客户端申请的限速不能超过它
+  private long proxyBandwidthBurst;
+  private String metricsBindAddress = "127.0.0.1"; // 指标端口绑定地址
+  // 会话恢复：控制连接断开后保留代理和公网连接的时长（秒），期间客户端可在新连接上接回会话，0表示不保留
+  private int sessionResumeTimeout = 30;
+  private int replayBufferSize = 4 * 1024 * 1024; // 每个客户端待对端确认的流帧上限（字节），超过后该会话不再可恢复
+  // 内存预算（字节）：服务端缓冲的全部数据的上限，0表示取JVM堆外内存上限的一半，小于0表示不限制
+  private long memoryBudget;
+  // 每个客户端、每个代理、每个公网连接缓冲数据的上限（字节），0表示不限制
+  private long clientMemoryQuota;
+  private long proxyMemoryQuota;
+  private long connectionMemoryQuota;
+  private int memoryCheckInterval = 100; // 汇总缓冲量的间隔（毫秒），0表示不检查（单连接上限仍在转发时检查）
+  private int memoryShedDelay = 2000; // 暂停读取后仍持续超限多久（毫秒）开始断开占用最多的公网连接
+  // 控制连接与公网连接的socket参数；默认epoll水平触发，使工作连接可以splice透传
+  private SocketOptions socketOptions = new SocketOptions();
+  // 控制端口上全部连接（控制连接、条带连接、工作连接）的TLS参数，公网端口不加密
+  private TlsOptions tls = new TlsOptions();
+
+  public ServerConfig() {
+    socketOptions.setLevelTriggered(true);
+  }
 }
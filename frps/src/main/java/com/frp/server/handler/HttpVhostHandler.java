@@ -0,0 +1,224 @@
+package com.frp.server.handler;
+
+import com.frp.common.util.DeadlineWheel;
+import com.frp.server.manager.Proxy;
+import com.frp.server.manager.ProxyStatus;
+import com.frp.server.manager.VhostRouter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.CharsetUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Locale;
+
+/**
+ * HTTP虚拟主机入口：vhost端口上的每个公网连接先经过该处理器，只解析请求行和Host头（不解析其余请求头和请求体），
+ * 按域名和路径前缀在路由表中找到代理后，把自身替换为该代理的RemoteProxyHandler，已读到的字节原样作为流的首段数据转发
+ * 路由按连接进行：同一keep-alive连接上的后续请求沿用第一个请求选中的代理；域名按路径前缀分给了多个代理时，
+ * 转发的请求改为Connection: close，后端响应后连接关闭，下一个请求在新连接上重新路由（协议升级请求除外）
+ * 交接时公网连接改用所选代理的写缓冲水位线
+ */
+@Slf4j
+public class HttpVhostHandler extends ChannelInboundHandlerAdapter {
+  // 请求头（请求行+全部头部）长度上限
+  static final int MAX_HEADER_LENGTH = 8 * 1024;
+  // 建立连接后须在该时间内发完请求头（秒），防止慢速连接长期占用
+  static final int HEADER_TIMEOUT = 10;
+  private static final ByteBuf HEADER_END = Unpooled.unreleasableBuffer(
+      Unpooled.wrappedBuffer(new byte[]{'\r', '\n', '\r', '\n'}));
+  private static final byte[] HOST = header("Host");
+  private static final byte[] CONNECTION = header("Connection");
+  private static final byte[] KEEP_ALIVE = header("Keep-Alive");
+  private static final byte[] PROXY_CONNECTION = header("Proxy-Connection");
+  private static final byte[] CONNECTION_CLOSE = "Connection: close\r\n".getBytes(CharsetUtil.US_ASCII);
+
+  private final VhostRouter router;
+  private ByteBuf buffered; // 已读到、尚未转发的数据
+  private DeadlineWheel.Deadline headerTimeout;
+
+  public HttpVhostHandler(VhostRouter router) {
+    this.router = router;
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) {
+    headerTimeout = DeadlineWheel.register(ctx.channel().eventLoop(), HEADER_TIMEOUT, () -> {
+      log.debug("vhost连接{}请求头超时", ctx.channel().remoteAddress());
+      respond(ctx, "408 Request Timeout", "请求头超时");
+    });
+    ctx.fireChannelActive();
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (!(msg instanceof ByteBuf)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+    ByteBuf buf = (ByteBuf) msg;
+    buffered = buffered == null ? buf : ByteToMessageDecoder.MERGE_CUMULATOR.cumulate(ctx.alloc(), buffered, buf);
+    int headerEnd = ByteBufUtil.indexOf(HEADER_END.duplicate(), buffered);
+    if (headerEnd < 0) {
+      if (buffered.readableBytes() > MAX_HEADER_LENGTH) {
+        respond(ctx, "431 Request Header Fields Too Large", "请求头过长");
+      }
+      return;
+    }
+    if (headerEnd - buffered.readerIndex() > MAX_HEADER_LENGTH) {
+      respond(ctx, "431 Request Header Fields Too Large", "请求头过长");
+      return;
+    }
+    route(ctx, headerEnd);
+  }
+
+  // 解析请求行和Host头，找到代理后交接连接
+  private void route(ChannelHandlerContext ctx, int headerEnd) {
+    int start = buffered.readerIndex();
+    int lineEnd = ByteBufUtil.indexOf(buffered, start, headerEnd + 2, (byte) '\r');
+    // 请求行：METHOD SP request-target SP HTTP-version
+    int targetStart = ByteBufUtil.indexOf(buffered, start, lineEnd, (byte) ' ') + 1;
+    int targetEnd = targetStart > 0 ? ByteBufUtil.indexOf(buffered, targetStart, lineEnd, (byte) ' ') : -1;
+    if (targetEnd < 0) {
+      respond(ctx, "400 Bad Request", "请求行格式错误");
+      return;
+    }
+    String target = buffered.toString(targetStart, targetEnd - targetStart, CharsetUtil.US_ASCII);
+    String host = null;
+    String path = target;
+    if (target.startsWith("http://")) {
+      // 绝对形式：http://host[:port]/path
+      int slash = target.indexOf('/', 7);
+      host = slash < 0 ? target.substring(7) : target.substring(7, slash);
+      path = slash < 0 ? "/" : target.substring(slash);
+    } else if (!target.startsWith("/")) {
+      path = "/";
+    }
+    // 逐行查找Host头，并记下Connection头是否要求协议升级（升级后不再是HTTP请求，按连接路由即可）
+    boolean upgrade = false;
+    int lineStart = lineEnd + 2;
+    while (lineStart < headerEnd + 2) {
+      int end = ByteBufUtil.indexOf(buffered, lineStart, headerEnd + 2, (byte) '\r');
+      if (host == null && isHeader(buffered, lineStart, end, HOST)) {
+        host = headerValue(lineStart, end, HOST);
+      } else if (isHeader(buffered, lineStart, end, CONNECTION)) {
+        upgrade |= headerValue(lineStart, end, CONNECTION).toLowerCase(Locale.ROOT).contains("upgrade");
+      }
+      lineStart = end + 2;
+    }
+    if (host == null || host.isEmpty()) {
+      respond(ctx, "400 Bad Request", "缺少Host请求头");
+      return;
+    }
+    Proxy proxy = router.route(host, path);
+    if (proxy == null) {
+      log.debug("vhost未找到路由：{}{}", host, path);
+      respond(ctx, "404 Not Found", "未找到域名对应的代理：" + host);
+      return;
+    }
+    if (proxy.getStatus() != ProxyStatus.ACTIVE) {
+      respond(ctx, "502 Bad Gateway", "代理未就绪：" + proxy.getProxyId());
+      return;
+    }
+    // 交接：替换为代理的处理器，已读到的数据（请求头及可能已到达的请求体）作为首段数据
+    headerTimeout.cancel();
+    ByteBuf data = buffered;
+    buffered = null;
+    if (!upgrade && router.routesByPath(host)) {
+      data = closeAfterRequest(ctx, data, lineEnd, headerEnd);
+    }
+    ctx.channel().config().setWriteBufferWaterMark(proxy.getWriteBufferWaterMark());
+    RemoteProxyHandler handler = new RemoteProxyHandler(proxy, data);
+    ctx.pipeline().replace(this, null, handler);
+    handler.channelActive(ctx.pipeline().context(handler));
+  }
+
+  /**
+   * 改写请求头：去掉Connection/Keep-Alive/Proxy-Connection头，加上Connection: close，请求行、其余请求头和请求体不变
+   * 请求头不超过MAX_HEADER_LENGTH，直接拷贝；原数据释放
+   */
+  private static ByteBuf closeAfterRequest(ChannelHandlerContext ctx, ByteBuf data, int lineEnd, int headerEnd) {
+    ByteBuf rewritten = ctx.alloc().buffer(data.readableBytes() + CONNECTION_CLOSE.length);
+    rewritten.writeBytes(data, data.readerIndex(), lineEnd + 2 - data.readerIndex());
+    int lineStart = lineEnd + 2;
+    while (lineStart < headerEnd + 2) {
+      int end = ByteBufUtil.indexOf(data, lineStart, headerEnd + 2, (byte) '\r');
+      if (!isHeader(data, lineStart, end, CONNECTION) && !isHeader(data, lineStart, end, KEEP_ALIVE)
+          && !isHeader(data, lineStart, end, PROXY_CONNECTION)) {
+        rewritten.writeBytes(data, lineStart, end + 2 - lineStart);
+      }
+      lineStart = end + 2;
+    }
+    rewritten.writeBytes(CONNECTION_CLOSE);
+    // 结束请求头的空行及已到达的请求体
+    rewritten.writeBytes(data, headerEnd + 2, data.writerIndex() - headerEnd - 2);
+    data.release();
+    return rewritten;
+  }
+
+  // 行[lineStart, end)是否为指定请求头（name为小写的"名称:"，大小写不敏感）
+  private static boolean isHeader(ByteBuf buf, int lineStart, int end, byte[] name) {
+    if (end - lineStart < name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      byte b = buf.getByte(lineStart + i);
+      if ((b | 0x20) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String headerValue(int lineStart, int end, byte[] name) {
+    return buffered.toString(lineStart + name.length, end - lineStart - name.length, CharsetUtil.US_ASCII).trim();
+  }
+
+  private static byte[] header(String name) {
+    return (name.toLowerCase(Locale.ROOT) + ":").getBytes(CharsetUtil.US_ASCII);
+  }
+
+  // 返回错误响应并关闭连接
+  private void respond(ChannelHandlerContext ctx, String status, String message) {
+    releaseBuffered();
+    if (headerTimeout != null) {
+      headerTimeout.cancel();
+    }
+    byte[] body = (message + "\n").getBytes(CharsetUtil.UTF_8);
+    String head = "HTTP/1.1 " + status + "\r\n"
+        + "Content-Type: text/plain; charset=utf-8\r\n"
+        + "Content-Length: " + body.length + "\r\n"
+        + "Connection: close\r\n\r\n";
+    ByteBuf response = ctx.alloc().buffer(head.length() + body.length);
+    response.writeCharSequence(head, CharsetUtil.US_ASCII);
+    response.writeBytes(body);
+    ctx.channel().config().setAutoRead(false);
+    ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+  }
+
+  private void releaseBuffered() {
+    if (buffered != null) {
+      buffered.release();
+      buffered = null;
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    releaseBuffered();
+    if (headerTimeout != null) {
+      headerTimeout.cancel();
+    }
+    ctx.fireChannelInactive();
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    log.debug("vhost连接{}异常：{}", ctx.channel().remoteAddress(), cause.getMessage());
+    ctx.close();
+  }
+}
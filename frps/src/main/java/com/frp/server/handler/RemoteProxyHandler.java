@@ -1,46 +1,161 @@
 package com.frp.server.handler;
 
+import com.frp.common.codec.ControlFrameCodec;
+import com.frp.common.codec.FrpFrameDecoder;
+import com.frp.common.codec.FrpFrameEncoder;
+import com.frp.common.codec.PayloadCompressor;
+import com.frp.common.metrics.ProxyMetrics;
 import com.frp.common.protocol.FrameType;
 import com.frp.common.protocol.FrpFrame;
+import com.frp.common.protocol.StartWorkConn;
+import com.frp.common.relay.ChannelRelay;
+import com.frp.common.util.FlowControl;
+import com.frp.common.util.FlushCoalescer;
+import com.frp.common.util.ReplayBuffer;
+import com.frp.common.util.TokenBucket;
+import com.frp.server.manager.ClientSession;
+import com.frp.server.manager.MemoryGovernor;
 import com.frp.server.manager.Proxy;
+import com.frp.server.manager.ProxyManager;
+import com.frp.server.manager.WorkConnManager;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
-import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.channel.ChannelPromise;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 远程代理处理器：监听公网端口，接收公网用户请求并转发给内网客户端
- * 每个公网代理对应一个处理器实例
+ * 每个公网连接对应一个处理器实例和一个流ID，同一代理的多个公网连接通过流ID在控制连接上复用
+ * 代理限速时两个方向都扣减令牌桶：公网->内网超限暂停读取公网连接；内网->公网超限向客户端发PAUSE暂停读取内网连接，
+ * 已在途的数据暂不flush（计入写缓冲水位线），令牌补足后再写出
+ * 内存预算超限时（MemoryGovernor）两个方向都暂停：停止读取公网连接，并向客户端发PAUSE暂停读取内网连接
+ * 客户端控制连接断开、会话等待恢复时，发往旧连接的帧交给重放缓冲暂存，会话恢复后改用新连接
  * @author Zhidong Zhang
  */
 @Slf4j
-public class RemoteProxyHandler extends ChannelInboundHandlerAdapter {
-  // 静态映射：proxyId -> 公网用户连接Channel，用于回传响应
-  private static final Map<String, Channel> PUBLIC_CHANNEL_MAP = new ConcurrentHashMap<>();
-
+public class RemoteProxyHandler extends ChannelDuplexHandler {
   private final Proxy proxy; // 当前代理实例
   private Channel publicUserChannel; //公网用户连接Channel
+  private int streamId; // 当前公网连接对应的流ID
+  private Channel tunnel; // 流分配到的隧道连接（客户端的主控制连接或条带连接），该流的帧都在其上收发
+  private FlushCoalescer tunnelWriter; // 向控制连接写DATA帧的写合并器，读结束时统一flush
+  private ByteBuf initialData; // 接入前已读到的数据（http代理路由时读到的请求头），流建立后最先转发
+  private boolean outboundThrottled; // 内网->公网方向超出限速，等待令牌补足，期间推迟flush
+  private boolean flushPending; // 限速期间被推迟的flush
+  private boolean memoryPaused; // 服务端内存预算或配额超限，暂停该流两个方向的数据源
+  private boolean peerPaused; // 已向客户端发送PAUSE（公网连接不可写、限速或内存超限），尚未RESUME
 
   public RemoteProxyHandler(Proxy proxy) {
     this.proxy = proxy;
   }
+
+  /**
+   * @param initialData 路由阶段已读到的数据，所有权转交给处理器
+   */
+  public RemoteProxyHandler(Proxy proxy, ByteBuf initialData) {
+    this.proxy = proxy;
+    this.initialData = initialData;
+  }
   /**
    * 公网用户连接建立时触发（如浏览器访问公网IP:端口）
    */
   @Override
   public void channelActive(ChannelHandlerContext ctx) {
     publicUserChannel = ctx.channel();
+    streamId = ProxyManager.INSTANCE.nextStreamId();
     String proxyId = proxy.getProxyId();
     int remotePort = proxy.getRemotePort();
-    // 缓存公网用户连接（同一代理仅允许一个公网连接，简化实现）
-    PUBLIC_CHANNEL_MAP.put(proxyId, publicUserChannel);
-    log.info("公网用户连接代理[{}]（公网端口{}），连接ID：{}",
-        proxyId, remotePort, publicUserChannel.id().asShortText());
+    Channel clientChannel = proxy.getClientChannel();
+    if(clientChannel == null || !clientChannel.isActive()) {
+      log.error("代理[{}]的客户端连接已断开，拒绝公网连接", proxyId);
+      releaseInitialData();
+      ctx.close();
+      return;
+    }
+    ProxyMetrics metrics = proxy.getMetrics();
+    metrics.connectionOpened();
+    publicUserChannel.closeFuture().addListener(f -> metrics.connectionClosed());
+    // 优先使用该客户端会话预先建立的工作连接，连接池为空时退回到控制连接上的多路复用
+    ClientSession session = ClientSession.of(clientChannel);
+    Channel workConn = WorkConnManager.INSTANCE.poll(session);
+    if (workConn != null) {
+      startWorkConn(ctx, workConn);
+      return;
+    }
+    // 客户端有多条隧道连接时轮流分配
+    tunnel = session != null ? session.assignTunnel(publicUserChannel) : clientChannel;
+    // 写合并：公网数据发往隧道连接、以及隧道连接上的数据写回公网连接，均按读突发合并flush
+    tunnelWriter = new FlushCoalescer(tunnel, proxy.getFlushBytes(), proxy.getFlushDelayMicros())
+        .recordLatency(metrics.getInboundForwardLatency());
+    FlushCoalescer.attach(publicUserChannel, proxy.getFlushBytes(), proxy.getFlushDelayMicros())
+        .recordLatency(metrics.getOutboundForwardLatency());
+    // 登记流，通知客户端为该流建立内网连接
+    proxy.getStreamChannels().put(streamId, publicUserChannel);
+    if (!tunnel.isWritable()) {
+      // 隧道连接已拥塞，新流先暂停读取
+      FlowControl.setTunnelCongested(publicUserChannel, true);
+    }
+    tunnel.writeAndFlush(FrpFrame.streamFrame(FrameType.OPEN, streamId, proxy.getHandle()));
+    if (initialData != null) {
+      ByteBuf data = initialData;
+      initialData = null;
+      channelRead(ctx, data);
+      tunnelWriter.flush();
+    }
+    log.info("公网用户连接代理[{}]（公网端口{}），连接ID：{}，流ID：{}",
+        proxyId, remotePort, publicUserChannel.id().asShortText(), streamId);
+  }
+
+  /**
+   * 把公网连接与一个工作连接配对：下发StartWorkConn后工作连接去掉帧编解码，两端成为原始字节管道
+   */
+  private void startWorkConn(ChannelHandlerContext ctx, Channel workConn) {
+    String proxyId = proxy.getProxyId();
+    // 配对完成前暂停读取公网数据
+    ctx.channel().config().setAutoRead(false);
+    StartWorkConn startWorkConn = new StartWorkConn();
+    startWorkConn.setProxyId(proxyId);
+    startWorkConn.setStreamId(streamId);
+    ByteBuf payload = ControlFrameCodec.encode(workConn.alloc(), startWorkConn);
+    workConn.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, proxyId, payload))
+        .addListener((ChannelFutureListener) f -> {
+          if (!f.isSuccess()) {
+            log.error("代理[{}]工作连接启用失败", proxyId, f.cause());
+            releaseInitialData();
+            ctx.close();
+            return;
+          }
+          workConn.pipeline().remove(FrpFrameDecoder.class);
+          workConn.pipeline().remove(FrpFrameEncoder.class);
+          ByteBuf data = initialData;
+          initialData = null;
+          if (data == null) {
+            bridge(ctx, workConn);
+            return;
+          }
+          // 路由阶段读到的数据写出后再桥接：splice直接读写socket，不能越过尚在写缓冲中的数据
+          workConn.writeAndFlush(data).addListener((ChannelFutureListener) wf -> {
+            if (wf.isSuccess()) {
+              bridge(ctx, workConn);
+            } else {
+              workConn.close();
+              ctx.close();
+            }
+          });
+        });
+    log.info("公网用户连接代理[{}]（公网端口{}），连接ID：{}，使用工作连接{}",
+        proxyId, proxy.getRemotePort(), publicUserChannel.id().asShortText(), workConn.id().asShortText());
+  }
+
+  private void bridge(ChannelHandlerContext ctx, Channel workConn) {
+    ctx.pipeline().remove(this);
+    ChannelRelay.bridge(publicUserChannel, workConn, proxy.getBandwidth());
   }
 
   //接收公网用户发送的数据，并转发给内网客户端
@@ -52,36 +167,156 @@ public class RemoteProxyHandler extends ChannelInboundHandlerAdapter {
     }
 
     ByteBuf buf = (ByteBuf) msg;
-    byte[] data = new byte[buf.readableBytes()];
-    buf.readBytes(data);
-    buf.release();
-
     String proxyId = proxy.getProxyId();
-    Channel clientChannel = proxy.getClientChannel();
-    if(clientChannel == null || !clientChannel.isActive()) {
-      log.error("代理[{}]的客户端连接已断开，无法转发数据", proxyId);
+    boolean suspended = false;
+    if(!tunnel.isActive() && !rebindTunnel()) {
+      suspended = ReplayBuffer.isSuspended(tunnel);
+      if (!suspended) {
+        buf.release();
+        log.error("代理[{}]的客户端连接已断开，无法转发数据", proxyId);
+        ctx.close();
+        return;
+      }
+    }
+
+    //封装为数据帧，发送给客户端：读到的ByteBuf直接作为payload（按协商的算法压缩），所有权转交给帧，由编码器释放
+    int length = buf.readableBytes();
+    FrpFrame dataframe = PayloadCompressor.dataFrame(ctx.alloc(), proxy.getCompression(), streamId, proxy.getHandle(), buf);
+    if (suspended) {
+      // 会话等待恢复：已读到的数据暂存到重放缓冲，暂停读取直到会话恢复
+      ReplayBuffer.writeStream(tunnel, dataframe);
+      FlowControl.setTunnelCongested(publicUserChannel, true);
+    } else {
+      tunnelWriter.write(dataframe, dataframe.getPayload().readableBytes());
+    }
+    proxy.getMetrics().recordInbound(length);
+    TokenBucket bandwidth = proxy.getBandwidth();
+    if (bandwidth != null) {
+      FlowControl.throttle(publicUserChannel, bandwidth, bandwidth.consume(length));
+    }
+  }
+
+  // 隧道连接已断开但会话已在新的控制连接上恢复：改用新连接（旧写合并器中的帧已交给重放缓冲）
+  private boolean rebindTunnel() {
+    Channel resumed = ReplayBuffer.resumedChannel(tunnel);
+    if (resumed == null) {
+      return false;
+    }
+    tunnelWriter.flush();
+    tunnel = resumed;
+    tunnelWriter = new FlushCoalescer(resumed, proxy.getFlushBytes(), proxy.getFlushDelayMicros())
+        .recordLatency(proxy.getMetrics().getInboundForwardLatency());
+    return true;
+  }
+
+  /**
+   * 写回公网连接的数据（来自控制连接上的DATA帧）：限速时扣减令牌桶，超限则暂停客户端读取内网连接
+   */
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    TokenBucket bandwidth = proxy.getBandwidth();
+    if (bandwidth != null && msg instanceof ByteBuf) {
+      long waitNanos = bandwidth.consume(((ByteBuf) msg).readableBytes());
+      if (waitNanos > 0 && !outboundThrottled) {
+        outboundThrottled = true;
+        bandwidth.recordThrottle();
+        updatePeerPause(ctx);
+        ctx.executor().schedule(() -> releaseOutbound(ctx), waitNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+    ctx.write(msg, promise);
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) {
+    if (outboundThrottled) {
+      flushPending = true;
       return;
     }
+    ctx.flush();
+  }
 
-    //封装为数据帧，发送给客户端
-    FrpFrame dataframe = new FrpFrame(
-        FrameType.DATA,
-        (byte) 0,
-        proxyId,
-        data
-    );
-    clientChannel.writeAndFlush(dataframe);
-    log.debug("代理[{}]转发公网数据到内网，长度：{}字节", proxyId, data.length);
+  // 令牌补足后恢复内网->公网方向；期间共享的客户端/全局桶又被消费时继续等待
+  private void releaseOutbound(ChannelHandlerContext ctx) {
+    long waitNanos = proxy.getBandwidth().waitNanos();
+    if (waitNanos > 0 && ctx.channel().isActive()) {
+      ctx.executor().schedule(() -> releaseOutbound(ctx), waitNanos, TimeUnit.NANOSECONDS);
+      return;
+    }
+    outboundThrottled = false;
+    if (flushPending) {
+      flushPending = false;
+      ctx.flush();
+    }
+    updatePeerPause(ctx);
   }
 
   /**
-   * 公网用户连接断开时清理
+   * 一次读突发结束：把本轮写入控制连接的数据帧一次性flush
+   */
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    if (tunnelWriter != null) {
+      tunnelWriter.flush();
+    }
+    ctx.fireChannelReadComplete();
+  }
+
+  /**
+   * 公网连接写缓冲越过水位线：通知客户端暂停/恢复读取该流对应的内网连接
+   */
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+    updatePeerPause(ctx);
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  /**
+   * 内存预算的暂停/恢复事件（由检查线程发出，在公网连接的EventLoop上执行）
+   */
+  @Override
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+    if (!(evt instanceof MemoryGovernor.Pressure)) {
+      ctx.fireUserEventTriggered(evt);
+      return;
+    }
+    memoryPaused = evt == MemoryGovernor.Pressure.PAUSE;
+    FlowControl.setMemoryPressure(ctx.channel(), memoryPaused);
+    updatePeerPause(ctx);
+  }
+
+  // 公网连接不可写、内网->公网方向限速或内存超限时暂停客户端读取内网连接，都解除后才恢复
+  private void updatePeerPause(ChannelHandlerContext ctx) {
+    boolean pause = !ctx.channel().isWritable() || outboundThrottled || memoryPaused;
+    if (pause == peerPaused || tunnel == null) {
+      return;
+    }
+    peerPaused = pause;
+    FrameType type = pause ? FrameType.PAUSE : FrameType.RESUME;
+    ReplayBuffer.writeStream(tunnel, FrpFrame.streamFrame(type, streamId, proxy.getHandle()));
+  }
+
+  private void releaseInitialData() {
+    if (initialData != null) {
+      initialData.release();
+      initialData = null;
+    }
+  }
+
+  /**
+   * 公网用户连接断开时清理，并通知客户端关闭对应的内网连接
    */
   @Override
   public void channelInactive(ChannelHandlerContext ctx) {
+    releaseInitialData();
     String proxyId = proxy.getProxyId();
-    PUBLIC_CHANNEL_MAP.remove(proxyId);
-    log.info("公网用户断开代理[{}]连接", proxyId);
+    // 若流已被客户端的FIN/RST移除，则无需再通知
+    if (proxy.getStreamChannels().remove(streamId) != null) {
+      if (tunnel != null) {
+        ReplayBuffer.writeStream(tunnel, FrpFrame.streamFrame(FrameType.FIN, streamId, proxy.getHandle()));
+      }
+    }
+    log.info("公网用户断开代理[{}]连接，流ID：{}", proxyId, streamId);
   }
 
   /**
@@ -89,13 +324,12 @@ public class RemoteProxyHandler extends ChannelInboundHandlerAdapter {
    */
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-    log.error("公网代理[{}]异常", proxy.getProxyId(), cause);
+    if (cause instanceof ClosedChannelException) {
+      // 连接被关闭（如超过内存预算被断开）时写缓冲中尚未写出的数据失败，不是异常情况
+      log.debug("公网代理[{}]流[{}]已关闭，丢弃未写出的数据", proxy.getProxyId(), streamId);
+      return;
+    }
+    log.error("公网代理[{}]流[{}]异常", proxy.getProxyId(), streamId, cause);
     ctx.close();
   }
-  /**
-   * 静态方法：通过proxyId获取公网用户连接（供ServerControlHandler回传响应）
-   */
-  public static Channel getPublicUserChannel(String proxyId) {
-    return PUBLIC_CHANNEL_MAP.get(proxyId);
-  }
 }
@@ -1,32 +1,58 @@
 package com.frp.server.handler;
 
 import com.frp.common.codec.ControlFrameCodec;
+import com.frp.common.protocol.CloseProxy;
+import com.frp.common.protocol.ControlMessage;
 import com.frp.common.protocol.FrameType;
 import com.frp.common.protocol.FrpFrame;
+import com.frp.common.protocol.Heartbeat;
+import com.frp.common.protocol.NewStripeConn;
+import com.frp.common.protocol.NewWorkConn;
+import com.frp.common.protocol.RegisterBatchRequest;
+import com.frp.common.protocol.RegisterBatchResponse;
 import com.frp.common.protocol.RegisterRequest;
 import com.frp.common.protocol.RegisterResponse;
+import com.frp.common.protocol.ResumeSession;
+import com.frp.common.protocol.ResumeSessionResponse;
+import com.frp.common.protocol.SessionAck;
 import com.frp.common.util.Constants;
+import com.frp.common.util.DeadlineWheel;
+import com.frp.common.util.FlowControl;
+import com.frp.common.util.FlushCoalescer;
+import com.frp.common.util.ReplayBuffer;
+import com.frp.server.manager.ClientSession;
+import com.frp.server.manager.MemoryGovernor;
 import com.frp.server.manager.Proxy;
 import com.frp.server.manager.ProxyManager;
 import com.frp.server.manager.ProxyStatus;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * 控制连接处理器，处理客户端的控制连接，如注册/心跳/注销等指令
  */
 @Slf4j
 public class ServerControlHandler extends SimpleChannelInboundHandler<FrpFrame> {
+  private static final Heartbeat HEARTBEAT = new Heartbeat(); // 心跳回复无字段，复用同一实例
   private final String authToken; // 服务端认证Token，用来校验客户端
   private String clientId; //客户端连接ID
-  private ScheduledFuture<?> heartbeatTimeoutTask; //心跳超时检测任务
+  private String runId; //客户端运行ID（来自注册请求），用于关联工作连接
+  private ClientSession session; //客户端会话（首次注册时创建），持有该客户端注册的代理
+  private boolean stripe; //当前连接是并入会话的条带连接（只承载流，不注册代理）
+  private DeadlineWheel.Deadline liveness; //连接超时检测：任何帧都算活动，超时未收到数据则断开
+  private final Set<FlushCoalescer> pendingFlush = new HashSet<>(); //本轮读突发中写入过数据、待flush的公网连接
 
   public ServerControlHandler(String authToken) {
     this.authToken = authToken;
@@ -39,9 +65,18 @@ public class ServerControlHandler extends SimpleChannelInboundHandler<FrpFrame>
   public void channelActive(ChannelHandlerContext ctx){
     clientId = ctx.channel().id().asShortText();
     log.info("客户端[{}]已连接", clientId);
+    ProxyManager.INSTANCE.getMetrics().getControlConnections().increment();
 
-    // 启动心跳超市检测，默认时长60秒
-    resetHeartbeatTimeout(ctx);
+    // 启动超时检测：登记到所在EventLoop的时间轮，此后收到帧只记录活动时间，不再重建定时任务
+    liveness = watchLiveness(ctx);
+  }
+
+  // 在连接当前所在的EventLoop上登记超时检测
+  private DeadlineWheel.Deadline watchLiveness(ChannelHandlerContext ctx) {
+    return DeadlineWheel.register(ctx.channel().eventLoop(), Constants.HEARTBEAT_TIMEOUT, () -> {
+      log.warn("客户端[{}]超时（{}秒未收到数据），关闭连接", clientId, Constants.HEARTBEAT_TIMEOUT);
+      ctx.close();
+    });
   }
 
   // 客户端连接断开时触发
@@ -49,46 +84,83 @@ public class ServerControlHandler extends SimpleChannelInboundHandler<FrpFrame>
   public void channelInactive(ChannelHandlerContext ctx){
     log.info("客户端[{}]已断开连接", clientId);
 
-    //取消心跳超时任务
-    if(heartbeatTimeoutTask != null) {
-      heartbeatTimeoutTask.cancel(true);
+    //取消超时检测
+    if(liveness != null) {
+      liveness.cancel();
+    }
+    ProxyManager.INSTANCE.getMetrics().getControlConnections().decrement();
+    if (stripe) {
+      // 条带连接断开只影响分配在它上面的流，代理和工作连接属于主控制连接
+      ProxyManager.INSTANCE.leaveStripe(session, ctx.channel());
+      return;
+    }
+    if (ProxyManager.INSTANCE.suspendSession(ctx.channel())) {
+      // 会话保留，等待客户端在新连接上恢复（代理、公网连接和工作连接都不动）
+      return;
     }
-    //移除该客户端的所有代理（通过客户端Channel关联）
+    //移除该客户端的所有代理（通过客户端Channel关联），同时关闭其空闲工作连接
     ProxyManager.INSTANCE.removeProxiesByClientChannel(ctx.channel());
   }
 
   // 接收客户端发送的帧（控制帧/数据帧）
   @Override
   protected void channelRead0(ChannelHandlerContext ctx, FrpFrame frame){
-    // 收到数据，重置心跳超时检测
-    resetHeartbeatTimeout(ctx);
+    // 收到数据，记录活动时间（只写一个字段）
+    liveness.touch();
 
-    if (frame.getType() == FrameType.CONTROL) {
-      handleControlFrame(ctx, frame); // 处理控制帧（注册/心跳等）
-    } else if (frame.getType() == FrameType.DATA) {
-      handleDataFrame(ctx, frame); // 处理数据帧（内网服务响应→公网用户）
+    switch (frame.getType()) {
+      case CONTROL:
+        handleControlFrame(ctx, frame); // 处理控制帧（注册/心跳等）
+        break;
+      case DATA:
+        handleDataFrame(ctx, frame); // 处理数据帧（内网服务响应→公网用户）
+        break;
+      case FIN:
+      case RST:
+        handleStreamClose(frame); // 客户端内网连接关闭或建立失败
+        break;
+      case PAUSE:
+      case RESUME:
+        handleStreamFlowControl(frame); // 客户端内网连接写缓冲积压/恢复
+        break;
+      default:
+        log.warn("客户端[{}]发送非法帧类型：{}", clientId, frame.getType());
     }
   }
 
   //处理控制帧
   private void handleControlFrame(ChannelHandlerContext ctx, FrpFrame frame) {
     try {
-      // 解析payload
-      Object controlObj = ControlFrameCodec.deserialize(frame.getPayload(), Object.class);
-      String type = (String) ((com.fasterxml.jackson.databind.node.ObjectNode) controlObj).get("type").asText();
+      // 解析payload（按操作码直接解码为对应实体，只解析一次）
+      ControlMessage msg = ControlFrameCodec.decode(frame.getPayload());
 
-      switch (type) {
-        case "REGISTER":
-          handleRegister(ctx, frame); // 处理注册请求
+      switch (msg.getType()) {
+        case REGISTER:
+          handleRegister(ctx, (RegisterRequest) msg); // 处理注册请求
           break;
-        case "HEARTBEAT":
-          handleHeartbeat(); // 处理心跳包
+        case REGISTER_BATCH:
+          handleRegisterBatch(ctx, (RegisterBatchRequest) msg); // 处理批量注册请求
           break;
-        case "CLOSE_PROXY":
-          handleCloseProxy(frame); // 处理注销代理请求
+        case HEARTBEAT:
+          handleHeartbeat(ctx); // 处理心跳包
+          break;
+        case CLOSE_PROXY:
+          handleCloseProxy(frame, (CloseProxy) msg); // 处理注销代理请求
+          break;
+        case NEW_WORK_CONN:
+          handleNewWorkConn(ctx, (NewWorkConn) msg); // 当前连接是客户端新建的工作连接
+          break;
+        case NEW_STRIPE_CONN:
+          handleNewStripeConn(ctx, (NewStripeConn) msg); // 当前连接是客户端新建的条带连接
+          break;
+        case RESUME_SESSION:
+          handleResumeSession(ctx, (ResumeSession) msg); // 当前连接是客户端断线重连后用来恢复会话的新控制连接
+          break;
+        case SESSION_ACK:
+          handleSessionAck(ctx, (SessionAck) msg); // 客户端确认已收到的流帧
           break;
         default:
-          log.warn("客户端[{}]发送未知控制指令：{}", clientId, type);
+          log.warn("客户端[{}]发送未知控制指令：{}", clientId, msg.getType());
       }
     }catch (Exception e){
       log.error("客户端[{}]控制帧解析失败", clientId, e);
@@ -98,99 +170,345 @@ public class ServerControlHandler extends SimpleChannelInboundHandler<FrpFrame>
   /**
    * 处理注册请求（客户端申请创建代理）
    */
-  private void handleRegister(ChannelHandlerContext ctx, FrpFrame frame) throws Exception {
-    // 1. 解析注册请求
-    RegisterRequest request = ControlFrameCodec.deserialize(frame.getPayload(), RegisterRequest.class);
+  private void handleRegister(ChannelHandlerContext ctx, RegisterRequest request) {
     log.info("客户端[{}]发送注册请求：proxyId={}, remotePort={}, local={}:{}",
         clientId, request.getProxyId(), request.getRemotePort(),
         request.getLocalIp(), request.getLocalPort());
-    // 2. 校验Token
+    // 校验Token
     if (!authToken.equals(request.getAuthToken())) {
-      sendRegisterResponse(ctx, request.getProxyId(), false, "认证失败：Token不匹配");
+      sendRegisterResponse(ctx, registerResponse(request.getProxyId(), false, "认证失败：Token不匹配"));
       log.warn("客户端[{}]注册失败：Token不匹配", clientId);
       return;
     }
-    // 3. 调用ProxyManager创建代理
+    long startNanos = System.nanoTime();
+    runId = request.getRunId();
+    session = ProxyManager.INSTANCE.openSession(ctx.channel(), runId);
+    sendSessionAck(ctx);
+    // 调用ProxyManager创建代理
     String errorMsg = ProxyManager.INSTANCE.createProxy(request, ctx.channel());
     boolean success = errorMsg == null;
-    sendRegisterResponse(ctx, request.getProxyId(), success, success ? "注册成功" : errorMsg);
+    RegisterResponse response = registerResponse(request.getProxyId(), success, success ? "注册成功" : errorMsg);
+    if (success) {
+      Proxy proxy = session.getProxy(request.getProxyId());
+      if (proxy != null) {
+        response.setCompression(proxy.getCompression());
+        response.setHandle(proxy.getHandle());
+      }
+    }
+    ProxyManager.INSTANCE.getMetrics().getRegisterLatency().record(System.nanoTime() - startNanos);
+    sendRegisterResponse(ctx, response);
+  }
+
+  /**
+   * 处理批量注册请求：整批校验一次Token，批量创建代理后一次性返回全部结果
+   */
+  private void handleRegisterBatch(ChannelHandlerContext ctx, RegisterBatchRequest batch) {
+    log.info("客户端[{}]发送批量注册请求：{}个代理", clientId, batch.getProxies().size());
+    if (!authToken.equals(batch.getAuthToken())) {
+      List<RegisterResponse> results = new ArrayList<>();
+      for (RegisterRequest request : batch.getProxies()) {
+        results.add(registerResponse(request.getProxyId(), false, "认证失败：Token不匹配"));
+      }
+      sendRegisterBatchResponse(ctx, results);
+      log.warn("客户端[{}]批量注册失败：Token不匹配", clientId);
+      return;
+    }
+    long startNanos = System.nanoTime();
+    runId = batch.getRunId();
+    session = ProxyManager.INSTANCE.openSession(ctx.channel(), runId);
+    sendSessionAck(ctx);
+    for (RegisterRequest request : batch.getProxies()) {
+      request.setAuthToken(batch.getAuthToken());
+      request.setRunId(batch.getRunId());
+    }
+    ProxyManager.INSTANCE.createProxies(batch.getProxies(), ctx.channel(), results -> {
+      ProxyManager.INSTANCE.getMetrics().getRegisterLatency().record(System.nanoTime() - startNanos);
+      sendRegisterBatchResponse(ctx, results);
+    });
+  }
+
+  /**
+   * 发送批量注册响应给客户端
+   */
+  private void sendRegisterBatchResponse(ChannelHandlerContext ctx, List<RegisterResponse> results) {
+    RegisterBatchResponse response = new RegisterBatchResponse();
+    response.setResults(results);
+    long failed = results.stream().filter(r -> !r.isSuccess()).count();
+    log.info("客户端[{}]批量注册完成：成功{}个，失败{}个", clientId, results.size() - failed, failed);
+    ctx.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "", ControlFrameCodec.encode(ctx.alloc(), response)));
+  }
+
+  private static RegisterResponse registerResponse(String proxyId, boolean success, String message) {
+    RegisterResponse response = new RegisterResponse();
+    response.setProxyId(proxyId);
+    response.setSuccess(success);
+    response.setMessage(message);
+    return response;
   }
 
   /**
    * 发送注册响应给客户端
    */
-  private void sendRegisterResponse(ChannelHandlerContext ctx, String proxyId, boolean success, String message) {
+  private void sendRegisterResponse(ChannelHandlerContext ctx, RegisterResponse response) {
     try {
-      RegisterResponse response = new RegisterResponse();
-      response.setProxyId(proxyId);
-      response.setSuccess(success);
-      response.setMessage(message);
       // 封装为控制帧发送
-      byte[] payload = ControlFrameCodec.serialize(response);
-      FrpFrame frame = new FrpFrame(FrameType.CONTROL, (byte) 0, proxyId, payload);
+      ByteBuf payload = ControlFrameCodec.encode(ctx.alloc(), response);
+      FrpFrame frame = new FrpFrame(FrameType.CONTROL, (byte) 0, response.getProxyId(), payload);
       ctx.writeAndFlush(frame);
     } catch (Exception e) {
       log.error("发送注册响应失败", e);
     }
   }
 
-  // 处理心跳包
-  private void handleHeartbeat() {
+  /**
+   * 处理工作连接登记：该连接不是控制连接，校验后移出心跳检测和控制逻辑，放入所属客户端会话的工作连接池等待分配
+   * 只接受已在控制连接上注册的运行ID，工作连接随该会话回收
+   */
+  private void handleNewWorkConn(ChannelHandlerContext ctx, NewWorkConn newWorkConn) {
+    if (!authToken.equals(newWorkConn.getAuthToken()) || newWorkConn.getRunId() == null) {
+      log.warn("客户端工作连接[{}]认证失败，关闭连接", clientId);
+      ctx.close();
+      return;
+    }
+    // 空闲工作连接不参与心跳，取消超时检测、移除控制处理器，只保留帧编解码用于下发StartWorkConn
+    liveness.cancel();
+    ProxyManager.INSTANCE.getMetrics().getControlConnections().decrement();
+    ctx.pipeline().remove(FlushConsolidationHandler.class);
+    ctx.pipeline().remove(this);
+    if (!ProxyManager.INSTANCE.offerWorkConn(newWorkConn.getRunId(), ctx.channel())) {
+      log.warn("客户端工作连接[{}]对应的客户端{}未注册或已断开，关闭连接", clientId, newWorkConn.getRunId());
+      ctx.close();
+    }
+  }
+
+  /**
+   * 处理条带连接登记：校验后并入同一runId的客户端会话，此后分配到该连接上的流的帧都在该连接上收发
+   */
+  private void handleNewStripeConn(ChannelHandlerContext ctx, NewStripeConn newStripeConn) {
+    if (!authToken.equals(newStripeConn.getAuthToken()) || session != null) {
+      log.warn("客户端条带连接[{}]认证失败，关闭连接", clientId);
+      ctx.close();
+      return;
+    }
+    ClientSession joined = ProxyManager.INSTANCE.joinStripe(newStripeConn.getRunId(), ctx.channel());
+    if (joined == null) {
+      log.warn("客户端条带连接[{}]对应的客户端{}未注册或已断开，关闭连接", clientId, newStripeConn.getRunId());
+      ctx.close();
+      return;
+    }
+    session = joined;
+    stripe = true;
+    runId = newStripeConn.getRunId();
+    log.info("客户端{}的条带连接[{}]已并入会话", runId, clientId);
+  }
+
+  /**
+   * 处理会话恢复请求：客户端控制连接断开后用新连接恢复保留的会话
+   * 新连接先迁移到会话所在的EventLoop（与旧控制连接、公网UDP端口同一线程），再换绑会话、重放客户端缺少的流帧
+   */
+  private void handleResumeSession(ChannelHandlerContext ctx, ResumeSession resume) {
+    if (!authToken.equals(resume.getAuthToken()) || session != null) {
+      log.warn("客户端[{}]恢复会话失败：认证失败", clientId);
+      sendResumeResponse(ctx, false, "认证失败：Token不匹配", 0);
+      return;
+    }
+    ClientSession suspended = ProxyManager.INSTANCE.claimSuspended(resume.getRunId());
+    if (suspended == null) {
+      log.info("客户端[{}]请求恢复的会话{}不存在或已过期", clientId, resume.getRunId());
+      sendResumeResponse(ctx, false, "会话不存在或已过期", 0);
+      return;
+    }
+    Channel channel = ctx.channel();
+    EventLoop sessionLoop = suspended.getControlChannel().eventLoop();
+    liveness.cancel(); // 完成恢复时在新的EventLoop上重新登记
+    if (sessionLoop == channel.eventLoop()) {
+      completeResume(ctx, suspended, resume);
+      return;
+    }
+    // 迁移期间不读取新连接：注销后注册到会话的EventLoop，注册完成的回调在该EventLoop上执行
+    channel.deregister().addListener(deregistered -> {
+      if (!deregistered.isSuccess()) {
+        log.warn("客户端[{}]恢复会话失败：连接迁移失败", clientId, deregistered.cause());
+        ProxyManager.INSTANCE.abandonResume(suspended, true);
+        channel.close();
+        return;
+      }
+      sessionLoop.register(channel).addListener(registered -> {
+        if (registered.isSuccess()) {
+          completeResume(ctx, suspended, resume);
+        } else {
+          log.warn("客户端[{}]恢复会话失败：连接迁移失败", clientId, registered.cause());
+          ProxyManager.INSTANCE.abandonResume(suspended, true);
+          channel.close();
+        }
+      });
+    });
+  }
+
+  // 在会话的EventLoop上完成恢复：先回复恢复结果（携带本端已收到的流帧数），再重放客户端缺少的流帧
+  private void completeResume(ChannelHandlerContext ctx, ClientSession suspended, ResumeSession resume) {
+    liveness = watchLiveness(ctx);
+    Channel oldChannel = suspended.getControlChannel();
+    ReplayBuffer buffer = ReplayBuffer.of(oldChannel);
+    if (!suspended.isSuspended() || buffer == null || !buffer.canResume(resume.getReceived())) {
+      log.warn("客户端[{}]恢复会话{}失败：重放缓冲中已没有客户端缺少的数据", clientId, resume.getRunId());
+      ProxyManager.INSTANCE.abandonResume(suspended, false);
+      sendResumeResponse(ctx, false, "会话已无法恢复", 0);
+      return;
+    }
+    sendResumeResponse(ctx, true, "恢复成功", buffer.getReceived());
+    ProxyManager.INSTANCE.resumeSession(suspended, ctx.channel(), resume.getReceived());
+    session = suspended;
+    runId = resume.getRunId();
+  }
+
+  private void sendResumeResponse(ChannelHandlerContext ctx, boolean success, String message, long received) {
+    ResumeSessionResponse response = new ResumeSessionResponse();
+    response.setSuccess(success);
+    response.setMessage(message);
+    response.setReceived(received);
+    ctx.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "", ControlFrameCodec.encode(ctx.alloc(), response)));
+  }
+
+  // 启用会话恢复时，注册后先发一次确认，客户端据此得知服务端支持恢复
+  private void sendSessionAck(ChannelHandlerContext ctx) {
+    ReplayBuffer buffer = ReplayBuffer.of(ctx.channel());
+    if (buffer != null) {
+      SessionAck ack = new SessionAck();
+      ack.setReceived(buffer.getReceived());
+      ctx.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "", ControlFrameCodec.encode(ctx.alloc(), ack)));
+    }
+  }
+
+  // 客户端确认已收到的流帧：释放重放缓冲中已确认的帧
+  private void handleSessionAck(ChannelHandlerContext ctx, SessionAck ack) {
+    ReplayBuffer buffer = ReplayBuffer.of(ctx.channel());
+    if (buffer != null) {
+      buffer.acknowledge(ack.getReceived());
+    }
+  }
+
+  // 处理心跳包：更新会话的心跳时间并回复心跳，客户端据此判断服务端存活
+  // 条带连接的心跳只维持自身的超时检测，会话的心跳超时由主控制连接负责
+  private void handleHeartbeat(ChannelHandlerContext ctx) {
     log.debug("收到客户端[{}]的心跳包", clientId);
-    // 更新所有关联代理的最后活动时间
-    ProxyManager.INSTANCE.updateProxyLastActiveTimeByClientChannel(clientId);
+    if (session != null && !stripe) {
+      session.updateLastActiveTime();
+    }
+    ctx.writeAndFlush(new FrpFrame(FrameType.CONTROL, (byte) 0, "", ControlFrameCodec.encode(ctx.alloc(), HEARTBEAT)));
   }
 
   //处理注销代理请求
-  private void handleCloseProxy(FrpFrame frame) {
-    String proxyId = frame.getProxyId();
+  private void handleCloseProxy(FrpFrame frame, CloseProxy closeProxy) {
+    String proxyId = closeProxy.getProxyId() != null ? closeProxy.getProxyId() : frame.getProxyId();
     log.info("客户端[{}]请求注销代理：{}", clientId, proxyId);
-    ProxyManager.INSTANCE.removeProxy(proxyId);
+    if (session != null) {
+      // 只能注销本客户端注册的代理
+      ProxyManager.INSTANCE.removeProxy(session, proxyId);
+    }
   }
 
   // 处理数据帧
   private void handleDataFrame(ChannelHandlerContext ctx, FrpFrame frame) {
-    String proxyId = frame.getProxyId();
-    byte[] data = frame.getPayload();
-    if(data == null || data.length == 0) {
+    ByteBuf data = frame.getPayload();
+    if(!data.isReadable()) {
       return;
     }
 
-    //通过proxyId获取公网用户连接，转发数据
-    Proxy proxy = ProxyManager.INSTANCE.getProxy(proxyId);
+    //通过代理句柄获取代理，再通过流ID找到对应的公网用户连接，转发数据
+    Proxy proxy = findProxy(frame.getHandle());
     if(proxy == null || proxy.getStatus() != ProxyStatus.ACTIVE){
-      log.warn("代理[{}]不存在或未激活，无法转发数据", proxyId);
+      log.warn("代理句柄[{}]不存在或未激活，无法转发数据", frame.getHandle());
+      return;
+    }
+
+    if (proxy.isUdp()) {
+      // udp代理：payload是数据报批次，拆包后发往会话对应的公网地址
+      FlushCoalescer writer = proxy.getUdpHandler().writeBack(frame.getStreamId(), data);
+      if (writer != null) {
+        pendingFlush.add(writer);
+      } else {
+        ctx.writeAndFlush(FrpFrame.streamFrame(FrameType.RST, frame.getStreamId(), frame.getHandle()));
+      }
       return;
     }
 
-    // 公网用户连接由RemoteProxyHandler维护，通过proxyId关联
-    Channel publicUserChannel = RemoteProxyHandler.getPublicUserChannel(proxyId);
+    Channel publicUserChannel = proxy.getStreamChannels().get(frame.getStreamId());
+    if (publicUserChannel != null && MemoryGovernor.INSTANCE.exceedsConnectionQuota(publicUserChannel)) {
+      // 公网连接已暂停读取内网连接仍持续发来数据（客户端没有响应PAUSE），断开该流，不再为它缓冲
+      MemoryGovernor.INSTANCE.shed(proxy, frame.getStreamId(), publicUserChannel, "超过单连接内存配额");
+      return;
+    }
     if (publicUserChannel != null && publicUserChannel.isActive()) {
-      publicUserChannel.writeAndFlush(io.netty.buffer.Unpooled.wrappedBuffer(data));
-      log.debug("代理[{}]转发内网响应数据，长度：{}字节", proxyId, data.length);
+      // 帧在channelRead0返回后会被SimpleChannelInboundHandler释放，转发前retain一次payload
+      int length = data.readableBytes();
+      FlushCoalescer writer = FlushCoalescer.get(publicUserChannel);
+      writer.write(data.retain(), length);
+      pendingFlush.add(writer); // 读突发结束时统一flush
+      proxy.getMetrics().recordOutbound(length);
     } else {
-      log.warn("代理[{}]无活跃公网用户连接，丢弃数据", proxyId);
+      log.warn("代理[{}]流[{}]无活跃公网用户连接，丢弃数据", proxy.getProxyId(), frame.getStreamId());
+      ctx.writeAndFlush(FrpFrame.streamFrame(FrameType.RST, frame.getStreamId(), frame.getHandle()));
     }
   }
 
-  //重置心跳超时检测（每次收到数据时调用）
-  private void resetHeartbeatTimeout(ChannelHandlerContext ctx) {
-    if(heartbeatTimeoutTask != null) {
-      heartbeatTimeoutTask.cancel(true);
+  // 处理流关闭：FIN在已排队的数据写出后关闭公网连接，RST立即关闭
+  private void handleStreamClose(FrpFrame frame) {
+    Proxy proxy = findProxy(frame.getHandle());
+    if (proxy == null) {
+      return;
     }
-    heartbeatTimeoutTask = ctx.executor().schedule(() -> {
-      log.warn("客户端[{}]心跳超时（{}秒未响应），关闭连接", clientId, Constants.HEARTBEAT_TIMEOUT);
-      ctx.close();
-    }, Constants.HEARTBEAT_TIMEOUT, TimeUnit.SECONDS);
+    if (proxy.isUdp()) {
+      proxy.getUdpHandler().closeSession(frame.getStreamId()); // 内网UDP连接关闭或建立失败，回收会话
+      return;
+    }
+    Channel publicUserChannel = proxy.getStreamChannels().remove(frame.getStreamId());
+    if (publicUserChannel == null) {
+      return;
+    }
+    if (frame.getType() == FrameType.FIN) {
+      publicUserChannel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    } else {
+      publicUserChannel.close();
+    }
+    log.debug("代理[{}]流[{}]已被客户端关闭：{}", proxy.getProxyId(), frame.getStreamId(), frame.getType());
+  }
+
+  // 处理流量控制：客户端内网连接写不过来时暂停读取对应的公网连接
+  private void handleStreamFlowControl(FrpFrame frame) {
+    Proxy proxy = findProxy(frame.getHandle());
+    Channel publicUserChannel = proxy != null ? proxy.getStreamChannels().get(frame.getStreamId()) : null;
+    if (publicUserChannel != null) {
+      FlowControl.setPeerPaused(publicUserChannel, frame.getType() == FrameType.PAUSE);
+    }
+  }
+
+  // 按句柄在本客户端会话中查找代理，不会误操作其他客户端的代理
+  private Proxy findProxy(int handle) {
+    return session != null ? session.getProxy(handle) : null;
   }
 
-  //处理超时事件
+  /**
+   * 控制连接写缓冲越过水位线：暂停/恢复读取分配在该连接上的公网连接，避免数据在控制连接上无限堆积
+   */
   @Override
-  public void userEventTriggered(ChannelHandlerContext ctx, Object evt){
-    if(evt instanceof IdleStateEvent) {
-      log.warn("客户端[{}]连接超时，关闭连接", clientId);
-      ctx.close();
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+    boolean congested = !ctx.channel().isWritable();
+    // 连接关闭时写缓冲被清空也会触发，此时公网连接已由断开处理（关闭或随会话挂起暂停）
+    if (session != null && ctx.channel().isActive()) {
+      ProxyManager.INSTANCE.forEachStreamOfTunnel(session, ctx.channel(),
+          ch -> FlowControl.setTunnelCongested(ch, congested));
     }
+    log.debug("客户端[{}]控制连接{}", clientId, congested ? "拥塞，暂停读取公网连接" : "恢复可写");
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    // 一次读突发可能包含多个流的多个数据帧，每个公网连接只flush一次
+    pendingFlush.forEach(FlushCoalescer::flush);
+    pendingFlush.clear();
+    ctx.fireChannelReadComplete();
   }
 
   // 处理异常
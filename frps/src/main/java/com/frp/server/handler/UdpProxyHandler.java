@@ -0,0 +1,300 @@
+package com.frp.server.handler;
+
+import com.frp.common.codec.DatagramBatch;
+import com.frp.common.codec.PayloadCompressor;
+import com.frp.common.protocol.FrameType;
+import com.frp.common.protocol.FrpFrame;
+import com.frp.common.util.Constants;
+import com.frp.common.util.DeadlineWheel;
+import com.frp.common.util.FlowControl;
+import com.frp.common.util.FlushCoalescer;
+import com.frp.common.util.ReplayBuffer;
+import com.frp.common.util.TokenBucket;
+import com.frp.server.manager.Proxy;
+import com.frp.server.manager.ProxyManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDP代理处理器：绑定在公网UDP端口上，每个公网发送方地址对应一个会话（一个流ID），会话空闲超时后回收
+ * 同一次读突发内同一会话收到的数据报打包进一个DATA帧（见DatagramBatch），读结束时统一flush控制连接
+ * 公网UDP端口与客户端控制连接绑定在同一个EventLoop上，会话表只在该线程上访问，无需加锁
+ * 会话数达到上限（server.udpMaxSessions）后丢弃新发送方的数据报，已有会话不受影响，伪造源地址的流量不能无限占用流ID和内网UDP连接
+ * 代理限速时：公网->内网超限暂停读取公网UDP端口（数据报暂存在内核接收缓冲区），内网->公网超限向客户端发PAUSE
+ * 客户端会话等待恢复期间丢弃公网数据报（UDP允许丢包），会话恢复后改用新的控制连接
+ */
+@Slf4j
+public class UdpProxyHandler extends ChannelInboundHandlerAdapter {
+  private final Proxy proxy; // 当前代理实例
+  private final int maxSessions; // 会话数上限，0表示不限制
+  private boolean sessionsFull; // 已达到会话数上限（只在首次达到时告警）
+  private Channel datagramChannel; // 公网UDP端口
+  private Channel tunnel; // 写合并器当前对应的控制连接（会话恢复后换为新连接）
+  private FlushCoalescer tunnelWriter; // 向控制连接写帧的写合并器，读结束时统一flush
+  // 公网地址 -> 会话，流ID -> 会话（客户端回传的数据按流ID找到公网地址）
+  private final Map<InetSocketAddress, UdpSession> sessionsByAddress = new HashMap<>();
+  private final IntObjectMap<UdpSession> sessionsByStream = new IntObjectHashMap<>();
+  private final Set<UdpSession> pendingBatches = new HashSet<>(); // 本轮读突发中有未发出批次的会话
+
+  public UdpProxyHandler(Proxy proxy, int maxSessions) {
+    this.proxy = proxy;
+    this.maxSessions = maxSessions;
+  }
+
+  /**
+   * 公网UDP端口绑定成功
+   */
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) {
+    datagramChannel = ctx.channel();
+    // 控制连接上的数据写回公网时按读突发合并flush
+    FlushCoalescer.attach(datagramChannel, proxy.getFlushBytes(), proxy.getFlushDelayMicros())
+        .recordLatency(proxy.getMetrics().getOutboundForwardLatency());
+    bindTunnel(proxy.getClientChannel());
+    ctx.fireChannelActive();
+  }
+
+  private void bindTunnel(Channel clientChannel) {
+    tunnel = clientChannel;
+    tunnelWriter = new FlushCoalescer(clientChannel, proxy.getFlushBytes(), proxy.getFlushDelayMicros())
+        .recordLatency(proxy.getMetrics().getInboundForwardLatency());
+  }
+
+  // 接收公网数据报，追加到发送方会话的批次中
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (!(msg instanceof DatagramPacket)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+    DatagramPacket packet = (DatagramPacket) msg;
+    try {
+      Channel clientChannel = proxy.getClientChannel();
+      if (clientChannel == null || !clientChannel.isActive()) {
+        if (clientChannel != null && ReplayBuffer.isSuspended(clientChannel)) {
+          log.debug("代理[{}]的客户端会话等待恢复，丢弃来自{}的数据报", proxy.getProxyId(), packet.sender());
+        } else {
+          log.error("代理[{}]的客户端连接已断开，丢弃公网数据报", proxy.getProxyId());
+        }
+        return;
+      }
+      if (clientChannel != tunnel) {
+        // 会话已在新的控制连接上恢复
+        tunnelWriter.flush();
+        bindTunnel(clientChannel);
+      }
+      if (!clientChannel.isWritable()) {
+        // 控制连接拥塞：UDP允许丢包，直接丢弃，不在内存中堆积
+        log.debug("代理[{}]控制连接拥塞，丢弃来自{}的数据报", proxy.getProxyId(), packet.sender());
+        return;
+      }
+      ByteBuf content = packet.content();
+      int length = content.readableBytes();
+      UdpSession session = sessionsByAddress.get(packet.sender());
+      if (session == null) {
+        if (maxSessions > 0 && sessionsByAddress.size() >= maxSessions) {
+          rejectSender(packet.sender());
+          return;
+        }
+        session = openSession(ctx, packet.sender());
+      }
+      session.idle.touch();
+      if (session.batch != null && !DatagramBatch.fits(session.batch, length)) {
+        sendBatch(session); // 批次已满，先发出
+      }
+      if (session.batch == null) {
+        session.batch = DatagramBatch.newBatch(ctx.alloc());
+      }
+      DatagramBatch.append(session.batch, content);
+      pendingBatches.add(session);
+      proxy.getMetrics().recordInbound(length);
+      TokenBucket bandwidth = proxy.getBandwidth();
+      if (bandwidth != null) {
+        FlowControl.throttle(datagramChannel, bandwidth, bandwidth.consume(length));
+      }
+    } finally {
+      packet.release();
+    }
+  }
+
+  /**
+   * 一次读突发结束：每个会话的批次作为一个DATA帧发出，控制连接只flush一次
+   */
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    for (UdpSession session : pendingBatches) {
+      if (session.batch != null) {
+        sendBatch(session);
+      }
+    }
+    pendingBatches.clear();
+    tunnelWriter.flush();
+    ctx.fireChannelReadComplete();
+  }
+
+  // 新的公网发送方：分配流ID，通知客户端为该会话建立内网UDP连接
+  private UdpSession openSession(ChannelHandlerContext ctx, InetSocketAddress sender) {
+    UdpSession session = new UdpSession(ProxyManager.INSTANCE.nextStreamId(), sender);
+    session.idle = DeadlineWheel.register(ctx.channel().eventLoop(), Constants.UDP_SESSION_IDLE_TIMEOUT, () -> {
+      log.debug("代理[{}]UDP会话{}空闲超时，流ID：{}", proxy.getProxyId(), sender, session.streamId);
+      closeSession(session, true);
+    });
+    sessionsByAddress.put(sender, session);
+    sessionsByStream.put(session.streamId, session);
+    proxy.getMetrics().connectionOpened();
+    tunnelWriter.write(FrpFrame.streamFrame(FrameType.OPEN, session.streamId, proxy.getHandle()), 0);
+    log.info("公网UDP发送方{}访问代理[{}]（公网端口{}），流ID：{}",
+        sender, proxy.getProxyId(), proxy.getRemotePort(), session.streamId);
+    return session;
+  }
+
+  // 会话数已达上限：丢弃新发送方的数据报，UDP允许丢包；降到上限以下之前只告警一次
+  private void rejectSender(InetSocketAddress sender) {
+    if (!sessionsFull) {
+      sessionsFull = true;
+      log.warn("代理[{}]UDP会话数达到上限{}，丢弃新发送方的数据报", proxy.getProxyId(), maxSessions);
+    }
+    log.debug("代理[{}]UDP会话数已满，丢弃来自{}的数据报", proxy.getProxyId(), sender);
+  }
+
+  // 会话的批次封装为DATA帧（按协商的算法压缩），所有权随帧转交给编码器
+  private void sendBatch(UdpSession session) {
+    ByteBuf batch = session.batch;
+    session.batch = null;
+    FrpFrame frame = PayloadCompressor.dataFrame(datagramChannel.alloc(), proxy.getCompression(),
+        session.streamId, proxy.getHandle(), batch);
+    tunnelWriter.write(frame, frame.getPayload().readableBytes());
+  }
+
+  /**
+   * 客户端回传的数据报批次：拆包后发往会话对应的公网地址（在控制连接的EventLoop上调用）
+   * @return 公网端口的写合并器，调用方在读突发结束时flush；会话不存在时返回null
+   */
+  public FlushCoalescer writeBack(int streamId, ByteBuf batch) {
+    UdpSession session = sessionsByStream.get(streamId);
+    if (session == null || datagramChannel == null || !datagramChannel.isActive()) {
+      return null;
+    }
+    session.idle.touch();
+    FlushCoalescer writer = FlushCoalescer.get(datagramChannel);
+    int total = batch.readableBytes(); // 拆包会读完批次，先记下长度用于限速
+    DatagramBatch.split(batch, datagram -> {
+      int length = datagram.readableBytes();
+      writer.write(new DatagramPacket(datagram, session.sender), length);
+      proxy.getMetrics().recordOutbound(length);
+    });
+    TokenBucket bandwidth = proxy.getBandwidth();
+    if (bandwidth != null) {
+      throttleOutbound(session, bandwidth, bandwidth.consume(total));
+    }
+    return writer;
+  }
+
+  // 内网->公网方向超出限速：通知客户端暂停读取该会话的内网UDP连接，令牌补足后恢复
+  private void throttleOutbound(UdpSession session, TokenBucket bandwidth, long waitNanos) {
+    if (waitNanos <= 0 || session.throttled) {
+      return;
+    }
+    session.throttled = true;
+    bandwidth.recordThrottle();
+    sendFlowControl(session, FrameType.PAUSE);
+    datagramChannel.eventLoop().schedule(() -> releaseOutbound(session, bandwidth), waitNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void releaseOutbound(UdpSession session, TokenBucket bandwidth) {
+    if (sessionsByStream.get(session.streamId) != session) {
+      return; // 会话已回收
+    }
+    long waitNanos = bandwidth.waitNanos();
+    if (waitNanos > 0) {
+      datagramChannel.eventLoop().schedule(() -> releaseOutbound(session, bandwidth), waitNanos, TimeUnit.NANOSECONDS);
+      return;
+    }
+    session.throttled = false;
+    sendFlowControl(session, FrameType.RESUME);
+  }
+
+  private void sendFlowControl(UdpSession session, FrameType type) {
+    Channel clientChannel = proxy.getClientChannel();
+    if (clientChannel != null) {
+      ReplayBuffer.writeStream(clientChannel, FrpFrame.streamFrame(type, session.streamId, proxy.getHandle()));
+    }
+  }
+
+  /**
+   * 客户端关闭了会话（内网UDP连接关闭或建立失败），在控制连接的EventLoop上调用
+   */
+  public void closeSession(int streamId) {
+    UdpSession session = sessionsByStream.get(streamId);
+    if (session != null) {
+      closeSession(session, false);
+    }
+  }
+
+  // 回收会话，notifyClient为true时通知客户端关闭对应的内网UDP连接
+  private void closeSession(UdpSession session, boolean notifyClient) {
+    sessionsByAddress.remove(session.sender);
+    sessionsByStream.remove(session.streamId);
+    sessionsFull = false;
+    pendingBatches.remove(session);
+    session.release();
+    proxy.getMetrics().connectionClosed();
+    Channel clientChannel = proxy.getClientChannel();
+    if (notifyClient && clientChannel != null) {
+      ReplayBuffer.writeStream(clientChannel, FrpFrame.streamFrame(FrameType.FIN, session.streamId, proxy.getHandle()));
+    }
+  }
+
+  /**
+   * 公网UDP端口关闭（代理被移除）：回收全部会话并通知客户端
+   */
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    for (UdpSession session : sessionsByStream.values().toArray(new UdpSession[0])) {
+      closeSession(session, true);
+    }
+    log.info("代理[{}]公网UDP端口{}已关闭", proxy.getProxyId(), proxy.getRemotePort());
+    ctx.fireChannelInactive();
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    // UDP端口上的错误（如ICMP不可达）只影响单个数据报，不关闭端口
+    log.warn("公网UDP代理[{}]异常：{}", proxy.getProxyId(), cause.getMessage());
+  }
+
+  // 一个公网发送方地址的会话
+  private static final class UdpSession {
+    private final int streamId;
+    private final InetSocketAddress sender;
+    private DeadlineWheel.Deadline idle; // 空闲超时检测，收发数据报时touch
+    private ByteBuf batch; // 本轮读突发中尚未发出的数据报批次
+    private boolean throttled; // 内网->公网方向超出限速，已向客户端发送PAUSE
+
+    private UdpSession(int streamId, InetSocketAddress sender) {
+      this.streamId = streamId;
+      this.sender = sender;
+    }
+
+    private void release() {
+      idle.cancel();
+      if (batch != null) {
+        batch.release();
+        batch = null;
+      }
+    }
+  }
+}
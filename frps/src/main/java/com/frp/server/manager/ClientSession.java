@@ -0,0 +1,246 @@
+package com.frp.server.manager;
+
+import com.frp.common.util.Constants;
+import com.frp.common.util.DeadlineWheel;
+import com.frp.common.util.TokenBucket;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端会话：一个客户端控制连接及其注册的全部代理
+ * 会话挂在控制连接的attribute上，心跳、断线清理、按连接遍历公网连接都只涉及该客户端自己的代理，与全局代理数无关
+ * 客户端可以再建立若干条带连接并入会话：代理只在主控制连接上注册，新的公网连接（流）轮流分配到主连接和各条带连接上，
+ * 一个流的全部帧都走分配到的连接，多条TCP连接并行传输，两端也分散到多个EventLoop上
+ * 启用会话恢复时，主控制连接断开后会话先挂起（代理和公网连接保留），客户端在保留期内用新连接恢复后换绑到新连接上
+ * （不使用@Data：会话与代理互相引用，避免生成的toString/hashCode递归）
+ */
+@Getter
+public class ClientSession {
+  private static final AttributeKey<ClientSession> KEY = AttributeKey.valueOf("frp.clientSession");
+  private static final AttributeKey<Channel> TUNNEL = AttributeKey.valueOf("frp.tunnel"); // 公网连接分配到的隧道连接
+
+  private volatile Channel controlChannel; // 客户端控制连接，会话恢复后为新连接
+  private final String runId; // 客户端运行ID
+  private final TokenBucket bandwidth; // 客户端限速（全部代理合计），未配置时为null
+  // 代理ID -> 该客户端注册的代理
+  private final Map<String, Proxy> proxies = new ConcurrentHashMap<>();
+  private DeadlineWheel.Deadline heartbeatDeadline; // 心跳超时检测：最后一次心跳记在所属EventLoop的时间轮上
+  private Runnable onHeartbeatTimeout; // 心跳超时的处理，会话恢复时检测已到期则重新登记
+  private volatile boolean closed; // 控制连接已断开，不再接受新代理
+  private volatile boolean suspended; // 控制连接已断开，会话保留等待客户端恢复
+  private boolean resuming; // 已有新连接在恢复该会话（在会话锁内修改）
+  // 代理句柄 -> 代理：流相关帧按句柄路由。写时复制，IO线程查找无锁，注册/注销（低频）时整表替换
+  private volatile IntObjectMap<Proxy> handles = new IntObjectHashMap<>();
+  private int lastHandle; // 最近分配的句柄，在会话锁内递增
+  // 承载流的隧道连接：主控制连接在前，其后为条带连接。写时复制，分配流时无锁读取
+  private volatile Channel[] tunnels;
+  private final AtomicInteger tunnelCursor = new AtomicInteger(); // 轮流分配的游标
+
+  private ClientSession(Channel controlChannel, String runId, TokenBucket bandwidth) {
+    this.controlChannel = controlChannel;
+    this.runId = runId;
+    this.bandwidth = bandwidth;
+    this.tunnels = new Channel[]{controlChannel};
+  }
+
+  /**
+   * 获取控制连接上的会话，不存在时返回null
+   */
+  public static ClientSession of(Channel controlChannel) {
+    return controlChannel.attr(KEY).get();
+  }
+
+  /**
+   * 获取或创建会话（同一连接只会创建一个），须在控制连接的EventLoop上调用
+   * @param bandwidth 新建会话时使用的客户端限速令牌桶，可为null
+   * @param onHeartbeatTimeout 新建会话时登记：超过心跳超时时间没有收到心跳则执行
+   */
+  static ClientSession getOrCreate(Channel controlChannel, String runId, TokenBucket bandwidth,
+                                   Runnable onHeartbeatTimeout) {
+    ClientSession existing = of(controlChannel);
+    if (existing != null) {
+      return existing;
+    }
+    ClientSession session = new ClientSession(controlChannel, runId, bandwidth);
+    existing = controlChannel.attr(KEY).setIfAbsent(session);
+    if (existing != null) {
+      return existing;
+    }
+    session.onHeartbeatTimeout = onHeartbeatTimeout;
+    session.heartbeatDeadline = DeadlineWheel.register(controlChannel.eventLoop(),
+        Constants.HEARTBEAT_TIMEOUT, onHeartbeatTimeout);
+    return session;
+  }
+
+  public Proxy getProxy(String proxyId) {
+    return proxies.get(proxyId);
+  }
+
+  /**
+   * 按句柄查找代理（流相关帧的路由），不存在时返回null
+   */
+  public Proxy getProxy(int handle) {
+    return handles.get(handle);
+  }
+
+  // 登记代理并分配句柄（会话内唯一，不复用，0保留为"未分配"）
+  synchronized void addProxy(Proxy proxy) {
+    addProxies(Collections.singletonList(proxy));
+  }
+
+  // 批量登记：句柄表只复制、发布一次，一批N个代理的开销与N成正比
+  synchronized void addProxies(List<Proxy> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    IntObjectHashMap<Proxy> copy = new IntObjectHashMap<>(handles.size() + batch.size());
+    copy.putAll(handles);
+    for (Proxy proxy : batch) {
+      int handle = ++lastHandle;
+      if (handle == 0) {
+        handle = ++lastHandle;
+      }
+      proxy.setHandle(handle);
+      proxies.put(proxy.getProxyId(), proxy);
+      copy.put(handle, proxy);
+    }
+    handles = copy;
+  }
+
+  // 注销代理（按引用判断，避免误删同名的新代理）
+  synchronized void removeProxy(Proxy proxy) {
+    proxies.computeIfPresent(proxy.getProxyId(), (id, existing) -> existing == proxy ? null : existing);
+    if (handles.get(proxy.getHandle()) == proxy) {
+      IntObjectHashMap<Proxy> copy = new IntObjectHashMap<>(handles.size());
+      copy.putAll(handles);
+      copy.remove(proxy.getHandle());
+      handles = copy;
+    }
+  }
+
+  /**
+   * 并入一个条带连接，会话已关闭时返回false
+   */
+  synchronized boolean addStripe(Channel stripe) {
+    if (closed) {
+      return false;
+    }
+    Channel[] copy = Arrays.copyOf(tunnels, tunnels.length + 1);
+    copy[tunnels.length] = stripe;
+    tunnels = copy;
+    return true;
+  }
+
+  // 移除断开的条带连接
+  synchronized void removeStripe(Channel stripe) {
+    tunnels = Arrays.stream(tunnels).filter(ch -> ch != stripe).toArray(Channel[]::new);
+  }
+
+  /**
+   * 为新的公网连接分配隧道连接：轮流选择，跳过已断开或写缓冲积压的连接，都不可用时退回主控制连接
+   */
+  public Channel assignTunnel(Channel stream) {
+    Channel[] current = tunnels;
+    Channel tunnel = controlChannel;
+    for (int i = 0; i < current.length; i++) {
+      Channel candidate = current[Math.floorMod(tunnelCursor.getAndIncrement(), current.length)];
+      if (candidate.isActive() && candidate.isWritable()) {
+        tunnel = candidate;
+        break;
+      }
+    }
+    stream.attr(TUNNEL).set(tunnel);
+    return tunnel;
+  }
+
+  /**
+   * 公网连接分配到的隧道连接，未分配（如使用工作连接）时返回null
+   */
+  public static Channel tunnelOf(Channel stream) {
+    return stream.attr(TUNNEL).get();
+  }
+
+  /**
+   * 控制连接断开、会话转为等待恢复，会话已关闭时返回false
+   */
+  synchronized boolean suspend() {
+    if (closed) {
+      return false;
+    }
+    suspended = true;
+    return true;
+  }
+
+  /**
+   * 新连接申请恢复会话：同一时刻只允许一个连接恢复，会话未挂起或已关闭时返回false
+   */
+  synchronized boolean claimResume() {
+    if (!suspended || closed || resuming) {
+      return false;
+    }
+    resuming = true;
+    return true;
+  }
+
+  // 恢复失败，允许其他连接再次申请
+  synchronized void releaseResume() {
+    resuming = false;
+  }
+
+  /**
+   * 换绑到新的控制连接（在会话的EventLoop上调用，新连接已迁移到该EventLoop）
+   */
+  synchronized void resume(Channel newChannel) {
+    Channel oldChannel = controlChannel;
+    tunnels = Arrays.stream(tunnels).map(ch -> ch == oldChannel ? newChannel : ch).toArray(Channel[]::new);
+    controlChannel = newChannel;
+    newChannel.attr(KEY).set(this);
+    suspended = false;
+    resuming = false;
+    if (heartbeatDeadline.isCancelled()) {
+      // 等待恢复期间心跳检测已到期（到期处理跳过了挂起的会话），重新登记
+      heartbeatDeadline = DeadlineWheel.register(newChannel.eventLoop(), Constants.HEARTBEAT_TIMEOUT, onHeartbeatTimeout);
+    } else {
+      heartbeatDeadline.touch();
+    }
+  }
+
+  // 公网连接改用新的隧道连接（会话恢复后）
+  static void moveTunnel(Channel stream, Channel tunnel) {
+    stream.attr(TUNNEL).set(tunnel);
+  }
+
+  // 收到心跳（在控制连接的EventLoop上调用）
+  public void updateLastActiveTime() {
+    heartbeatDeadline.touch();
+  }
+
+  void close() {
+    Channel[] stripes;
+    Channel controlChannel;
+    synchronized (this) {
+      closed = true;
+      stripes = tunnels;
+      controlChannel = this.controlChannel;
+    }
+    if (heartbeatDeadline != null && controlChannel.eventLoop().inEventLoop()) {
+      heartbeatDeadline.cancel();
+    }
+    // 条带连接随主控制连接一起关闭
+    for (Channel stripe : stripes) {
+      if (stripe != controlChannel) {
+        stripe.close();
+      }
+    }
+  }
+}
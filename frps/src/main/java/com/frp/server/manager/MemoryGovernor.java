@@ -0,0 +1,347 @@
+package com.frp.server.manager;
+
+import com.frp.common.metrics.MetricsRegistry;
+import com.frp.common.protocol.FrameType;
+import com.frp.common.protocol.FrpFrame;
+import com.frp.common.util.ReplayBuffer;
+import com.frp.server.config.ServerConfig;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存预算：统计服务端为每个公网连接、每个代理、每个客户端缓冲的数据，超过预算或配额时先暂停读取，仍降不下来再断开占用最多的连接
+ * 缓冲的数据都在连接的写缓冲中（写合并器未flush的数据、限速推迟flush的数据、对端读得慢积压的数据），按写缓冲的待写字节统计，
+ * 不在分配器上逐次记账：公网连接的写缓冲计入所属代理和客户端，隧道连接（控制连接、条带连接）的写缓冲计入客户端；
+ * 会话恢复的重放缓冲（未确认和等待恢复期间暂存的流帧）计入客户端，其中尚未写出的帧与隧道写缓冲共用payload，按上限估计
+ * 每隔server.memoryCheckInterval毫秒在accept线程上汇总一次：
+ * 1. 单个公网连接超过server.connectionMemoryQuota：客户端没有响应PAUSE，直接断开该连接（转发DATA帧时也会检查）
+ * 2. 代理超过server.proxyMemoryQuota、客户端超过server.clientMemoryQuota：暂停其公网连接两个方向的读取
+ *    （停止读取公网连接，并向客户端发PAUSE停止读取内网连接），降到配额的3/4以下后恢复
+ * 3. 全部合计超过server.memoryBudget：按占用从多到少暂停客户端，直到被暂停的部分足以降到预算的3/4以下
+ * 暂停后持续超过限额server.memoryShedDelay毫秒（写缓冲没有被读走，对端已停滞），按占用从多到少断开公网连接直到降回限额内
+ * 工作连接（透传）与udp代理不在统计范围内：前者由两端连接的水位线约束，后者写不过来时直接丢弃
+ */
+@Slf4j
+public class MemoryGovernor {
+
+  // 全局单例
+  public static final MemoryGovernor INSTANCE = new MemoryGovernor();
+
+  /**
+   * 发给公网连接pipeline的事件：内存超限暂停/恢复该流两个方向的数据源
+   */
+  public enum Pressure { PAUSE, RESUME }
+
+  private static final Object GLOBAL = new Object(); // 全局预算在限额状态表中的键
+
+  private long budget; // 全部缓冲数据的上限（字节），0表示不限制
+  private long clientQuota; // 每个客户端的上限，0表示不限制
+  private long proxyQuota; // 每个代理的上限，0表示不限制
+  private volatile long connectionQuota; // 每个公网连接的上限，0表示不限制（IO线程转发时读取）
+  private long shedDelayNanos;
+  private MetricsRegistry metrics;
+  private ScheduledFuture<?> task;
+
+  // 以下只在检查线程上访问
+  // 范围（全局/客户端会话/代理）按引用区分：Proxy的equals/hashCode由字段生成，状态变化后会变
+  private final Set<Object> pressured = Collections.newSetFromMap(new IdentityHashMap<>()); // 上一轮处于超限暂停状态的范围
+  private final Map<Object, Long> overSince = new IdentityHashMap<>(); // 范围持续超过限额的起始时间（纳秒）
+  private Set<Channel> paused = new HashSet<>(); // 已因内存超限暂停的公网连接
+
+  private MemoryGovernor() {}
+
+  /**
+   * 服务端启动时调用：按配置记录预算和配额，在executor上启动定期检查
+   * server.memoryBudget为0时取JVM堆外内存上限的一半，其余一半留给分配器的碎片、解码缓冲和线程缓存；小于0表示不限制
+   */
+  public synchronized void init(ServerConfig config, EventLoop executor, MetricsRegistry metrics) {
+    this.metrics = metrics;
+    long configured = config.getMemoryBudget();
+    budget = configured == 0 ? PlatformDependent.maxDirectMemory() / 2 : Math.max(configured, 0);
+    clientQuota = Math.max(config.getClientMemoryQuota(), 0);
+    proxyQuota = Math.max(config.getProxyMemoryQuota(), 0);
+    connectionQuota = Math.max(config.getConnectionMemoryQuota(), 0);
+    shedDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(config.getMemoryShedDelay(), 0));
+    int interval = config.getMemoryCheckInterval();
+    if (interval <= 0) {
+      log.info("内存预算检查未启用");
+      return;
+    }
+    task = executor.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    log.info("内存预算：全局{}字节，每客户端{}，每代理{}，每连接{}（0表示不限制），每{}毫秒检查一次",
+        budget, clientQuota, proxyQuota, connectionQuota, interval);
+  }
+
+  public synchronized void shutdown() {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  /**
+   * 转发DATA帧前检查公网连接的写缓冲（在IO线程上调用）：超过单连接配额时返回true，调用方断开该流
+   */
+  public boolean exceedsConnectionQuota(Channel publicUserChannel) {
+    long quota = connectionQuota;
+    return quota > 0 && pendingBytes(publicUserChannel) > quota;
+  }
+
+  /**
+   * 断开一个占用过多缓冲的流：移出流表、向客户端发RST（内网连接不必再写出剩余数据），关闭公网连接丢弃其写缓冲
+   */
+  public void shed(Proxy proxy, int streamId, Channel publicUserChannel, String reason) {
+    if (!proxy.getStreamChannels().remove(streamId, publicUserChannel)) {
+      return;
+    }
+    long bytes = pendingBytes(publicUserChannel);
+    Channel tunnel = ClientSession.tunnelOf(publicUserChannel);
+    if (tunnel == null) {
+      tunnel = proxy.getClientChannel();
+    }
+    if (tunnel != null) {
+      ReplayBuffer.writeStream(tunnel, FrpFrame.streamFrame(FrameType.RST, streamId, proxy.getHandle()));
+    }
+    publicUserChannel.close();
+    if (metrics != null) {
+      metrics.getMemoryShedConnections().increment();
+    }
+    log.warn("代理[{}]流[{}]缓冲{}字节，{}，断开该连接", proxy.getProxyId(), streamId, bytes, reason);
+  }
+
+  // 连接写缓冲中的待写字节（含未flush的数据），可在任意线程读取，连接关闭后为0
+  static long pendingBytes(Channel ch) {
+    ChannelOutboundBuffer buffer = ch.unsafe().outboundBuffer();
+    return buffer != null ? buffer.totalPendingWriteBytes() : 0;
+  }
+
+  // 一轮检查：汇总各范围的缓冲量，决定本轮暂停的公网连接并断开持续超限的连接
+  private void check() {
+    try {
+      long now = System.nanoTime();
+      List<ClientUsage> clients = collect();
+      Set<Object> nowPressured = Collections.newSetFromMap(new IdentityHashMap<>());
+      Set<Channel> wanted = new HashSet<>();
+      long publicBytes = 0;
+      long tunnelBytes = 0;
+      long replayBytes = 0;
+      for (ClientUsage client : clients) {
+        for (ProxyUsage proxy : client.proxies) {
+          if (enforce(proxy.proxy, proxy.bytes, proxyQuota, now, nowPressured)) {
+            proxy.pauseStreams(wanted);
+            if (shedDue(proxy.proxy, now)) {
+              long shed = shed(proxy.streams(), proxy.bytes - proxyQuota, "代理超过内存配额");
+              proxy.bytes -= shed;
+              client.bytes -= shed;
+            }
+          }
+        }
+        if (enforce(client.session, client.bytes, clientQuota, now, nowPressured)) {
+          client.pauseStreams(wanted);
+          if (shedDue(client.session, now)) {
+            client.bytes -= shed(client.streams(), client.bytes - clientQuota, "客户端超过内存配额");
+          }
+        }
+        publicBytes += client.bytes - client.tunnelBytes - client.replayBytes;
+        tunnelBytes += client.tunnelBytes;
+        replayBytes += client.replayBytes;
+      }
+      long total = publicBytes + tunnelBytes + replayBytes;
+      if (enforce(GLOBAL, total, budget, now, nowPressured)) {
+        // 全局超限：只暂停占用最多的客户端，被暂停部分足以降到恢复线以下即可，其他客户端不受影响
+        clients.sort((a, b) -> Long.compare(b.bytes, a.bytes));
+        long excess = total - resumeLevel(budget);
+        for (ClientUsage client : clients) {
+          if (excess <= 0) {
+            break;
+          }
+          client.pauseStreams(wanted);
+          excess -= client.bytes;
+        }
+        if (shedDue(GLOBAL, now)) {
+          List<StreamUsage> all = new ArrayList<>();
+          clients.forEach(client -> all.addAll(client.streams()));
+          publicBytes -= shed(all, total - budget, "服务端超过内存预算");
+        }
+      }
+      overSince.keySet().retainAll(nowPressured);
+      pressured.clear();
+      pressured.addAll(nowPressured);
+      applyPause(wanted);
+      if (metrics != null) {
+        metrics.recordMemoryUsage(budget, publicBytes, tunnelBytes, replayBytes, paused.size());
+      }
+    } catch (RuntimeException e) {
+      log.error("内存预算检查失败", e);
+    }
+  }
+
+  // 按客户端会话汇总：公网连接的写缓冲计入代理和客户端，隧道连接的写缓冲和重放缓冲计入客户端；单连接超限的直接断开
+  private List<ClientUsage> collect() {
+    Map<ClientSession, ClientUsage> bySession = new IdentityHashMap<>();
+    long quota = connectionQuota;
+    for (Proxy proxy : ProxyManager.INSTANCE.getProxies()) {
+      Channel clientChannel = proxy.getClientChannel();
+      ClientSession session = clientChannel != null ? ClientSession.of(clientChannel) : null;
+      if (session == null) {
+        continue;
+      }
+      ProxyUsage usage = new ProxyUsage(proxy);
+      for (Map.Entry<Integer, Channel> stream : proxy.getStreamChannels().entrySet()) {
+        long bytes = pendingBytes(stream.getValue());
+        if (quota > 0 && bytes > quota) {
+          shed(proxy, stream.getKey(), stream.getValue(), "超过单连接内存配额");
+          continue;
+        }
+        usage.bytes += bytes;
+      }
+      if (proxy.getMetrics() != null) {
+        proxy.getMetrics().setBufferedBytes(usage.bytes);
+      }
+      ClientUsage client = bySession.computeIfAbsent(session, ClientUsage::new);
+      client.proxies.add(usage);
+      client.bytes += usage.bytes;
+    }
+    for (ClientUsage client : bySession.values()) {
+      for (Channel tunnel : client.session.getTunnels()) {
+        client.tunnelBytes += pendingBytes(tunnel);
+      }
+      ReplayBuffer replay = ReplayBuffer.of(client.session.getControlChannel());
+      client.replayBytes = replay != null ? replay.getUnackedBytes() : 0;
+      client.bytes += client.tunnelBytes + client.replayBytes;
+    }
+    return new ArrayList<>(bySession.values());
+  }
+
+  /**
+   * 范围是否处于超限暂停状态：超过限额时进入，降到限额的3/4以下才退出（避免在限额附近反复暂停/恢复）
+   * 超过限额时记录起始时间，回到限额内（仍在恢复线以上）时清除，断开连接只看持续超过限额的时间
+   */
+  private boolean enforce(Object scope, long bytes, long limit, long now, Set<Object> nowPressured) {
+    if (limit <= 0 || bytes <= (pressured.contains(scope) ? resumeLevel(limit) : limit)) {
+      return false;
+    }
+    nowPressured.add(scope);
+    if (bytes <= limit) {
+      overSince.remove(scope);
+    } else {
+      overSince.putIfAbsent(scope, now);
+    }
+    return true;
+  }
+
+  // 范围暂停后仍持续超过限额shedDelay：需要断开连接，计时从断开后重新开始，给写缓冲回落留出时间
+  private boolean shedDue(Object scope, long now) {
+    Long since = overSince.get(scope);
+    if (since == null || now - since < shedDelayNanos) {
+      return false;
+    }
+    overSince.put(scope, now);
+    return true;
+  }
+
+  // 按缓冲从多到少断开公网连接，直到断开的部分不少于超出量，返回断开的字节数
+  private long shed(List<StreamUsage> streams, long excess, String reason) {
+    streams.sort((a, b) -> Long.compare(b.bytes, a.bytes));
+    long shed = 0;
+    for (StreamUsage stream : streams) {
+      if (shed >= excess || stream.bytes <= 0) {
+        break;
+      }
+      shed(stream.proxy, stream.streamId, stream.channel, reason);
+      shed += stream.bytes;
+    }
+    return shed;
+  }
+
+  private static long resumeLevel(long limit) {
+    return limit - limit / 4;
+  }
+
+  // 与上一轮比较：新超限的连接发PAUSE事件，已不在超限范围内（或已关闭）的连接发RESUME事件
+  private void applyPause(Set<Channel> wanted) {
+    for (Channel ch : wanted) {
+      if (!paused.contains(ch) && ch.isActive()) {
+        ch.pipeline().fireUserEventTriggered(Pressure.PAUSE);
+      }
+    }
+    for (Channel ch : paused) {
+      if (!wanted.contains(ch) && ch.isActive()) {
+        ch.pipeline().fireUserEventTriggered(Pressure.RESUME);
+      }
+    }
+    wanted.removeIf(ch -> !ch.isActive());
+    paused = wanted;
+  }
+
+  // 一个客户端会话的缓冲量（含隧道连接和重放缓冲）
+  private static final class ClientUsage {
+    private final ClientSession session;
+    private final List<ProxyUsage> proxies = new ArrayList<>();
+    private long bytes;
+    private long tunnelBytes;
+    private long replayBytes;
+
+    private ClientUsage(ClientSession session) {
+      this.session = session;
+    }
+
+    private void pauseStreams(Set<Channel> wanted) {
+      proxies.forEach(proxy -> proxy.pauseStreams(wanted));
+    }
+
+    private List<StreamUsage> streams() {
+      List<StreamUsage> streams = new ArrayList<>();
+      proxies.forEach(proxy -> streams.addAll(proxy.streams()));
+      return streams;
+    }
+  }
+
+  // 一个代理的缓冲量（其公网连接合计）
+  private static final class ProxyUsage {
+    private final Proxy proxy;
+    private long bytes;
+
+    private ProxyUsage(Proxy proxy) {
+      this.proxy = proxy;
+    }
+
+    private void pauseStreams(Set<Channel> wanted) {
+      wanted.addAll(proxy.getStreamChannels().values());
+    }
+
+    // 需要断开连接时才逐个列出公网连接及其缓冲量
+    private List<StreamUsage> streams() {
+      List<StreamUsage> streams = new ArrayList<>(proxy.getStreamChannels().size());
+      proxy.getStreamChannels().forEach((streamId, ch) -> streams.add(new StreamUsage(proxy, streamId, ch, pendingBytes(ch))));
+      return streams;
+    }
+  }
+
+  private static final class StreamUsage {
+    private final Proxy proxy;
+    private final int streamId;
+    private final Channel channel;
+    private final long bytes;
+
+    private StreamUsage(Proxy proxy, int streamId, Channel channel, long bytes) {
+      this.proxy = proxy;
+      this.streamId = streamId;
+      this.channel = channel;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -1,27 +1,55 @@
 package com.frp.server.manager;
 
+import com.frp.common.metrics.ProxyMetrics;
+import com.frp.common.protocol.CompressionType;
+import com.frp.common.util.Constants;
+import com.frp.common.util.TokenBucket;
+import com.frp.server.handler.UdpProxyHandler;
 import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
 import lombok.Data;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 // 代理实体：存储单个单例的配置喝运行
 @Data
 public class Proxy {
   private String proxyId; // 代理ID（唯一）
-  private String proxyType; // 代理类型，如tcp
+  private int handle; // 服务端分配的代理句柄（客户端会话内唯一），流相关帧用它代替proxyId
+  private String proxyType; // 代理类型：tcp/udp/http
   private String localIp; // 内网服务IP，由客户端上报
   private int localPort; // 内网服务端口，客户端上报
-  private int remotePort; // 公网暴露端口，服务端监听
-  private Channel clientChannel; //客户端控制连接Channel
-  private Channel remoteServerChannel; // 公网监听Channel
+  private int remotePort; // 公网暴露端口，服务端监听（http代理为共用的vhost端口）
+  private List<String> customDomains; // http代理：路由的域名
+  private List<String> locations; // http代理：路由的路径前缀
+  private String runId; // 客户端运行ID
+  private int flushBytes; // 写合并阈值（字节），由客户端配置，0为默认值
+  private int flushDelayMicros; // 写合并最长滞留时间（微秒），0为默认值
+  private long bandwidthLimit; // 代理自身的限速（字节/秒），0表示不单独限速
+  private long bandwidthBurst; // 限速突发量（字节），0为1秒的量
+  private WriteBufferWaterMark writeBufferWaterMark; // 公网连接写缓冲水位线，由客户端配置，未配置为默认值
+  // 转发时扣减的令牌桶：代理自身的桶（上级为客户端/全局桶），不单独限速时为客户端或全局桶，都未配置时为null
+  private TokenBucket bandwidth;
+  private CompressionType compression = CompressionType.NONE; // 注册时协商的DATA帧压缩算法
+  private volatile Channel clientChannel; //客户端控制连接Channel，会话恢复后换为新的控制连接
+  private Channel remoteServerChannel; // 公网监听Channel（udp代理为公网UDP端口）
+  private UdpProxyHandler udpHandler; // udp代理的会话表，客户端回传的数据按流ID经它发往公网地址
   private ProxyStatus status;
-  private final AtomicLong lastActiveTime = new AtomicLong(System.currentTimeMillis()); //最后活动时间
+  private ProxyMetrics metrics; // 流量指标，预占成功时创建，代理移除时注销
+  // 流ID -> 公网用户连接Channel，同一代理可同时承载多个公网连接
+  private final Map<Integer, Channel> streamChannels = new ConcurrentHashMap<>();
 
   public Proxy(){
     this.status = ProxyStatus.INIT;
   }
-  public void updateLastActiveTime() {
-    lastActiveTime.set(System.currentTimeMillis());
+
+  public boolean isUdp() {
+    return Constants.PROXY_TYPE_UDP.equals(proxyType);
+  }
+
+  public boolean isHttp() {
+    return Constants.PROXY_TYPE_HTTP.equals(proxyType);
   }
 }
@@ -1,22 +1,38 @@
 package com.frp.server.manager;
 
+import com.frp.common.codec.DatagramBatch;
+import com.frp.common.metrics.MetricsRegistry;
+import com.frp.common.protocol.CompressionType;
 import com.frp.common.protocol.RegisterRequest;
+import com.frp.common.protocol.RegisterResponse;
+import com.frp.common.transport.EventLoopResources;
+import com.frp.common.transport.SocketOptions;
+import com.frp.common.util.Constants;
+import com.frp.common.util.FlowControl;
+import com.frp.common.util.ReplayBuffer;
+import com.frp.common.util.TokenBucket;
+import com.frp.server.config.ServerConfig;
 import com.frp.server.handler.RemoteProxyHandler;
+import com.frp.server.handler.UdpProxyHandler;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
-import io.netty.handler.stream.ChunkedNioFile;
 import lombok.extern.slf4j.Slf4j;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * 代理管理器：核心组件，负责创建/销毁代理、维护端口映射、启动公网监听
@@ -31,118 +47,670 @@ public class ProxyManager {
   // 代理ID -> 代理对象（线程安全）
   private final Map<String, Proxy> proxyMap = new ConcurrentHashMap<>();
 
+  // 客户端运行ID -> 会话，条带连接据此并入会话
+  private final Map<String, ClientSession> sessionsByRunId = new ConcurrentHashMap<>();
+
   // 公网端口 -> 代理ID(确保端口不重复，线程安全)
   private final Map<Integer, String> portToProxyMap = new ConcurrentHashMap<>();
-  // 公网端口监听的EventLoopgroup
-  private final EventLoopGroup bossGroup = new NioEventLoopGroup(); //acceptor线程组
-  private final EventLoopGroup workerGroup = new NioEventLoopGroup(); //IO处理线程组
+  // 公网端口 -> 已移除代理尚未关闭完成的监听（端口映射已释放），同一端口再次注册时等其关闭后再绑定
+  private final Map<Integer, ChannelFuture> closingPorts = new ConcurrentHashMap<>();
+  // 流ID生成器：全局递增，保证同一客户端控制连接上的流ID不重复
+  private final AtomicInteger streamIdGenerator = new AtomicInteger();
+  // 公网端口监听使用服务端共享的线程组（由FrpServer创建和关闭）
+  private EventLoopResources resources;
+  private SocketOptions socketOptions = new SocketOptions(); // 公网监听及公网连接的socket参数
+  private MetricsRegistry metrics = new MetricsRegistry("frps"); // 服务端指标注册表
+  // http代理的路由表：所有http代理共用vhost端口，按Host和路径前缀路由
+  private final VhostRouter vhostRouter = new VhostRouter();
+  private volatile int vhostHttpPort; // vhost端口，0表示未开启（不接受http代理）
+  private volatile int udpMaxSessions; // 每个udp代理的会话数上限，0表示不限制
+  // 限速：全局令牌桶（未配置时为null），每个客户端、每个代理的限速配置（0表示不限速）
+  private TokenBucket globalBandwidth;
+  private long clientBandwidthLimit;
+  private long clientBandwidthBurst;
+  private long proxyBandwidthLimit;
+  private long proxyBandwidthBurst;
+  // 会话恢复：控制连接断开后会话的保留时长（秒，0表示不保留），每个客户端重放缓冲的上限（字节）
+  private int sessionResumeTimeout;
+  private int replayBufferSize;
 
   //私有构造确保单例
   private ProxyManager() {}
 
   /**
-   * 创建代理：校验参与 -> 启动公网端口监听 -> 存储代理信息
+   * 服务端启动时调用：注入共享线程组、socket参数和指标注册表
+   */
+  public synchronized void init(EventLoopResources resources, SocketOptions socketOptions, MetricsRegistry metrics) {
+    this.resources = resources;
+    this.socketOptions = socketOptions;
+    this.metrics = metrics;
+  }
+
+  /**
+   * 服务端启动时调用：按配置创建全局令牌桶，记录每个客户端、每个代理的限速
+   */
+  public synchronized void initBandwidth(ServerConfig config) {
+    globalBandwidth = config.getBandwidthLimit() > 0
+        ? new TokenBucket(config.getBandwidthLimit(), config.getBandwidthBurst(), null) : null;
+    if (globalBandwidth != null) {
+      metrics.registerBandwidth(globalBandwidth, null, null);
+    }
+    clientBandwidthLimit = config.getClientBandwidthLimit();
+    clientBandwidthBurst = config.getClientBandwidthBurst();
+    proxyBandwidthLimit = config.getProxyBandwidthLimit();
+    proxyBandwidthBurst = config.getProxyBandwidthBurst();
+  }
+
+  /**
+   * 服务端启动时调用：记录会话保留时长和重放缓冲上限，任一为0时不启用会话恢复
+   */
+  public synchronized void initSessionResume(ServerConfig config) {
+    boolean enabled = config.getSessionResumeTimeout() > 0 && config.getReplayBufferSize() > 0;
+    sessionResumeTimeout = enabled ? config.getSessionResumeTimeout() : 0;
+    replayBufferSize = enabled ? config.getReplayBufferSize() : 0;
+  }
+
+  public boolean isSessionResumeEnabled() {
+    return sessionResumeTimeout > 0;
+  }
+
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * vhost端口绑定成功后调用，此后接受http代理注册
+   */
+  public void setVhostHttpPort(int vhostHttpPort) {
+    this.vhostHttpPort = vhostHttpPort;
+  }
+
+  public void setUdpMaxSessions(int udpMaxSessions) {
+    this.udpMaxSessions = udpMaxSessions;
+  }
+
+  public VhostRouter getVhostRouter() {
+    return vhostRouter;
+  }
+
+  /**
+   * 创建代理：校验参与 -> 预占代理ID和端口 -> 启动公网端口监听
+   * 代理ID和端口通过ConcurrentHashMap.putIfAbsent原子预占，不同客户端的注册互不阻塞
    * @param request 客户端注册请求
    * @param clientChannel 客户端控制连接Channel
    */
+  public String createProxy(RegisterRequest request, Channel clientChannel) {
+    ClientSession session = openSession(clientChannel, request.getRunId());
+    // 1. 校验参数并预占代理ID和端口
+    Proxy proxy = newProxy(request, clientChannel);
+    String error = reserve(session, proxy, true);
+    if (error != null) {
+      return error;
+    }
+    // http代理共用vhost端口，路由已在预占时登记，无需绑定
+    if (proxy.isHttp()) {
+      error = activate(proxy, null);
+      if (error == null) {
+        log.info("代理[{}]创建成功，域名：{}，路径：{}", proxy.getProxyId(), proxy.getCustomDomains(), proxy.getLocations());
+      }
+      return error;
+    }
+    // 2. 启动公网端口监听
+    try {
+      // 绑定公网端口
+      ChannelFuture future = bind(proxy, request).sync();
+      error = activate(proxy, future.channel());
+      if (error != null) {
+        return error;
+      }
+      log.info("代理[{}]创建成功，公网端口：{}，内网服务：{}:{}",
+          proxy.getProxyId(), proxy.getRemotePort(), request.getLocalIp(), request.getLocalPort());
+      return null; //成功，无需携带信息返回
+    } catch (Exception e) {
+      String errorMsg = "代理[" + proxy.getProxyId() + "]创建失败：" + e.getMessage();
+      log.error(errorMsg, e);
+      release(session, proxy, ProxyStatus.ERROR);
+      return errorMsg;
+    }
+  }
+
+  /**
+   * 批量创建代理：逐个校验并预占代理ID和端口，随后并行绑定所有公网端口，
+   * 全部绑定完成后通过callback一次性返回与请求顺序一致的结果（不阻塞调用方的IO线程）
+   * @param requests 客户端批量注册请求中的代理列表
+   * @param clientChannel 客户端控制连接Channel
+   * @param callback 全部结果就绪后调用（可能在accept线程上执行）
+   */
+  public void createProxies(List<RegisterRequest> requests, Channel clientChannel,
+                            Consumer<List<RegisterResponse>> callback) {
+    if (requests.isEmpty()) {
+      callback.accept(Collections.emptyList());
+      return;
+    }
+    ClientSession session = openSession(clientChannel, requests.get(0).getRunId());
+    RegisterResponse[] results = new RegisterResponse[requests.size()];
+    AtomicInteger remaining = new AtomicInteger(requests.size());
+    Runnable completeOne = () -> {
+      if (remaining.decrementAndGet() == 0) {
+        callback.accept(Arrays.asList(results));
+      }
+    };
+    // 先预占全部代理（INIT状态），同一批内的重复ID/端口在此被拦截；预占成功的代理一次登记到会话的句柄表
+    Proxy[] reserved = new Proxy[requests.size()];
+    List<Proxy> batch = new ArrayList<>(requests.size());
+    for (int i = 0; i < requests.size(); i++) {
+      RegisterRequest request = requests.get(i);
+      Proxy proxy = newProxy(request, clientChannel);
+      String reserveError = reserve(session, proxy, false);
+      if (reserveError != null) {
+        results[i] = registerResult(request.getProxyId(), reserveError, null);
+        continue;
+      }
+      reserved[i] = proxy;
+      batch.add(proxy);
+    }
+    session.addProxies(batch);
+    boolean closed = session.isClosed();
+    for (int i = 0; i < requests.size(); i++) {
+      Proxy proxy = reserved[i];
+      if (proxy == null) {
+        completeOne.run();
+        continue;
+      }
+      if (closed) {
+        // 预占期间客户端已断开，会话清理可能已错过这些代理
+        release(session, proxy, ProxyStatus.INACTIVE);
+        results[i] = registerResult(proxy.getProxyId(), "客户端已断开", null);
+        completeOne.run();
+        continue;
+      }
+      if (proxy.isHttp()) {
+        String error = activate(proxy, null);
+        if (error == null) {
+          log.info("代理[{}]创建成功，域名：{}，路径：{}", proxy.getProxyId(), proxy.getCustomDomains(), proxy.getLocations());
+        }
+        results[i] = registerResult(proxy.getProxyId(), error, proxy);
+        completeOne.run();
+        continue;
+      }
+      int index = i;
+      bind(proxy, requests.get(i)).addListener((ChannelFutureListener) f -> {
+        String error;
+        if (f.isSuccess()) {
+          error = activate(proxy, f.channel());
+          if (error == null) {
+            log.info("代理[{}]创建成功，公网端口：{}，内网服务：{}:{}",
+                proxy.getProxyId(), proxy.getRemotePort(), proxy.getLocalIp(), proxy.getLocalPort());
+          }
+        } else {
+          error = "代理[" + proxy.getProxyId() + "]创建失败：" + f.cause().getMessage();
+          log.error(error, f.cause());
+          release(session, proxy, ProxyStatus.ERROR);
+        }
+        results[index] = registerResult(proxy.getProxyId(), error, error == null ? proxy : null);
+        completeOne.run();
+      });
+    }
+  }
+
+  /**
+   * 获取或创建客户端会话（首次注册时创建，挂在控制连接上）
+   */
+  public ClientSession openSession(Channel clientChannel, String runId) {
+    ClientSession existing = ClientSession.of(clientChannel);
+    if (existing != null) {
+      return existing;
+    }
+    ClientSession previous = runId != null ? sessionsByRunId.get(runId) : null;
+    if (previous != null && previous.isSuspended()) {
+      // 客户端没有恢复而是重新注册：放弃保留的会话，释放其代理占用的端口
+      log.info("客户端{}重新注册，放弃保留的会话", runId);
+      discardSession(previous);
+    }
+    TokenBucket bandwidth = clientBandwidthLimit > 0
+        ? new TokenBucket(clientBandwidthLimit, clientBandwidthBurst, globalBandwidth) : null;
+    ClientSession session = ClientSession.getOrCreate(clientChannel, runId, bandwidth, () -> {
+      // 心跳超时：客户端已失联，回收其全部代理（释放公网端口）并断开控制连接；会话恢复后按新连接处理
+      ClientSession timedOut = ClientSession.of(clientChannel);
+      if (timedOut.isSuspended()) {
+        return; // 等待恢复期间由保留期计时负责回收
+      }
+      Channel controlChannel = timedOut.getControlChannel();
+      log.warn("客户端{}心跳超时（{}秒未收到心跳），移除其代理并断开", runId, Constants.HEARTBEAT_TIMEOUT);
+      removeProxiesByClientChannel(controlChannel);
+      controlChannel.close();
+    });
+    if (bandwidth != null && session.getBandwidth() == bandwidth) {
+      metrics.registerBandwidth(bandwidth, runId, null);
+    }
+    if (sessionResumeTimeout > 0 && ReplayBuffer.of(clientChannel) == null) {
+      ReplayBuffer.attach(clientChannel, replayBufferSize);
+    }
+    if (runId != null) {
+      sessionsByRunId.put(runId, session);
+    }
+    return session;
+  }
+
+  /**
+   * 条带连接并入运行ID对应的客户端会话
+   * @return 并入的会话，客户端尚未注册或已断开时返回null
+   */
+  public ClientSession joinStripe(String runId, Channel stripe) {
+    ClientSession session = runId != null ? sessionsByRunId.get(runId) : null;
+    if (session == null || !session.addStripe(stripe)) {
+      return null;
+    }
+    return session;
+  }
+
+  /**
+   * 工作连接并入运行ID对应的客户端会话的连接池
+   * @return 是否并入，客户端尚未在控制连接上注册或会话已回收时返回false
+   */
+  public boolean offerWorkConn(String runId, Channel workConn) {
+    ClientSession session = runId != null ? sessionsByRunId.get(runId) : null;
+    if (session == null || session.isClosed()) {
+      return false;
+    }
+    WorkConnManager.INSTANCE.offer(session, workConn);
+    return true;
+  }
+
+  /**
+   * 控制连接断开时调用：会话可恢复（客户端支持且重放缓冲未溢出）时保留代理和公网连接，
+   * 暂停读取分配在该连接上的公网连接，保留期内未恢复再回收
+   * @return 会话已保留；返回false时调用方按原方式移除代理
+   */
+  public boolean suspendSession(Channel clientChannel) {
+    ClientSession session = ClientSession.of(clientChannel);
+    ReplayBuffer buffer = ReplayBuffer.of(clientChannel);
+    if (sessionResumeTimeout <= 0 || session == null || buffer == null || !buffer.isResumable()
+        || session.getControlChannel() != clientChannel || !session.suspend()) {
+      return false;
+    }
+    buffer.suspend();
+    forEachStreamOfTunnel(session, clientChannel, stream -> FlowControl.setTunnelCongested(stream, true));
+    clientChannel.eventLoop().schedule(() -> expireSession(session, clientChannel),
+        sessionResumeTimeout, TimeUnit.SECONDS);
+    log.info("客户端{}控制连接断开，保留会话{}秒等待恢复", session.getRunId(), sessionResumeTimeout);
+    return true;
+  }
+
+  // 保留期满：会话仍挂在断开的连接上（未恢复）则回收
+  private void expireSession(ClientSession session, Channel clientChannel) {
+    if (session.isSuspended() && session.getControlChannel() == clientChannel) {
+      log.warn("客户端{}未在{}秒内恢复会话，移除其代理", session.getRunId(), sessionResumeTimeout);
+      discardSession(session);
+    }
+  }
+
+  // 放弃保留的会话：回收代理、重放缓冲和空闲工作连接（客户端重新注册时会重新建立）
+  private void discardSession(ClientSession session) {
+    removeProxiesByClientChannel(session.getControlChannel());
+  }
+
+  /**
+   * 新连接申请恢复运行ID对应的会话
+   * @return 等待恢复的会话，不存在、已过期或正由其他连接恢复时返回null
+   */
+  public ClientSession claimSuspended(String runId) {
+    ClientSession session = runId != null ? sessionsByRunId.get(runId) : null;
+    return session != null && session.claimResume() ? session : null;
+  }
 
-  public synchronized String createProxy(RegisterRequest request, Channel clientChannel) {
-    String proxyId = request.getProxyId();
-    int remotePort = request.getRemotePort();
-    if(proxyMap.containsKey(proxyId)){
+  /**
+   * 恢复无法完成（新连接迁移失败或重放缓冲不完整）：缓冲仍完整时允许再次申请，否则回收会话
+   */
+  public void abandonResume(ClientSession session, boolean recoverable) {
+    session.releaseResume();
+    if (!recoverable && session.isSuspended()) {
+      discardSession(session);
+    }
+  }
+
+  /**
+   * 会话换绑到新的控制连接，重放对端缺少的流帧，恢复读取公网连接
+   * 在会话的EventLoop上调用，新连接已迁移到该EventLoop，调用方已确认重放缓冲可以恢复并写出了恢复响应
+   * @param peerReceived 客户端已收到的流帧数
+   */
+  public void resumeSession(ClientSession session, Channel newChannel, long peerReceived) {
+    Channel oldChannel = session.getControlChannel();
+    session.resume(newChannel);
+    for (Proxy proxy : session.getProxies().values()) {
+      proxy.setClientChannel(newChannel);
+    }
+    ReplayBuffer.of(oldChannel).resume(newChannel, peerReceived);
+    boolean congested = !newChannel.isWritable();
+    forEachStreamOfTunnel(session, oldChannel, stream -> {
+      ClientSession.moveTunnel(stream, newChannel);
+      FlowControl.setTunnelCongested(stream, congested);
+    });
+    metrics.getSessionResumes().increment();
+    log.info("客户端{}已在新连接上恢复会话", session.getRunId());
+  }
+
+  /**
+   * 条带连接断开：移出会话，关闭分配在该连接上的公网连接（它们的帧无法再传输）
+   */
+  public void leaveStripe(ClientSession session, Channel stripe) {
+    session.removeStripe(stripe);
+    forEachStreamOfTunnel(session, stripe, Channel::close);
+  }
+
+  // 校验参数并原子预占代理ID和端口，返回错误信息，成功返回null
+  // addToSession为false时由调用方（批量注册）随后统一登记到会话并检查会话是否已关闭
+  private String reserve(ClientSession session, Proxy proxy, boolean addToSession) {
+    String proxyId = proxy.getProxyId();
+    int remotePort = proxy.getRemotePort();
+    if(proxyId == null || proxyId.isEmpty()){
+      return "代理ID不能为空";
+    }
+    if (proxy.isHttp()) {
+      if (vhostHttpPort <= 0) {
+        return "服务端未开启HTTP虚拟主机端口，不支持http代理";
+      }
+      proxy.setRemotePort(vhostHttpPort);
+    } else if (!Constants.PROXY_TYPE_TCP.equals(proxy.getProxyType()) && !proxy.isUdp()) {
+      return "不支持的代理类型：" + proxy.getProxyType();
+    } else if(remotePort < 1 || remotePort > 65535){
+      return "无效的公网端口：" + remotePort;
+    }
+    if(proxyMap.putIfAbsent(proxyId, proxy) != null){
       return "代理ID已存在" + proxyId;
     }
-    if(portToProxyMap.containsKey(remotePort)){
+    if (proxy.isHttp()) {
+      // http代理不占用端口，改为登记域名路由
+      String routeError = vhostRouter.add(proxy);
+      if (routeError != null) {
+        removeIfSame(proxyMap, proxyId, proxy);
+        return routeError;
+      }
+    } else if(portToProxyMap.putIfAbsent(remotePort, proxyId) != null){
+      removeIfSame(proxyMap, proxyId, proxy);
       return "公网端口已被占用：" + remotePort;
     }
-    if(remotePort < 1 || remotePort > 65535){
-      return "无效的公网端口：" + remotePort;
+    proxy.setMetrics(metrics.register(proxy.getRunId(), proxyId));
+    applyBandwidth(session, proxy);
+    if (!addToSession) {
+      return null;
+    }
+    session.addProxy(proxy);
+    if (session.isClosed()) {
+      // 预占期间客户端已断开，会话清理可能已错过该代理
+      release(session, proxy, ProxyStatus.INACTIVE);
+      return "客户端已断开";
+    }
+    return null;
+  }
+
+  // 代理的限速：客户端申请的与服务端上限取较小值；不单独限速时直接扣减客户端/全局桶
+  private void applyBandwidth(ClientSession session, Proxy proxy) {
+    TokenBucket parent = session.getBandwidth() != null ? session.getBandwidth() : globalBandwidth;
+    long limit = proxy.getBandwidthLimit();
+    if (proxyBandwidthLimit > 0 && (limit <= 0 || limit > proxyBandwidthLimit)) {
+      limit = proxyBandwidthLimit;
+    }
+    proxy.setBandwidthLimit(Math.max(limit, 0));
+    if (limit <= 0) {
+      proxy.setBandwidth(parent);
+      return;
+    }
+    long burst = proxy.getBandwidthBurst() > 0 ? proxy.getBandwidthBurst() : proxyBandwidthBurst;
+    TokenBucket bandwidth = new TokenBucket(limit, burst, parent);
+    proxy.setBandwidth(bandwidth);
+    metrics.registerBandwidth(bandwidth, proxy.getRunId(), proxy.getProxyId());
+  }
+
+  // 绑定成功后激活代理；若绑定期间代理已被移除则关闭刚绑定的端口（http代理没有自己的监听，serverChannel为null）
+  private String activate(Proxy proxy, Channel serverChannel) {
+    synchronized (proxy) {
+      if (proxy.getStatus() == ProxyStatus.INIT) {
+        proxy.setRemoteServerChannel(serverChannel);
+        proxy.setStatus(ProxyStatus.ACTIVE);
+        return null;
+      }
+    }
+    if (serverChannel != null) {
+      serverChannel.close();
+    }
+    return "代理[" + proxy.getProxyId() + "]已移除";
+  }
+
+  // 释放代理占用的ID、端口和会话登记（按引用判断，避免误删同名的新代理）
+  private void release(ClientSession session, Proxy proxy, ProxyStatus status) {
+    synchronized (proxy) {
+      proxy.setStatus(status);
     }
-    // 2. 创建代理对象
+    if (removeIfSame(proxyMap, proxy.getProxyId(), proxy)) {
+      if (proxy.isHttp()) {
+        vhostRouter.remove(proxy);
+      } else {
+        portToProxyMap.remove(proxy.getRemotePort(), proxy.getProxyId());
+      }
+      metrics.remove(proxy.getMetrics());
+      if (proxy.getBandwidthLimit() > 0) {
+        metrics.removeBandwidth(proxy.getBandwidth());
+      }
+    }
+    if (session != null) {
+      session.removeProxy(proxy);
+    }
+  }
+
+  // Proxy为@Data，equals按字段比较，这里按引用原子删除
+  private static <K> boolean removeIfSame(Map<K, Proxy> map, K key, Proxy proxy) {
+    boolean[] removed = new boolean[1];
+    map.computeIfPresent(key, (k, v) -> {
+      if (v == proxy) {
+        removed[0] = true;
+        return null;
+      }
+      return v;
+    });
+    return removed[0];
+  }
+
+  private static Proxy newProxy(RegisterRequest request, Channel clientChannel) {
     Proxy proxy = new Proxy();
-    proxy.setProxyId(proxyId);
-    proxy.setProxyType(request.getProxyType());
+    proxy.setProxyId(request.getProxyId());
+    // 未携带类型的旧客户端按tcp处理
+    String proxyType = request.getProxyType();
+    proxy.setProxyType(proxyType == null || proxyType.isEmpty() ? Constants.PROXY_TYPE_TCP : proxyType.toLowerCase());
     proxy.setLocalIp(request.getLocalIp());
     proxy.setLocalPort(request.getLocalPort());
-    proxy.setRemotePort(remotePort);
+    proxy.setRemotePort(request.getRemotePort());
+    proxy.setCustomDomains(request.getCustomDomains());
+    proxy.setLocations(request.getLocations());
+    proxy.setRunId(request.getRunId());
+    proxy.setFlushBytes(request.getFlushBytes());
+    proxy.setFlushDelayMicros(request.getFlushDelayMicros());
+    proxy.setBandwidthLimit(request.getBandwidthLimit());
+    proxy.setBandwidthBurst(request.getBandwidthBurst());
+    proxy.setWriteBufferWaterMark(waterMark(request));
+    // 服务端支持全部压缩算法，按客户端的期望启用
+    proxy.setCompression(request.getCompression() != null ? request.getCompression() : CompressionType.NONE);
     proxy.setClientChannel(clientChannel);
+    return proxy;
+  }
 
-    // 3. 启动公网端口监听
-    try {
-      ServerBootstrap bootstrap = new ServerBootstrap();
-      bootstrap.group(bossGroup, workerGroup)
-          .channel(NioServerSocketChannel.class)
-          .option(io.netty.channel.ChannelOption.SO_BACKLOG, 128)
-          .childOption(io.netty.channel.ChannelOption.SO_KEEPALIVE, true)
-          .handler(new LoggingHandler(LogLevel.INFO)) // 服务端日志（可选）
-          .childHandler(new ChannelInitializer<SocketChannel>() {
-            @Override
-            protected void initChannel(SocketChannel ch) {
-              ch.pipeline().addLast(new RemoteProxyHandler(proxy)); // 绑定当前代理
-            }
-          });
-      // 绑定公网端口
-      ChannelFuture future = bootstrap.bind(remotePort).sync();
-      proxy.setRemoteServerChannel(future.channel());
-      proxy.setStatus(ProxyStatus.ACTIVE);
+  // 绑定公网端口：tcp代理监听TCP端口，udp代理绑定UDP端口
+  private ChannelFuture bind(Proxy proxy, RegisterRequest request) {
+    ChannelFuture closing = closingPorts.get(proxy.getRemotePort());
+    boolean closed = closing == null || closing.isDone();
+    if (!proxy.isUdp() && closed) {
+      return newBootstrap(proxy, request).bind(proxy.getRemotePort());
+    }
+    // 先注册再绑定：在控制连接的EventLoop上调用时两步都同步完成，单个注册请求的sync()不会等待自己所在的线程
+    // 同一端口上刚移除的代理（如客户端热更新配置时先注销再注册）监听尚未关闭完成时，关闭后再绑定
+    ChannelFuture registered = proxy.isUdp() ? newDatagramBootstrap(proxy).register() : newBootstrap(proxy, request).register();
+    ChannelPromise bound = registered.channel().newPromise();
+    bound.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    ChannelFutureListener doBind = f -> {
+      if (f.isSuccess()) {
+        f.channel().bind(new InetSocketAddress(proxy.getRemotePort()), bound);
+      } else {
+        bound.setFailure(f.cause());
+      }
+    };
+    if (closed) {
+      registered.addListener(doBind);
+    } else {
+      closing.addListener(c -> registered.addListener(doBind));
+    }
+    return bound;
+  }
 
-      // 存储代理映射
-      portToProxyMap.put(remotePort, proxyId);
+  private ServerBootstrap newBootstrap(Proxy proxy, RegisterRequest request) {
+    ServerBootstrap bootstrap = new ServerBootstrap();
+    socketOptions.applyTo(bootstrap, resources.getTransport());
+    bootstrap.group(resources.getBossGroup(), resources.getWorkerGroup())
+        .channel(resources.getTransport().serverChannelClass())
+        // 公网连接写缓冲水位线：超过高水位即通知客户端暂停该流，由客户端配置，未配置用默认值
+        .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, proxy.getWriteBufferWaterMark())
+        .handler(new LoggingHandler(LogLevel.INFO)) // 服务端日志（可选）
+        .childHandler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel ch) {
+            ch.pipeline().addLast(new RemoteProxyHandler(proxy)); // 绑定当前代理
+          }
+        });
+    return bootstrap;
+  }
 
-      log.info("代理[{}]创建成功，公网端口：{}，内网服务：{}:{}",
-          proxyId, remotePort, request.getLocalIp(), request.getLocalPort());
-      return null; //成功，无需携带信息返回
-    } catch (Exception e) {
-      String errorMsg = "代理[" + proxyId + "]创建失败：" + e.getMessage();
-      log.error(errorMsg, e);
-      proxy.setStatus(ProxyStatus.ERROR);
-      return errorMsg;
+  // UDP端口绑定在客户端控制连接的EventLoop上：会话表、控制帧收发都在同一线程，无需加锁
+  private Bootstrap newDatagramBootstrap(Proxy proxy) {
+    UdpProxyHandler handler = new UdpProxyHandler(proxy, udpMaxSessions);
+    proxy.setUdpHandler(handler);
+    Bootstrap bootstrap = new Bootstrap();
+    socketOptions.applyToDatagram(bootstrap);
+    return bootstrap.group(proxy.getClientChannel().eventLoop())
+        .channel(resources.getTransport().datagramChannelClass())
+        // 默认每次只读2048字节，较大的数据报会被截断
+        .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(DatagramBatch.MAX_DATAGRAM_LENGTH))
+        .handler(handler);
+  }
+
+  // 注册结果：成功时带上协商的压缩算法和分配的句柄
+  private static RegisterResponse registerResult(String proxyId, String error, Proxy proxy) {
+    RegisterResponse result = new RegisterResponse();
+    result.setProxyId(proxyId);
+    result.setSuccess(error == null);
+    result.setMessage(error == null ? "注册成功" : error);
+    if (proxy != null) {
+      result.setCompression(proxy.getCompression());
+      result.setHandle(proxy.getHandle());
     }
+    return result;
   }
 
   /**
    * 移除代理：关闭公网端口监听 -> 清理映射关系
    * @param proxyId 代理ID
    */
-  public synchronized void removeProxy(String proxyId) {
+  public void removeProxy(String proxyId) {
     Proxy proxy = proxyMap.get(proxyId);
-    if(proxy != null) {
-      return;
+    if (proxy != null) {
+      closeProxy(proxy);
     }
+  }
 
-    // 1.关闭公网端口监听
-    if(proxy.getRemoteServerChannel() != null) {
-      proxy.getClientChannel().close();
-      log.info("代理[{}]公网端口{}监听已关闭", proxyId, proxy.getRemotePort());
+  /**
+   * 客户端注销自己的代理（只能注销本会话注册的代理）
+   */
+  public void removeProxy(ClientSession session, String proxyId) {
+    Proxy proxy = session.getProxy(proxyId);
+    if (proxy != null) {
+      closeProxy(proxy);
     }
+  }
 
-    //2.清理端口映射
-    portToProxyMap.remove(proxyId);
+  private void closeProxy(Proxy proxy) {
+    String proxyId = proxy.getProxyId();
+    Channel serverChannel;
+    synchronized (proxy) {
+      if (proxy.getStatus() == ProxyStatus.INACTIVE) {
+        return;
+      }
+      proxy.setStatus(ProxyStatus.INACTIVE);
+      serverChannel = proxy.getRemoteServerChannel();
+    }
+    if (serverChannel != null) {
+      // 端口映射释放后、监听关闭完成前，同一端口的新注册等待关闭完成再绑定
+      int port = proxy.getRemotePort();
+      ChannelFuture closeFuture = serverChannel.closeFuture();
+      closingPorts.put(port, closeFuture);
+      closeFuture.addListener(f -> closingPorts.remove(port, closeFuture));
+    }
+    // 1.清理代理ID、端口映射和会话登记
+    release(ClientSession.of(proxy.getClientChannel()), proxy, ProxyStatus.INACTIVE);
 
-    // 3. 更新状态
-    proxy.setStatus(ProxyStatus.INACTIVE);
+    // 2.关闭公网端口监听
+    if(serverChannel != null) {
+      serverChannel.close();
+      log.info("代理[{}]公网端口{}监听已关闭", proxyId, proxy.getRemotePort());
+    }
+
+    //3.关闭该代理下所有公网连接（流），各连接关闭时自行移出流表并通知客户端关闭内网连接
+    proxy.getStreamChannels().values().forEach(Channel::close);
     log.info("代理[{}]已移除", proxyId);
   }
+
   /**
-   * 根据客户端Channel移除所有关联代理，在客户端断开时调用
+   * 移除客户端会话下的所有代理并关闭其空闲工作连接，在客户端断开时调用，只遍历该客户端自己的代理
    * @param clientChannel 客户端控制连接Channel
    */
   public void removeProxiesByClientChannel(Channel clientChannel) {
-    Set<String> proxyIds = proxyMap.values().stream()
-        .filter(p -> Objects.equals(p.getClientChannel(), clientChannel))
-        .map(Proxy::getProxyId)
-        .collect(Collectors.toSet());
-    proxyIds.forEach(this::removeProxy);
-    log.info("客户端连接断开，已移除{}个关联代理", proxyIds.size());
+    ClientSession session = ClientSession.of(clientChannel);
+    if (session == null) {
+      return;
+    }
+    session.close();
+    ReplayBuffer buffer = ReplayBuffer.of(session.getControlChannel());
+    if (buffer != null) {
+      buffer.discard();
+    }
+    if (session.getRunId() != null) {
+      sessionsByRunId.remove(session.getRunId(), session);
+    }
+    if (session.getBandwidth() != null) {
+      metrics.removeBandwidth(session.getBandwidth());
+    }
+    WorkConnManager.INSTANCE.closeAll(session);
+    int count = session.getProxies().size();
+    session.getProxies().values().forEach(this::closeProxy);
+    log.info("客户端连接断开，已移除{}个关联代理", count);
+  }
+
+
+  private static WriteBufferWaterMark waterMark(RegisterRequest request) {
+    WriteBufferWaterMark waterMark = FlowControl.waterMark(
+        request.getWriteBufferLowWaterMark(), request.getWriteBufferHighWaterMark());
+    return waterMark != null ? waterMark : WriteBufferWaterMark.DEFAULT;
   }
 
   /**
-   * 更新代理最后活动时间（收到心跳时调用）
+   * 遍历客户端会话中分配在某个隧道连接（主控制连接或条带连接）上的公网连接（隧道可写性变化、条带断开时调用）
    */
-  public void updateProxyLastActiveTimeByClientChannel(String clientId) {
-    proxyMap.values().stream()
-        .filter(p -> p.getClientChannel().id().asShortText().equals(clientId))
-        .forEach(Proxy::updateLastActiveTime);
+  public void forEachStreamOfTunnel(ClientSession session, Channel tunnel, Consumer<Channel> action) {
+    for (Proxy proxy : session.getProxies().values()) {
+      for (Channel stream : proxy.getStreamChannels().values()) {
+        if (ClientSession.tunnelOf(stream) == tunnel) {
+          action.accept(stream);
+        }
+      }
+    }
+  }
+
+  /**
+   * 为新的公网连接分配流ID（跳过0，0保留给控制帧）
+   */
+  public int nextStreamId() {
+    int streamId;
+    do {
+      streamId = streamIdGenerator.incrementAndGet();
+    } while (streamId == 0);
+    return streamId;
   }
 
   /**
@@ -152,15 +720,19 @@ public class ProxyManager {
     return proxyMap.get(proxyId);
   }
 
+  /**
+   * 全部代理（内存预算汇总缓冲量时遍历）
+   */
+  public Collection<Proxy> getProxies() {
+    return proxyMap.values();
+  }
+
   /**
    * 服务端关闭时清理所有资源
    */
   public void shutdown() {
-    // 移除所有代理
-    proxyMap.keySet().forEach(this::removeProxy);
-    // 关闭EventLoopGroup
-    bossGroup.shutdownGracefully();
-    workerGroup.shutdownGracefully();
-    log.info("ProxyManager已关闭所有资源");
+    // 移除所有代理（线程组由FrpServer统一关闭）
+    proxyMap.values().forEach(this::closeProxy);
+    log.info("ProxyManager已关闭所有代理");
   }
 }
@@ -0,0 +1,182 @@
+package com.frp.server.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HTTP虚拟主机路由表：域名 -> 按路径前缀长度降序排好的路由数组
+ * 查找只做一次无锁的哈希查找和一次短数组扫描（同一域名下的路径前缀通常只有几个）；
+ * 注册/注销（低频）时只替换涉及的域名对应的数组（写时复制），与路由总数无关
+ * 域名以"*."开头时匹配其所有子域名，精确域名优先
+ */
+public class VhostRouter {
+  private static final String DEFAULT_LOCATION = "/";
+  // 路径前缀长的优先匹配
+  private static final Comparator<Route> LONGEST_FIRST =
+      Comparator.comparingInt((Route route) -> route.location.length()).reversed();
+
+  // 域名（小写，不含端口） -> 路由数组
+  private final Map<String, Route[]> routes = new ConcurrentHashMap<>();
+
+  /**
+   * 登记代理的全部域名×路径前缀；任一组合已被其他代理占用时不登记任何路由
+   * @return 错误信息，成功返回null
+   */
+  public synchronized String add(Proxy proxy) {
+    List<String> domains = proxy.getCustomDomains();
+    if (domains == null || domains.isEmpty()) {
+      return "http代理未配置域名";
+    }
+    List<String> locations = locations(proxy);
+    for (String domain : domains) {
+      Route[] existing = routes.get(normalize(domain));
+      if (existing == null) {
+        continue;
+      }
+      for (Route route : existing) {
+        if (locations.contains(route.location)) {
+          return "域名路由已被代理[" + route.proxy.getProxyId() + "]占用：" + domain + route.location;
+        }
+      }
+    }
+    for (String domain : domains) {
+      List<Route> added = new ArrayList<>();
+      for (String location : locations) {
+        added.add(new Route(location, proxy));
+      }
+      added.sort(LONGEST_FIRST);
+      routes.merge(normalize(domain), added.toArray(new Route[0]), (current, more) -> {
+        Route[] merged = Arrays.copyOf(current, current.length + more.length);
+        System.arraycopy(more, 0, merged, current.length, more.length);
+        Arrays.sort(merged, LONGEST_FIRST);
+        return merged;
+      });
+    }
+    return null;
+  }
+
+  /**
+   * 注销代理的全部路由（按引用判断，避免误删同名的新代理）
+   */
+  public synchronized void remove(Proxy proxy) {
+    List<String> domains = proxy.getCustomDomains();
+    if (domains == null) {
+      return;
+    }
+    for (String domain : domains) {
+      routes.computeIfPresent(normalize(domain), (key, current) -> {
+        Route[] remaining = Arrays.stream(current).filter(route -> route.proxy != proxy).toArray(Route[]::new);
+        return remaining.length == 0 ? null : remaining;
+      });
+    }
+  }
+
+  /**
+   * 按Host和请求路径查找代理
+   * @param host 请求头中的Host（可带端口，大小写不敏感）
+   * @param path 请求行中的路径
+   * @return 匹配的代理，没有匹配时返回null
+   */
+  public Proxy route(String host, String path) {
+    String domain = normalize(host);
+    Proxy proxy = match(routes.get(domain), path);
+    if (proxy != null) {
+      return proxy;
+    }
+    // 精确域名未命中时按通配域名查找：a.b.example.com -> *.b.example.com -> *.example.com
+    int dot = domain.indexOf('.');
+    while (dot >= 0 && dot < domain.length() - 1) {
+      proxy = match(routes.get("*" + domain.substring(dot)), path);
+      if (proxy != null) {
+        return proxy;
+      }
+      dot = domain.indexOf('.', dot + 1);
+    }
+    return null;
+  }
+
+  /**
+   * 域名是否按路径前缀分给了不止一个代理（含匹配的通配域名）：这样的域名同一连接上的请求可能属于不同代理
+   * @param host 请求头中的Host（可带端口，大小写不敏感）
+   */
+  public boolean routesByPath(String host) {
+    String domain = normalize(host);
+    Proxy[] first = new Proxy[1];
+    if (mixed(routes.get(domain), first)) {
+      return true;
+    }
+    int dot = domain.indexOf('.');
+    while (dot >= 0 && dot < domain.length() - 1) {
+      if (mixed(routes.get("*" + domain.substring(dot)), first)) {
+        return true;
+      }
+      dot = domain.indexOf('.', dot + 1);
+    }
+    return false;
+  }
+
+  public int size() {
+    return routes.size();
+  }
+
+  private static Proxy match(Route[] candidates, String path) {
+    if (candidates == null) {
+      return null;
+    }
+    for (Route route : candidates) {
+      if (path.startsWith(route.location)) {
+        return route.proxy;
+      }
+    }
+    return null;
+  }
+
+  // 路由数组中是否有与first[0]不同的代理，first[0]为空时记下遇到的第一个代理
+  private static boolean mixed(Route[] candidates, Proxy[] first) {
+    if (candidates == null) {
+      return false;
+    }
+    for (Route route : candidates) {
+      if (first[0] == null) {
+        first[0] = route.proxy;
+      } else if (route.proxy != first[0]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<String> locations(Proxy proxy) {
+    List<String> locations = proxy.getLocations();
+    if (locations == null || locations.isEmpty()) {
+      return List.of(DEFAULT_LOCATION);
+    }
+    return locations;
+  }
+
+  // 域名转小写并去掉端口
+  private static String normalize(String host) {
+    String domain = host.trim().toLowerCase(Locale.ROOT);
+    int colon = domain.lastIndexOf(':');
+    if (colon >= 0 && domain.indexOf(']') < colon) {
+      domain = domain.substring(0, colon);
+    }
+    return domain;
+  }
+
+  // 一条路由：路径前缀 -> 代理
+  private static final class Route {
+    private final String location;
+    private final Proxy proxy;
+
+    private Route(String location, Proxy proxy) {
+      this.location = location;
+      this.proxy = proxy;
+    }
+  }
+}
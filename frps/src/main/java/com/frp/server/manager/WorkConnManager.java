@@ -0,0 +1,74 @@
+package com.frp.server.manager;
+
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 工作连接池：按客户端会话保存客户端预先建立的空闲工作连接
+ * 工作连接只能并入已在认证过的控制连接上注册的会话（见ProxyManager.offerWorkConn），只分配给该会话的代理，随会话回收
+ * 新的公网连接到来时取出一个与之配对，之后该连接成为不分帧的原始字节管道
+ * @author Zhidong Zhang
+ */
+@Slf4j
+public class WorkConnManager {
+
+  // 全局单例
+  public static final WorkConnManager INSTANCE = new WorkConnManager();
+
+  // 客户端会话 -> 空闲工作连接队列（ClientSession按引用比较）
+  private final Map<ClientSession, Queue<Channel>> idleWorkConns = new ConcurrentHashMap<>();
+
+  private WorkConnManager() {}
+
+  /**
+   * 登记一个空闲工作连接，连接关闭时自动从池中移除；会话已回收时直接关闭
+   */
+  void offer(ClientSession session, Channel workConn) {
+    Queue<Channel> queue = idleWorkConns.computeIfAbsent(session, k -> new ConcurrentLinkedQueue<>());
+    queue.offer(workConn);
+    workConn.closeFuture().addListener(f -> queue.remove(workConn));
+    if (session.isClosed()) {
+      // 与closeAll并发：会话已回收，不再保留其工作连接
+      closeAll(session);
+      return;
+    }
+    log.debug("客户端[{}]登记工作连接{}，当前空闲{}个", session.getRunId(), workConn.id().asShortText(), queue.size());
+  }
+
+  /**
+   * 取出会话的一个可用空闲工作连接，没有则返回null（调用方退回到控制连接多路复用）
+   */
+  public Channel poll(ClientSession session) {
+    if (session == null) {
+      return null;
+    }
+    Queue<Channel> queue = idleWorkConns.get(session);
+    if (queue == null) {
+      return null;
+    }
+    Channel workConn;
+    while ((workConn = queue.poll()) != null) {
+      if (workConn.isActive()) {
+        return workConn;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 客户端会话回收时关闭其所有空闲工作连接
+   */
+  void closeAll(ClientSession session) {
+    Queue<Channel> queue = idleWorkConns.remove(session);
+    if (queue != null) {
+      int count = queue.size();
+      queue.forEach(Channel::close);
+      log.info("客户端[{}]的{}个空闲工作连接已关闭", session.getRunId(), count);
+    }
+  }
+}